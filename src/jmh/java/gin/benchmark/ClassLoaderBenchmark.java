@@ -0,0 +1,64 @@
+package gin.benchmark;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import gin.test.CacheClassLoader;
+import gin.test.Compiler;
+import gin.test.SharedClassLoader;
+
+/**
+ * Creating the class loader for a patch of the triangle example, and loading its tests through it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class ClassLoaderBenchmark {
+
+    private static final String CLASS_PATH = "examples/triangle";
+    private static final String CLASS_NAME = "Triangle";
+    private static final String TEST_CLASS_NAME = "TriangleTest";
+
+    private byte[] patchedClass;
+    private SharedClassLoader sharedClassLoader;
+
+    @Setup
+    public void setUp() throws Exception {
+        String source = FileUtils.readFileToString(new File(CLASS_PATH, CLASS_NAME + ".java"), StandardCharsets.UTF_8);
+        patchedClass = Compiler.compileToBytes(CLASS_NAME, source, CLASS_PATH).get(CLASS_NAME);
+        sharedClassLoader = new SharedClassLoader(CLASS_PATH);
+        sharedClassLoader.loadClass(TEST_CLASS_NAME);
+    }
+
+    @Benchmark
+    public Class<?> cacheClassLoader() throws ClassNotFoundException {
+        CacheClassLoader loader = new CacheClassLoader(CLASS_PATH);
+        loader.setCustomCompiledCode(CLASS_NAME, patchedClass);
+        return loader.loadClass(TEST_CLASS_NAME);
+    }
+
+    @Benchmark
+    public Class<?> sharedClassLoader() throws ClassNotFoundException {
+        Map<String, byte[]> classes = Collections.singletonMap(CLASS_NAME, patchedClass);
+        return sharedClassLoader.newPatchLoader(classes).loadClass(TEST_CLASS_NAME);
+    }
+
+}
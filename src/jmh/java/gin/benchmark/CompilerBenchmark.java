@@ -0,0 +1,119 @@
+package gin.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.mdkt.compiler.CompiledCode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import gin.Patch;
+import gin.SourceFileTree;
+import gin.edit.Edit.EditType;
+import gin.test.CompilationService;
+import gin.test.Compiler;
+
+/**
+ * Compiling patched variants of the locoGP sorting examples in memory, as the test runners do:
+ * with the legacy static Compiler.compile, and with a CompilationService, one patch at a time,
+ * incrementally, and as a single batch. Every benchmark compiles the same seeded random patches,
+ * and the times are per patch.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(2)
+public class CompilerBenchmark {
+
+    private static final String LOCOGP_DIR = "examples/locoGP/src/main/java/locogp/";
+    private static final long SEED = 1234;
+    private static final int PATCHES = 10;
+
+    @Param({"SortBubble", "SortHeap", "SortQuick"})
+    public String className;
+
+    private String fullClassName;
+    private String source;
+    private List<String> patchedSources;
+    private CompilationService compilationService;
+
+    @Setup
+    public void setUp() throws IOException {
+
+        String filename = LOCOGP_DIR + className + ".java";
+        fullClassName = "locogp." + className;
+        source = FileUtils.readFileToString(new File(filename), StandardCharsets.UTF_8);
+
+        SourceFileTree sourceFile = new SourceFileTree(filename, Collections.singletonList("sort(Integer[],Integer)"));
+        Random rng = new Random(SEED);
+        patchedSources = new ArrayList<>();
+        for (int i = 0; i < PATCHES; i++) {
+            Patch patch = new Patch(sourceFile);
+            patch.addRandomEdit(rng, EditType.STATEMENT);
+            patchedSources.add(patch.apply());
+        }
+
+        // file manager already set up for the classpath, and the original compiled for incremental compilation,
+        // as they are reused across patches
+        compilationService = new CompilationService("");
+        compilationService.compileIncrementally(fullClassName, source, source);
+
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PATCHES)
+    public List<CompiledCode> compileLegacy() {
+        List<CompiledCode> compiled = new ArrayList<>();
+        for (String patchedSource : patchedSources) {
+            compiled.add(Compiler.compile(fullClassName, patchedSource, ""));
+        }
+        return compiled;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PATCHES)
+    public List<Map<String, byte[]>> compileWithService() {
+        List<Map<String, byte[]>> compiled = new ArrayList<>();
+        for (String patchedSource : patchedSources) {
+            compiled.add(compilationService.compile(fullClassName, patchedSource));
+        }
+        return compiled;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PATCHES)
+    public List<Map<String, byte[]>> compileIncrementally() {
+        List<Map<String, byte[]>> compiled = new ArrayList<>();
+        for (String patchedSource : patchedSources) {
+            compiled.add(compilationService.compileIncrementally(fullClassName, source, patchedSource));
+        }
+        return compiled;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PATCHES)
+    public List<Map<String, byte[]>> compileBatch() {
+        return compilationService.compileBatch(fullClassName, patchedSources);
+    }
+
+}
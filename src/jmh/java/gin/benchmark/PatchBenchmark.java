@@ -0,0 +1,95 @@
+package gin.benchmark;
+
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import gin.Patch;
+import gin.SourceFile;
+import gin.SourceFileLine;
+import gin.SourceFileTree;
+import gin.edit.Edit.EditType;
+
+/**
+ * Applying patches to, and copying, the source files of the locoGP sorting examples.
+ * The patches are random but seeded, so they are the same from one run to the next.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class PatchBenchmark {
+
+    private static final String LOCOGP_DIR = "examples/locoGP/src/main/java/locogp/";
+    private static final long SEED = 1234;
+
+    @Param({"SortBubble", "SortHeap", "SortQuick"})
+    public String className;
+
+    @Param({"1", "5"})
+    public int patchSize;
+
+    private SourceFileLine sourceFileLine;
+    private SourceFileTree sourceFileTree;
+    private Patch linePatch;
+    private Patch statementPatch;
+
+    @Setup
+    public void setUp() {
+
+        String filename = LOCOGP_DIR + className + ".java";
+        String method = "sort(Integer[],Integer)";
+
+        sourceFileLine = new SourceFileLine(filename, Collections.singletonList(method));
+        sourceFileTree = new SourceFileTree(filename, Collections.singletonList(method));
+
+        linePatch = randomPatch(sourceFileLine, EditType.LINE);
+        statementPatch = randomPatch(sourceFileTree, EditType.STATEMENT);
+
+    }
+
+    private Patch randomPatch(SourceFile sourceFile, EditType editType) {
+        Random rng = new Random(SEED);
+        Patch patch = new Patch(sourceFile);
+        for (int i = 0; i < patchSize; i++) {
+            patch.addRandomEdit(rng, editType);
+        }
+        return patch;
+    }
+
+    @Benchmark
+    public String applyLinePatch() {
+        return linePatch.apply();
+    }
+
+    @Benchmark
+    public String applyStatementPatch() {
+        return statementPatch.apply();
+    }
+
+    // copyOf() is where the compilation unit is cloned with its node IDs, once per patch applied
+    @Benchmark
+    public SourceFile copySourceFileTree() {
+        return sourceFileTree.copyOf();
+    }
+
+    @Benchmark
+    public SourceFile copySourceFileLine() {
+        return sourceFileLine.copyOf();
+    }
+
+}
@@ -0,0 +1,57 @@
+package gin.benchmark;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import gin.Patch;
+import gin.SourceFileLine;
+import gin.test.InternalTestRunner;
+import gin.test.UnitTestResultSet;
+
+/**
+ * Evaluating the empty patch of the triangle example with the internal test runner: applying it, compiling it,
+ * loading the classes and running all tests in TriangleTest.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class TestRunnerBenchmark {
+
+    private static final String TRIANGLE_DIR = "examples/triangle";
+
+    @Param({"false", "true"})
+    public boolean sharedClassLoader;
+
+    private InternalTestRunner testRunner;
+    private Patch patch;
+
+    @Setup
+    public void setUp() {
+        SourceFileLine sourceFile = new SourceFileLine(TRIANGLE_DIR + "/Triangle.java",
+                Collections.singletonList("classifyTriangle(int,int,int)"));
+        patch = new Patch(sourceFile);
+        testRunner = new InternalTestRunner("Triangle", TRIANGLE_DIR, "TriangleTest");
+        testRunner.setSharedClassLoader(sharedClassLoader);
+    }
+
+    @Benchmark
+    public UnitTestResultSet runTests() {
+        return testRunner.runTests(patch, 1);
+    }
+
+}
@@ -0,0 +1,50 @@
+package gin.benchmark;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import gin.test.UnitTest;
+import gin.util.Project;
+import gin.util.Trace;
+
+/**
+ * Parsing the hprof output of a profiled test of the gradle-simple example, as the Profiler does for every test.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class TraceBenchmark {
+
+    private static final String PROJECT_DIR = "examples/unittests/gradle/gradle-simple";
+
+    private Project project;
+    private UnitTest test;
+    private File hprofFile;
+
+    @Setup
+    public void setUp() {
+        project = new Project(new File(PROJECT_DIR), "gradle-simple");
+        test = new UnitTest("example.ExampleTest", "profileEnumTest");
+        hprofFile = new File(PROJECT_DIR, "hprof/example.ExampleTest.profileEnumTest_1.hprof");
+    }
+
+    @Benchmark
+    public Trace fromFile() {
+        return Trace.fromFile(project, test, hprofFile);
+    }
+
+}
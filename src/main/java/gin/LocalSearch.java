@@ -1,6 +1,7 @@
 package gin;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.*;
 
 import org.apache.commons.io.FilenameUtils;
@@ -12,7 +13,10 @@ import com.sampullara.cli.Args;
 import com.sampullara.cli.Argument;
 
 import gin.edit.Edit;
+import gin.test.Benchmark;
+import gin.test.FitnessCache;
 import gin.test.InternalTestRunner;
+import gin.test.KillMatrix;
 import gin.test.UnitTestResult;
 import gin.test.UnitTestResultSet;
 
@@ -57,12 +61,63 @@ public class LocalSearch {
     @Argument(alias = "et", description = "Edit Type")
     protected String editType = "LINE";
 
+    @Argument(alias = "fc", description = "Maximum number of entries in the fitness cache, which reuses the first timings of identical patched source; 0, the default, to disable")
+    protected Integer fitnessCacheSize = 0;
+
+    @Argument(alias = "ic", description = "Recompile only the edited methods where possible, rather than the whole class")
+    protected Boolean incrementalCompilation = false;
+
+    @Argument(alias = "sl", description = "Load unchanged classes once and share them between patches; static state is then kept between patches")
+    protected Boolean sharedClassLoader = false;
+
+    @Argument(alias = "pv", description = "Check patched source for mistakes that can't compile, e.g. use of a deleted declaration, and reject it without compiling")
+    protected Boolean patchValidation = false;
+
+    @Argument(alias = "bm", description = "Benchmark mode: time tests with warmup and repetition, and only accept statistically significant improvements")
+    protected Boolean benchmarkMode = false;
+
+    @Argument(alias = "bw", description = "Benchmark mode: warmup rounds of all tests per patch")
+    protected Integer benchmarkWarmupRounds = 5;
+
+    @Argument(alias = "bn", description = "Benchmark mode: minimum measured rounds per patch")
+    protected Integer benchmarkMinRounds = 5;
+
+    @Argument(alias = "bx", description = "Benchmark mode: maximum measured rounds per patch")
+    protected Integer benchmarkMaxRounds = 30;
+
+    @Argument(alias = "bp", description = "Benchmark mode: target half-width of the 95% confidence interval, relative to the mean")
+    protected Double benchmarkPrecision = 0.05;
+
+    @Argument(alias = "bs", description = "Benchmark mode: significance level for accepting an improvement")
+    protected Double benchmarkSignificance = 0.05;
+
+    @Argument(alias = "to", description = "Run tests in order of their kill probability per unit time, learnt over the run, so failing patches are rejected sooner")
+    protected Boolean testOrdering = false;
+
+    @Argument(alias = "km", description = "Output CSV file for the kill matrix learnt with -to")
+    protected File killMatrixFile = null;
+
+    @Argument(alias = "rc", description = "Racing: stop testing a neighbour as soon as it is slower than the best so far times the race margin")
+    protected Boolean racing = false;
+
+    @Argument(alias = "rm", description = "Racing: margin over the best time so far after which a neighbour is dominated")
+    protected Double raceMargin = 1.0;
+
     protected SourceFile sourceFile;
     InternalTestRunner testRunner;
     protected Random rng;
 
     InternalTestRunner oracleRunner;
 
+    // Shared by testRunner and oracleRunner, keys include the tests
+    protected FitnessCache fitnessCache;
+
+    // Set in benchmark mode only
+    protected Benchmark benchmark;
+
+    // Shared by testRunner and oracleRunner, set if testOrdering only
+    protected KillMatrix killMatrix;
+
     // Instantiate a class and call search
     public static void main(String[] args) {
         LocalSearch simpleLocalSearch = new LocalSearch(args);
@@ -93,6 +148,15 @@ public class LocalSearch {
         }
         this.testRunner = new InternalTestRunner(className, classPath, testClassName);
         this.oracleRunner = new InternalTestRunner(className, classPath, oracleClassName);
+        setUpFitnessCache();
+        this.testRunner.setIncrementalCompilation(incrementalCompilation);
+        this.oracleRunner.setIncrementalCompilation(incrementalCompilation);
+        this.testRunner.setSharedClassLoader(sharedClassLoader);
+        this.oracleRunner.setSharedClassLoader(sharedClassLoader);
+        this.testRunner.setPatchValidation(patchValidation);
+        this.oracleRunner.setPatchValidation(patchValidation);
+        setUpBenchmark();
+        setUpKillMatrix();
 
     }
 
@@ -137,6 +201,89 @@ public class LocalSearch {
         }
         this.testRunner = new InternalTestRunner(this.className, this.classPath, this.testClassName);
         this.oracleRunner = new InternalTestRunner(this.className, this.classPath, this.oracleClassName);
+        setUpFitnessCache();
+        this.testRunner.setIncrementalCompilation(incrementalCompilation);
+        this.oracleRunner.setIncrementalCompilation(incrementalCompilation);
+        this.testRunner.setSharedClassLoader(sharedClassLoader);
+        this.oracleRunner.setSharedClassLoader(sharedClassLoader);
+        this.testRunner.setPatchValidation(patchValidation);
+        this.oracleRunner.setPatchValidation(patchValidation);
+        setUpBenchmark();
+        setUpKillMatrix();
+    }
+
+    private void setUpFitnessCache() {
+        if (fitnessCacheSize > 0) {
+            this.fitnessCache = new FitnessCache(fitnessCacheSize);
+            this.testRunner.setFitnessCache(fitnessCache);
+            this.oracleRunner.setFitnessCache(fitnessCache);
+        }
+    }
+
+    private void setUpBenchmark() {
+        if (benchmarkMode) {
+            this.benchmark = new Benchmark(benchmarkWarmupRounds, benchmarkMinRounds, benchmarkMaxRounds,
+                    benchmarkPrecision, 0.95, benchmarkSignificance);
+            this.testRunner.setBenchmark(benchmark);
+            Logger.info(benchmark);
+        }
+    }
+
+    private void setUpKillMatrix() {
+        if (testOrdering) {
+            this.killMatrix = new KillMatrix();
+            this.testRunner.setKillMatrix(killMatrix);
+            this.oracleRunner.setKillMatrix(killMatrix);
+        }
+    }
+
+    // Time of a patch: the total over all tests, or the median round time in benchmark mode
+    private long timeOf(UnitTestResultSet resultSet) {
+        if (benchmark != null) {
+            return Benchmark.median(resultSet.getSamples());
+        }
+        return resultSet.totalExecutionTime();
+    }
+
+    // Reason a patch didn't compile, if it was rejected without compiling
+    private static String compileFailure(UnitTestResultSet resultSet) {
+        if (resultSet.getValidationFailure() != null) {
+            return "Failed to compile: " + resultSet.getValidationFailure();
+        }
+        return "Failed to compile";
+    }
+
+    // Is the candidate faster than the best so far? In benchmark mode, significantly so.
+    private boolean isImprovement(UnitTestResultSet candidate, UnitTestResultSet best, long bestTime) {
+        if (benchmark != null) {
+            return benchmark.isFaster(candidate.getSamples(), best.getSamples());
+        }
+        return candidate.totalExecutionTime() < bestTime;
+    }
+
+    // Time after which testing a neighbour stops, against the best time so far; 0 unless racing
+    private long raceLimit(long bestTime) {
+        return racing ? Math.round(bestTime * raceMargin) : 0;
+    }
+
+    private void logFitnessCache() {
+        if (fitnessCache != null) {
+            Logger.info(fitnessCache);
+        }
+    }
+
+    private void writeKillMatrix() {
+        if (killMatrix == null) {
+            return;
+        }
+        Logger.info(killMatrix);
+        if (killMatrixFile != null) {
+            try {
+                killMatrix.writeCSV(killMatrixFile);
+            } catch (IOException e) {
+                Logger.error(e, "Exception writing the kill matrix: " + killMatrixFile.getAbsolutePath());
+            }
+        }
     }
 
     // Apply empty patch and return execution time
@@ -179,32 +326,36 @@ public class LocalSearch {
 
         Patch emptyPatch = new Patch(this.sourceFile);
         UnitTestResultSet origResultSet = testRunner.runTests(emptyPatch, REPS);
-	origTime = origResultSet.totalExecutionTime();
+	origTime = timeOf(origResultSet);
 
         Logger.info("Original execution time: " + origTime + "ns");
 
         // Start with empty patch
         Patch bestPatch = new Patch(this.sourceFile);
         long bestTime = origTime;
+        UnitTestResultSet bestResultSet = origResultSet;
 
         for (int step = 1; step <= numSteps; step++) {
 
             Patch neighbour = neighbour(bestPatch);
-            UnitTestResultSet testResultSet = testRunner.runTests(neighbour, REPS);
+            UnitTestResultSet testResultSet = testRunner.runTests(neighbour, REPS, raceLimit(bestTime));
 
             String msg;
 
             if (!testResultSet.getValidPatch()) {
                 msg = "Patch invalid";
             } else if (!testResultSet.getCleanCompile()) {
-                msg = "Failed to compile";
+                msg = compileFailure(testResultSet);
             } else if (!testResultSet.allTestsSuccessful()) {
                 msg = ("Failed to pass all tests");
-            } else if (testResultSet.totalExecutionTime() >= bestTime) {
-                msg = "Time: " + testResultSet.totalExecutionTime() + "ns";
+            } else if (testResultSet.getDominated()) {
+                msg = "Dominated: slower than " + raceLimit(bestTime) + "ns";
+            } else if (!isImprovement(testResultSet, bestResultSet, bestTime)) {
+                msg = "Time: " + timeOf(testResultSet) + "ns";
             } else {
                 bestPatch = neighbour;
-                bestTime = testResultSet.totalExecutionTime();
+                bestTime = timeOf(testResultSet);
+                bestResultSet = testResultSet;
                 msg = "New best time: " + bestTime + "(ns)";
             }
 
@@ -217,6 +368,9 @@ public class LocalSearch {
                                     100.0f *((origTime - bestTime)/(1.0f * origTime)),
                                     bestPatch));
 
+        logFitnessCache();
+        writeKillMatrix();
+
         //bestPatch.writePatchedSourceToFile(sourceFile.getFilename() + ".optimised");
         //bestPatch.writePatchStringToFile("bestpatch.txt");
 
@@ -231,32 +385,36 @@ public class LocalSearch {
 
         Patch emptyPatch = new Patch(this.sourceFile);
         UnitTestResultSet origResultSet = testRunner.runTests(emptyPatch, REPS);
-	origTime = origResultSet.totalExecutionTime();
+	origTime = timeOf(origResultSet);
 
         Logger.info("Original execution time: " + origTime + "ns");
 
         // Start with empty patch
         Patch bestPatch = new Patch(this.sourceFile);
         long bestTime = origTime;
+        UnitTestResultSet bestResultSet = origResultSet;
 
         for (int step = 1; step <= numSteps; step++) {
 
             Patch neighbour = neighbour(bestPatch);
-            UnitTestResultSet testResultSet = testRunner.runTests(neighbour, 1);
+            UnitTestResultSet testResultSet = testRunner.runTests(neighbour, 1, raceLimit(bestTime));
 
             String msg;
 
             if (!testResultSet.getValidPatch()) {
                 msg = "Patch invalid";
             } else if (!testResultSet.getCleanCompile()) {
-                msg = "Failed to compile";
+                msg = compileFailure(testResultSet);
             } else if (!testResultSet.allTestsSuccessful()) {
                 msg = ("Failed to pass all tests");
-            } else if (testResultSet.totalExecutionTime() >= bestTime) {
-                msg = "Time: " + testResultSet.totalExecutionTime() + "ns";
+            } else if (testResultSet.getDominated()) {
+                msg = "Dominated: slower than " + raceLimit(bestTime) + "ns";
+            } else if (!isImprovement(testResultSet, bestResultSet, bestTime)) {
+                msg = "Time: " + timeOf(testResultSet) + "ns";
             } else {
                 bestPatch = neighbour;
-                bestTime = testResultSet.totalExecutionTime();
+                bestTime = timeOf(testResultSet);
+                bestResultSet = testResultSet;
                 msg = "New best time: " + bestTime + "(ns)";
             }
 
@@ -269,6 +427,9 @@ public class LocalSearch {
                 100.0f *((origTime - bestTime)/(1.0f * origTime)),
                 bestPatch));
 
+        logFitnessCache();
+        writeKillMatrix();
+
         //bestPatch.writePatchedSourceToFile(sourceFile.getFilename() + ".optimised");
         //bestPatch.writePatchStringToFile("bestpatch.txt");
         return bestPatch.toString();
@@ -284,13 +445,14 @@ public class LocalSearch {
 
         Patch emptyPatch = new Patch(this.sourceFile);
         UnitTestResultSet origResultSet = testRunner.runTests(emptyPatch, REPS);
-	origTime = origResultSet.totalExecutionTime();
+	origTime = timeOf(origResultSet);
 
         Logger.info("Original execution time: " + origTime + "ns");
 
         // Start with empty patch
         Patch bestPatch = new Patch(this.sourceFile);
         long bestTime = origTime;
+        UnitTestResultSet bestResultSet = origResultSet;
         ArrayList<HashMap<String,String>> patchResultsList = new ArrayList<>();
         for (int step = 1; step <= numSteps; step++) {
 
@@ -318,11 +480,11 @@ public class LocalSearch {
                 if (!testResultSet.getValidPatch()) {
                     msg = "Patch invalid";
                 } else if (!testResultSet.getCleanCompile()) {
-                    msg = "Failed to compile";
+                    msg = compileFailure(testResultSet);
                 } else if (!testResultSet.allTestsSuccessful()) {
                     msg = ("Failed to pass all tests");
-                } else if (testResultSet.totalExecutionTime() >= bestTime) {
-                    msg = "Time: " + testResultSet.totalExecutionTime() + "ns";
+                } else if (!isImprovement(testResultSet, bestResultSet, bestTime)) {
+                    msg = "Time: " + timeOf(testResultSet) + "ns";
                     oracleResultSet = oracleRunner.runTests(neighbour, 1);
                     oracleResultParsed = new HashMap<String, String>();
                     oracleResultParsed.put("patch", neighbour.toString());
@@ -334,7 +496,8 @@ public class LocalSearch {
                     patchResultsList.add(oracleResultParsed);
                 } else {
                     bestPatch = neighbour;
-                    bestTime = testResultSet.totalExecutionTime();
+                    bestTime = timeOf(testResultSet);
+                    bestResultSet = testResultSet;
                     msg = "New best time: " + bestTime + "(ns)";
 
                     //Evaluate intermediate patch against oracle and save results
@@ -377,6 +540,9 @@ public class LocalSearch {
             emptyPatchResult.put("intermediate", Boolean.toString(false));
             patchResultsList.add(emptyPatchResult);
         }
+        logFitnessCache();
+        writeKillMatrix();
+
         //bestPatch.writePatchedSourceToFile(sourceFile.getFilename() + ".optimised");
         //bestPatch.writePatchStringToFile("bestpatch.txt");
         return patchResultsList;
@@ -2,7 +2,9 @@ package gin;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.reflect.Method;
 import java.nio.charset.Charset;
+import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -58,6 +60,11 @@ public class Patch {
      */
     List<Boolean> editsValidOnLastApply; 
 
+    /**
+     * the source file the last apply produced, e.g. for checks that can read its parsed form directly
+     */
+    SourceFile lastPatchedSourceFile;
+
     public Patch(SourceFile sourceFile) {
         this.sourceFile = sourceFile;
         this.superClassOfEdits = null;
@@ -115,6 +122,22 @@ public class Patch {
         }
     }
 
+    /**
+     * Parse an edit, as printed by its toString, with the fromString method of its class, named by its first token.
+     * @throws ParseException if the class has no fromString method, or it couldn't parse the description
+     */
+    public static Edit parseEdit(String description) throws ParseException {
+
+        String editClass = description.trim().split("\\s+")[0];
+        try {
+            Method parserMethod = Class.forName(editClass).getMethod("fromString", String.class);
+            return (Edit) parserMethod.invoke(null, description.trim());
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            throw new ParseException("Cannot parse edit: " + description, 0);
+        }
+
+    }
+
     public void remove(int index) {
         this.edits.remove(index);
     }
@@ -140,11 +163,13 @@ public class Patch {
      */
     public String apply() {
 
-        SourceFile patchedSourceFile = sourceFile.copyOf();
+        // edits may change this copy in place, see SourceFile.copyForPatch()
+        SourceFile patchedSourceFile = sourceFile.copyForPatch();
         lastApplyWasValid = true;
         editsValidOnLastApply = new ArrayList<>();
         
         for (Edit edit: edits) {
+            int changesBeforeEdit = patchedSourceFile.getChangesInPlace();
             try {
                 SourceFile patchedByThisEdit = edit.apply(patchedSourceFile);
                 if (patchedByThisEdit == null) {
@@ -160,20 +185,42 @@ public class Patch {
                 // any unexpected problem applying the edit means 
                 // we just don't apply it
             }
+            if (!editsValidOnLastApply.get(editsValidOnLastApply.size() - 1)
+                    && patchedSourceFile.getChangesInPlace() != changesBeforeEdit) {
+                // the failed edit got part way through changing the source in place,
+                // so start again from the original with just the edits that worked
+                patchedSourceFile = reapplyValidEdits();
+            }
         }
 
         try {
-            return patchedSourceFile.getSource();
+            String patchedSource = patchedSourceFile.getSource();
+            lastPatchedSourceFile = patchedSourceFile;
+            return patchedSource;
         } catch (ClassCastException e) {
             // sometimes happens if an edit has violated JavaParser's expectations
             // - see https://github.com/drdrwhite/ginfork/issues/104
             // if we get here, the whole patch is invalid
             this.lastApplyWasValid = false;
+            lastPatchedSourceFile = sourceFile;
             return sourceFile.getSource();
         }
         
     }
 
+    /**
+     * @return a fresh copy of the source file with the edits that were valid so far on this apply
+     */
+    private SourceFile reapplyValidEdits() {
+        SourceFile patchedSourceFile = sourceFile.copyForPatch();
+        for (int i = 0; i < editsValidOnLastApply.size(); i++) {
+            if (editsValidOnLastApply.get(i)) {
+                patchedSourceFile = edits.get(i).apply(patchedSourceFile);
+            }
+        }
+        return patchedSourceFile;
+    }
+
     public void addRandomEdit(Random rng, EditType allowableEditType) {
         addRandomEdit(rng, new LinkedList<EditType>(Arrays.asList(allowableEditType)));
     }
@@ -351,6 +398,13 @@ public class Patch {
         return editsValidOnLastApply;
     }
 
+    /**
+     * @return the source file produced by the last apply, whose source apply returned; null before the first apply
+     */
+    public SourceFile getLastPatchedSourceFile() {
+        return lastPatchedSourceFile;
+    }
+
     @Override
     public String toString() {
         String description = "| ";
@@ -1,19 +1,35 @@
 package gin;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.function.Function;
 
 import org.apache.commons.lang3.StringUtils;
 import org.pmw.tinylog.Logger;
 
+import com.github.javaparser.JavaParser;
+import com.github.javaparser.ParseProblemException;
+import com.github.javaparser.Range;
 import com.github.javaparser.ast.CompilationUnit;
 import com.github.javaparser.ast.Node;
+import com.github.javaparser.ast.NodeList;
 import com.github.javaparser.ast.body.MethodDeclaration;
+import com.github.javaparser.ast.expr.IntegerLiteralExpr;
+import com.github.javaparser.ast.expr.MethodCallExpr;
+import com.github.javaparser.ast.expr.NameExpr;
+import com.github.javaparser.ast.nodeTypes.NodeWithStatements;
+import com.github.javaparser.ast.stmt.ExplicitConstructorInvocationStmt;
+import com.github.javaparser.ast.stmt.ExpressionStmt;
+import com.github.javaparser.ast.stmt.Statement;
 
 import gin.edit.Edit.EditType;
 import gin.misc.FullyQualifiedNames;
@@ -86,6 +102,23 @@ public abstract class SourceFile {
      */
     public abstract SourceFile copyOf(); 
 
+    /**
+     * @return a copy of this SourceFile for applying all edits of a patch to.
+     * Subclasses may return a copy that their edit methods change in place, rather than
+     * each returning a new copy; by default this is just copyOf()
+     */
+    public SourceFile copyForPatch() {
+        return copyOf();
+    }
+
+    /**
+     * @return the number of changes made in place to this SourceFile;
+     * always 0 unless it was made by copyForPatch()
+     */
+    public int getChangesInPlace() {
+        return 0;
+    }
+
 
     /*================= the following are general purpose getters =====================*/
 
@@ -94,9 +127,23 @@ public abstract class SourceFile {
         base = StringUtils.chop(base);
         String filePath = (new File(this.filename)).getAbsolutePath();        
         String result = StringUtils.substringAfter(filePath, base);
-        return result;        
+        return result;
     }
-    
+
+    /**
+     * @return the names of the target methods, sorted; empty if there are none
+     */
+    public List<String> getTargetMethodNames() {
+        List<String> names = new ArrayList<>();
+        if (targetMethods != null) {
+            for (TargetMethod targetMethod : targetMethods) {
+                names.add(targetMethod.methodName);
+            }
+        }
+        Collections.sort(names);
+        return names;
+    }
+
     /**
      * @return the source - that is, a string of Java source ready for compilation
      */
@@ -106,6 +153,85 @@ public abstract class SourceFile {
     public String toString() {
         return this.getSource();
     }
+
+    /**
+     * Apply a function that only reads the parsed source, such as a check of it. By default the source
+     * is parsed again; SourceFileTree passes its own compilation unit rather than a copy, so the function
+     * must not change it.
+     * @param reader is given the compilation unit, or null if the source doesn't parse
+     * @return what the reader returns
+     */
+    public <T> T readCompilationUnit(Function<CompilationUnit, T> reader) {
+        CompilationUnit cu;
+        try {
+            cu = JavaParser.parse(getSource());
+        } catch (ParseProblemException e) {
+            cu = null;
+        }
+        return reader.apply(cu);
+    }
+
+    /*============== the following are used to measure coverage of the target methods ==============*/
+
+    /**
+     * Read the file again, and insert a call to the given static method before each statement in a block of
+     * the target methods, with the index of the probe as its argument. Explicit constructor invocations,
+     * which have to come first, are not probed.
+     *
+     * The ranges are those in the file, which are what line numbers and node IDs refer to;
+     * the returned source is pretty-printed, so its lines differ.
+     *
+     * @param probeMethod fully qualified name of a static method taking an int, e.g. gin.test.CoverageProbe.hit
+     * @param probedStatements receives the range of the statement following each probe, in probe order
+     * @param targetMethodRanges receives the range of each target method
+     * @return the instrumented source
+     */
+    public String instrumentTargetMethods(String probeMethod, List<Range> probedStatements, List<Range> targetMethodRanges) {
+
+        CompilationUnit cu = null;
+        try {
+            cu = JavaParser.parse(new File(filename));
+        } catch (IOException e) {
+            Logger.error("Exception reading program source: " + e);
+            System.exit(-1);
+        }
+
+        String probeScope = StringUtils.substringBeforeLast(probeMethod, ".");
+        String probeName = StringUtils.substringAfterLast(probeMethod, ".");
+
+        // number the probes before changing the tree
+        Map<Statement, Integer> probes = new IdentityHashMap<>();
+        Set<Node> blocks = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Node root : getTargetMethodRootNodesFromCU(cu, targetMethods)) {
+            root.getRange().ifPresent(targetMethodRanges::add);
+            for (Statement statement : root.getChildNodesByType(Statement.class)) {
+                Optional<Node> parent = statement.getParentNode();
+                if (parent.isPresent() && parent.get() instanceof NodeWithStatements
+                        && !(statement instanceof ExplicitConstructorInvocationStmt) && statement.getRange().isPresent()) {
+                    probes.put(statement, probedStatements.size());
+                    probedStatements.add(statement.getRange().get());
+                    blocks.add(parent.get());
+                }
+            }
+        }
+
+        for (Node block : blocks) {
+            NodeWithStatements<?> withStatements = (NodeWithStatements<?>) block;
+            NodeList<Statement> statements = new NodeList<>();
+            for (Statement statement : new ArrayList<>(withStatements.getStatements())) {
+                Integer probe = probes.get(statement);
+                if (probe != null) {
+                    statements.add(new ExpressionStmt(new MethodCallExpr(new NameExpr(probeScope), probeName,
+                            NodeList.nodeList(new IntegerLiteralExpr(Integer.toString(probe))))));
+                }
+                statements.add(statement);
+            }
+            withStatements.setStatements(statements);
+        }
+
+        return cu.toString();
+
+    }
  
     /*============== the following are some helper methods and classes ==============*/
     
@@ -8,14 +8,15 @@ import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.Optional;
-import java.util.Set;
 import java.util.SortedMap;
 import java.util.SortedSet;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.function.BiConsumer;
 
 import org.pmw.tinylog.Logger;
 
@@ -31,27 +32,47 @@ import com.github.javaparser.ast.comments.Comment;
  * In practice SourceFile can be viewed as immutable. The only way it can be changed
  * is via the insert/delete line/statement/node or replaceNode methods, which
  * create and return a new SourceFile as part of their signature
+ * 
+ * The lines are held as a piece table: the original lines of the file, shared by
+ * every copy, plus the (usually few) changes made to them - deleted original lines and
+ * inserted lines. So an edit copies only the changes made so far, not the whole file.
  */
 public class SourceFileLine extends SourceFile {
 
-    /**the raw lines in the source*/
-    private SortedMap<LineID, String> lines;
+    /**the raw lines in the source, as read from the file; never changed, so shared by all copies*/
+    private final String[] originalLines;
+
+    /**original line numbers that have been deleted*/
+    private final SortedSet<Integer> deletedLines;
+
+    /**lines inserted after each original line number, in the order they were inserted*/
+    private final SortedMap<Integer, List<String>> insertedLines;
 
-    /** IDs of lines in the target methods */
-    private List<LineID> lineIDsInTargetMethod;
+    /**number of lines and characters in the source, used to size the buffer in getSource()*/
+    private int lineCount;
+    private int characterCount;
+
+    /** IDs of lines in the target methods; these lists are never changed so are shared by all copies */
+    private List<Integer> lineIDsInTargetMethod;
     
     /** IDs of empty lines */
-    private List<LineID> lineIDsEmpty;
+    private List<Integer> lineIDsEmpty;
     
     /** IDs of comment lines */
-    private List<LineID> lineIDsComments;
+    private List<Integer> lineIDsComments;
 
     
     public SourceFileLine(String filename, List<String> targetMethodNames) {
 
         super(filename, targetMethodNames);
         
-        this.lines = readLines(filename);
+        this.originalLines = readLines(filename);
+        this.deletedLines = new TreeSet<>();
+        this.insertedLines = new TreeMap<>();
+        this.lineCount = originalLines.length;
+        for (String line : originalLines) {
+            this.characterCount += line.length();
+        }
         populateIDLists();
 
     }
@@ -73,11 +94,16 @@ public class SourceFileLine extends SourceFile {
         
         super(sf.filename, sf.targetMethods);
         
-        // copy the lines
-        this.lines = new TreeMap<>(sf.lines);
-        this.lineIDsInTargetMethod = new ArrayList<>(sf.lineIDsInTargetMethod); // instead, copy the lines
-        this.lineIDsEmpty = new ArrayList<>(sf.lineIDsEmpty);
-        this.lineIDsComments = new ArrayList<>(sf.lineIDsComments);
+        // share the original lines and ID lists; copy only the changes
+        // the lists of inserted lines are copied when they are next changed, see insertLine()
+        this.originalLines = sf.originalLines;
+        this.deletedLines = new TreeSet<>(sf.deletedLines);
+        this.insertedLines = new TreeMap<>(sf.insertedLines);
+        this.lineCount = sf.lineCount;
+        this.characterCount = sf.characterCount;
+        this.lineIDsInTargetMethod = sf.lineIDsInTargetMethod;
+        this.lineIDsEmpty = sf.lineIDsEmpty;
+        this.lineIDsComments = sf.lineIDsComments;
         
     }
     
@@ -89,21 +115,16 @@ public class SourceFileLine extends SourceFile {
     
     /*============== the following are setup methods - reading files, building ID lists etc ==============*/
     
-    private SortedMap<LineID, String> readLines(String filename) {
-        SortedMap<LineID, String> lines = new TreeMap<>();
+    private String[] readLines(String filename) {
+        List<String> rawLines = Collections.emptyList();
         try {
-            // readAllLines doesn't guarantee a modifiable list, so we copy to ArrayList
-            List<String> rawLines = Files.readAllLines(Paths.get(filename), Charset.defaultCharset());
-           
-            for (int i = 0; i < rawLines.size(); i++) {
-                lines.put(new LineID(true, i + 1, 0), rawLines.get(i));
-            }
+            rawLines = Files.readAllLines(Paths.get(filename), Charset.defaultCharset());
         } catch (IOException e) {
             Logger.error("Exception reading program source: " + e);
             System.exit(-1);
         }
         
-        return lines;
+        return rawLines.toArray(new String[0]);
     }
 
     /**
@@ -113,46 +134,46 @@ public class SourceFileLine extends SourceFile {
     private void populateIDLists() {
 
         // A JavaParser CU is used to find the lines for the methods
-        CompilationUnit compilationUnit = JavaParser.parse(this.getSource().toString());
+        CompilationUnit compilationUnit = JavaParser.parse(this.getSource());
         
-        this.lineIDsInTargetMethod = new ArrayList<>();
+        List<Integer> lineIDsInTargetMethod = new ArrayList<>();
 
         if (this.targetMethods == null || targetMethods.size() == 0) {
-            if (this.lines != null) {
-                this.lineIDsInTargetMethod.addAll(this.lines.keySet());
+            for (int i = 1; i <= originalLines.length; i++) {
+                lineIDsInTargetMethod.add(i);
             }
         } else {
             List<Node> targetMethodRootNodes = getTargetMethodRootNodesFromCU(compilationUnit, this.targetMethods);
 
             // put in a set to start with to avoid duplicates
-            SortedSet<LineID> ids = new TreeSet<>();
+            SortedSet<Integer> ids = new TreeSet<>();
             
             for (Node node : targetMethodRootNodes) {
                 // javaparser line numbers start at 1, now list also starts at 1 so no need to subtract 1
                 int targetMethodStartLine = node.getRange().get().begin.line;
                 int targetMethodEndLine = node.getRange().get().end.line;
 
-                if (this.lines != null) {
-                    for (int i = 1; i <= lines.size(); i++) {
-                        if ((i >= targetMethodStartLine) && (i <= targetMethodEndLine)) {
-                            ids.add(new LineID(true, i, 0));
-                        }
+                for (int i = 1; i <= originalLines.length; i++) {
+                    if ((i >= targetMethodStartLine) && (i <= targetMethodEndLine)) {
+                        ids.add(i);
                     }
                 }
             }
             
-            this.lineIDsInTargetMethod.addAll(ids);
+            lineIDsInTargetMethod.addAll(ids);
         }
+        this.lineIDsInTargetMethod = Collections.unmodifiableList(lineIDsInTargetMethod);
         
         // work out where the empty lines are
         // in theory this is just those of zero length or containing only whitespace
         // so we runTests for lines with anything that's not whitespace
-        this.lineIDsEmpty = new ArrayList<>();
-        for (Entry<LineID, String> e : lines.entrySet()) {
-            if (!e.getValue().matches("^.*\\S+.*$")) {
-                this.lineIDsEmpty.add(e.getKey());
+        List<Integer> lineIDsEmpty = new ArrayList<>();
+        for (int i = 1; i <= originalLines.length; i++) {
+            if (!originalLines[i - 1].matches("^.*\\S+.*$")) {
+                lineIDsEmpty.add(i);
             }
         }
+        this.lineIDsEmpty = Collections.unmodifiableList(lineIDsEmpty);
         
         // where are the lines that only contain comments?
         // first we look for all comments and tag their lines
@@ -189,21 +210,16 @@ public class SourceFileLine extends SourceFile {
             }
         }
         
-        this.lineIDsComments = new ArrayList<>();
-        for (Integer i : possibleCommentLines) {
-            this.lineIDsComments.add(new LineID(true, i, 0));
-        }
+        this.lineIDsComments = Collections.unmodifiableList(new ArrayList<>(possibleCommentLines));
     }
     
     /*============== the following are getter methods ==============*/
     
     @Override
     public String getSource() {
-        StringBuffer buf = new StringBuffer();
-        for (String line : lines.values()) {
-            buf.append(line);
-            buf.append(System.lineSeparator());
-        }
+        String separator = System.lineSeparator();
+        StringBuilder buf = new StringBuilder(characterCount + lineCount * separator.length());
+        forEachLine((lineNumber, line) -> buf.append(line).append(separator));
         return buf.toString();
     }
 
@@ -214,7 +230,10 @@ public class SourceFileLine extends SourceFile {
      * @param lineNumber to copy
      * */
     public String getLine(int lineNumber) {
-        return lines.get(new LineID(true, lineNumber, 0));
+        if (lineNumber < 1 || lineNumber > originalLines.length || deletedLines.contains(lineNumber)) {
+            return null;
+        }
+        return originalLines[lineNumber - 1];
     }
 
     /**
@@ -224,15 +243,17 @@ public class SourceFileLine extends SourceFile {
      * @return a modified copy of this {@link SourceFileLine}
      */
     public SourceFileLine removeLine(int lineNumber) {
-        LineID toDelete = new LineID(true, lineNumber, 0);
+        String toDelete = getLine(lineNumber);
         
         // line already deleted? don't bother proceeding.
-        if (!lines.containsKey(toDelete)) {
+        if (toDelete == null) {
             return this;
         } else {
             // make a copy of this sourceFile
             SourceFileLine sf = new SourceFileLine(this);
-            sf.lines.remove(toDelete);
+            sf.deletedLines.add(lineNumber);
+            sf.lineCount--;
+            sf.characterCount -= toDelete.length();
             return sf;
         }
     }
@@ -240,6 +261,10 @@ public class SourceFileLine extends SourceFile {
     /**
      * return a copy of this sourceFile, with the specified line inserted,
      * or this sourceFile if the line couldn't be inserted for some reason
+     * 
+     * the new line follows the specified original line, and any other
+     * lines inserted after it, but comes before the next original line
+     * 
      * @param lineNumber to insert after
      * @param line to insert
      * @return a modified copy of this {@link SourceFileLine}
@@ -247,7 +272,12 @@ public class SourceFileLine extends SourceFile {
     public SourceFileLine insertLine(int lineNumber, String line) {
         if (lineNumber >= 1) {
             SourceFileLine sf = new SourceFileLine(this);
-            sf.lines.put(getNextInsertPoint(lineNumber), line);
+            // the list may be shared with other copies, so replace it rather than add to it
+            List<String> inserted = new ArrayList<>(insertedLines.getOrDefault(lineNumber, Collections.emptyList()));
+            inserted.add(line);
+            sf.insertedLines.put(lineNumber, inserted);
+            sf.lineCount++;
+            sf.characterCount += line.length();
             return sf;
         } else {
             return this;
@@ -257,57 +287,25 @@ public class SourceFileLine extends SourceFile {
     
     /*============== the following are methods to get IDs and counts to assist in making edits ==============*/
     
+    /**@return the original line number of every line in the source, in order; inserted lines have the number of the line they follow*/
     public List<Integer> getAllLineIDs() {
-        List<Integer> lineIDs = new ArrayList<>(lines.size());
-        for (LineID id : lines.keySet()) {
-            lineIDs.add(id.lineNumber);
-        }
+        List<Integer> lineIDs = new ArrayList<>(lineCount);
+        forEachLine((lineNumber, line) -> lineIDs.add(lineNumber));
         return Collections.unmodifiableList(lineIDs);
     }
-    
-    /**
-     * make a new LineID to follow the specified original line, and any other
-     * lines inserted after it, but before the next original line
-     */
-    private LineID getNextInsertPoint(int originalLineNumber) {
-        // find the lines after the specified line, but before a hypothetical
-        // (as we might be at end anyway) next line
-        LineID currentLine = new LineID(true, originalLineNumber, 0);
-        LineID nextLine = new LineID(true, originalLineNumber + 1, 0);
-        
-        Set<LineID> insertedLines = this.lines.tailMap(currentLine).headMap(nextLine).keySet();
-        int nextOffset = 0;
-        for (LineID l : insertedLines) {
-            nextOffset = Math.max(nextOffset, l.offset + 1);
-        }
-        
-        return new LineID(false, originalLineNumber, nextOffset);
-    }
 
     public List<Integer> getLineIDsInTargetMethod() {
-        List<Integer> lineIDs = new ArrayList<>(lineIDsInTargetMethod.size());
-        for (LineID id : lineIDsInTargetMethod) {
-            lineIDs.add(id.lineNumber);
-        }
-        return Collections.unmodifiableList(lineIDs);
+        return lineIDsInTargetMethod;
     }
     
     /**@return a list of line numbers corresponding to empty lines (i.e. those of zero length or containing only whitespace)*/
     public List<Integer> getLineIDsEmpty() {
-        List<Integer> lineIDs = new ArrayList<>(lineIDsEmpty.size());
-        for (LineID id : lineIDsEmpty) {
-            lineIDs.add(id.lineNumber);
-        }
-        return Collections.unmodifiableList(lineIDs);
+        return lineIDsEmpty;
     }
     
     /**@return a list of line numbers corresponding to lines that are purely comments*/
     public List<Integer> getLineIDsOnlyComments() {
-        List<Integer> lineIDs = new ArrayList<>(lineIDsComments.size());
-        for (LineID id : lineIDsComments) {
-            lineIDs.add(id.lineNumber);
-        }
-        return Collections.unmodifiableList(lineIDs);
+        return lineIDsComments;
     }
 
     /**
@@ -326,41 +324,41 @@ public class SourceFileLine extends SourceFile {
         return Collections.unmodifiableList(new ArrayList<>(allLineIDs));
     }
 
- 
-    /*============== the following are some helper methods and classes ==============*/
-     
+
+    /*============== the following are some helper methods ==============*/
+
     /**
-     * used to keep the list of lines in the correct order
+     * visit the lines of the source in order, along with the original line number of each;
+     * inserted lines follow the original line they were inserted after, even if that has been deleted,
+     * and have its number
      */
-    private static final class LineID implements Comparable<LineID> {
-        private final boolean isOriginalLine;
-        private final int lineNumber; // original code line number
-        private final int offset; // this is used to sort inserted lines following the lineNumber they were inserted after 
-        
-        public LineID(boolean isOriginalLine, int lineNumber, int offset) {
-            this.isOriginalLine = isOriginalLine;
-            this.lineNumber = lineNumber;
-            this.offset = offset;
-        }
-        
-        @Override
-        public int compareTo(LineID that) {
-            if (isOriginalLine || (this.lineNumber != that.lineNumber)) {
-                return Integer.compare(this.lineNumber, that.lineNumber);
+    private void forEachLine(BiConsumer<Integer, String> action) {
+        Iterator<Integer> deleted = deletedLines.iterator();
+        int nextDeleted = deleted.hasNext() ? deleted.next() : 0;
+        Iterator<Entry<Integer, List<String>>> inserted = insertedLines.entrySet().iterator();
+        Entry<Integer, List<String>> nextInserted = inserted.hasNext() ? inserted.next() : null;
+
+        for (int i = 1; i <= originalLines.length; i++) {
+            if (i == nextDeleted) {
+                nextDeleted = deleted.hasNext() ? deleted.next() : 0;
             } else {
-                if (this.isOriginalLine) {
-                    return -1;
-                } else if (that.isOriginalLine) {
-                    return 1;
-                } else {
-                    return Integer.compare(this.offset, that.offset);
+                action.accept(i, originalLines[i - 1]);
+            }
+            if (nextInserted != null && nextInserted.getKey() == i) {
+                for (String line : nextInserted.getValue()) {
+                    action.accept(i, line);
                 }
+                nextInserted = inserted.hasNext() ? inserted.next() : null;
             }
         }
-        
-        @Override
-        public String toString() {
-            return (this.isOriginalLine ? "O" : "I") + this.lineNumber + (this.isOriginalLine ? "" : "." + this.offset);
+
+        // lines inserted after the end of the file
+        while (nextInserted != null) {
+            for (String line : nextInserted.getValue()) {
+                action.accept(nextInserted.getKey(), line);
+            }
+            nextInserted = inserted.hasNext() ? inserted.next() : null;
         }
     }
+
 }
@@ -4,23 +4,30 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Random;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.function.Function;
 
 import org.pmw.tinylog.Logger;
 
 import com.github.javaparser.JavaParser;
+import com.github.javaparser.Range;
 import com.github.javaparser.ast.CompilationUnit;
 import com.github.javaparser.ast.DataKey;
 import com.github.javaparser.ast.Node;
 import com.github.javaparser.ast.NodeList;
 import com.github.javaparser.ast.PackageDeclaration;
+import com.github.javaparser.ast.expr.Expression;
+import com.github.javaparser.ast.nodeTypes.NodeWithStatements;
 import com.github.javaparser.ast.stmt.BlockStmt;
+import com.github.javaparser.ast.stmt.IfStmt;
 import com.github.javaparser.ast.stmt.Statement;
 
 import gin.misc.BlockedByJavaParserException;
@@ -32,6 +39,10 @@ import gin.misc.CloneVisitorCopyIDs;
  * In practice SourceFile can be viewed as immutable. The only way it can be changed
  * is via the insert/delete line/statement/node or replaceNode methods, which
  * create and return a new SourceFile as part of their signature
+ * 
+ * The exception is the copy made by copyForPatch(), which these methods change in place
+ * and return. Patch.apply() uses it so that the compilation unit is cloned once per patch,
+ * rather than once per edit.
  */
 public class SourceFileTree extends SourceFile {
 
@@ -72,6 +83,27 @@ public class SourceFileTree extends SourceFile {
     /**node IDs of all blockstatements in the target methods*/
     private List<Integer> targetMethodBlockIDs;
 
+    /**
+     * sorted IDs of all nodes of a class or its subclasses, indexed by class; each list is
+     * built on first use, and kept up to date as nodes are forgotten, see getNodeIDsByClass()
+     */
+    private Map<Class<?>, List<Integer>> nodeIDsByClass = new HashMap<>();
+
+    /**as nodeIDsByClass, but only for nodes in the target methods*/
+    private Map<Class<?>, List<Integer>> targetMethodNodeIDsByClass = new HashMap<>();
+
+    /**if true, edits change this SourceFileTree rather than a copy; only set by copyForPatch()*/
+    private boolean editInPlace = false;
+
+    /**number of edits made in place*/
+    private int changesInPlace = 0;
+
+    /**
+     * the last statement removed in place. As in a copy returned by removeStatement(), the IDs of its
+     * descendants are kept until the next change, so edits can still get copies of them until then
+     */
+    private Node lastRemoved = null;
+
     
     
     public SourceFileTree(String filename, List<String> targetMethodNames) {
@@ -119,7 +151,59 @@ public class SourceFileTree extends SourceFile {
     public SourceFile copyOf() {
         return new SourceFileTree(this);
     }
+
+    /**
+     * @return a copy that removeStatement, insertStatement and replaceNode change in place, and return,
+     * rather than copying the whole compilation unit for every edit. Edits give the same results as on
+     * the copies made by these methods. The lists of IDs are those of this SourceFileTree, and are not
+     * updated as the copy is edited.
+     */
+    @Override
+    public SourceFile copyForPatch() {
+        SourceFileTree sf = new SourceFileTree(this);
+        sf.editInPlace = true;
+        return sf;
+    }
+
+    @Override
+    public int getChangesInPlace() {
+        return changesInPlace;
+    }
     
+    /*============== the following is used to make mutant schemata ==============*/
+
+    /**
+     * Wrap statements in guards, so that whether each runs can be chosen when the code runs; e.g. for a mutant
+     * schema that covers many deletions with one compile. Only statements directly in a block or switch entry
+     * are wrapped; others are left as they are.
+     * @param guards for each statement ID, the condition under which the statement runs
+     * @return the source of a copy of this file with each of these statements replaced by "if (condition) statement"
+     */
+    public String guardStatements(Map<Integer, Expression> guards) {
+
+        CompilationUnit cu = cloneCompilationUnitWithIDs(this.compilationUnit);
+
+        for (Statement statement : cu.getChildNodesByType(Statement.class)) {
+            Expression condition = guards.get(statement.getData(NODEKEY_ID));
+            Optional<Node> parent = statement.getParentNode();
+            if (condition != null && parent.isPresent() && parent.get() instanceof NodeWithStatements) {
+                NodeList<Statement> statements = ((NodeWithStatements<?>) parent.get()).getStatements();
+                for (int i = 0; i < statements.size(); i++) {
+                    if (statements.get(i) == statement) {
+                        IfStmt guard = new IfStmt();
+                        statements.set(i, guard);
+                        guard.setCondition(condition.clone());
+                        guard.setThenStmt(statement);
+                        break;
+                    }
+                }
+            }
+        }
+
+        return cu.toString();
+
+    }
+
     /*============== the following are setup methods - reading files, building ID lists etc ==============*/
     
     /**
@@ -261,6 +345,14 @@ public class SourceFileTree extends SourceFile {
     public String getSource() {
         return this.compilationUnit.toString();
     }
+
+    /**
+     * Pass this file's own compilation unit to the reader, saving a parse of the source.
+     */
+    @Override
+    public <T> T readCompilationUnit(Function<CompilationUnit, T> reader) {
+        return reader.apply(this.compilationUnit);
+    }
     
     public PackageDeclaration getPackage() {
         return this.compilationUnit.getPackageDeclaration().orElse(null);
@@ -349,13 +441,29 @@ public class SourceFileTree extends SourceFile {
         // node already deleted? don't bother.
         if (!this.allNodes.containsKey(statementID)) {
             return this;
+        } else if (editInPlace) {
+            Node target = getNodeToEdit(statementID);
+
+            if (target == null) { // a copy wouldn't have this node, as it went with the last statement removed
+                throw new BlockedByJavaParserException("Statement with node ID " + statementID + " was already removed");
+            }
+
+            if (target.remove()) {
+                forgetDescendantsOfLastRemoved();
+                forgetID(statementID);
+                lastRemoved = target;
+                changesInPlace++;
+                return this;
+            } else {
+                throw new BlockedByJavaParserException("Could not delete statement with node ID " + statementID);
+            }
         } else {
             SourceFileTree sf = new SourceFileTree(this);
             
             Node target = sf.allNodes.get(statementID);
         
             if (target.remove()) { // only proceed if JavaParser lets us remove the node
-                sf.allNodes.remove(statementID);
+                sf.forgetID(statementID);
                 return sf;
             } else {
                 throw new BlockedByJavaParserException("Could not delete statement with node ID " + statementID);
@@ -382,12 +490,12 @@ public class SourceFileTree extends SourceFile {
         if (!this.allNodes.containsKey(blockID) || !this.allNodes.containsKey(insertionPoint)) {
             return this;
         } else {
-            SourceFileTree sf = new SourceFileTree(this);
+            SourceFileTree sf = editInPlace ? this : new SourceFileTree(this);
         
             Statement copy = statementToInsert.clone(); // always clone to avoid nasty stateful stuff
             copy.setData(NODEKEY_ID, null); // clear the ID of the copy
 
-            Node parent = sf.allNodes.get(blockID);
+            Node parent = sf.getNodeToEdit(blockID);
             if (parent instanceof BlockStmt) {
                 // find the insert point
                 NodeList<Statement> statements = ((BlockStmt)parent).getStatements();
@@ -406,6 +514,10 @@ public class SourceFileTree extends SourceFile {
             
                 // Location found! Now insert.
                 ((BlockStmt)parent).addStatement(insertIndex, copy);
+                if (editInPlace) {
+                    forgetDescendantsOfLastRemoved();
+                    changesInPlace++;
+                }
                 
                 return sf;
             } else {
@@ -432,6 +544,17 @@ public class SourceFileTree extends SourceFile {
             Node replacementNodeCopy = replacement.clone();
             //replacementNodeCopy.setData(NODEKEY_ID, ID);  // don't do this. it then makes edits to the replaced node possible. Issue https://github.com/drdrwhite/ginfork/issues/46
             replacementNodeCopy.setData(NODEKEY_ID, null);
+
+            if (editInPlace) {
+                // as for a copy, nothing is replaced if the node went with the last statement removed
+                Node target = getNodeToEdit(ID);
+                if ((target != null) && target.replace(replacementNodeCopy)) {
+                    forgetNodes(target);
+                    changesInPlace++;
+                }
+                forgetDescendantsOfLastRemoved();
+                return this;
+            }
             
             Map<Integer, Node> nodesToReplace = Collections.singletonMap(ID, replacementNodeCopy);
             SourceFileTree sf = new SourceFileTree(this, nodesToReplace);
@@ -469,7 +592,17 @@ public class SourceFileTree extends SourceFile {
             return null;
         }
     }
-    
+
+    /**
+     * @return the range of the specified node in the file this SourceFileTree was read from;
+     * null if the node was deleted or has no range (as in copies, whose nodes are clones)
+     * @param ID of node to get the range of
+     */
+    public Range getNodeRange(int ID) {
+        Node n = this.allNodes.get(ID);
+        return (n == null) ? null : n.getRange().orElse(null);
+    }
+
     /*============== the following are methods to get IDs and counts to assist in making edits ==============*/
     
     public List<Integer> getAllBlockIDs() {
@@ -513,8 +646,12 @@ public class SourceFileTree extends SourceFile {
     public Map<Integer, List<Integer>> getMatchedStatementLists(boolean sourceInTargetMethod, boolean destinationInTargetMethod) {
         List<Integer> destinationIDs = destinationInTargetMethod ? targetMethodStatementIDs : allStatementIDs;
         Map<Integer, List<Integer>> rval = new HashMap<>();
+        
+        // destinations of the same class share the same list of sources
+        Map<Class<? extends Node>, List<Integer>> sourceIDsByClass = new HashMap<>();
         for (Integer destinationID : destinationIDs) {
-            List<Integer> sourceIDs = getNodeIDsByClass(sourceInTargetMethod, getStatement(destinationID).getClass());
+            List<Integer> sourceIDs = sourceIDsByClass.computeIfAbsent(getNodeClass(destinationID),
+                    clazz -> Collections.unmodifiableList(getNodeIDsByClass(sourceInTargetMethod, clazz)));
             rval.put(destinationID, sourceIDs);
         }
         
@@ -588,38 +725,55 @@ public class SourceFileTree extends SourceFile {
     /**
      * @param inTargetMethod limit IDs to target method if true, or anywhere the class otherwise
      * @param clazzes limit IDs to nodes that extend these classes 
-     * @return a list of node IDs
+     * @return a sorted list of node IDs
      */
     public List<Integer> getNodeIDsByClass(boolean inTargetMethod, List<Class<? extends Node>> clazzes) {
-        if (inTargetMethod) {
-            List<Integer> rval = new ArrayList<>(targetMethodNodeIDs.size());
-            
-            for (int i : targetMethodNodeIDs) {
-                classLoop:
-                for (Class<? extends Node> clazz : clazzes) {
-                    if (clazz.isAssignableFrom(allNodes.get(i).getClass())) {
-                        rval.add(i);
-                        break classLoop;
-                    }
-                }
-            }
-            
-            return rval;
+        if (clazzes.size() == 1) {
+            return new ArrayList<>(getIndexedNodeIDs(inTargetMethod, clazzes.get(0)));
         } else {
-            List<Integer> rval = new ArrayList<>();
+            SortedSet<Integer> rval = new TreeSet<>();
+            for (Class<? extends Node> clazz : clazzes) {
+                rval.addAll(getIndexedNodeIDs(inTargetMethod, clazz));
+            }
+            return new ArrayList<>(rval);
+        }
+    }
+
+    /**
+     * @return the class of the specified node, without copying it; null if the node was already deleted
+     * @param ID of the node
+     */
+    public Class<? extends Node> getNodeClass(int ID) {
+        Node n = this.allNodes.get(ID);
+        return (n != null) ? n.getClass() : null;
+    }
+
+    /**
+     * The index is built one class at a time, so each class costs a single pass over the nodes,
+     * however many edits are then made for it.
+     * @return the indexed list of IDs of nodes extending the given class; not to be changed by the caller
+     */
+    private synchronized List<Integer> getIndexedNodeIDs(boolean inTargetMethod, Class<? extends Node> clazz) {
+        Map<Class<?>, List<Integer>> index = inTargetMethod ? targetMethodNodeIDsByClass : nodeIDsByClass;
+        List<Integer> rval = index.get(clazz);
+        
+        if (rval == null) {
+            Collection<Integer> ids = inTargetMethod ? targetMethodNodeIDs : allNodes.keySet();
             
-            for (Node n : allNodes.values()) {
-                classLoop:
-                for (Class<? extends Node> clazz : clazzes) {
-                    if (clazz.isAssignableFrom(n.getClass())) {
-                        rval.add(n.getData(NODEKEY_ID)); // no need to check for null, these nodes are only ones from the original and have IDs
-                        break classLoop;
-                    }
+            rval = new ArrayList<>();
+            for (Integer id : ids) {
+                Node n = allNodes.get(id);
+                // no ID means the node was added by an edit; no node means it was deleted
+                if ((id != null) && (n != null) && clazz.isAssignableFrom(n.getClass())) {
+                    rval.add(id);
                 }
             }
+            Collections.sort(rval);
             
-            return rval;
+            index.put(clazz, rval);
         }
+        
+        return rval;
     }
     
     public List<Integer> getAllStatementIDs() {
@@ -704,6 +858,60 @@ public class SourceFileTree extends SourceFile {
 
  
     /*============== the following are some helper methods and classes ==============*/
+
+    /**
+     * @return the node with the given ID, or null if it is no longer part of the compilation unit;
+     * i.e. null where a new copy of this SourceFileTree wouldn't have the node
+     * @param ID of the node
+     */
+    private Node getNodeToEdit(int ID) {
+        Node node = this.allNodes.get(ID);
+        Node root = node;
+        while ((root != null) && root.getParentNode().isPresent()) {
+            root = root.getParentNode().get();
+        }
+        return (root == this.compilationUnit) ? node : null;
+    }
+
+    /**
+     * drop the IDs of a node that is no longer in the compilation unit, and of all its descendants
+     * @param removed the node removed or replaced
+     */
+    private void forgetNodes(Node removed) {
+        forgetID(removed.getData(NODEKEY_ID));
+        for (Node n : removed.getChildNodesByType(Node.class)) {
+            Integer id = n.getData(NODEKEY_ID);
+            if (id != null) {
+                forgetID(id);
+            }
+        }
+    }
+
+    /**
+     * drop an ID from the node cache and from the index of IDs by class
+     * @param ID of a node no longer in the compilation unit
+     */
+    private synchronized void forgetID(Integer ID) {
+        this.allNodes.remove(ID);
+        for (Map<Class<?>, List<Integer>> index : Arrays.asList(nodeIDsByClass, targetMethodNodeIDsByClass)) {
+            for (List<Integer> ids : index.values()) {
+                int i = Collections.binarySearch(ids, ID);
+                if (i >= 0) {
+                    ids.remove(i);
+                }
+            }
+        }
+    }
+
+    /**
+     * called on each change in place, which is when a copy would have rebuilt its IDs
+     */
+    private void forgetDescendantsOfLastRemoved() {
+        if (lastRemoved != null) {
+            forgetNodes(lastRemoved);
+            lastRemoved = null;
+        }
+    }
     
     /** SB: CU.clone() doesn't copy node IDs. This does.
      * 
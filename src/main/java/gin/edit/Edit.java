@@ -1,5 +1,7 @@
 package gin.edit;
 
+import java.util.Set;
+
 import gin.SourceFile;
 
 /**
@@ -24,4 +26,14 @@ public abstract class Edit {
      */
     public abstract SourceFile apply(SourceFile sourceFile);
 
+    /**
+     * Used to select the tests that can be affected by a patch.
+     * @param sourceFile the unpatched source file that the edit is for
+     * @return the lines of that source file whose code the edit changes, or inserts code among;
+     * null if not known, in which case any test might be affected
+     */
+    public Set<Integer> getEditedLines(SourceFile sourceFile) {
+        return null;
+    }
+
 }
@@ -2,6 +2,7 @@ package gin.edit.line;
 
 import java.util.List;
 import java.util.Random;
+import java.util.Set;
 
 import gin.SourceFile;
 import gin.SourceFileLine;
@@ -38,6 +39,11 @@ public class DeleteLine extends LineEdit {
     }
     
 
+    @Override
+    public Set<Integer> getEditedLines(SourceFile sourceFile) {
+        return lines(lineToDelete);
+    }
+
     @Override
     public String toString() {
         return this.getClass().getCanonicalName() + " " + file + ":" + lineToDelete;
@@ -1,5 +1,8 @@
 package gin.edit.line;
 
+import java.util.Set;
+import java.util.TreeSet;
+
 import gin.edit.Edit;
 
 public abstract class LineEdit extends Edit {
@@ -9,4 +12,16 @@ public abstract class LineEdit extends Edit {
         return EditType.LINE;
     }
 
+    /**
+     * @return the given line numbers as a set; a line inserted after line n is counted as
+     * being among lines n and n+1
+     */
+    protected static Set<Integer> lines(int... lineNumbers) {
+        Set<Integer> lines = new TreeSet<>();
+        for (int line : lineNumbers) {
+            lines.add(line);
+        }
+        return lines;
+    }
+
 }
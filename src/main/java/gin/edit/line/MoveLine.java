@@ -2,6 +2,7 @@ package gin.edit.line;
 
 import java.util.List;
 import java.util.Random;
+import java.util.Set;
 
 import gin.SourceFile;
 import gin.SourceFileLine;
@@ -52,6 +53,11 @@ public class MoveLine extends LineEdit {
         return sf;
     }
 
+    @Override
+    public Set<Integer> getEditedLines(SourceFile sourceFile) {
+        return lines(sourceLine, destinationLine, destinationLine + 1);
+    }
+
     @Override
     public String toString() {
         return this.getClass().getCanonicalName() + " " + sourceFile + ":" + sourceLine + " -> " + destinationFile + ":" + destinationLine;
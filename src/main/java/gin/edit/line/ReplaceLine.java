@@ -2,6 +2,7 @@ package gin.edit.line;
 
 import java.util.List;
 import java.util.Random;
+import java.util.Set;
 
 import gin.SourceFile;
 import gin.SourceFileLine;
@@ -54,6 +55,11 @@ public class ReplaceLine extends LineEdit {
         return sf;
     }
 
+    @Override
+    public Set<Integer> getEditedLines(SourceFile sourceFile) {
+        return lines(destinationLine);
+    }
+
     @Override
     public String toString() {
         return this.getClass().getCanonicalName() + " " + sourceFile + ":" + sourceLine + " -> "
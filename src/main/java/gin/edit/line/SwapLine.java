@@ -2,6 +2,7 @@ package gin.edit.line;
 
 import java.util.List;
 import java.util.Random;
+import java.util.Set;
 
 import gin.SourceFile;
 import gin.SourceFileLine;
@@ -55,6 +56,11 @@ public class SwapLine extends LineEdit {
         return sf;
     }
 
+    @Override
+    public Set<Integer> getEditedLines(SourceFile sourceFile) {
+        return lines(sourceLine, destinationLine);
+    }
+
     @Override
     public String toString() {
         return this.getClass().getCanonicalName() + " " + sourceFile + ":" + sourceLine + " <-> " +
@@ -29,7 +29,7 @@ public class MatchedReplaceStatement extends ReplaceStatement {
         destinationStatement = sf.getRandomStatementID(true, rng);
         
         // source can be anywhere in the class, but must be of a matching type
-        sourceStatement = sf.getRandomNodeID(false, sf.getStatement(destinationStatement).getClass(), rng);
+        sourceStatement = sf.getRandomNodeID(false, sf.getNodeClass(destinationStatement), rng);
     }
     
     private MatchedReplaceStatement(String sourceFilename, int sourceStatement, String destinationFilename, int destinationStatement) {
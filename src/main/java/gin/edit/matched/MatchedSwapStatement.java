@@ -30,7 +30,7 @@ public class MatchedSwapStatement extends SwapStatement {
         destinationStatement = sf.getRandomStatementID(true, rng);
         
         // source can be anywhere in the class, but must be of a matching type
-        sourceStatement = sf.getRandomNodeID(false, sf.getStatement(destinationStatement).getClass(), rng);
+        sourceStatement = sf.getRandomNodeID(false, sf.getNodeClass(destinationStatement), rng);
         
     }
     
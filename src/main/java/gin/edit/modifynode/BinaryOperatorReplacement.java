@@ -5,6 +5,7 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 
 import com.github.javaparser.ast.Node;
 import com.github.javaparser.ast.expr.BinaryExpr;
@@ -112,7 +113,12 @@ public class BinaryOperatorReplacement extends ModifyNodeEdit {
         
         return replacement;
     }
-    
+
+    @Override
+    public Set<Integer> getEditedLines(SourceFile sourceFile) {
+        return linesOfNodes(sourceFile, targetNode);
+    }
+
     @Override
     public String toString() {
         return super.toString() + " " + targetFilename + ":" + targetNode + " " + source + " -> " + replacement + "";
@@ -3,6 +3,7 @@ package gin.edit.modifynode;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
+import java.util.Set;
 
 import com.github.javaparser.ast.Node;
 import com.github.javaparser.ast.expr.BinaryExpr;
@@ -11,6 +12,7 @@ import com.github.javaparser.ast.expr.Expression;
 
 import gin.SourceFile;
 import gin.SourceFileTree;
+import gin.edit.Edit;
 
 /**
  * exploit short-circuiting behaviour in logical expressions by swapping order of nodes within them
@@ -19,6 +21,7 @@ import gin.SourceFileTree;
  * this would then capture this kind of thing: (a || b) || c
  */
 public class ReorderLogicalExpression extends ModifyNodeEdit {
+    public String targetFilename;
     private final int targetNode;
     
     /**
@@ -50,6 +53,12 @@ public class ReorderLogicalExpression extends ModifyNodeEdit {
         }
         
         this.targetNode = nodes.get(rng.nextInt(nodes.size()));
+        this.targetFilename = sourceFile.getFilename();
+    }
+
+    public ReorderLogicalExpression(String sourceFileName, int targetNodeID) {
+        this.targetNode = targetNodeID;
+        this.targetFilename = sourceFileName;
     }
     
     @Override
@@ -71,9 +80,23 @@ public class ReorderLogicalExpression extends ModifyNodeEdit {
             return sf;
         }
     }
-    
+
+    @Override
+    public Set<Integer> getEditedLines(SourceFile sourceFile) {
+        return linesOfNodes(sourceFile, targetNode);
+    }
+
     @Override
     public String toString() {
-        return super.toString() + " swapping child nodes in [" + this.targetNode + "]";
+        return super.toString() + " " + targetFilename + ":" + targetNode + " swapping child nodes";
+    }
+
+    public static Edit fromString(String description) {
+        String tokens[] = description.split("\\s+");
+        String sourceTokens[] = tokens[1].split(":");
+        String sourceFile = sourceTokens[0];
+        int targetNodeID = Integer.parseInt(sourceTokens[1]);
+
+        return new ReorderLogicalExpression(sourceFile, targetNodeID);
     }
 }
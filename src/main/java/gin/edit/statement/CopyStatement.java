@@ -2,6 +2,7 @@ package gin.edit.statement;
 
 import java.util.List;
 import java.util.Random;
+import java.util.Set;
 
 import com.github.javaparser.ast.stmt.Statement;
 
@@ -79,6 +80,11 @@ public class CopyStatement extends StatementEdit {
         return sf;
     }
 
+    @Override
+    public Set<Integer> getEditedLines(SourceFile sourceFile) {
+        return linesOfNodes(sourceFile, destinationBlock);
+    }
+
     @Override
     public String toString() {
         return this.getClass().getCanonicalName() + " " + sourceFilename + ":" + sourceStatement + " -> " + destinationFilename + ":" + destinationBlock + ":" + destinationChildInBlock;
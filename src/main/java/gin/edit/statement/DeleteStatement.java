@@ -1,6 +1,7 @@
 package gin.edit.statement;
 
 import java.util.Random;
+import java.util.Set;
 
 import gin.SourceFile;
 import gin.SourceFileTree;
@@ -36,6 +37,11 @@ public class DeleteStatement extends StatementEdit {
         }
     }
 
+    @Override
+    public Set<Integer> getEditedLines(SourceFile sourceFile) {
+        return linesOfNodes(sourceFile, statementToDelete);
+    }
+
     @Override
     public String toString() {
         return this.getClass().getCanonicalName() + " " + sourceFilename + ":" + statementToDelete;
@@ -1,6 +1,7 @@
 package gin.edit.statement;
 
 import java.util.Random;
+import java.util.Set;
 
 import com.github.javaparser.ast.stmt.Statement;
 
@@ -82,6 +83,11 @@ public class MoveStatement extends StatementEdit {
         }
     }
 
+    @Override
+    public Set<Integer> getEditedLines(SourceFile sourceFile) {
+        return linesOfNodes(sourceFile, sourceStatement, destinationBlock);
+    }
+
     @Override
     public String toString() {
         return this.getClass().getCanonicalName() + " " + sourceFilename + ":" + sourceStatement + " -> " + destinationFilename + ":" + destinationBlock + ":" + destinationChildInBlock;
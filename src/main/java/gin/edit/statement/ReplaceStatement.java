@@ -1,6 +1,7 @@
 package gin.edit.statement;
 
 import java.util.Random;
+import java.util.Set;
 
 import com.github.javaparser.ast.stmt.Statement;
 
@@ -65,6 +66,11 @@ public class ReplaceStatement extends StatementEdit {
         }
     }
 
+    @Override
+    public Set<Integer> getEditedLines(SourceFile sourceFile) {
+        return linesOfNodes(sourceFile, destinationStatement);
+    }
+
     @Override
     public String toString() {
         return this.getClass().getCanonicalName() + " " + sourceFilename + ":" + sourceStatement + " -> " + destinationFilename + ":" + destinationStatement;
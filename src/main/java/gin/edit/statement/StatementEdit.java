@@ -1,5 +1,12 @@
 package gin.edit.statement;
 
+import java.util.Set;
+import java.util.TreeSet;
+
+import com.github.javaparser.Range;
+
+import gin.SourceFile;
+import gin.SourceFileTree;
 import gin.edit.Edit;
 
 public abstract class StatementEdit extends Edit {
@@ -8,5 +15,26 @@ public abstract class StatementEdit extends Edit {
     public EditType getEditType() {
         return EditType.STATEMENT;
     }
+
+    /**
+     * @return all lines spanned by the nodes with the given IDs in the unpatched source file;
+     * null if any of them has no range
+     */
+    protected static Set<Integer> linesOfNodes(SourceFile sourceFile, int... IDs) {
+        if (!(sourceFile instanceof SourceFileTree)) {
+            return null;
+        }
+        Set<Integer> lines = new TreeSet<>();
+        for (int ID : IDs) {
+            Range range = ((SourceFileTree) sourceFile).getNodeRange(ID);
+            if (range == null) {
+                return null;
+            }
+            for (int line = range.begin.line; line <= range.end.line; line++) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
     
 }
@@ -1,6 +1,7 @@
 package gin.edit.statement;
 
 import java.util.Random;
+import java.util.Set;
 
 import com.github.javaparser.ast.stmt.Statement;
 
@@ -66,6 +67,11 @@ public class SwapStatement extends StatementEdit {
         }
     }
 
+    @Override
+    public Set<Integer> getEditedLines(SourceFile sourceFile) {
+        return linesOfNodes(sourceFile, sourceStatement, destinationStatement);
+    }
+
     @Override
     public String toString() {
         return this.getClass().getCanonicalName() + " " + sourceFilename + ":" + sourceStatement + " <-> " + destinationFilename + ":" + destinationStatement;
@@ -0,0 +1,329 @@
+package gin.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaFileObject;
+
+import org.pmw.tinylog.Logger;
+
+import com.github.javaparser.JavaParser;
+import com.github.javaparser.ParseProblemException;
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.Node;
+import com.github.javaparser.ast.body.ConstructorDeclaration;
+import com.github.javaparser.ast.body.Parameter;
+import com.github.javaparser.ast.body.TypeDeclaration;
+import com.github.javaparser.ast.body.VariableDeclarator;
+import com.github.javaparser.ast.expr.FieldAccessExpr;
+import com.github.javaparser.ast.expr.Name;
+import com.github.javaparser.ast.expr.NameExpr;
+import com.github.javaparser.ast.expr.SimpleName;
+import com.github.javaparser.ast.expr.SuperExpr;
+import com.github.javaparser.ast.expr.ThisExpr;
+import com.github.javaparser.ast.type.ClassOrInterfaceType;
+import com.github.javaparser.ast.type.TypeParameter;
+
+/**
+ * Compiles many variants of one class, e.g. the patched sources of a generation, in a single javac task
+ * rather than one task each.
+ *
+ * So that they can be compiled together, the top-level types of variant N are renamed from T to T__GinVariantN_:
+ * their declarations, constructors, and references to them as types, as simple names, and in qualified this and super.
+ * The variants are compiled against the project classpath, so anything left unrenamed refers to the original class.
+ * The class files are renamed back afterwards by rewriting the names in their constant pools.
+ *
+ * javac is told to keep checking after an error, so that each variant's errors are reported against it.
+ * Variants with errors fail on their own, and the rest are compiled again without them.
+ *
+ * A variant is compiled on its own, with a task of its own, if JavaParser can't parse it or if it uses one of its
+ * top-level type names for something else, e.g. a variable, where renaming could change its meaning.
+ */
+public class BatchCompiler {
+
+    private static final String VARIANT_SUFFIX = "__GinVariant";
+
+    // Keep checking all units after the first error, but don't generate code (JDK 8 and JDK 9+ spellings),
+    // and report every error, so that each failing variant is identified in one pass
+    private static final List<String> OPTIONS = Arrays.asList("-XDshouldStopPolicyIfError=FLOW",
+            "-XDshould-stop.ifError=FLOW", "-Xmaxerrs", Integer.toString(Integer.MAX_VALUE));
+
+    private final CompilationService compilationService;
+    private final String className;
+    private final String packageName;
+    private final String simpleName;
+
+    private long tasks = 0;
+
+    /**
+     * @param compilationService used for the javac tasks, and for variants compiled on their own
+     * @param className Full class name, e.g. org.mypackage.StringHelper
+     */
+    public BatchCompiler(CompilationService compilationService, String className) {
+        this.compilationService = compilationService;
+        this.className = className;
+        int lastDot = className.lastIndexOf('.');
+        this.packageName = lastDot < 0 ? "" : className.substring(0, lastDot);
+        this.simpleName = className.substring(lastDot + 1);
+    }
+
+    /**
+     * @return the number of javac tasks run by this compiler, including those for variants compiled on their own
+     */
+    public long getTasks() {
+        return tasks;
+    }
+
+    /**
+     * Compile the variants.
+     * @param sources the full source of each variant of the class
+     * @return for each source, in order, its class bytes indexed by binary class name; null where compilation failed
+     */
+    public List<Map<String, byte[]>> compile(List<String> sources) {
+
+        List<Map<String, byte[]>> classes = new ArrayList<>();
+        Map<JavaFileObject, Integer> variantOfUnit = new IdentityHashMap<>();
+        Map<Integer, Set<String>> renamedTypes = new LinkedHashMap<>();
+
+        for (int variant = 0; variant < sources.size(); variant++) {
+            classes.add(null);
+            String suffix = VARIANT_SUFFIX + variant + "_";
+            Set<String> types = new HashSet<>();
+            String renamedSource = rename(sources.get(variant), suffix, types);
+            if (renamedSource == null) {
+                tasks++;
+                classes.set(variant, compilationService.compile(className, sources.get(variant)));
+            } else {
+                variantOfUnit.put(new Compiler.SourceObject(qualify(simpleName + suffix), renamedSource), variant);
+                renamedTypes.put(variant, types);
+            }
+        }
+
+        // Compile the remaining variants together, dropping those with errors, until a task succeeds
+        while (!variantOfUnit.isEmpty()) {
+
+            DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+            Map<String, ByteArrayOutputStream> outputs = new LinkedHashMap<>();
+            tasks++;
+            boolean compiledOK = compilationService.compileUnits(new ArrayList<>(variantOfUnit.keySet()), OPTIONS, diagnostics, outputs);
+
+            if (compiledOK) {
+                for (int variant : variantOfUnit.values()) {
+                    classes.set(variant, renameBack(variant, renamedTypes.get(variant), outputs));
+                }
+                break;
+            }
+
+            Set<JavaFileObject> failed = new HashSet<>();
+            for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+                JavaFileObject unit = diagnostic.getSource();
+                if (diagnostic.getKind() == Diagnostic.Kind.ERROR && unit != null && variantOfUnit.containsKey(unit)) {
+                    failed.add(unit);
+                    Logger.debug("Compilation error in variant " + variantOfUnit.get(unit) + " at line " + diagnostic.getLineNumber()
+                            + ": " + diagnostic.getMessage(null));
+                }
+            }
+
+            if (failed.isEmpty()) {
+                // errors not attributable to any variant, so fall back to compiling each on its own
+                for (int variant : variantOfUnit.values()) {
+                    tasks++;
+                    classes.set(variant, compilationService.compile(className, sources.get(variant)));
+                }
+                break;
+            }
+
+            variantOfUnit.keySet().removeAll(failed);
+
+        }
+
+        return classes;
+
+    }
+
+    private String qualify(String name) {
+        return packageName.isEmpty() ? name : packageName + "." + name;
+    }
+
+    /*============== renaming the variants apart ==============*/
+
+    /**
+     * @param types receives the names of the top-level types
+     * @return the source with its top-level types renamed, or null if it can't safely be renamed
+     */
+    private String rename(String source, String suffix, Set<String> types) {
+
+        CompilationUnit cu;
+        try {
+            cu = JavaParser.parse(source);
+        } catch (ParseProblemException e) {
+            return null;
+        }
+
+        for (TypeDeclaration<?> type : cu.getTypes()) {
+            types.add(type.getNameAsString());
+        }
+        if (!types.contains(simpleName)) {
+            return null;
+        }
+
+        // the names must only be used for the top-level types
+        for (Node node : cu.getChildNodesByType(Node.class)) {
+            String declared = null;
+            if (node instanceof VariableDeclarator) {
+                declared = ((VariableDeclarator) node).getNameAsString();
+            } else if (node instanceof Parameter) {
+                declared = ((Parameter) node).getNameAsString();
+            } else if (node instanceof TypeParameter) {
+                declared = ((TypeParameter) node).getNameAsString();
+            } else if (node instanceof TypeDeclaration && node.getParentNode().orElse(null) != cu) {
+                declared = ((TypeDeclaration<?>) node).getNameAsString();
+            }
+            if (declared != null && types.contains(declared)) {
+                return null;
+            }
+        }
+
+        for (SimpleName name : cu.getChildNodesByType(SimpleName.class)) {
+            if (types.contains(name.getIdentifier()) && refersToType(name)) {
+                name.setIdentifier(name.getIdentifier() + suffix);
+            }
+        }
+        for (Name name : cu.getChildNodesByType(Name.class)) {
+            Optional<Node> parent = name.getParentNode();
+            if (types.contains(name.getIdentifier()) && isPackageQualified(name.getQualifier().map(Node::toString))
+                    && parent.isPresent() && (parent.get() instanceof ThisExpr || parent.get() instanceof SuperExpr)) {
+                name.setIdentifier(name.getIdentifier() + suffix);
+            }
+        }
+
+        return cu.toString();
+
+    }
+
+    private boolean refersToType(SimpleName name) {
+
+        Node parent = name.getParentNode().orElse(null);
+        if (parent instanceof TypeDeclaration) {
+            return parent.getParentNode().isPresent() && parent.getParentNode().get() instanceof CompilationUnit;
+        } else if (parent instanceof ConstructorDeclaration || parent instanceof NameExpr) {
+            return true;
+        } else if (parent instanceof ClassOrInterfaceType) {
+            return isPackageQualified(((ClassOrInterfaceType) parent).getScope().map(Node::toString));
+        } else if (parent instanceof FieldAccessExpr) {
+            return isPackageQualified(Optional.of(((FieldAccessExpr) parent).getScope().toString()));
+        }
+        return false;
+
+    }
+
+    private boolean isPackageQualified(Optional<String> qualifier) {
+        return !qualifier.isPresent() || qualifier.get().equals(packageName);
+    }
+
+    /*============== renaming the class files back ==============*/
+
+    /**
+     * @return the classes output for the variant, with the renamed types given back their original names
+     */
+    private Map<String, byte[]> renameBack(int variant, Set<String> types, Map<String, ByteArrayOutputStream> outputs) {
+
+        String suffix = VARIANT_SUFFIX + variant + "_";
+        Map<String, byte[]> classes = new LinkedHashMap<>();
+        for (Map.Entry<String, ByteArrayOutputStream> output : outputs.entrySet()) {
+            for (String type : types) {
+                String renamed = qualify(type + suffix);
+                String name = output.getKey();
+                if (name.equals(renamed) || name.startsWith(renamed + "$")) {
+                    classes.put(qualify(type) + name.substring(renamed.length()),
+                            renameInConstantPool(output.getValue().toByteArray(), suffix));
+                }
+            }
+        }
+        return classes;
+
+    }
+
+    /**
+     * Remove the suffix from every string in the constant pool, which covers the class names, descriptors,
+     * signatures and source file name. The suffix can't occur in anything else, e.g. a string literal,
+     * as only names were renamed.
+     */
+    static byte[] renameInConstantPool(byte[] classFile, String suffix) {
+
+        try {
+
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(classFile));
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(classFile.length);
+            DataOutputStream out = new DataOutputStream(bytes);
+
+            out.writeInt(in.readInt()); // magic
+            out.writeInt(in.readInt()); // minor and major version
+            int constants = in.readUnsignedShort();
+            out.writeShort(constants);
+
+            for (int index = 1; index < constants; index++) {
+                int tag = in.readUnsignedByte();
+                out.writeByte(tag);
+                switch (tag) {
+                    case 1: // Utf8
+                        out.writeUTF(in.readUTF().replace(suffix, ""));
+                        break;
+                    case 5: // Long
+                    case 6: // Double
+                        out.writeLong(in.readLong());
+                        index++; // takes two entries
+                        break;
+                    case 3: // Integer
+                    case 4: // Float
+                    case 9: // Fieldref
+                    case 10: // Methodref
+                    case 11: // InterfaceMethodref
+                    case 12: // NameAndType
+                    case 17: // Dynamic
+                    case 18: // InvokeDynamic
+                        out.writeInt(in.readInt());
+                        break;
+                    case 15: // MethodHandle
+                        out.writeByte(in.readUnsignedByte());
+                        out.writeShort(in.readUnsignedShort());
+                        break;
+                    case 7: // Class
+                    case 8: // String
+                    case 16: // MethodType
+                    case 19: // Module
+                    case 20: // Package
+                        out.writeShort(in.readUnsignedShort());
+                        break;
+                    default:
+                        throw new IOException("Unknown constant pool tag " + tag);
+                }
+            }
+
+            // the rest of the class file refers to the constant pool by index, so is unchanged
+            byte[] rest = new byte[in.available()];
+            in.readFully(rest);
+            out.write(rest);
+            out.flush();
+            return bytes.toByteArray();
+
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not rename compiled class: " + e.getMessage(), e);
+        }
+
+    }
+
+}
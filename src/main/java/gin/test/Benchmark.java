@@ -0,0 +1,177 @@
+package gin.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.math3.distribution.TDistribution;
+import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
+import org.apache.commons.math3.stat.inference.MannWhitneyUTest;
+
+/**
+ * Settings and statistics for benchmark-grade timing of patches.
+ *
+ * All tests are first run for a number of warmup rounds, so that the JIT has compiled the patched code,
+ * and then for measured rounds until the confidence interval of the mean round time is narrow enough,
+ * or the maximum number of rounds is reached. A round runs every test once; its sample is the total
+ * execution time of the tests. Outliers are rejected with Tukey's fences before any statistic is computed.
+ *
+ * A patch is only considered faster than another if a one-sided Mann-Whitney U test on the samples
+ * is significant.
+ */
+public class Benchmark {
+
+    // Tukey's fences: samples further than this many interquartile ranges outside the quartiles are outliers
+    private static final double OUTLIER_IQR_FACTOR = 1.5;
+
+    private final int warmupRounds;
+    private final int minRounds;
+    private final int maxRounds;
+    private final double precision;
+    private final double confidence;
+    private final double significance;
+
+    /**
+     * @param warmupRounds rounds run before measuring, results discarded
+     * @param minRounds measured rounds always run
+     * @param maxRounds measured rounds run at most
+     * @param precision target half-width of the confidence interval, relative to the mean, e.g. 0.05
+     * @param confidence confidence level of the interval, e.g. 0.95
+     * @param significance significance level of the test for improvement, e.g. 0.05
+     */
+    public Benchmark(int warmupRounds, int minRounds, int maxRounds, double precision, double confidence, double significance) {
+        this.warmupRounds = warmupRounds;
+        this.minRounds = Math.max(2, minRounds);
+        this.maxRounds = Math.max(this.minRounds, maxRounds);
+        this.precision = precision;
+        this.confidence = confidence;
+        this.significance = significance;
+    }
+
+    public int getWarmupRounds() {
+        return warmupRounds;
+    }
+
+    public int getMinRounds() {
+        return minRounds;
+    }
+
+    public int getMaxRounds() {
+        return maxRounds;
+    }
+
+    /**
+     * Have enough rounds been measured?
+     * @param samples round times measured so far
+     */
+    public boolean isComplete(List<Long> samples) {
+        if (samples.size() >= maxRounds) {
+            return true;
+        }
+        return samples.size() >= minRounds && relativeHalfWidth(samples) <= precision;
+    }
+
+    /**
+     * Half-width of the confidence interval of the mean, relative to the mean, after outlier rejection.
+     */
+    public double relativeHalfWidth(List<Long> samples) {
+
+        DescriptiveStatistics stats = new DescriptiveStatistics(withoutOutliers(samples));
+        if (stats.getN() < 2 || stats.getMean() == 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+
+        double t = new TDistribution(stats.getN() - 1).inverseCumulativeProbability(1 - (1 - confidence) / 2);
+        return t * stats.getStandardDeviation() / Math.sqrt(stats.getN()) / stats.getMean();
+
+    }
+
+    /**
+     * Is the candidate significantly faster than the baseline?
+     * @param candidate round times of the candidate patch
+     * @param baseline round times of the current best patch
+     */
+    public boolean isFaster(List<Long> candidate, List<Long> baseline) {
+
+        double[] x = withoutOutliers(candidate);
+        double[] y = withoutOutliers(baseline);
+        if (x.length == 0 || y.length == 0) {
+            return false;
+        }
+
+        if (median(candidate) >= median(baseline)) {
+            return false;
+        }
+
+        // two-sided p-value, halved for the one-sided test as the direction is already known
+        double p = new MannWhitneyUTest().mannWhitneyUTest(x, y);
+        return p / 2 < significance;
+
+    }
+
+    /**
+     * Can the candidate no longer be faster than the given round time? True once the whole
+     * confidence interval of its mean round time, after outlier rejection, lies above it.
+     * @param samples round times of the candidate measured so far
+     * @param limitNS round time to beat, e.g. the median of the best patch so far
+     */
+    public boolean isSlower(List<Long> samples, long limitNS) {
+
+        DescriptiveStatistics stats = new DescriptiveStatistics(withoutOutliers(samples));
+        if (stats.getN() < 2) {
+            return false;
+        }
+        return stats.getMean() * (1 - relativeHalfWidth(samples)) > limitNS;
+
+    }
+
+    /**
+     * Median round time, after outlier rejection; 0 if there are no samples.
+     */
+    public static long median(List<Long> samples) {
+        double[] values = withoutOutliers(samples);
+        if (values.length == 0) {
+            return 0;
+        }
+        return Math.round(new DescriptiveStatistics(values).getPercentile(50));
+    }
+
+    /**
+     * Samples within Tukey's fences.
+     */
+    public static double[] withoutOutliers(List<Long> samples) {
+
+        DescriptiveStatistics stats = new DescriptiveStatistics();
+        for (long sample : samples) {
+            stats.addValue(sample);
+        }
+        if (stats.getN() < 4) {
+            return stats.getValues();
+        }
+
+        double q1 = stats.getPercentile(25);
+        double q3 = stats.getPercentile(75);
+        double lower = q1 - OUTLIER_IQR_FACTOR * (q3 - q1);
+        double upper = q3 + OUTLIER_IQR_FACTOR * (q3 - q1);
+
+        List<Double> kept = new ArrayList<>();
+        for (long sample : samples) {
+            if (sample >= lower && sample <= upper) {
+                kept.add((double) sample);
+            }
+        }
+
+        double[] values = new double[kept.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = kept.get(i);
+        }
+        return values;
+
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Benchmark. Warmup rounds: %d; Rounds: %d to %d; Precision: %.3f; Confidence: %.3f; Significance: %.3f.",
+                warmupRounds, minRounds, maxRounds, precision, confidence, significance);
+    }
+
+}
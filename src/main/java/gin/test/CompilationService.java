@@ -0,0 +1,336 @@
+package gin.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+import org.pmw.tinylog.Logger;
+
+/**
+ * Long-lived, in-memory compilation of patched classes against a fixed classpath.
+ * The javac file manager is created once, with the project classpath and gin's own classpath set on it,
+ * so the jars and class directories are opened and indexed once rather than for every patch.
+ * Only the patched compilation unit changes between calls.
+ *
+ * The file manager isn't thread-safe, so there is one service per thread and classpath; see forClassPath.
+ * The file manager holds the classpath jars open until the service is closed. A thread's services are closed
+ * with closeForThread, which the threads of threadFactory call as they finish, e.g. when their pool shuts down.
+ * Also records how long compilation took, for the last patch and in total, both per service and summed over
+ * all services for the classpath, i.e. over all threads; see totals.
+ *
+ * Patches are compiled with the same options as the legacy Compiler.compile: the classpath, which is set on the
+ * file manager, and -Xlint:unchecked, whose warnings, as all warnings, don't fail compilation.
+ */
+public class CompilationService implements AutoCloseable {
+
+    private static final ThreadLocal<Map<String, CompilationService>> SERVICES = ThreadLocal.withInitial(HashMap::new);
+
+    private static final List<String> OPTIONS = Collections.singletonList("-Xlint:unchecked");
+
+    // Statistics of all services, indexed by classpath
+    private static final Map<String, Totals> TOTALS = new ConcurrentHashMap<>();
+
+    /**
+     * Statistics summed over the services for a classpath, which may be on different threads.
+     */
+    private static class Totals {
+
+        private final AtomicLong services = new AtomicLong();
+        private final AtomicLong compilations = new AtomicLong();
+        private final AtomicLong batches = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong totalCompileTimeNS = new AtomicLong();
+
+    }
+
+    private final Totals totals;
+
+    private final String classPath;
+
+    private final JavaCompiler compiler;
+    private final StandardJavaFileManager fileManager;
+
+    // One per target class, holding the compiled original
+    private final Map<String, IncrementalCompiler> incrementalCompilers = new HashMap<>();
+
+    private long compilations = 0;
+    private long batches = 0;
+    private long failures = 0;
+    private long totalCompileTimeNS = 0;
+    private long lastCompileTimeNS = 0;
+
+    /**
+     * @return this thread's service for the given project classpath, created on first use
+     */
+    public static CompilationService forClassPath(String classPath) {
+        return SERVICES.get().computeIfAbsent(key(classPath), k -> new CompilationService(classPath));
+    }
+
+    /**
+     * Close this thread's services, which forClassPath then creates afresh.
+     */
+    public static void closeForThread() {
+        Map<String, CompilationService> services = SERVICES.get();
+        for (CompilationService service : services.values()) {
+            service.close();
+        }
+        services.clear();
+    }
+
+    /**
+     * @return a factory of threads that close their services as they finish, for thread pools that compile
+     */
+    public static ThreadFactory threadFactory() {
+        ThreadFactory threads = Executors.defaultThreadFactory();
+        return task -> threads.newThread(() -> {
+            try {
+                task.run();
+            } finally {
+                closeForThread();
+            }
+        });
+    }
+
+    /**
+     * @return the statistics of all services for the given classpath, on any thread, so far
+     */
+    public static String totals(String classPath) {
+        Totals totals = TOTALS.computeIfAbsent(key(classPath), k -> new Totals());
+        return String.format("CompilationService, all threads. Services: %d; Compilations: %d; Batches: %d; Failures: %d; Total time (ns): %d.",
+                totals.services.get(), totals.compilations.get(), totals.batches.get(), totals.failures.get(),
+                totals.totalCompileTimeNS.get());
+    }
+
+    private static String key(String classPath) {
+        return classPath == null ? "" : classPath;
+    }
+
+    /**
+     * @param classPath the project classpath, may be null; gin's own classpath is appended
+     */
+    public CompilationService(String classPath) {
+
+        this.classPath = classPath;
+        this.totals = TOTALS.computeIfAbsent(key(classPath), k -> new Totals());
+        this.totals.services.incrementAndGet();
+        this.compiler = ToolProvider.getSystemJavaCompiler();
+        this.fileManager = compiler.getStandardFileManager(null, null, null);
+
+        List<File> classPathFiles = new ArrayList<>();
+        if (classPath != null) {
+            for (String element : classPath.split(File.pathSeparator)) {
+                classPathFiles.add(new File(element));
+            }
+        }
+        for (String element : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            classPathFiles.add(new File(element));
+        }
+
+        try {
+            fileManager.setLocation(StandardLocation.CLASS_PATH, classPathFiles);
+        } catch (IOException e) {
+            Logger.error("Could not set the classpath for compilation: " + classPath);
+            Logger.trace(e);
+            System.exit(-1);
+        }
+
+    }
+
+    /**
+     * Compile a class in memory, keeping the bytecode of the class and all of its nested and anonymous classes.
+     * @param className Full class name, e.g. org.mypackage.StringHelper
+     * @param source String of full source file.
+     * @return class bytes indexed by binary class name; null if compilation failed
+     */
+    public Map<String, byte[]> compile(String className, String source) {
+
+        long start = System.nanoTime();
+
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        Map<String, ByteArrayOutputStream> outputs = new LinkedHashMap<>();
+
+        // the forwarding manager only captures output, everything else is answered by the cached file manager
+        JavaFileManager fm = new Compiler.InMemoryFileManager(fileManager, outputs);
+        List<JavaFileObject> compilationUnit = Arrays.asList(new Compiler.SourceObject(className, source));
+
+        JavaCompiler.CompilationTask task = compiler.getTask(null, fm, diagnostics, OPTIONS, null, compilationUnit);
+        boolean compiledOK = task.call();
+
+        Map<String, byte[]> classes = null;
+        if (compiledOK) {
+            classes = new LinkedHashMap<>();
+            for (Map.Entry<String, ByteArrayOutputStream> output : outputs.entrySet()) {
+                classes.put(output.getKey(), output.getValue().toByteArray());
+            }
+        } else {
+            for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+                if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+                    Logger.debug("Compilation error at line " + diagnostic.getLineNumber() + ": " + diagnostic.getMessage(null));
+                }
+            }
+        }
+
+        lastCompileTimeNS = System.nanoTime() - start;
+        record(1, 0, compiledOK ? 0 : 1, lastCompileTimeNS);
+
+        return classes;
+
+    }
+
+    /**
+     * Compile the patched source, recompiling only the changed methods where possible; see IncrementalCompiler.
+     * Counts as a single compilation.
+     * @param className Full class name, e.g. org.mypackage.StringHelper
+     * @param originalSource the unpatched source, compiled once per class
+     * @param patchedSource the patched source
+     * @return class bytes indexed by binary class name; null if compilation failed
+     */
+    public Map<String, byte[]> compileIncrementally(String className, String originalSource, String patchedSource) {
+
+        IncrementalCompiler incrementalCompiler = incrementalCompilers.get(className);
+        if (incrementalCompiler == null || !incrementalCompiler.getOriginalSource().equals(originalSource)) {
+            incrementalCompiler = new IncrementalCompiler(this, className, originalSource);
+            incrementalCompilers.put(className, incrementalCompiler);
+        }
+
+        long start = System.nanoTime();
+        long compilationsBefore = compilations;
+        long failuresBefore = failures;
+        long timeBefore = totalCompileTimeNS;
+
+        Map<String, byte[]> classes = incrementalCompiler.compile(patchedSource);
+
+        // replace the compilations made along the way with this one
+        lastCompileTimeNS = System.nanoTime() - start;
+        record(compilationsBefore + 1 - compilations, 0, failuresBefore + (classes == null ? 1 : 0) - failures,
+                timeBefore + lastCompileTimeNS - totalCompileTimeNS);
+
+        return classes;
+
+    }
+
+    /**
+     * Compile several variants of a class, e.g. the patched sources of a generation, in a single javac task;
+     * see BatchCompiler. Each variant counts as a compilation, and the last compile time is each variant's
+     * equal share of the batch.
+     * @param className Full class name, e.g. org.mypackage.StringHelper
+     * @param sources the full source of each variant
+     * @return for each source, in order, its class bytes indexed by binary class name; null where compilation failed
+     */
+    public List<Map<String, byte[]>> compileBatch(String className, List<String> sources) {
+
+        long start = System.nanoTime();
+        long compilationsBefore = compilations;
+        long failuresBefore = failures;
+        long timeBefore = totalCompileTimeNS;
+
+        List<Map<String, byte[]>> classes = new BatchCompiler(this, className).compile(sources);
+
+        // replace any compilations made along the way with those of the variants
+        long batchTimeNS = System.nanoTime() - start;
+        lastCompileTimeNS = sources.isEmpty() ? 0 : batchTimeNS / sources.size();
+        record(compilationsBefore + sources.size() - compilations, 1,
+                failuresBefore + classes.stream().filter(c -> c == null).count() - failures,
+                timeBefore + batchTimeNS - totalCompileTimeNS);
+
+        return classes;
+
+    }
+
+    /**
+     * Run one javac task over several compilation units, with the output captured in memory.
+     * Used by BatchCompiler and DeletionSchema; not counted in the statistics.
+     * @param options javac options in addition to the service's own, may be null
+     * @return true if all of the units compiled
+     */
+    boolean compileUnits(List<JavaFileObject> units, List<String> options,
+                         DiagnosticCollector<JavaFileObject> diagnostics, Map<String, ByteArrayOutputStream> outputs) {
+        JavaFileManager fm = new Compiler.InMemoryFileManager(fileManager, outputs);
+        List<String> allOptions = new ArrayList<>(OPTIONS);
+        if (options != null) {
+            allOptions.addAll(options);
+        }
+        return compiler.getTask(null, fm, diagnostics, allOptions, null, units).call();
+    }
+
+    // Add to the statistics of this service and to the totals for its classpath
+    private void record(long compilations, long batches, long failures, long compileTimeNS) {
+        this.compilations += compilations;
+        this.batches += batches;
+        this.failures += failures;
+        this.totalCompileTimeNS += compileTimeNS;
+        totals.compilations.addAndGet(compilations);
+        totals.batches.addAndGet(batches);
+        totals.failures.addAndGet(failures);
+        totals.totalCompileTimeNS.addAndGet(compileTimeNS);
+    }
+
+    /**
+     * Close the file manager, and with it the classpath jars.
+     */
+    @Override
+    public void close() {
+        try {
+            fileManager.close();
+        } catch (IOException e) {
+            Logger.warn("Could not close the file manager for classpath: " + classPath);
+            Logger.trace(e);
+        }
+    }
+
+    public String getClassPath() {
+        return classPath;
+    }
+
+    public long getCompilations() {
+        return compilations;
+    }
+
+    /**
+     * @return the number of calls to compileBatch
+     */
+    public long getBatches() {
+        return batches;
+    }
+
+    public long getFailures() {
+        return failures;
+    }
+
+    public long getTotalCompileTimeNS() {
+        return totalCompileTimeNS;
+    }
+
+    /**
+     * @return wall-clock time taken by the most recent call to compile; for a batch, each variant's share
+     */
+    public long getLastCompileTimeNS() {
+        return lastCompileTimeNS;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CompilationService. Compilations: %d; Batches: %d; Failures: %d; Total time (ns): %d.",
+                compilations, batches, failures, totalCompileTimeNS);
+    }
+
+}
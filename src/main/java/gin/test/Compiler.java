@@ -1,11 +1,19 @@
 package gin.test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.OutputStream;
+import java.net.URI;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
 import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
 import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
 import javax.tools.StandardJavaFileManager;
 import javax.tools.ToolProvider;
 
@@ -15,6 +23,7 @@ import org.pmw.tinylog.Logger;
 
 /**
  * Wraps the InMemoryJavaCompiler to compile a class given its name and a classpath.
+ * Also compiles with javac directly, either in memory or from a file on disk.
  */
 public class Compiler {
 
@@ -56,6 +65,20 @@ public class Compiler {
 
     }
 
+    /**
+     * Compile a class in memory, keeping the bytecode of the class and all of its nested and anonymous classes.
+     * Nothing is written to disk. For repeated compilation against the same classpath use CompilationService.
+     * @param className Full class name, e.g. org.mypackage.StringHelper
+     * @param source String of full source file.
+     * @param classPath Standard Java classpath string, may be null.
+     * @return class bytes indexed by binary class name, e.g. org.mypackage.StringHelper$1; null if compilation failed
+     */
+    public static Map<String, byte[]> compileToBytes(String className, String source, String classPath) {
+        try (CompilationService compilationService = new CompilationService(classPath)) {
+            return compilationService.compile(className, source);
+        }
+    }
+
     public static boolean compileFile(File source, String classPath) {
 
         JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
@@ -80,4 +103,49 @@ public class Compiler {
 
     }
 
+    /**
+     * Source held in a string.
+     */
+    static class SourceObject extends SimpleJavaFileObject {
+
+        private final String source;
+
+        SourceObject(String className, String source) {
+            super(URI.create("string:///" + className.replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE);
+            this.source = source;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return source;
+        }
+
+    }
+
+    /**
+     * Captures class files in memory rather than writing them next to the source.
+     */
+    static class InMemoryFileManager extends ForwardingJavaFileManager<JavaFileManager> {
+
+        private final Map<String, ByteArrayOutputStream> outputs;
+
+        InMemoryFileManager(JavaFileManager fileManager, Map<String, ByteArrayOutputStream> outputs) {
+            super(fileManager);
+            this.outputs = outputs;
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind, FileObject sibling) {
+            return new SimpleJavaFileObject(URI.create("bytes:///" + className.replace('.', '/') + kind.extension), kind) {
+                @Override
+                public OutputStream openOutputStream() {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    outputs.put(className, bytes);
+                    return bytes;
+                }
+            };
+        }
+
+    }
+
 }
@@ -0,0 +1,44 @@
+package gin.test;
+
+import java.util.BitSet;
+
+/**
+ * Called by the probes inserted by SourceFile.instrumentTargetMethods(), to record which statements a test executes.
+ * Loaded by the system class loader, so the probes in classes loaded by a CacheClassLoader all record here.
+ * Only one test is measured at a time, see TestCoverage.
+ */
+public class CoverageProbe {
+
+    public static final String PROBE_METHOD = CoverageProbe.class.getName() + ".hit";
+
+    private static volatile boolean[] hits = new boolean[0];
+
+    public static void hit(int probe) {
+        boolean[] current = hits;
+        if (probe < current.length) {
+            current[probe] = true;
+        }
+    }
+
+    /**
+     * Forget all hits, and record hits of probes 0 to probes - 1 from now on.
+     */
+    static void reset(int probes) {
+        hits = new boolean[probes];
+    }
+
+    /**
+     * @return the probes hit since the last reset
+     */
+    static BitSet getHits() {
+        boolean[] current = hits;
+        BitSet hit = new BitSet(current.length);
+        for (int i = 0; i < current.length; i++) {
+            if (current[i]) {
+                hit.set(i);
+            }
+        }
+        return hit;
+    }
+
+}
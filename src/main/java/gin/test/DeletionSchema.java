@@ -0,0 +1,398 @@
+package gin.test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Supplier;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaFileObject;
+
+import org.apache.commons.lang3.StringUtils;
+import org.pmw.tinylog.Logger;
+
+import com.github.javaparser.JavaParser;
+import com.github.javaparser.ParseProblemException;
+import com.github.javaparser.Range;
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.Node;
+import com.github.javaparser.ast.NodeList;
+import com.github.javaparser.ast.body.CallableDeclaration;
+import com.github.javaparser.ast.body.FieldDeclaration;
+import com.github.javaparser.ast.body.InitializerDeclaration;
+import com.github.javaparser.ast.body.TypeDeclaration;
+import com.github.javaparser.ast.body.VariableDeclarator;
+import com.github.javaparser.ast.expr.AssignExpr;
+import com.github.javaparser.ast.expr.Expression;
+import com.github.javaparser.ast.expr.FieldAccessExpr;
+import com.github.javaparser.ast.expr.IntegerLiteralExpr;
+import com.github.javaparser.ast.expr.LambdaExpr;
+import com.github.javaparser.ast.expr.MethodCallExpr;
+import com.github.javaparser.ast.expr.NameExpr;
+import com.github.javaparser.ast.expr.ObjectCreationExpr;
+import com.github.javaparser.ast.expr.UnaryExpr;
+import com.github.javaparser.ast.expr.VariableDeclarationExpr;
+import com.github.javaparser.ast.nodeTypes.NodeWithStatements;
+import com.github.javaparser.ast.stmt.BreakStmt;
+import com.github.javaparser.ast.stmt.CatchClause;
+import com.github.javaparser.ast.stmt.ContinueStmt;
+import com.github.javaparser.ast.stmt.ExplicitConstructorInvocationStmt;
+import com.github.javaparser.ast.stmt.ExpressionStmt;
+import com.github.javaparser.ast.stmt.IfStmt;
+import com.github.javaparser.ast.stmt.LabeledStmt;
+import com.github.javaparser.ast.stmt.LocalClassDeclarationStmt;
+import com.github.javaparser.ast.stmt.Statement;
+import com.github.javaparser.ast.stmt.TryStmt;
+
+import gin.SourceFileTree;
+
+/**
+ * A mutant schema for deleting statements: one compiled variant of a class in which each of many statements
+ * is wrapped in a guard, "if (!gin.test.DeletionSchema.deleted(guard)) statement", so that any combination of
+ * their deletions can be tested with a single compile, by choosing which guards are set while the tests run.
+ *
+ * A statement is only guarded if javac checks the guarded statement as it would the deletion, so that a patch
+ * compiles exactly when it would on its own. So none of these are guarded: declarations, explicit constructor
+ * invocations, statements that can't complete normally, statements with a break or continue out of them,
+ * assignments to variables declared without an initialiser, statements in the try block of a try statement
+ * catching a specific exception (deleting them may leave it never thrown), and statements in lambdas (deleting
+ * them may change which overloaded method the lambda is passed to). If the schema still doesn't compile, the
+ * guards that the errors are in are removed and it is compiled again.
+ *
+ * The guards are read from this class, loaded by the system class loader, so the schema's classes loaded
+ * by a CacheClassLoader all see the same deletions. Only one patch is tested at a time, see withDeletions.
+ *
+ * The guards are checked within the tests' timed runs, each costing a static call and a volatile read every time
+ * its statement runs. Execution and CPU times of a patch tested against the schema are therefore inflated relative
+ * to those of the patch compiled on its own, most in tight loops, and shouldn't be compared with them.
+ */
+public class DeletionSchema {
+
+    public static final String GUARD_METHOD = DeletionSchema.class.getName() + ".deleted";
+
+    // Exceptions that may be caught whether or not the try block can throw them
+    private static final Set<String> ALWAYS_CATCHABLE = new HashSet<>(Arrays.asList(
+            "Throwable", "Exception", "RuntimeException", "Error"));
+
+    private static volatile BitSet deletedGuards = new BitSet();
+
+    // statement ID -> guard
+    private final Map<Integer, Integer> guards;
+
+    private final Map<String, byte[]> classes;
+
+    private DeletionSchema(Map<Integer, Integer> guards, Map<String, byte[]> classes) {
+        this.guards = guards;
+        this.classes = classes;
+    }
+
+    /**
+     * Called by the guards.
+     * @return true if the guarded statement is deleted in the patch being tested
+     */
+    public static boolean deleted(int guard) {
+        return deletedGuards.get(guard);
+    }
+
+    /**
+     * Guard as many of the statements as possible, and compile the schema.
+     * @param className Full class name, e.g. org.mypackage.StringHelper
+     * @param classPath the project classpath
+     * @param sourceFile the unpatched source
+     * @param statementIDs the statements whose deletions are to be tested
+     * @return the schema; no statements are guarded if it couldn't be compiled
+     */
+    public static DeletionSchema build(String className, String classPath, SourceFileTree sourceFile, List<Integer> statementIDs) {
+
+        Set<Integer> candidates = new HashSet<>(statementIDs);
+        Set<Integer> guardable = sourceFile.readCompilationUnit(cu -> guardableStatements(cu, candidates));
+
+        Map<Integer, Integer> guards = new LinkedHashMap<>();
+        for (int i = 0; i < statementIDs.size(); i++) {
+            if (guardable.contains(statementIDs.get(i))) {
+                guards.put(statementIDs.get(i), i);
+            }
+        }
+
+        CompilationService compilationService = CompilationService.forClassPath(classPath);
+
+        while (!guards.isEmpty()) {
+
+            Map<Integer, Expression> conditions = new HashMap<>();
+            for (Map.Entry<Integer, Integer> guard : guards.entrySet()) {
+                conditions.put(guard.getKey(), condition(guard.getValue()));
+            }
+            String source = sourceFile.guardStatements(conditions);
+
+            DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+            Map<String, ByteArrayOutputStream> outputs = new LinkedHashMap<>();
+            List<JavaFileObject> units = Collections.singletonList(new Compiler.SourceObject(className, source));
+
+            if (compilationService.compileUnits(units, null, diagnostics, outputs)) {
+                Map<String, byte[]> classes = new LinkedHashMap<>();
+                for (Map.Entry<String, ByteArrayOutputStream> output : outputs.entrySet()) {
+                    classes.put(output.getKey(), output.getValue().toByteArray());
+                }
+                Logger.info("Mutant schema for " + className + " guards " + guards.size() + " of " + statementIDs.size() + " statements");
+                return new DeletionSchema(guards, classes);
+            }
+
+            Set<Integer> failed = failedGuards(source, diagnostics);
+            if (failed.isEmpty()) {
+                break;
+            }
+            guards.values().removeAll(failed);
+
+        }
+
+        Logger.warn("No mutant schema for " + className + "; deletions will be compiled one patch at a time");
+        return new DeletionSchema(Collections.emptyMap(), null);
+
+    }
+
+    /**
+     * @return true if all of the statements are guarded, so that deleting them can be tested with the schema
+     */
+    public boolean covers(List<Integer> statementIDs) {
+        return classes != null && guards.keySet().containsAll(statementIDs);
+    }
+
+    /**
+     * @return the compiled schema, indexed by binary class name; null if it couldn't be compiled
+     */
+    public Map<String, byte[]> getClasses() {
+        return classes;
+    }
+
+    /**
+     * @return the number of statements guarded
+     */
+    public int getGuards() {
+        return guards.size();
+    }
+
+    /**
+     * Run a test of the schema with the given statements deleted. Tests of deletions are run one at a time.
+     * @param statementIDs statements covered by the schema
+     * @param test e.g. running the tests against the schema's classes
+     */
+    public <T> T withDeletions(List<Integer> statementIDs, Supplier<T> test) {
+
+        BitSet deleted = new BitSet();
+        for (int statementID : statementIDs) {
+            deleted.set(guards.get(statementID));
+        }
+
+        synchronized (DeletionSchema.class) {
+            deletedGuards = deleted;
+            try {
+                return test.get();
+            } finally {
+                deletedGuards = new BitSet();
+            }
+        }
+
+    }
+
+    private static Expression condition(int guard) {
+        MethodCallExpr call = new MethodCallExpr(new NameExpr(StringUtils.substringBeforeLast(GUARD_METHOD, ".")),
+                StringUtils.substringAfterLast(GUARD_METHOD, "."), NodeList.nodeList(new IntegerLiteralExpr(Integer.toString(guard))));
+        return new UnaryExpr(call, UnaryExpr.Operator.LOGICAL_COMPLEMENT);
+    }
+
+    /*============== which statements can be guarded ==============*/
+
+    private static Set<Integer> guardableStatements(CompilationUnit cu, Set<Integer> candidates) {
+
+        // local variables and final fields declared without an initialiser
+        Set<String> uninitialised = new HashSet<>();
+        for (VariableDeclarator variable : cu.getChildNodesByType(VariableDeclarator.class)) {
+            Optional<Node> declaration = variable.getParentNode();
+            boolean isFinalField = declaration.isPresent() && declaration.get() instanceof FieldDeclaration
+                    && ((FieldDeclaration) declaration.get()).isFinal();
+            boolean isLocal = declaration.isPresent() && declaration.get() instanceof VariableDeclarationExpr;
+            if (!variable.getInitializer().isPresent() && (isFinalField || isLocal)) {
+                uninitialised.add(variable.getNameAsString());
+            }
+        }
+
+        Set<Integer> guardable = new HashSet<>();
+        for (Statement statement : cu.getChildNodesByType(Statement.class)) {
+            Integer id = statement.getData(SourceFileTree.NODEKEY_ID);
+            if (id != null && candidates.contains(id) && isGuardable(statement, uninitialised)) {
+                guardable.add(id);
+            }
+        }
+        return guardable;
+
+    }
+
+    private static boolean isGuardable(Statement statement, Set<String> uninitialised) {
+
+        Optional<Node> parent = statement.getParentNode();
+        if (!parent.isPresent() || !(parent.get() instanceof NodeWithStatements)) {
+            return false;
+        }
+
+        if (statement instanceof ExplicitConstructorInvocationStmt || statement instanceof LocalClassDeclarationStmt
+                || (statement instanceof ExpressionStmt && ((ExpressionStmt) statement).getExpression() instanceof VariableDeclarationExpr)
+                || !PatchValidator.canCompleteNormally(statement)) {
+            return false;
+        }
+
+        for (BreakStmt jump : statement.getChildNodesByType(BreakStmt.class)) {
+            if (jumpsOut(statement, jump, jump.getLabel().map(name -> name.asString()), true)) {
+                return false;
+            }
+        }
+        for (ContinueStmt jump : statement.getChildNodesByType(ContinueStmt.class)) {
+            if (jumpsOut(statement, jump, jump.getLabel().map(name -> name.asString()), false)) {
+                return false;
+            }
+        }
+
+        for (AssignExpr assignment : statement.getChildNodesByType(AssignExpr.class)) {
+            Expression target = assignment.getTarget();
+            String name = target instanceof NameExpr ? ((NameExpr) target).getNameAsString()
+                    : target instanceof FieldAccessExpr ? ((FieldAccessExpr) target).getNameAsString() : null;
+            if (name != null && uninitialised.contains(name)) {
+                return false;
+            }
+        }
+
+        // enclosing lambdas and try blocks, up to the enclosing method
+        Node child = statement;
+        while (parent.isPresent() && !(parent.get() instanceof CallableDeclaration) && !(parent.get() instanceof TypeDeclaration)) {
+            Node node = parent.get();
+            if (node instanceof LambdaExpr) {
+                return false;
+            }
+            if (node instanceof TryStmt && ((TryStmt) node).getTryBlock() == child) {
+                for (CatchClause catchClause : ((TryStmt) node).getCatchClauses()) {
+                    for (String type : catchClause.getParameter().getType().toString().split("\\|")) {
+                        if (!ALWAYS_CATCHABLE.contains(type.trim().replaceFirst("^java\\.lang\\.", ""))) {
+                            return false;
+                        }
+                    }
+                }
+            }
+            child = node;
+            parent = node.getParentNode();
+        }
+
+        return true;
+
+    }
+
+    /**
+     * Does the break (or continue) leave the statement? A labelled jump does unless the labelled statement
+     * is within it, an unlabelled one unless its innermost loop (or switch, for a break) is.
+     */
+    private static boolean jumpsOut(Statement statement, Statement jump, Optional<String> label, boolean isBreak) {
+
+        if (label.isPresent()) {
+            for (Optional<Node> node = jump.getParentNode(); node.isPresent(); node = node.get().getParentNode()) {
+                if (node.get() instanceof LabeledStmt && ((LabeledStmt) node.get()).getLabel().asString().equals(label.get())) {
+                    return false;
+                }
+                if (node.get() == statement) {
+                    break;
+                }
+            }
+            return true;
+        }
+
+        Node target = PatchValidator.innermostTarget(jump, isBreak);
+        for (Node node = target; node != null; node = node.getParentNode().orElse(null)) {
+            if (node == statement) {
+                return false;
+            }
+        }
+        return target != null;
+
+    }
+
+    /*============== refining the schema ==============*/
+
+    /**
+     * @return the guards to remove given the compilation errors: the innermost guard around each error,
+     * or all the guards in the method or initialiser around an error outside any guard
+     */
+    private static Set<Integer> failedGuards(String source, DiagnosticCollector<JavaFileObject> diagnostics) {
+
+        CompilationUnit cu;
+        try {
+            cu = JavaParser.parse(source);
+        } catch (ParseProblemException e) {
+            return Collections.emptySet();
+        }
+
+        Map<IfStmt, Integer> guardOfStatement = new IdentityHashMap<>();
+        for (IfStmt ifStmt : cu.getChildNodesByType(IfStmt.class)) {
+            Expression condition = ifStmt.getCondition();
+            if (condition.toString().startsWith("!" + GUARD_METHOD + "(") && ifStmt.getRange().isPresent()) {
+                IntegerLiteralExpr guard = condition.getChildNodesByType(IntegerLiteralExpr.class).get(0);
+                guardOfStatement.put(ifStmt, Integer.parseInt(guard.getValue()));
+            }
+        }
+
+        Set<Integer> failed = new HashSet<>();
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+
+            if (diagnostic.getKind() != Diagnostic.Kind.ERROR) {
+                continue;
+            }
+            int line = (int) diagnostic.getLineNumber();
+            Logger.debug("Compilation error in mutant schema at line " + line + ": " + diagnostic.getMessage(null));
+
+            IfStmt innermost = null;
+            for (IfStmt guard : guardOfStatement.keySet()) {
+                if (contains(guard.getRange().get(), line) && (innermost == null || span(guard) < span(innermost))) {
+                    innermost = guard;
+                }
+            }
+            if (innermost != null) {
+                failed.add(guardOfStatement.get(innermost));
+                continue;
+            }
+
+            List<Node> bodies = new ArrayList<>();
+            bodies.addAll(cu.getChildNodesByType(CallableDeclaration.class));
+            bodies.addAll(cu.getChildNodesByType(InitializerDeclaration.class));
+            bodies.addAll(cu.getChildNodesByType(ObjectCreationExpr.class));
+            for (Node body : bodies) {
+                if (body.getRange().isPresent() && contains(body.getRange().get(), line)) {
+                    for (IfStmt guard : body.getChildNodesByType(IfStmt.class)) {
+                        if (guardOfStatement.containsKey(guard)) {
+                            failed.add(guardOfStatement.get(guard));
+                        }
+                    }
+                }
+            }
+
+        }
+
+        return failed;
+
+    }
+
+    private static int span(Node node) {
+        Range range = node.getRange().get();
+        return range.end.line - range.begin.line;
+    }
+
+    private static boolean contains(Range range, int line) {
+        return range.begin.line <= line && line <= range.end.line;
+    }
+
+}
@@ -0,0 +1,394 @@
+package gin.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingDeque;
+
+import org.pmw.tinylog.Logger;
+
+import gin.Patch;
+
+/**
+ * Dispatches patches to EvaluationWorkers over sockets, so that they are compiled and tested in parallel,
+ * possibly on other machines. Workers are either started by the coordinator, on this machine, or already
+ * running and connected to by address.
+ *
+ * Patches wait in a single queue, from which each worker takes the next as soon as it is free.
+ * If a worker dies, or doesn't answer within the time its tests could take, its patch is put back at the
+ * front of the queue for another worker, and a worker started by the coordinator is replaced.
+ * A patch that has lost MAX_ATTEMPTS workers is taken to have killed them, and fails as if its tests timed out.
+ *
+ * Thread-safe: evaluate blocks, so evaluations are dispatched concurrently by calling it from several threads.
+ */
+public class EvaluationCoordinator {
+
+    // Workers a patch may lose before it's taken to have killed them
+    static final int MAX_ATTEMPTS = 3;
+
+    // Start of the exception message of the tests of a patch that has lost MAX_ATTEMPTS workers
+    static final String WORKER_LOST = "Evaluation worker lost: ";
+
+    // Time allowed to apply and compile a patch, on top of the timeouts of its tests
+    private static final long COMPILE_ALLOWANCE_MS = 60000;
+
+    private final String classPath;
+
+    private boolean incrementalCompilation = false;
+    private boolean sharedClassLoader = false;
+    private int fitnessCacheSize = 0;
+
+    private final BlockingDeque<Job> queue = new LinkedBlockingDeque<>();
+    private final List<TestHarnessProcess> workers = new ArrayList<>();
+    private final List<Thread> dispatchers = new ArrayList<>();
+
+    private int workersStarted = 0;
+    private int workersLost = 0;
+    private long patches = 0;
+    private long requeued = 0;
+    private boolean closed = false;
+
+    /**
+     * A patch waiting for, or being evaluated by, a worker.
+     */
+    private static class Job {
+
+        private final Patch patch;
+        private final List<UnitTest> tests;
+        private final int reps;
+        private final String request;
+        private final long timeoutMS;
+        private int attempts = 0;
+        private final CompletableFuture<UnitTestResultSet> result = new CompletableFuture<>();
+
+        private Job(Patch patch, List<UnitTest> tests, int reps, String request) {
+            this.patch = patch;
+            this.tests = tests;
+            this.reps = reps;
+            this.request = request;
+            long testTimeMS = 0;
+            for (UnitTest test : tests) {
+                testTimeMS += test.getTimeoutMS();
+            }
+            this.timeoutMS = COMPILE_ALLOWANCE_MS + reps * testTimeMS;
+        }
+
+    }
+
+    /**
+     * @param classPath the project classpath, given to the workers started by the coordinator
+     */
+    public EvaluationCoordinator(String classPath) {
+        this.classPath = classPath;
+    }
+
+    public void setIncrementalCompilation(boolean incrementalCompilation) {
+        this.incrementalCompilation = incrementalCompilation;
+    }
+
+    public void setSharedClassLoader(boolean sharedClassLoader) {
+        this.sharedClassLoader = sharedClassLoader;
+    }
+
+    /**
+     * Set the size of the fitness cache of the workers started by the coordinator; 0, the default, for none.
+     */
+    public void setFitnessCacheSize(int fitnessCacheSize) {
+        this.fitnessCacheSize = fitnessCacheSize;
+    }
+
+    /**
+     * Start workers on this machine, with the project classpath. They are stopped by close.
+     * @throws IOException if a worker failed to start
+     */
+    public void startLocalWorkers(int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            addWorker(TestHarnessProcess.start(workerCommand()), true);
+        }
+    }
+
+    /**
+     * Connect to a worker that is already running; it keeps running after close.
+     * @param address host:port the worker is listening on
+     * @throws IOException if the address is malformed, or the worker can't be connected to
+     */
+    public void connect(String address) throws IOException {
+
+        int colon = address.lastIndexOf(':');
+        int port;
+        try {
+            port = Integer.parseInt(address.substring(colon + 1).trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Not a host:port address: " + address);
+        }
+        String host = colon > 0 ? address.substring(0, colon).trim() : "localhost";
+        addWorker(TestHarnessProcess.connect(host, port), false);
+
+    }
+
+    private void addWorker(TestHarnessProcess worker, boolean local) {
+
+        Thread dispatcher = new Thread(() -> dispatch(worker, local));
+        dispatcher.setDaemon(true);
+        synchronized (this) {
+            workers.add(worker);
+            if (local) {
+                workersStarted++;
+            }
+            dispatchers.add(dispatcher);
+            dispatcher.setName("EvaluationCoordinator-" + dispatchers.size());
+        }
+        dispatcher.start();
+
+    }
+
+    /**
+     * Evaluate a patch on the next free worker, waiting for its results.
+     * The patch must already have been applied, e.g. by a RemoteTestRunner, as its validity is recorded on it.
+     * @param className Full class name of the patched class
+     * @param tests the tests to run, with their timeouts
+     * @param raceLimitNS time to beat, see InternalTestRunner; 0 to run all tests
+     * @return the results of the tests
+     * @throws IOException if there are no workers left, or a worker couldn't evaluate the patch
+     */
+    public UnitTestResultSet evaluate(String className, List<UnitTest> tests, Patch patch, int reps, long raceLimitNS)
+            throws IOException, InterruptedException {
+
+        Job job = new Job(patch, tests, reps, EvaluationWorker.encodeRequest(className, tests, patch, reps, raceLimitNS,
+                incrementalCompilation, sharedClassLoader));
+
+        synchronized (this) {
+            if (closed || workers.isEmpty()) {
+                throw new IOException("No evaluation workers left");
+            }
+            patches++;
+            queue.add(job);
+        }
+
+        try {
+            return job.result.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+
+    }
+
+    /**
+     * Feed patches from the queue to a worker, replacing the worker if it dies and it was started here.
+     */
+    private void dispatch(TestHarnessProcess worker, boolean local) {
+
+        while (worker != null) {
+
+            Job job;
+            try {
+                job = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            try {
+                String response = worker.sendMessage(job.request, job.timeoutMS);
+                if (response == null) {
+                    throw new IOException("no response within " + job.timeoutMS + "ms");
+                }
+                job.result.complete(EvaluationWorker.decodeResponse(response, job.patch, job.tests));
+            } catch (ParseException e) {
+                job.result.completeExceptionally(new IOException(e.getMessage(), e));
+            } catch (IOException e) {
+                if (isClosed()) {
+                    job.result.completeExceptionally(new IOException("Evaluation coordinator closed"));
+                    return;
+                }
+                Logger.warn("Lost evaluation worker: " + e.getMessage());
+                worker.kill();
+                requeue(job, e.getMessage());
+                worker = replace(worker, local);
+            }
+
+        }
+
+    }
+
+    /**
+     * Put the job of a lost worker back at the front of the queue, unless it has lost too many.
+     */
+    private void requeue(Job job, String reason) {
+
+        job.attempts++;
+        if (job.attempts >= MAX_ATTEMPTS) {
+            Logger.warn("Patch lost " + job.attempts + " evaluation workers, so has failed: " + job.patch);
+            job.result.complete(failedResults(job, reason));
+            return;
+        }
+
+        synchronized (this) {
+            requeued++;
+        }
+        queue.addFirst(job);
+
+    }
+
+    /**
+     * Results of a patch that the workers couldn't evaluate: every test timed out.
+     */
+    private UnitTestResultSet failedResults(Job job, String reason) {
+
+        List<UnitTestResult> results = new LinkedList<>();
+        for (int rep = 1; rep <= job.reps; rep++) {
+            for (UnitTest test : job.tests) {
+                UnitTestResult result = new UnitTestResult(test, rep);
+                result.setTimedOut(true);
+                result.setExceptionType(IOException.class.getName());
+                result.setExceptionMessage(WORKER_LOST + reason);
+                results.add(result);
+            }
+        }
+        return new UnitTestResultSet(job.patch, job.patch.lastApplyWasValid(), job.patch.getEditsInvalidOnLastApply(), true, false, results);
+
+    }
+
+    /**
+     * Were these the results of a patch that the workers couldn't evaluate, rather than of its tests?
+     */
+    static boolean lostWorkers(UnitTestResultSet resultSet) {
+        for (UnitTestResult result : resultSet.getResults()) {
+            if (IOException.class.getName().equals(result.getExceptionType())
+                    && result.getExceptionMessage() != null && result.getExceptionMessage().startsWith(WORKER_LOST)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Drop a lost worker, starting another in its place if it was started here.
+     * If none are left, the patches still queued fail.
+     * @return the replacement, or null if there isn't one
+     */
+    private TestHarnessProcess replace(TestHarnessProcess worker, boolean local) {
+
+        TestHarnessProcess replacement = null;
+        if (local && !isClosed()) {
+            try {
+                replacement = TestHarnessProcess.start(workerCommand());
+            } catch (IOException e) {
+                Logger.error("Could not start a replacement evaluation worker: " + e.getMessage());
+            }
+        }
+
+        List<Job> orphaned = new ArrayList<>();
+        synchronized (this) {
+            workers.remove(worker);
+            workersLost++;
+            if (replacement != null && closed) {
+                replacement.stop();
+                replacement = null;
+            }
+            if (replacement != null) {
+                workers.add(replacement);
+                workersStarted++;
+            } else if (workers.isEmpty()) {
+                queue.drainTo(orphaned);
+            }
+        }
+
+        for (Job job : orphaned) {
+            job.result.completeExceptionally(new IOException("No evaluation workers left"));
+        }
+        return replacement;
+
+    }
+
+    private synchronized boolean isClosed() {
+        return closed;
+    }
+
+    public synchronized int getWorkers() {
+        return workers.size();
+    }
+
+    public synchronized int getWorkersStarted() {
+        return workersStarted;
+    }
+
+    public synchronized int getWorkersLost() {
+        return workersLost;
+    }
+
+    public synchronized long getRequeued() {
+        return requeued;
+    }
+
+    /**
+     * @return the workers currently in use, e.g. to simulate one dying
+     */
+    synchronized List<TestHarnessProcess> getWorkerProcesses() {
+        return new ArrayList<>(workers);
+    }
+
+    /**
+     * Stop the workers started here, and disconnect from the others. Patches still queued fail.
+     */
+    public void close() {
+
+        List<TestHarnessProcess> toStop;
+        List<Thread> toInterrupt;
+        synchronized (this) {
+            closed = true;
+            toStop = new ArrayList<>(workers);
+            workers.clear();
+            toInterrupt = new ArrayList<>(dispatchers);
+        }
+
+        for (Thread dispatcher : toInterrupt) {
+            dispatcher.interrupt();
+        }
+        for (TestHarnessProcess worker : toStop) {
+            worker.stop();
+        }
+
+        List<Job> orphaned = new ArrayList<>();
+        queue.drainTo(orphaned);
+        for (Job job : orphaned) {
+            job.result.completeExceptionally(new IOException("Evaluation coordinator closed"));
+        }
+
+    }
+
+    List<String> workerCommand() {
+
+        File javaHome = new File(System.getProperty("java.home"));
+        File javaBin = new File(javaHome, "bin");
+        File jvm = new File(javaBin, "java");
+
+        List<String> command = new ArrayList<>();
+        command.add(jvm.getAbsolutePath());
+        command.add("-Dtinylog.level=" + Logger.getLevel());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(EvaluationWorker.WORKER_CLASS);
+        command.add("-" + TestHarness.CLASSPATH_ARGUMENT);
+        command.add(classPath);
+        command.add("-fc");
+        command.add(Integer.toString(fitnessCacheSize));
+        return command;
+
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("EvaluationCoordinator. Workers: %d; Workers started: %d; Workers lost: %d; Patches: %d; Re-queued: %d.",
+                workers.size(), workersStarted, workersLost, patches, requeued);
+    }
+
+}
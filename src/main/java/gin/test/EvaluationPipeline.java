@@ -0,0 +1,200 @@
+package gin.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import gin.Patch;
+
+/**
+ * Evaluates a batch of patches as InternalTestRunner.runTests does, but with its stages, applying, compiling
+ * and testing, in separate threads connected by bounded queues. The next patches are then applied and compiled
+ * while one is being tested. A stage that gets ahead blocks once its queue is full, so no more than a few
+ * patches' classes are held at once.
+ *
+ * There is one thread applying patches and one compiling them, as the compilers of a runner aren't
+ * thread-safe; there may be several testing them. The stages' threads are kept from one batch to the next,
+ * so the compiling thread keeps its CompilationService, until the pipeline is closed.
+ */
+public class EvaluationPipeline implements AutoCloseable {
+
+    private final int capacity;
+    private final int testThreads;
+
+    private final ExecutorService applyStage;
+    private final ExecutorService compileStage;
+    private final ExecutorService testStage;
+
+    // held while a batch is evaluated, as batches share the stages' threads
+    private final Object evaluating = new Object();
+
+    private long patches = 0;
+    private long wallTimeNS = 0;
+    private long applyTimeNS = 0;
+    private long compileTimeNS = 0;
+    private long testTimeNS = 0;
+
+    /**
+     * A patch between stages, with its index in the batch. An index of -1 marks the end of the batch.
+     */
+    private static class Item {
+
+        private final int index;
+        private final InternalTestRunner runner;
+        private final InternalTestRunner.Evaluation evaluation;
+
+        private Item(int index, InternalTestRunner runner, InternalTestRunner.Evaluation evaluation) {
+            this.index = index;
+            this.runner = runner;
+            this.evaluation = evaluation;
+        }
+
+    }
+
+    private static final Item END = new Item(-1, null, null);
+
+    /**
+     * @param capacity the number of patches each queue between stages holds
+     * @param testThreads the number of threads testing patches
+     */
+    public EvaluationPipeline(int capacity, int testThreads) {
+        this.capacity = Math.max(1, capacity);
+        this.testThreads = Math.max(1, testThreads);
+        this.applyStage = Executors.newSingleThreadExecutor(CompilationService.threadFactory());
+        this.compileStage = Executors.newSingleThreadExecutor(CompilationService.threadFactory());
+        this.testStage = Executors.newFixedThreadPool(this.testThreads, CompilationService.threadFactory());
+    }
+
+    /**
+     * Evaluate the patches, each with its own runner. Runners may be shared between patches.
+     * @param runners the runner for each patch, e.g. with the tests selected for it
+     * @param reps Number of times to run each test
+     * @param raceLimitNS time to beat, see InternalTestRunner.runTests; 0 to run all tests
+     * @return the results of each patch, in the same order as the patches
+     */
+    public List<UnitTestResultSet> evaluate(List<InternalTestRunner> runners, List<Patch> patches, int reps, long raceLimitNS)
+            throws InterruptedException {
+        synchronized (evaluating) {
+            return evaluateBatch(runners, patches, reps, raceLimitNS);
+        }
+    }
+
+    private List<UnitTestResultSet> evaluateBatch(List<InternalTestRunner> runners, List<Patch> patches, int reps, long raceLimitNS)
+            throws InterruptedException {
+
+        UnitTestResultSet[] results = new UnitTestResultSet[patches.size()];
+        BlockingQueue<Item> applied = new ArrayBlockingQueue<>(capacity);
+        BlockingQueue<Item> compiled = new ArrayBlockingQueue<>(capacity);
+
+        long start = System.nanoTime();
+        // all stages report to one queue, so that they can be waited for together
+        BlockingQueue<Future<Void>> completed = new LinkedBlockingQueue<>();
+        CompletionService<Void> applying = new ExecutorCompletionService<>(applyStage, completed);
+        CompletionService<Void> compiling = new ExecutorCompletionService<>(compileStage, completed);
+        CompletionService<Void> testing = new ExecutorCompletionService<>(testStage, completed);
+        List<Future<Void>> stages = new ArrayList<>();
+
+        try {
+
+            stages.add(applying.submit(() -> {
+                for (int i = 0; i < patches.size(); i++) {
+                    long stageStart = System.nanoTime();
+                    InternalTestRunner.Evaluation evaluation = runners.get(i).apply(patches.get(i), reps, raceLimitNS);
+                    addApplyTime(System.nanoTime() - stageStart);
+                    applied.put(new Item(i, runners.get(i), evaluation));
+                }
+                applied.put(END);
+                return null;
+            }));
+
+            stages.add(compiling.submit(() -> {
+                for (Item item = applied.take(); item != END; item = applied.take()) {
+                    long stageStart = System.nanoTime();
+                    item.runner.compile(item.evaluation);
+                    addCompileTime(System.nanoTime() - stageStart);
+                    compiled.put(item);
+                }
+                for (int i = 0; i < testThreads; i++) {
+                    compiled.put(END);
+                }
+                return null;
+            }));
+
+            for (int t = 0; t < testThreads; t++) {
+                stages.add(testing.submit(() -> {
+                    for (Item item = compiled.take(); item != END; item = compiled.take()) {
+                        long stageStart = System.nanoTime();
+                        results[item.index] = item.runner.test(item.evaluation);
+                        addTestTime(System.nanoTime() - stageStart);
+                    }
+                    return null;
+                }));
+            }
+
+            // in order of completion, so that a failed stage is seen even while the others are blocked on it
+            for (int i = 0; i < 2 + testThreads; i++) {
+                completed.take().get();
+            }
+
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Exception in evaluation pipeline", e.getCause());
+        } finally {
+            for (Future<Void> stage : stages) {
+                stage.cancel(true); // unblocks the other stages if one failed
+            }
+        }
+
+        synchronized (this) {
+            this.patches += patches.size();
+            wallTimeNS += System.nanoTime() - start;
+        }
+
+        return Arrays.asList(results);
+
+    }
+
+    /**
+     * Stop the stages' threads, closing the compiling thread's CompilationService.
+     */
+    @Override
+    public void close() {
+        applyStage.shutdownNow();
+        compileStage.shutdownNow();
+        testStage.shutdownNow();
+    }
+
+    private synchronized void addApplyTime(long timeNS) {
+        applyTimeNS += timeNS;
+    }
+
+    private synchronized void addCompileTime(long timeNS) {
+        compileTimeNS += timeNS;
+    }
+
+    private synchronized void addTestTime(long timeNS) {
+        testTimeNS += timeNS;
+    }
+
+    public synchronized long getPatches() {
+        return patches;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("EvaluationPipeline. Patches: %d; Wall time: %dms; Apply: %dms; Compile: %dms; Test: %dms.",
+                patches, wallTimeNS / 1000000, applyTimeNS / 1000000, compileTimeNS / 1000000, testTimeNS / 1000000);
+    }
+
+}
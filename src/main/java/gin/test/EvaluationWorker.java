@@ -0,0 +1,316 @@
+package gin.test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.sampullara.cli.Args;
+import com.sampullara.cli.Argument;
+import org.pmw.tinylog.Logger;
+
+import gin.Patch;
+import gin.SourceFile;
+import gin.edit.Edit;
+
+/**
+ * Compiles and tests patches sent over a socket by an EvaluationCoordinator, possibly on another machine.
+ * The worker holds the project classpath, and must see the project's source files at the same paths
+ * as the coordinator. Patches are sent as their edits, and applied here to the worker's own copy of the
+ * source file; the results are sent back as a UnitTestResultSet.
+ *
+ * The worker listens on the given port, or on any free port, which it prints in the same way as a TestHarness.
+ * It serves one coordinator at a time, evaluating one patch at a time; start several for more throughput.
+ * It follows the TestHarness handshake, and exits when sent the stop command, but not when a coordinator
+ * disconnects.
+ *
+ * Protocol: every message is one line, a command followed by its comma separated fields, each Base64 encoded.
+ * Lists, e.g. of edits, are encoded in the same way as a single field.
+ */
+public class EvaluationWorker {
+
+    public static final String WORKER_CLASS = "gin.test.EvaluationWorker";
+    public static final String PORT_ARGUMENT = "port";
+
+    @Argument(alias = TestHarness.CLASSPATH_ARGUMENT, description = "Project classpath, required", required = true)
+    protected String classPath = null;
+
+    @Argument(alias = PORT_ARGUMENT, description = "Port to listen on; by default any free port, which is printed")
+    protected Integer port = 0;
+
+    @Argument(alias = "fc", description = "Maximum number of entries in the fitness cache, which skips re-testing identical patched source and reuses its first timings; 0, the default, to disable")
+    protected Integer fitnessCacheSize = 0;
+
+    public static final String EVALUATE_COMMAND = "evaluate"; // evaluate,<request fields>, answered with result or error
+    public static final String RESULT = "result"; // result,<result set fields>
+    public static final String ERROR = "error"; // error,<message>
+
+    private static final int REQUEST_FIELDS = 10;
+    private static final int RESULT_FIELDS = 8;
+
+    private FitnessCache fitnessCache = null;
+
+    // Unpatched source files, parsed once for all the patches to them
+    private final Map<String, SourceFile> sourceFiles = new HashMap<>();
+
+    private boolean stopped = false;
+
+    public static void main(String[] args) {
+        new EvaluationWorker(args);
+    }
+
+    public EvaluationWorker(String[] args) {
+        Args.parseOrExit(this, args);
+        start();
+    }
+
+    public void start() {
+
+        if (fitnessCacheSize > 0) {
+            fitnessCache = new FitnessCache(fitnessCacheSize);
+        }
+
+        try (ServerSocket serverSocket = new ServerSocket(port)) {
+
+            System.out.println(TestHarness.PORT_PREFIX + "=" + serverSocket.getLocalPort()); // tell whoever started us the port
+
+            while (!stopped) {
+                try (Socket clientSocket = serverSocket.accept()) {
+                    serve(clientSocket);
+                } catch (IOException e) {
+                    Logger.warn("Lost connection to coordinator: " + e.getMessage());
+                }
+            }
+
+        } catch (IOException e) {
+            Logger.error(e.getMessage());
+        }
+
+    }
+
+    private void serve(Socket clientSocket) throws IOException {
+
+        PrintWriter out = new PrintWriter(clientSocket.getOutputStream(), true);
+        BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream(), StandardCharsets.UTF_8));
+
+        out.println(TestHarness.READY); // handshake: we're ready for patches
+
+        String command;
+        while ((command = in.readLine()) != null) {
+            if (command.equals(TestHarness.STOP_COMMAND)) {
+                stopped = true;
+                return;
+            }
+            out.println(runCommand(command));
+        }
+
+    }
+
+    private String runCommand(String command) {
+
+        try {
+            if (!command.startsWith(EVALUATE_COMMAND + ",")) {
+                throw new ParseException("Unknown command", 0);
+            }
+            UnitTestResultSet resultSet = evaluate(decode(command.substring(EVALUATE_COMMAND.length() + 1)));
+            return RESULT + "," + encodeResult(resultSet);
+        } catch (ParseException e) {
+            Logger.error("Cannot evaluate patch: " + e.getMessage());
+            return ERROR + "," + encode(Collections.singletonList(e.getMessage()));
+        }
+
+    }
+
+    private UnitTestResultSet evaluate(List<String> request) throws ParseException {
+
+        if (request.size() != REQUEST_FIELDS) {
+            throw new ParseException("Expected " + REQUEST_FIELDS + " request fields, received " + request.size(), 0);
+        }
+
+        String className = request.get(0);
+        SourceFile sourceFile = getSourceFile(request.get(1), request.get(2), decode(request.get(3)));
+
+        Patch patch = new Patch(sourceFile);
+        for (String edit : decode(request.get(4))) {
+            try {
+                patch.add(Patch.parseEdit(edit));
+            } catch (IllegalArgumentException e) {
+                throw new ParseException(e.getMessage(), 0);
+            }
+        }
+
+        List<UnitTest> tests = new ArrayList<>();
+        int reps;
+        long raceLimitNS;
+        try {
+            for (String test : decode(request.get(5))) {
+                String[] timeoutAndName = test.split(",", 2);
+                if (timeoutAndName.length != 2) {
+                    throw new ParseException("Not a test format: " + test, 0);
+                }
+                UnitTest unitTest = UnitTest.fromString(timeoutAndName[1]);
+                unitTest.setTimeoutMS(Long.parseLong(timeoutAndName[0]));
+                tests.add(unitTest);
+            }
+            reps = Integer.parseInt(request.get(6));
+            raceLimitNS = Long.parseLong(request.get(7));
+        } catch (NumberFormatException e) {
+            throw new ParseException(e.getMessage(), 0);
+        }
+
+        Logger.debug("Evaluating patch: " + patch);
+
+        InternalTestRunner testRunner = new InternalTestRunner(className, classPath, tests);
+        testRunner.setFitnessCache(fitnessCache);
+        testRunner.setIncrementalCompilation(Boolean.parseBoolean(request.get(8)));
+        testRunner.setSharedClassLoader(Boolean.parseBoolean(request.get(9)));
+        return testRunner.runTests(patch, reps, raceLimitNS);
+
+    }
+
+    private SourceFile getSourceFile(String type, String filename, List<String> targetMethodNames) throws ParseException {
+
+        String key = type + "\n" + filename + "\n" + targetMethodNames;
+        SourceFile sourceFile = sourceFiles.get(key);
+        if (sourceFile == null) {
+            try {
+                sourceFile = (SourceFile) Class.forName(type).getConstructor(String.class, List.class).newInstance(filename, targetMethodNames);
+            } catch (ReflectiveOperationException | ClassCastException e) {
+                throw new ParseException("Cannot create source file of type " + type + " for " + filename + ": " + e, 0);
+            }
+            sourceFiles.put(key, sourceFile);
+        }
+        return sourceFile;
+
+    }
+
+    /*============== messages ==============*/
+
+    /**
+     * The request to evaluate a patch, sent by the coordinator. The patch must be to a SourceFile with a
+     * (String filename, List targetMethodNames) constructor, and its edits must have fromString methods.
+     */
+    static String encodeRequest(String className, List<UnitTest> tests, Patch patch, int reps, long raceLimitNS,
+                                boolean incrementalCompilation, boolean sharedClassLoader) {
+
+        SourceFile sourceFile = patch.getSourceFile();
+        List<String> edits = new ArrayList<>();
+        for (Edit edit : patch.getEdits()) {
+            edits.add(edit.toString());
+        }
+        List<String> timedTests = new ArrayList<>();
+        for (UnitTest test : tests) {
+            timedTests.add(test.getTimeoutMS() + "," + test);
+        }
+
+        return EVALUATE_COMMAND + "," + encode(Arrays.asList(className, sourceFile.getClass().getName(), sourceFile.getFilename(),
+                encode(sourceFile.getTargetMethodNames()), encode(edits), encode(timedTests), Integer.toString(reps),
+                Long.toString(raceLimitNS), Boolean.toString(incrementalCompilation), Boolean.toString(sharedClassLoader)));
+
+    }
+
+    private static String encodeResult(UnitTestResultSet resultSet) {
+
+        List<String> editsValid = new ArrayList<>();
+        for (Boolean valid : resultSet.getEditsValid()) {
+            editsValid.add(valid.toString());
+        }
+        List<String> results = new ArrayList<>();
+        for (UnitTestResult result : resultSet.getResults()) {
+            results.add(result.toString());
+        }
+        PatchValidator.Failure failure = resultSet.getValidationFailure();
+
+        return encode(Arrays.asList(Boolean.toString(resultSet.getValidPatch()), encode(editsValid),
+                Boolean.toString(resultSet.getCleanCompile()), Boolean.toString(resultSet.getNoOp()),
+                Long.toString(resultSet.getCompileTimeNS()), failure == null ? "" : failure.name(),
+                Boolean.toString(resultSet.getDominated()), encode(results)));
+
+    }
+
+    /**
+     * Read the worker's response to an evaluate request.
+     * @param patch the patch that was sent, for the result set
+     * @param tests the tests that were sent, for their timeouts
+     * @throws ParseException if the response isn't a result, including if the worker reported an error
+     */
+    static UnitTestResultSet decodeResponse(String response, Patch patch, List<UnitTest> tests) throws ParseException {
+
+        if (response.startsWith(ERROR + ",")) {
+            List<String> message = decode(response.substring(ERROR.length() + 1));
+            throw new ParseException("Evaluation worker reported an error: " + String.join(" ", message), 0);
+        }
+        if (!response.startsWith(RESULT + ",")) {
+            throw new ParseException("Unexpected response from evaluation worker", 0);
+        }
+
+        List<String> fields = decode(response.substring(RESULT.length() + 1));
+        if (fields.size() != RESULT_FIELDS) {
+            throw new ParseException("Expected " + RESULT_FIELDS + " result fields, received " + fields.size(), 0);
+        }
+
+        List<Boolean> editsValid = new ArrayList<>();
+        for (String valid : decode(fields.get(1))) {
+            editsValid.add(Boolean.parseBoolean(valid));
+        }
+        List<UnitTestResult> results = new ArrayList<>();
+        for (String result : decode(fields.get(7))) {
+            UnitTestResult testResult = UnitTestResult.fromString(result, UnitTest.defaultTimeoutMS);
+            int index = tests.indexOf(testResult.getTest());
+            if (index >= 0) {
+                testResult.getTest().setTimeoutMS(tests.get(index).getTimeoutMS());
+            }
+            results.add(testResult);
+        }
+
+        UnitTestResultSet resultSet = new UnitTestResultSet(patch, Boolean.parseBoolean(fields.get(0)), editsValid,
+                Boolean.parseBoolean(fields.get(2)), Boolean.parseBoolean(fields.get(3)), results);
+        try {
+            resultSet.setCompileTimeNS(Long.parseLong(fields.get(4)));
+            resultSet.setValidationFailure(fields.get(5).isEmpty() ? null : PatchValidator.Failure.valueOf(fields.get(5)));
+        } catch (IllegalArgumentException e) {
+            throw new ParseException(e.getMessage(), 0);
+        }
+        resultSet.setDominated(Boolean.parseBoolean(fields.get(6)));
+        return resultSet;
+
+    }
+
+    /**
+     * Join the fields into one line, each Base64 encoded, so that they may hold commas and line breaks.
+     */
+    static String encode(List<String> fields) {
+        List<String> encoded = new ArrayList<>();
+        for (String field : fields) {
+            encoded.add(Base64.getEncoder().encodeToString(field.getBytes(StandardCharsets.UTF_8)));
+        }
+        return String.join(",", encoded);
+    }
+
+    static List<String> decode(String line) throws ParseException {
+        List<String> fields = new ArrayList<>();
+        if (line.isEmpty()) {
+            return fields;
+        }
+        for (String field : line.split(",", -1)) {
+            try {
+                fields.add(new String(Base64.getDecoder().decode(field), StandardCharsets.UTF_8));
+            } catch (IllegalArgumentException e) {
+                throw new ParseException("Invalid field: " + field, 0);
+            }
+        }
+        return fields;
+    }
+
+}
@@ -1,33 +1,13 @@
 package gin.test;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.FileWriter;
-import java.io.InputStreamReader;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.lang.ProcessBuilder.Redirect;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.net.SocketException;
-import java.net.SocketTimeoutException;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.text.ParseException;
 import java.util.LinkedList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Scanner;
-import java.util.concurrent.TimeUnit;
+import java.util.Map;
 
-import com.opencsv.CSVReader;
-import com.opencsv.CSVWriter;
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.input.ReversedLinesFileReader;
 import org.pmw.tinylog.Logger;
 
 import gin.Patch;
@@ -39,11 +19,14 @@ public class ExternalTestRunner extends TestRunner {
 
     public static final String HARNESS_CLASS = "gin.test.TestHarness";
 
-    private Path temporaryDirectory;
-    private Path temporaryPackageDirectory;
-    
+    // Harnesses a patch may fail to load its classes into before its remaining tests fail
+    static final int MAX_LOAD_ATTEMPTS = 3;
+
     private boolean inNewSubprocess;
 
+    // If set, tests are run on warm harnesses taken from the pool rather than a new JVM per patch
+    private TestHarnessPool harnessPool = null;
+
     /**
      * Create an ExternalTestRunner given a package.ClassName, a classpath string separated by colons if needed,
      * and a list of unit tests that will be used to test patches.
@@ -62,37 +45,16 @@ public class ExternalTestRunner extends TestRunner {
         this.setTests(testsForClass(testClassName));
     }
 
-    class TestClient {
-        
-        private Socket clientSocket;
-        private PrintWriter out;
-        private BufferedReader in;
-        
-        public void startConnection(String ip, int port) throws IOException {
-            clientSocket = new Socket(ip, port);
-            out = new PrintWriter(clientSocket.getOutputStream(), true);
-            in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-        }
-        
-        public String sendMessage(String msg) throws IOException {
-            out.println(msg);
-            return in.readLine();
-        }
-        
-        public void stopConnection() throws IOException {
-            in.close();
-            out.close();
-            clientSocket.close();
-        }
-
-        public void setTimeoutMS(long timeoutMS) throws SocketException { // consider changing type of timeoutMS in UnitTest to int
-            int timeout = Integer.MAX_VALUE;
-            if (timeoutMS < (long) timeout ) {
-                    timeout = (int) timeoutMS;
-            }
-            clientSocket.setSoTimeout(timeout);
-        }
+    public TestHarnessPool getHarnessPool() {
+        return harnessPool;
+    }
 
+    /**
+     * Run tests on long-lived harnesses from the given pool, which must be for this runner's classpath.
+     * Ignored when running every test in a new JVM.
+     */
+    public void setHarnessPool(TestHarnessPool harnessPool) {
+        this.harnessPool = harnessPool;
     }
 
     /**
@@ -102,8 +64,19 @@ public class ExternalTestRunner extends TestRunner {
      * @return the results of the tests
      */
     public UnitTestResultSet runTests(Patch patch, int reps) throws IOException, InterruptedException {
+        return runTests(patch, reps, 0);
+    }
 
-        createTempDirectory();
+    /**
+     * Apply and compile the given patch, then race its tests against the given time, as
+     * InternalTestRunner.runTests does: testing stops as soon as the tests have taken longer than raceLimitNS
+     * in total, and the result set is then marked dominated. Such partial results are not cached.
+     * @param patch Patch to apply.
+     * @param reps Number of times to run each test.
+     * @param raceLimitNS time to beat, e.g. that of the best patch so far; 0 to run all tests
+     * @return the results of the tests
+     */
+    public UnitTestResultSet runTests(Patch patch, int reps, long raceLimitNS) throws IOException, InterruptedException {
 
         // Apply the patch.
         String patchedSource = patch.apply();
@@ -113,63 +86,165 @@ public class ExternalTestRunner extends TestRunner {
         // Did the code change as a result of applying the patch?
         boolean noOp = isPatchedSourceSame(patch.getSourceFile().toString(), patchedSource);
 
-        // Compile in temp dir
-        boolean compiledOK = false;
+        // Identical source has been compiled and tested before?
+        FitnessCache fitnessCache = this.getFitnessCache();
+        String cacheKey = null;
+        if (fitnessCache != null) {
+            cacheKey = FitnessCache.key(this.getClassName(), this.getTests(), reps, patchedSource);
+            FitnessCache.Entry cached = fitnessCache.get(cacheKey);
+            if (cached != null) {
+                List<UnitTestResult> results = cached.getCleanCompile() ? cached.getResults() : emptyResults(reps);
+                return new UnitTestResultSet(patch, patchValid, editsValid, cached.getCleanCompile(), noOp, results);
+            }
+        }
+
+        // Compile in memory, unless the validator shows it would fail; the class bytes are sent to the harness over its socket
+        Map<String, byte[]> classes = null;
+        long compileTimeNS = 0;
+        PatchValidator.Failure validationFailure = validate(patch, patchedSource);
         //if (patchValid) { // might be invalid due to a couple of edits, which drop to being no-ops; remaining edits might be ok so try compiling
-            compiledOK = compileClassToTempDir(patchedSource);
+        if (validationFailure == null) {
+            classes = compile(patch.getSourceFile().toString(), patchedSource);
+            compileTimeNS = getLastCompileTimeNS();
+        }
         //}
+        boolean compiledOK = (classes != null);
 
         // Run tests
         List<UnitTestResult> results;
-        if (compiledOK) {
-            results = runTests(reps);
-        } else {
+        if (!compiledOK) {
             results = emptyResults(reps);
+        } else if (harnessPool != null && !inNewSubprocess) {
+            results = runTestsInPool(reps, classes, raceLimitNS);
+        } else {
+            results = runTests(reps, classes, raceLimitNS);
         }
+        boolean dominated = compiledOK && isDominated(results, raceLimitNS);
 
-        deleteTempDirectory();
+        if (fitnessCache != null && validationFailure == null && !dominated) {
+            fitnessCache.put(cacheKey, compiledOK, compiledOK ? results : null);
+        }
         
-        return new UnitTestResultSet(patch, patchValid, editsValid, compiledOK, noOp, results);
+        UnitTestResultSet resultSet = new UnitTestResultSet(patch, patchValid, editsValid, compiledOK, noOp, results);
+        resultSet.setCompileTimeNS(compileTimeNS);
+        resultSet.setValidationFailure(validationFailure);
+        resultSet.setDominated(patchValid && dominated);
+        return resultSet;
+
+    }
+
+    // Have the tests run so far taken longer than the race limit?
+    private static boolean isDominated(List<UnitTestResult> results, long raceLimitNS) {
+
+        if (raceLimitNS <= 0) {
+            return false;
+        }
+
+        long elapsed = 0;
+        for (UnitTestResult result : results) {
+            elapsed += result.getExecutionTime();
+        }
+        return elapsed > raceLimitNS;
 
     }
 
     /**
-     * Create a temporary directory. The patched source file will be written there and compiled.
-     * @throws IOException if the directory couldn't be created
+     * Run each of the tests rep times on harnesses from the pool, after sending them the patched classes.
+     * A harness is discarded, and a fresh one used for the remaining tests, if a test times out or the harness crashes.
+     * If MAX_LOAD_ATTEMPTS harnesses fail to load the classes, the remaining tests fail with the last exception.
+     * Stops once the tests have taken longer than the race limit.
+     * @param reps Number of times to run each test
+     * @param classes the patched classes, indexed by binary class name
+     * @param raceLimitNS total test time after which to stop, 0 for no limit
+     * @return List of Test Results
      */
-    public void createTempDirectory() throws IOException {
+    private List<UnitTestResult> runTestsInPool(int reps, Map<String, byte[]> classes, long raceLimitNS) throws IOException {
 
-        // Create the main temp dir
-        this.temporaryDirectory = Files.createTempDirectory(null);
-        Logger.info("Created temp dir: " + temporaryDirectory);
+        List<UnitTestResult> results = new LinkedList<>();
 
-        // Create package directory
-        String packageName = this.getPackageName();
-        String packagePath = packageName.replace(".", File.separator);
-        temporaryPackageDirectory = temporaryDirectory.resolve(packagePath);
-        temporaryPackageDirectory.toFile().mkdirs();
+        TestHarnessProcess harness = null;
+        int loadAttempts = 0;
 
-    }
+        int maxIndex = reps * this.getTests().size();
 
-    public boolean compileClassToTempDir(String patchedSource) throws FileNotFoundException {
+        for (int index = 0; index < maxIndex && !isDominated(results, raceLimitNS); index++) {
+
+            int testIndex = index % this.getTests().size();
+            int rep = index / this.getTests().size();
+            UnitTest test = this.getTests().get(testIndex);
+            Logger.debug("Running test " + index + "/" + maxIndex + ": " + "rep=" + (rep+1) + "/"+reps+", " + "testIndex=" + testIndex + "/" + this.getTests().size() + ": " + test);
+
+            IOException loadFailure = null;
+            while (harness == null && loadFailure == null) {
+                harness = harnessPool.acquire();
+                try {
+                    harnessPool.loadClasses(harness, classes);
+                } catch (IOException e) {
+                    harness = null;
+                    loadAttempts++;
+                    if (loadAttempts >= MAX_LOAD_ATTEMPTS) {
+                        loadFailure = e;
+                    }
+                }
+            }
+
+            if (loadFailure != null) {
+                // the patch keeps killing harnesses, so fail the remaining tests as if the harness crashed
+                Logger.warn("Test harnesses failed " + loadAttempts + " times to load the patched classes, so the remaining tests fail");
+                for (; index < maxIndex; index++) {
+                    UnitTestResult result = new UnitTestResult(this.getTests().get(index % this.getTests().size()),
+                            index / this.getTests().size() + 1);
+                    result.setExceptionType(loadFailure.getClass().getName());
+                    result.setExceptionMessage(loadFailure.getMessage());
+                    results.add(result);
+                }
+                break;
+            }
+
+            long timeoutMS = test.getTimeoutMS();
+            String message = test.toString() + "," + String.valueOf(rep+1) + "," + String.valueOf(timeoutMS);
+
+            try {
+                String resp = harness.sendMessage(message, timeoutMS + 500); // extra time for connection overhead
+                if (resp != null) {
+                    results.add(UnitTestResult.fromString(resp, timeoutMS));
+                } else {
+                    // connection timed out, the test is likely still running
+                    results.add(timeoutResult(test, rep+1));
+                    harnessPool.discard(harness);
+                    harness = null;
+                }
+            } catch (IOException | ParseException e) {
+                // harness crashed, or the test result is likely in the wrong format
+                Logger.warn("Test harness failed running " + test + ", recycling it: " + e.getMessage());
+                UnitTestResult result = new UnitTestResult(test, rep+1);
+                result.setExceptionType(e.getClass().getName());
+                result.setExceptionMessage(e.getMessage());
+                results.add(result);
+                harnessPool.discard(harness);
+                harness = null;
+            }
 
-        File sourceFile = temporaryPackageDirectory.resolve(this.getClassNameWithoutPackage() + ".java").toFile();
+        }
 
-        // Write to the package dir
-        try (PrintWriter out = new PrintWriter(sourceFile)) {
-            out.println(patchedSource);
+        if (harness != null) {
+            harnessPool.release(harness);
         }
 
-        return Compiler.compileFile(sourceFile, this.getClassPath());
+        return results;
 
     }
 
     /**
-     * Run each of the tests against the modified class held in the class load, rep times.
+     * Run each of the tests against the patched classes, rep times.
+     * A new JVM is started for each patch, or for each test if inNewSubprocess is set, and sent the classes.
+     * Stops once the tests have taken longer than the race limit.
      * @param reps Number of times to run each test
+     * @param classes the patched classes, indexed by binary class name
+     * @param raceLimitNS total test time after which to stop, 0 for no limit
      * @return List of Test Results
      */
-    private List<UnitTestResult> runTests(int reps) throws IOException, InterruptedException {
+    private List<UnitTestResult> runTests(int reps, Map<String, byte[]> classes, long raceLimitNS) throws IOException, InterruptedException {
 
         List<UnitTestResult> results = new LinkedList<>();
 
@@ -177,148 +252,75 @@ public class ExternalTestRunner extends TestRunner {
         File javaBin = new File(javaHome, "bin");
         File jvm = new File(javaBin, "java");
 
-        String classpath = this.getTemporaryDirectory() + File.pathSeparator +
-                           this.getClassPath() + File.pathSeparator +
-                           System.getProperty("java.class.path");
+        // the project classpath is given to the harness rather than the jvm, so the patched classes take precedence
+        List<String> command = Arrays.asList(jvm.getAbsolutePath(),
+                                             "-Dtinylog.level=" + Logger.getLevel(),
+                                             "-cp", System.getProperty("java.class.path"),
+                                             HARNESS_CLASS,
+                                             "-" + TestHarness.CLASSPATH_ARGUMENT, this.getClassPath());
 
         int index = 0;
 
         int maxIndex = reps * this.getTests().size();
 
-        while (index < maxIndex) {
-
-            // in the following we use sockets to communicate with the
-            // TestHarness in a sub process. 
-            // we don't just capture stdout from the process, because if 
-            // you're running multiple tests in subprocess you have to 
-            // communicate somehow to know that a test finished (or not)
-            // this doesn't work if the hanging test blocks stdout
-            // so: we fire up a subprocess, get it to tell us what port
-            // number it wants to use via stdout, then communicate via
-            // that port. stdout is redirected to the real System.out
-            // so that we can debug the running tests if needed.
-            
-            ProcessBuilder builder;
-            builder = new ProcessBuilder(jvm.getAbsolutePath(),
-                                            "-Dtinylog.level=" + Logger.getLevel(),
-                                            "-cp", classpath,
-                                            HARNESS_CLASS
-                                            );
-
-            // redirect everything except STDOUT for now as we need it to get the port
-            final Process process = builder.redirectError(Redirect.INHERIT).redirectInput(Redirect.INHERIT).start();
-            int port = 0;
-            final Scanner scanner = new Scanner(process.getInputStream());
-            while (scanner.hasNextLine()) {
-                String line = scanner.nextLine();
-                if (line.startsWith(TestHarness.PORT_PREFIX)) {
-                    port = Integer.parseInt(line.substring(line.indexOf("=") + 1));
-                    break;
-                }
-            }
+        while (index < maxIndex && !isDominated(results, raceLimitNS)) {
 
-            // having set off the process and grabbed the port number from its stdout, we now
-            // redirect its output to the real stdout
-            // (no need to kill this thread, it'll exit when the process dies)
-            new Thread(new Runnable() {
-                public void run() {
-                    while (scanner.hasNextLine()) {
-                        System.out.println(scanner.nextLine());
-                    }
-                    scanner.close();
-                }
-            }).start();
-            
-            // we're spawning a separate process, and if our JVM
-            // dies we'll want to kill the other process too,
-            // otherwise it'll be left open keeping file and port
-            // handles open and causing all kinds of bother.
-            // (note - e.g. pressing eclipse red button forcibly
-            // kills the JVM so this doesn't fire in that situation;
-            // apparently nothing can be done about that)
-            Runtime.getRuntime().addShutdownHook(new Thread() {
-                public void run() {
-                    if (process.isAlive()) {
-                        process.destroyForcibly();
-                    }
-                }
-            });
-                        
-            Thread.sleep(1000); // allowing for server startup time
-
-            TestClient client = new TestClient();
-            client.startConnection("localhost", port);
+            TestHarnessProcess harness = TestHarnessProcess.start(command);
+            try {
+                harness.loadClasses(classes, TestHarnessProcess.COMMAND_TIMEOUT_MS);
+            } catch (IOException e) {
+                harness.kill();
+                throw e;
+            }
 
-            boolean keepConnection = true;
+            boolean keepHarness = true;
 
             inner:
-            while (index < maxIndex) {
+            while (index < maxIndex && !isDominated(results, raceLimitNS)) {
                 
-                if (keepConnection) {
-                        
-                        int testIndex = index % this.getTests().size();
-                        int rep = index / this.getTests().size();
-                        UnitTest test = this.getTests().get(testIndex);
-                        Logger.debug("Running test " + index + "/" + maxIndex + ": " + "rep=" + rep+1 + "/"+reps+", " + "testIndex=" + testIndex + "/" + this.getTests().size() + ": " + test);
-                        
-                        long timeoutMS = test.getTimeoutMS();
-                        String testName = test.toString();
-                        index++;
-
-                        client.setTimeoutMS(timeoutMS + 500); // extra time for connection overhead
-
-                        String message = testName + "," + String.valueOf(rep+1) + "," + String.valueOf(timeoutMS);
-                        String resp;
-                        try {
-                            resp = client.sendMessage(message);
-                        } catch (SocketTimeoutException e) {
-                            resp = null;
-                        }
-                        try {
-                            if (resp != null) {
-                                UnitTestResult result = UnitTestResult.fromString(resp, timeoutMS);
-                                results.add(result);
-                                if (inNewSubprocess) {
-                                    keepConnection = false; // process is closed after each test
-                                    break inner; // process is closed after each test
-                                }
-                            } else {
-                                // connection timed out
-                                keepConnection = false;
-                                UnitTestResult result = timeoutResult(test, rep+1);
-                                results.add(result);
-                                break inner;
-                            }
-                        } catch (ParseException e) {
-                            keepConnection = false;
-                            // smth else went wrong, test or test result likely in the wrong format
-                            UnitTestResult result = new UnitTestResult(test, rep+1);
-                            result.setExceptionType(e.getClass().getName());
-                            result.setExceptionMessage(e.getMessage());
-                            results.add(result);
-                            break;
+                int testIndex = index % this.getTests().size();
+                int rep = index / this.getTests().size();
+                UnitTest test = this.getTests().get(testIndex);
+                Logger.debug("Running test " + index + "/" + maxIndex + ": " + "rep=" + (rep+1) + "/"+reps+", " + "testIndex=" + testIndex + "/" + this.getTests().size() + ": " + test);
+                
+                long timeoutMS = test.getTimeoutMS();
+                String testName = test.toString();
+                index++;
+
+                String message = testName + "," + String.valueOf(rep+1) + "," + String.valueOf(timeoutMS);
+                try {
+                    String resp = harness.sendMessage(message, timeoutMS + 500); // extra time for connection overhead
+                    if (resp != null) {
+                        UnitTestResult result = UnitTestResult.fromString(resp, timeoutMS);
+                        results.add(result);
+                        if (inNewSubprocess) {
+                            break inner; // process is closed after each test
                         }
-
-                } else {
+                    } else {
+                        // connection timed out
+                        keepHarness = false;
+                        UnitTestResult result = timeoutResult(test, rep+1);
+                        results.add(result);
+                        break inner;
+                    }
+                } catch (IOException | ParseException e) {
+                    keepHarness = false;
+                    // smth else went wrong, harness crashed or test result likely in the wrong format
+                    UnitTestResult result = new UnitTestResult(test, rep+1);
+                    result.setExceptionType(e.getClass().getName());
+                    result.setExceptionMessage(e.getMessage());
+                    results.add(result);
                     break inner;
                 }
 
             } // end of inner
 
-            try {
-                client.sendMessage("stop");
-            } catch (SocketTimeoutException e) {}
-
-            client.stopConnection();
-                        
-            Thread.sleep(500); // cleanup time
-
-            if (process.isAlive()) {
-                process.destroyForcibly();
+            if (keepHarness) {
+                harness.stop(); // waits for the process to exit
+            } else {
+                harness.kill();
             }
 
-            Thread.sleep(500); // cleanup time
-
         } // end of outer
 
         return results;
@@ -343,21 +345,4 @@ public class ExternalTestRunner extends TestRunner {
         return result;
     }
 
-    public Path getTemporaryDirectory() {
-        return temporaryDirectory;
-    }
-
-    public Path getTemporaryPackageDirectory() {
-        return temporaryPackageDirectory;
-    }
-
-    public void deleteTempDirectory() throws IOException {
-        if ( (temporaryDirectory != null) && (Files.exists(temporaryDirectory)) && (Files.isDirectory(temporaryDirectory)) ) {
-            FileUtils.deleteDirectory(temporaryDirectory.toFile());
-            Logger.info("Deleted temp dir: " + temporaryDirectory);
-        } else {
-            Logger.error("Error deleting " + temporaryDirectory + " - the temporary directory  does not exist.");
-        } 
-    }
-
 }
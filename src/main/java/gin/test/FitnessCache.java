@@ -0,0 +1,134 @@
+package gin.test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded cache of test outcomes, keyed by a hash of the patched source, the class name,
+ * the tests and the number of repetitions.
+ * Different patches often produce identical source (e.g. edits that become no-ops),
+ * in which case compilation and test execution can be skipped.
+ * The least recently used entry is evicted once the cache is full.
+ * Shared between test runners, so all access is synchronized.
+ */
+public class FitnessCache {
+
+    private final int maxEntries;
+
+    private final Map<String, Entry> entries;
+
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * Outcome of compiling and testing one patched source.
+     * Results are null if the source did not compile.
+     */
+    public static class Entry {
+
+        private final boolean compiledOK;
+        private final List<UnitTestResult> results;
+
+        private Entry(boolean compiledOK, List<UnitTestResult> results) {
+            this.compiledOK = compiledOK;
+            this.results = results;
+        }
+
+        public boolean getCleanCompile() {
+            return compiledOK;
+        }
+
+        public List<UnitTestResult> getResults() {
+            return results;
+        }
+
+    }
+
+    public FitnessCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > FitnessCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Hash of everything that determines the outcome of running the tests on a patched class.
+     */
+    public static String key(String className, List<UnitTest> tests, int reps, String patchedSource) {
+
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+
+        StringBuilder header = new StringBuilder();
+        header.append(className).append('\n').append(reps).append('\n');
+        for (UnitTest test : tests) {
+            header.append(test).append(' ').append(test.getTimeoutMS()).append('\n');
+        }
+        digest.update(header.toString().getBytes(StandardCharsets.UTF_8));
+        digest.update(patchedSource.getBytes(StandardCharsets.UTF_8));
+
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest()) {
+            key.append(String.format("%02x", b));
+        }
+        return key.toString();
+
+    }
+
+    /**
+     * @return the cached outcome, or null if there is none; counts as a hit or a miss
+     */
+    public synchronized Entry get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return entry;
+    }
+
+    /**
+     * @return whether there is a cached outcome; neither a hit nor a miss, nor a use of the entry
+     */
+    public synchronized boolean contains(String key) {
+        return entries.containsKey(key);
+    }
+
+    public synchronized void put(String key, boolean compiledOK, List<UnitTestResult> results) {
+        entries.put(key, new Entry(compiledOK, results));
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("FitnessCache. Hits: %d; Misses: %d; Entries: %d of %d.", hits, misses, entries.size(), maxEntries);
+    }
+
+}
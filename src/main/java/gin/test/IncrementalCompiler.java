@@ -0,0 +1,461 @@
+package gin.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import com.github.javaparser.JavaParser;
+import com.github.javaparser.ParseProblemException;
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.Node;
+import com.github.javaparser.ast.body.CallableDeclaration;
+import com.github.javaparser.ast.body.ConstructorDeclaration;
+import com.github.javaparser.ast.body.MethodDeclaration;
+import com.github.javaparser.ast.body.TypeDeclaration;
+import com.github.javaparser.ast.stmt.BlockStmt;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.InnerClassNode;
+import org.objectweb.asm.tree.InvokeDynamicInsnNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.MultiANewArrayInsnNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+import org.pmw.tinylog.Logger;
+
+/**
+ * Recompiles only the methods changed by a patch, rather than the whole class.
+ *
+ * The unpatched class is compiled once. For each patch, the bodies of all unchanged methods are replaced
+ * with "throw null;" and this skeleton is compiled, which is much cheaper than the full class for large classes.
+ * The bytecode of the changed methods is then spliced into the original class file.
+ *
+ * A full compile is used instead whenever the patch changes anything outside the bodies of the
+ * top-level class's methods and constructors, or the changed methods need synthetic members whose
+ * names depend on the rest of the class (lambdas, anonymous and local classes, enum switch maps, accessors).
+ *
+ * If the skeleton doesn't compile, neither does the full class: stubbed bodies can't introduce errors,
+ * and the remaining errors are confined to the changed bodies.
+ */
+public class IncrementalCompiler {
+
+    private static final String STUB_BODY = "{ throw null; }";
+
+    private final CompilationService compilationService;
+    private final String className;
+    private final String internalName;
+    private final String originalSource;
+
+    private CompilationUnit originalUnit;
+    private List<CallableDeclaration<?>> originalCallables;
+    private String originalStructure;
+    private Map<String, byte[]> originalClasses;
+
+    private long incrementalCompilations = 0;
+    private long fullCompilations = 0;
+
+    /**
+     * @param compilationService used for compiling the original class, the skeletons and fallbacks
+     * @param className Full class name, e.g. org.mypackage.StringHelper
+     * @param originalSource the unpatched source of the class
+     */
+    public IncrementalCompiler(CompilationService compilationService, String className, String originalSource) {
+        this.compilationService = compilationService;
+        this.className = className;
+        this.internalName = className.replace('.', '/');
+        this.originalSource = originalSource;
+    }
+
+    public String getOriginalSource() {
+        return originalSource;
+    }
+
+    public long getIncrementalCompilations() {
+        return incrementalCompilations;
+    }
+
+    public long getFullCompilations() {
+        return fullCompilations;
+    }
+
+    /**
+     * Compile the patched source, incrementally if possible.
+     * @param patchedSource the full patched source of the class
+     * @return class bytes indexed by binary class name; null if compilation failed
+     */
+    public Map<String, byte[]> compile(String patchedSource) {
+
+        if (!initialise()) {
+            return fullCompile(patchedSource);
+        }
+
+        CompilationUnit patchedUnit;
+        try {
+            patchedUnit = JavaParser.parse(patchedSource);
+        } catch (ParseProblemException e) {
+            return fullCompile(patchedSource);
+        }
+
+        List<CallableDeclaration<?>> patchedCallables = memberCallables(patchedUnit);
+        if (patchedCallables.size() != originalCallables.size()) {
+            return fullCompile(patchedSource);
+        }
+
+        // Everything outside the bodies must be untouched
+        if (!structure(patchedUnit).equals(originalStructure)) {
+            return fullCompile(patchedSource);
+        }
+
+        // Which bodies changed?
+        TypeDeclaration<?> mainType = mainType(patchedUnit);
+        Set<CallableDeclaration<?>> changed = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int i = 0; i < patchedCallables.size(); i++) {
+            CallableDeclaration<?> callable = patchedCallables.get(i);
+            if (!Objects.equals(body(callable), body(originalCallables.get(i)))) {
+                if (mainType == null || callable.getParentNode().orElse(null) != mainType) {
+                    return fullCompile(patchedSource); // a nested class changed
+                }
+                changed.add(callable);
+            }
+        }
+
+        if (changed.isEmpty()) {
+            incrementalCompilations++;
+            return new LinkedHashMap<>(originalClasses);
+        }
+
+        // Build and compile the skeleton
+        for (CallableDeclaration<?> callable : patchedCallables) {
+            if (!changed.contains(callable) && callable instanceof MethodDeclaration) {
+                MethodDeclaration method = (MethodDeclaration) callable;
+                if (method.getBody().isPresent()) {
+                    method.setBody(JavaParser.parseBlock(STUB_BODY));
+                }
+            }
+        }
+
+        Map<String, byte[]> skeletonClasses = compilationService.compile(className, patchedUnit.toString());
+        if (skeletonClasses == null) {
+            incrementalCompilations++;
+            return null;
+        }
+
+        byte[] spliced = splice(skeletonClasses.get(className), changed);
+        if (spliced == null) {
+            return fullCompile(patchedSource);
+        }
+
+        incrementalCompilations++;
+        Map<String, byte[]> classes = new LinkedHashMap<>(originalClasses);
+        classes.put(className, spliced);
+        return classes;
+
+    }
+
+    private Map<String, byte[]> fullCompile(String patchedSource) {
+        fullCompilations++;
+        return compilationService.compile(className, patchedSource);
+    }
+
+    /**
+     * Parse and compile the original source, once.
+     * @return false if the original source couldn't be used for incremental compilation
+     */
+    private boolean initialise() {
+
+        if (originalClasses != null) {
+            return true;
+        }
+        if (originalUnit != null) {
+            return false; // tried before and failed
+        }
+
+        try {
+            originalUnit = JavaParser.parse(originalSource);
+        } catch (ParseProblemException e) {
+            originalUnit = new CompilationUnit();
+            Logger.warn("Could not parse the original source for incremental compilation of " + className);
+            return false;
+        }
+
+        originalCallables = memberCallables(originalUnit);
+        originalStructure = structure(originalUnit);
+        originalClasses = compilationService.compile(className, originalSource);
+
+        if (originalClasses == null) {
+            Logger.warn("Could not compile the original source for incremental compilation of " + className);
+            return false;
+        }
+        return true;
+
+    }
+
+    /*============== Source analysis  ==============*/
+
+    /**
+     * Methods and constructors of the top-level types and their member types, in document order.
+     * Those in anonymous and local classes are part of an enclosing body or initialiser instead.
+     */
+    private static List<CallableDeclaration<?>> memberCallables(CompilationUnit unit) {
+        List<CallableDeclaration<?>> callables = new ArrayList<>();
+        for (CallableDeclaration<?> callable : unit.findAll(CallableDeclaration.class)) {
+            if (isMember(callable)) {
+                callables.add(callable);
+            }
+        }
+        return callables;
+    }
+
+    private static boolean isMember(Node node) {
+        Node parent = node.getParentNode().orElse(null);
+        while (parent instanceof TypeDeclaration) {
+            parent = parent.getParentNode().orElse(null);
+        }
+        return parent instanceof CompilationUnit;
+    }
+
+    private static Node body(CallableDeclaration<?> callable) {
+        if (callable instanceof ConstructorDeclaration) {
+            return ((ConstructorDeclaration) callable).getBody();
+        }
+        return ((MethodDeclaration) callable).getBody().orElse(null);
+    }
+
+    /**
+     * The source with all member bodies emptied, for checking that a patch only changed bodies.
+     */
+    private static String structure(CompilationUnit unit) {
+        CompilationUnit copy = unit.clone();
+        for (CallableDeclaration<?> callable : memberCallables(copy)) {
+            if (callable instanceof ConstructorDeclaration) {
+                ((ConstructorDeclaration) callable).setBody(new BlockStmt());
+            } else if (((MethodDeclaration) callable).getBody().isPresent()) {
+                ((MethodDeclaration) callable).setBody(new BlockStmt());
+            }
+        }
+        return copy.toString();
+    }
+
+    private TypeDeclaration<?> mainType(CompilationUnit unit) {
+        String simpleName = className.substring(className.lastIndexOf('.') + 1);
+        for (TypeDeclaration<?> type : unit.getTypes()) {
+            if (type.getNameAsString().equals(simpleName)) {
+                return type;
+            }
+        }
+        return null;
+    }
+
+    /*============== Bytecode splicing  ==============*/
+
+    /**
+     * Replace the changed methods in the original class file with those compiled in the skeleton.
+     * @return the new class file, or null if splicing isn't safe
+     */
+    private byte[] splice(byte[] skeletonBytes, Set<CallableDeclaration<?>> changed) {
+
+        if (skeletonBytes == null) {
+            return null;
+        }
+
+        ClassNode original = readClass(originalClasses.get(className));
+        ClassNode skeleton = readClass(skeletonBytes);
+
+        // Find the compiled versions of the changed methods
+        Map<String, Integer> changedNames = new HashMap<>();
+        for (CallableDeclaration<?> callable : changed) {
+            String name = callable instanceof ConstructorDeclaration ? "<init>" : callable.getNameAsString();
+            changedNames.merge(name, 1, Integer::sum);
+        }
+
+        List<MethodNode> replacements = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : changedNames.entrySet()) {
+            List<MethodNode> candidates = new ArrayList<>();
+            for (MethodNode method : skeleton.methods) {
+                if (!method.name.equals(entry.getKey()) || (method.access & (Opcodes.ACC_SYNTHETIC | Opcodes.ACC_BRIDGE)) != 0) {
+                    continue;
+                }
+                // unchanged constructors are compiled in full, so they can't be told apart from changed ones
+                if (method.name.equals("<init>") || !isStub(method)) {
+                    candidates.add(method);
+                }
+            }
+            if (candidates.size() != entry.getValue()) {
+                return null; // e.g. overloaded constructors, or a patched body that is itself "throw null"
+            }
+            replacements.addAll(candidates);
+        }
+
+        for (MethodNode replacement : replacements) {
+            if (!isSelfContained(replacement, original)) {
+                return null;
+            }
+            int index = indexOfMethod(original, replacement.name, replacement.desc);
+            if (index < 0) {
+                return null;
+            }
+            original.methods.set(index, replacement);
+        }
+
+        // Nested classes newly referenced by the changed methods
+        for (InnerClassNode inner : skeleton.innerClasses) {
+            boolean present = false;
+            for (InnerClassNode existing : original.innerClasses) {
+                present |= existing.name.equals(inner.name);
+            }
+            if (!present) {
+                original.innerClasses.add(inner);
+            }
+        }
+
+        ClassWriter writer = new ClassWriter(0);
+        original.accept(writer);
+        return writer.toByteArray();
+
+    }
+
+    private static ClassNode readClass(byte[] bytes) {
+        ClassNode node = new ClassNode();
+        new ClassReader(bytes).accept(node, 0);
+        return node;
+    }
+
+    private static boolean isStub(MethodNode method) {
+        List<Integer> opcodes = new ArrayList<>();
+        for (AbstractInsnNode insn = method.instructions.getFirst(); insn != null; insn = insn.getNext()) {
+            if (insn.getOpcode() >= 0) {
+                opcodes.add(insn.getOpcode());
+            }
+        }
+        return opcodes.size() == 2 && opcodes.get(0) == Opcodes.ACONST_NULL && opcodes.get(1) == Opcodes.ATHROW;
+    }
+
+    private static int indexOfMethod(ClassNode node, String name, String desc) {
+        for (int i = 0; i < node.methods.size(); i++) {
+            MethodNode method = node.methods.get(i);
+            if (method.name.equals(name) && method.desc.equals(desc)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean hasField(ClassNode node, String name, String desc) {
+        for (FieldNode field : node.fields) {
+            if (field.name.equals(name) && field.desc.equals(desc)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Does the method only refer to members of this class that exist, with the same meaning, in the original?
+     * Members whose names javac numbers (lambda$0, access$000, Outer$1) may mean something else there.
+     */
+    private boolean isSelfContained(MethodNode method, ClassNode original) {
+
+        for (TryCatchBlockNode tryCatch : method.tryCatchBlocks) {
+            if (tryCatch.type != null && !isStableClass(tryCatch.type)) {
+                return false;
+            }
+        }
+
+        for (AbstractInsnNode insn = method.instructions.getFirst(); insn != null; insn = insn.getNext()) {
+
+            if (insn instanceof FieldInsnNode) {
+                FieldInsnNode field = (FieldInsnNode) insn;
+                if (!isStableClass(field.owner) || !isStableType(field.desc)) {
+                    return false;
+                }
+                if (field.owner.equals(internalName) && !hasField(original, field.name, field.desc)) {
+                    return false;
+                }
+            } else if (insn instanceof MethodInsnNode) {
+                MethodInsnNode call = (MethodInsnNode) insn;
+                if (!isStableClass(call.owner) || !isStableType(call.desc)) {
+                    return false;
+                }
+                if (isOwnClass(call.owner) && call.name.contains("$")) {
+                    return false;
+                }
+                if (call.owner.equals(internalName) && indexOfMethod(original, call.name, call.desc) < 0) {
+                    return false;
+                }
+            } else if (insn instanceof InvokeDynamicInsnNode) {
+                InvokeDynamicInsnNode indy = (InvokeDynamicInsnNode) insn;
+                for (Object arg : indy.bsmArgs) {
+                    if (arg instanceof Handle && isOwnClass(((Handle) arg).getOwner())) {
+                        return false;
+                    }
+                }
+            } else if (insn instanceof TypeInsnNode) {
+                if (!isStableType(Type.getObjectType(((TypeInsnNode) insn).desc).getDescriptor())) {
+                    return false;
+                }
+            } else if (insn instanceof MultiANewArrayInsnNode) {
+                if (!isStableType(((MultiANewArrayInsnNode) insn).desc)) {
+                    return false;
+                }
+            } else if (insn instanceof LdcInsnNode && ((LdcInsnNode) insn).cst instanceof Type) {
+                if (!isStableType(((Type) ((LdcInsnNode) insn).cst).getDescriptor())) {
+                    return false;
+                }
+            }
+
+        }
+
+        return true;
+
+    }
+
+    private boolean isOwnClass(String name) {
+        return name.equals(internalName) || name.startsWith(internalName + "$");
+    }
+
+    /**
+     * Anonymous and local classes are numbered in order of appearance, so differ between the skeleton and the original.
+     */
+    private boolean isStableClass(String name) {
+        if (!name.startsWith(internalName + "$")) {
+            return true;
+        }
+        for (String part : name.substring(internalName.length() + 1).split("\\$")) {
+            if (part.isEmpty() || Character.isDigit(part.charAt(0))) {
+                return false;
+            }
+        }
+        return originalClasses.containsKey(name.replace('/', '.'));
+    }
+
+    private boolean isStableType(String descriptor) {
+        int start = descriptor.indexOf('L');
+        while (start >= 0) {
+            int end = descriptor.indexOf(';', start);
+            if (end < 0) {
+                return true;
+            }
+            if (!isStableClass(descriptor.substring(start + 1, end))) {
+                return false;
+            }
+            start = descriptor.indexOf('L', end);
+        }
+        return true;
+    }
+
+}
@@ -2,13 +2,15 @@ package gin.test;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 import org.junit.Test;
 import org.junit.runners.model.FrameworkMethod;
 import org.junit.runners.model.TestClass;
-import org.mdkt.compiler.CompiledCode;
 import org.pmw.tinylog.Logger;
 
 import gin.Patch;
@@ -20,7 +22,14 @@ public class InternalTestRunner extends TestRunner {
 
     public static final String ISOLATED_TEST_RUNNER_METHOD_NAME = "runTest";
 
-    private CacheClassLoader classLoader;
+    // Load unchanged classes once, in a SharedClassLoader, rather than in a new CacheClassLoader per patch
+    private boolean sharedClassLoader = false;
+
+    // If set, tests are timed with warmup and repetition until the timing is precise enough, rather than reps times
+    private Benchmark benchmark = null;
+
+    // If set, tests are run in order of kill probability per unit time, learnt over the run, rather than in list order
+    private KillMatrix killMatrix = null;
 
     /**
      * Create an InternalTestRunner given a package.ClassName, a classpath string separated by colons if needed,
@@ -38,6 +47,41 @@ public class InternalTestRunner extends TestRunner {
         this.setTests(testsForClass(testClassName));
     }
 
+    public boolean getSharedClassLoader() {
+        return sharedClassLoader;
+    }
+
+    /**
+     * If set, each patch gets a small PatchClassLoader on top of a SharedClassLoader for the classpath,
+     * defining only the patched classes and those referring to them. Faster, but static state of the
+     * other project classes is no longer reset between patches.
+     */
+    public void setSharedClassLoader(boolean sharedClassLoader) {
+        this.sharedClassLoader = sharedClassLoader;
+    }
+
+    public Benchmark getBenchmark() {
+        return benchmark;
+    }
+
+    /**
+     * Time tests benchmark-style: reps is then ignored. Null to run each test reps times.
+     */
+    public void setBenchmark(Benchmark benchmark) {
+        this.benchmark = benchmark;
+    }
+
+    public KillMatrix getKillMatrix() {
+        return killMatrix;
+    }
+
+    /**
+     * Record test outcomes in the given matrix, and order tests by it so that failing patches are rejected sooner.
+     * May be shared between runners. Null to always run the tests in list order.
+     */
+    public void setKillMatrix(KillMatrix killMatrix) {
+        this.killMatrix = killMatrix;
+    }
 
     /**
      * Apply and compile the given patch, then run all unit tests against it.
@@ -46,65 +90,252 @@ public class InternalTestRunner extends TestRunner {
      * @return the results of the tests
      */
     public UnitTestResultSet runTests(Patch patch, int reps) {
+        return runTests(patch, reps, 0);
+    }
+
+    /**
+     * Apply and compile the given patch, then race its tests against the given time: evaluation stops as
+     * soon as the tests have taken longer than raceLimitNS in total, or, in benchmark mode, once the
+     * confidence interval of the mean round time lies above it. The result set is then marked dominated
+     * and holds only the tests run so far; such partial results are not cached.
+     * @param patch Patch to apply.
+     * @param reps Number of times to run each test.
+     * @param raceLimitNS time to beat, e.g. that of the best patch so far; 0 to run all tests
+     * @return the results of the tests
+     */
+    public UnitTestResultSet runTests(Patch patch, int reps, long raceLimitNS) {
+        return test(compile(apply(patch, reps, raceLimitNS)));
+    }
+
+    /**
+     * A patch part way through runTests. Each stage fills in its part, so that an EvaluationPipeline
+     * can run the stages for different patches at the same time, one thread per stage.
+     */
+    static class Evaluation {
+
+        private final Patch patch;
+        private final int reps;
+        private final long raceLimitNS;
+
+        // apply
+        private String patchedSource;
+        private boolean patchValid;
+        private List<Boolean> editsValid;
+        private boolean noOp;
+        private String cacheKey = null;
+        private FitnessCache.Entry cached = null;
+        private PatchValidator.Failure validationFailure = null;
+
+        // compile
+        private Map<String, byte[]> classes = null;
+        private long compileTimeNS = 0;
+
+        private Evaluation(Patch patch, int reps, long raceLimitNS) {
+            this.patch = patch;
+            this.reps = reps;
+            this.raceLimitNS = raceLimitNS;
+        }
+
+        Patch getPatch() {
+            return patch;
+        }
 
-        // Create a new class loader for every compilation, otherwise java will cache the modified class for us
-        classLoader = new CacheClassLoader(this.getClassPath());
+    }
+
+    /**
+     * First stage: apply the patch, and look for its patched source in the fitness cache.
+     * If it isn't there, check that it can compile.
+     */
+    Evaluation apply(Patch patch, int reps, long raceLimitNS) {
+
+        Evaluation evaluation = new Evaluation(patch, reps, raceLimitNS);
 
         // Apply the patch.
-        String patchedSource = patch.apply();
-        boolean patchValid = patch.lastApplyWasValid();
-        List<Boolean> editsValid = patch.getEditsInvalidOnLastApply();
+        evaluation.patchedSource = patch.apply();
+        evaluation.patchValid = patch.lastApplyWasValid();
+        evaluation.editsValid = patch.getEditsInvalidOnLastApply();
         
         // Did the code change as a result of applying the patch?
-        boolean noOp = isPatchedSourceSame(patch.getSourceFile().toString(), patchedSource);
+        evaluation.noOp = isPatchedSourceSame(patch.getSourceFile().toString(), evaluation.patchedSource);
+
+        // Identical source has been compiled and tested before?
+        FitnessCache fitnessCache = this.getFitnessCache();
+        if (fitnessCache != null) {
+            evaluation.cacheKey = FitnessCache.key(this.getClassName(), this.getTests(), reps, evaluation.patchedSource);
+            evaluation.cached = fitnessCache.get(evaluation.cacheKey);
+        }
+
+        // Compile, unless the validator shows it would fail
+        if (evaluation.cached == null) {
+            evaluation.validationFailure = validate(patch, evaluation.patchedSource);
+        }
+
+        return evaluation;
+
+    }
+
+    /**
+     * Second stage: compile the patched source, unless its outcome is already known.
+     */
+    Evaluation compile(Evaluation evaluation) {
 
-        // Compile
-        CompiledCode code = null;
         //if (patchValid) { // // might be invalid due to a couple of edits, which drop to being no-ops; remaining edits might be ok so try compiling
-             code = Compiler.compile(this.getClassName(), patchedSource, this.getClassPath());
+        if (evaluation.cached == null && evaluation.validationFailure == null) {
+            evaluation.classes = compile(evaluation.patch.getSourceFile().toString(), evaluation.patchedSource);
+            evaluation.compileTimeNS = getLastCompileTimeNS();
+        }
         //}
-        boolean compiledOK = (code != null);
+        return evaluation;
+
+    }
 
-        // Add to class loader and run tests
+    /**
+     * Last stage: run the tests against the compiled classes, and record their results in the fitness cache.
+     */
+    UnitTestResultSet test(Evaluation evaluation) {
+
+        Patch patch = evaluation.patch;
+        int reps = evaluation.reps;
+        long raceLimitNS = evaluation.raceLimitNS;
+
+        boolean compiledOK;
         List<UnitTestResult> results = null;
-        if (compiledOK) {
-            classLoader.setCustomCompiledCode(this.getClassName(), code.getByteCode());
-            results = runTests(reps, classLoader);
+
+        if (evaluation.cached != null) {
+
+            compiledOK = evaluation.cached.getCleanCompile();
+            results = evaluation.cached.getResults();
+
+        } else {
+
+            compiledOK = (evaluation.classes != null);
+
+            // Add to class loader and run tests
+            if (compiledOK) {
+                ClassLoader classLoader = newClassLoader(evaluation.classes);
+                results = runTests(reps, classLoader, killMatrixKey(patch), raceLimitNS);
+            }
+
+            // rejections are cheap to repeat, and caching them would lose the reason
+            FitnessCache fitnessCache = this.getFitnessCache();
+            if (fitnessCache != null && evaluation.validationFailure == null && !isDominated(results, raceLimitNS)) {
+                fitnessCache.put(evaluation.cacheKey, compiledOK, results);
+            }
+
         }
 
-        if (!patchValid || !compiledOK) {
+        if (!evaluation.patchValid || !compiledOK) {
             results = emptyResults(reps);
         }
 
-        return new UnitTestResultSet(patch, patchValid, editsValid, compiledOK, noOp, results);
+        UnitTestResultSet resultSet = new UnitTestResultSet(patch, evaluation.patchValid, evaluation.editsValid, compiledOK, evaluation.noOp, results);
+        resultSet.setCompileTimeNS(evaluation.compileTimeNS);
+        resultSet.setValidationFailure(evaluation.validationFailure);
+        resultSet.setDominated(evaluation.patchValid && compiledOK && isDominated(results, raceLimitNS));
+        return resultSet;
+
+    }
+
+    /**
+     * Create a new class loader for every compilation, otherwise java will cache the modified class for us
+     * @param classes the patched classes, indexed by binary class name
+     */
+    private ClassLoader newClassLoader(Map<String, byte[]> classes) {
+
+        if (sharedClassLoader) {
+            return SharedClassLoader.forClassPath(this.getClassPath()).newPatchLoader(classes);
+        }
+
+        CacheClassLoader cacheClassLoader = new CacheClassLoader(this.getClassPath());
+        for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+            cacheClassLoader.setCustomCompiledCode(entry.getKey(), entry.getValue());
+        }
+        return cacheClassLoader;
+
+    }
+
+    private String killMatrixKey(Patch patch) {
+        return KillMatrix.key(this.getClassName(), patch.getSourceFile().getTargetMethodNames());
+    }
+
+    /**
+     * Have the tests run so far lost the race against the given time?
+     * In benchmark mode, only the measured rounds count, and only a statistically significant loss.
+     */
+    private boolean isDominated(List<UnitTestResult> results, long raceLimitNS) {
+
+        if (raceLimitNS <= 0 || results == null) {
+            return false;
+        }
+
+        if (benchmark != null) {
+            Map<Integer, Long> rounds = new TreeMap<>();
+            for (UnitTestResult result : results) {
+                rounds.merge(result.getRepNumber(), result.getExecutionTime(), Long::sum);
+            }
+            return benchmark.isSlower(new ArrayList<>(rounds.values()), raceLimitNS);
+        }
+
+        long elapsed = 0;
+        for (UnitTestResult result : results) {
+            elapsed += result.getExecutionTime();
+        }
+        return elapsed > raceLimitNS;
 
     }
 
     /**
      * Run each of the tests against the modified class held in the class load, rep times.
+     * With a kill matrix, the tests are run in its order and the first repetition is recorded in it.
+     * Stops early if a test fails in the first repetition, or once the tests have taken longer than the race limit.
      * @param reps Number of times to run each test
-     * @param classLoader CacheClassLoader containing correct classpath and any modified classes.
+     * @param classLoader class loader containing correct classpath and any modified classes.
+     * @param target key of the patch's target methods in the kill matrix
+     * @param raceLimitNS total test time after which to stop, 0 for no limit
      * @return
      */
-    private LinkedList<UnitTestResult> runTests(int reps, CacheClassLoader classLoader) {
+    private LinkedList<UnitTestResult> runTests(int reps, ClassLoader classLoader, String target, long raceLimitNS) {
 
-        LinkedList<UnitTestResult> results = new LinkedList<>();
         List<UnitTest> tests = this.getTests();
+        if (killMatrix != null) {
+            tests = killMatrix.prioritise(target, tests);
+        }
+
+        if (benchmark != null) {
+            return runBenchmark(classLoader, tests, target, raceLimitNS);
+        }
+
+        LinkedList<UnitTestResult> results = new LinkedList<>();
 	boolean stopRun = false;
+        long elapsed = 0;
         
         for (UnitTest test: tests) {
             UnitTestResult result = runSingleTest(test, classLoader, 1);
 	    results.add(result);
+            if (killMatrix != null) {
+                killMatrix.record(target, result);
+            }
 	    if (!result.getPassed()) {
 		stopRun = true;
 		break;
 	    }
+            elapsed += result.getExecutionTime();
+            if (raceLimitNS > 0 && elapsed > raceLimitNS) {
+                stopRun = true;
+                break;
+            }
         }
 
 	if (!stopRun) {
+            runs:
             for (int r=2; r <= reps; r++) {
                 for (UnitTest test: tests) {
-                    results.add(runSingleTest(test, classLoader, r));
+                    UnitTestResult result = runSingleTest(test, classLoader, r);
+                    results.add(result);
+                    elapsed += result.getExecutionTime();
+                    if (raceLimitNS > 0 && elapsed > raceLimitNS) {
+                        break runs;
+                    }
                 }
             }
 	}
@@ -119,6 +350,61 @@ public class InternalTestRunner extends TestRunner {
 
     }
 
+    /**
+     * Run all tests for the benchmark's warmup rounds, then for measured rounds until it is complete.
+     * Only the measured rounds are returned, numbered from 1; stops at the first failing test,
+     * or once the measured rounds are significantly slower than the race limit.
+     * With a kill matrix, the first round run, warmup or measured, is recorded in it.
+     * @param classLoader class loader containing correct classpath and any modified classes.
+     * @param tests the tests, in the order to run them
+     * @param target key of the patch's target methods in the kill matrix
+     * @param raceLimitNS round time to beat, 0 for no limit
+     * @return
+     */
+    private LinkedList<UnitTestResult> runBenchmark(ClassLoader classLoader, List<UnitTest> tests, String target, long raceLimitNS) {
+
+        LinkedList<UnitTestResult> results = new LinkedList<>();
+        boolean record = (killMatrix != null);
+
+        for (int w = 1; w <= benchmark.getWarmupRounds(); w++) {
+            for (UnitTest test: tests) {
+                UnitTestResult result = runSingleTest(test, classLoader, w);
+                if (record) {
+                    killMatrix.record(target, result);
+                }
+                if (!result.getPassed()) {
+                    results.add(result);
+                    return results;
+                }
+            }
+            record = false;
+        }
+
+        List<Long> samples = new LinkedList<>();
+        for (int r = 1; !benchmark.isComplete(samples); r++) {
+            long roundTime = 0;
+            for (UnitTest test: tests) {
+                UnitTestResult result = runSingleTest(test, classLoader, r);
+                results.add(result);
+                if (record) {
+                    killMatrix.record(target, result);
+                }
+                if (!result.getPassed()) {
+                    return results;
+                }
+                roundTime += result.getExecutionTime();
+            }
+            record = false;
+            samples.add(roundTime);
+            if (raceLimitNS > 0 && benchmark.isSlower(samples, raceLimitNS)) {
+                break;
+            }
+        }
+
+        return results;
+
+    }
+
     /**
      * Run the test class for a modified class.
      * Loads JUnitBridge using a separate classloader and invokes jUnit using reflection.
@@ -126,7 +412,7 @@ public class InternalTestRunner extends TestRunner {
      * class with the freshly compiled version.
      * @return
      */
-    private UnitTestResult runSingleTest(UnitTest test, CacheClassLoader classLoader, int rep) {
+    static UnitTestResult runSingleTest(UnitTest test, ClassLoader classLoader, int rep) {
 
         Class<?> runnerClass = null;
         try {
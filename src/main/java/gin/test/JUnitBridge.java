@@ -35,11 +35,12 @@ public class JUnitBridge {
     public UnitTestResult runTest(UnitTest test, int rep) {
 
         UnitTestResult result = new UnitTestResult(test, rep);
+        TestRunListener listener = new TestRunListener(result);
 
         Request request = null;
 
         try {
-            request = buildRequest(test);
+            request = buildRequest(test, listener);
 
         } catch (ClassNotFoundException e) {
             Logger.error("Unable to find test class file: " + test);
@@ -80,7 +81,7 @@ public class JUnitBridge {
 
         JUnitCore jUnitCore = new JUnitCore();
 
-        jUnitCore.addListener(new TestRunListener(result));
+        jUnitCore.addListener(listener);
 
         try {
             jUnitCore.run(request);
@@ -96,7 +97,7 @@ public class JUnitBridge {
 
     }
 
-    public Request buildRequest(UnitTest test) throws ClassNotFoundException, NoSuchMethodException, NoSuchFieldException, IllegalAccessException {
+    public Request buildRequest(UnitTest test, TestRunListener listener) throws ClassNotFoundException, NoSuchMethodException, NoSuchFieldException, IllegalAccessException {
 
         Class<?> clazz = null;
 
@@ -109,7 +110,7 @@ public class JUnitBridge {
 
         annotateTestWithTimeout(clazz, methodName, test.getTimeoutMS());
 
-        return Request.method(clazz, methodName);
+        return listener.request(clazz, methodName);
 
     }
 
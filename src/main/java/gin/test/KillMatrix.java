@@ -0,0 +1,151 @@
+package gin.test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.opencsv.CSVWriter;
+
+/**
+ * Learns, over a run, how often each test kills (fails on) a candidate patch and how long it takes,
+ * separately for each target method.
+ *
+ * Tests are then ordered by estimated kill probability per unit of execution time, so that a runner
+ * stopping at the first failing test rejects a broken patch as cheaply as possible. The kill probability
+ * is smoothed (Laplace), so that a test that has killed no patch yet is not ruled out; tests that have
+ * never run go first.
+ *
+ * Shared between test runners, so all access is synchronized.
+ */
+public class KillMatrix {
+
+    private static final String[] CSV_HEADER = {"Target", "UnitTest", "Runs", "Kills", "KillProbability", "MeanExecutionTime(ns)", "Priority"};
+
+    // target -> test -> statistics, in order of first appearance
+    private final Map<String, Map<UnitTest, Row>> targets = new LinkedHashMap<>();
+
+    /**
+     * Outcomes of one test on the patches of one target method.
+     */
+    private static class Row {
+
+        private long runs = 0;
+        private long kills = 0;
+        private long totalTimeNS = 0;
+
+        private double killProbability() {
+            return (kills + 1.0) / (runs + 2.0);
+        }
+
+        private double meanTimeNS() {
+            return runs == 0 ? 0 : (double) totalTimeNS / runs;
+        }
+
+        // a test that has never run comes before any that has, so that its cost is learnt
+        private double priority() {
+            if (runs == 0) {
+                return Double.POSITIVE_INFINITY;
+            }
+            return killProbability() / (meanTimeNS() + 1.0);
+        }
+
+    }
+
+    /**
+     * Record the outcome of running a test on a patch.
+     * @param target the target method(s) of the patch, see key()
+     */
+    public synchronized void record(String target, UnitTestResult result) {
+        Row row = targets.computeIfAbsent(target, k -> new LinkedHashMap<>()).computeIfAbsent(result.getTest(), k -> new Row());
+        row.runs++;
+        if (!result.getPassed()) {
+            row.kills++;
+        }
+        row.totalTimeNS += result.getExecutionTime();
+    }
+
+    /**
+     * @return the tests sorted by decreasing kill probability per unit time for the given target;
+     * ties, including tests with no statistics, keep their original order
+     */
+    public synchronized List<UnitTest> prioritise(String target, List<UnitTest> tests) {
+
+        Map<UnitTest, Row> rows = targets.getOrDefault(target, Collections.emptyMap());
+        Map<UnitTest, Double> priorities = new HashMap<>();
+        for (UnitTest test : tests) {
+            priorities.put(test, rows.getOrDefault(test, new Row()).priority());
+        }
+
+        List<UnitTest> ordered = new ArrayList<>(tests);
+        ordered.sort(Comparator.comparing(priorities::get, Comparator.reverseOrder()));
+        return ordered;
+
+    }
+
+    /**
+     * @return kills divided by runs of the test on the given target, 0 if it has not run
+     */
+    public synchronized double getKillRate(String target, UnitTest test) {
+        Row row = targets.getOrDefault(target, Collections.emptyMap()).get(test);
+        return (row == null || row.runs == 0) ? 0 : (double) row.kills / row.runs;
+    }
+
+    public synchronized long getRuns(String target, UnitTest test) {
+        Row row = targets.getOrDefault(target, Collections.emptyMap()).get(test);
+        return row == null ? 0 : row.runs;
+    }
+
+    /**
+     * Key for the target methods of a patch.
+     */
+    public static String key(String className, List<String> targetMethodNames) {
+        if (targetMethodNames.isEmpty()) {
+            return className;
+        }
+        return className + "." + String.join(",", targetMethodNames);
+    }
+
+    /**
+     * Write one row per target method and test, in the order they were first seen.
+     */
+    public synchronized void writeCSV(File file) throws IOException {
+        try (CSVWriter writer = new CSVWriter(new FileWriter(file))) {
+            writer.writeNext(CSV_HEADER);
+            for (Map.Entry<String, Map<UnitTest, Row>> target : targets.entrySet()) {
+                for (Map.Entry<UnitTest, Row> test : target.getValue().entrySet()) {
+                    Row row = test.getValue();
+                    String[] entry = {target.getKey()
+                                    , test.getKey().toString()
+                                    , Long.toString(row.runs)
+                                    , Long.toString(row.kills)
+                                    , Double.toString(row.killProbability())
+                                    , Double.toString(row.meanTimeNS())
+                                    , Double.toString(row.priority())
+                                    };
+                    writer.writeNext(entry);
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        long runs = 0;
+        long kills = 0;
+        for (Map<UnitTest, Row> rows : targets.values()) {
+            for (Row row : rows.values()) {
+                runs += row.runs;
+                kills += row.kills;
+            }
+        }
+        return String.format("KillMatrix. Targets: %d; Test runs: %d; Kills: %d.", targets.size(), runs, kills);
+    }
+
+}
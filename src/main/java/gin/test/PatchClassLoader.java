@@ -0,0 +1,69 @@
+package gin.test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Short-lived loader for a single patch, on top of a SharedClassLoader.
+ * Defines only the patched classes, the classes that refer to them, and JUnitBridge (so that the tests it runs
+ * are loaded through this loader). Everything else is delegated to the shared loader, so the cost of loading
+ * classes for a patch scales with the change rather than with the project.
+ */
+public class PatchClassLoader extends ClassLoader {
+
+    static {
+        registerAsParallelCapable();
+    }
+
+    private static final String BRIDGE_CLASS_NAME = JUnitBridge.class.getName();
+
+    private final SharedClassLoader shared;
+    private final Map<String, byte[]> patchedClasses;
+    private final Set<String> dependents;
+
+    /**
+     * @param shared the loader for unchanged classes
+     * @param patchedClasses patched class bytes indexed by binary class name
+     * @param dependents project classes referring to the patched classes, which are reloaded from the classpath
+     */
+    public PatchClassLoader(SharedClassLoader shared, Map<String, byte[]> patchedClasses, Set<String> dependents) {
+        super(shared);
+        this.shared = shared;
+        this.patchedClasses = new HashMap<>(patchedClasses);
+        this.dependents = dependents;
+    }
+
+    public Set<String> getDependents() {
+        return dependents;
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+
+        synchronized (getClassLoadingLock(name)) {
+
+            Class<?> loaded = findLoadedClass(name);
+
+            if (loaded == null) {
+                byte[] byteCode = patchedClasses.get(name);
+                if (byteCode == null && (dependents.contains(name) || name.equals(BRIDGE_CLASS_NAME))) {
+                    byteCode = shared.getClassBytes(name);
+                }
+                if (byteCode != null) {
+                    loaded = defineClass(name, byteCode, 0, byteCode.length);
+                } else {
+                    loaded = shared.loadClass(name);
+                }
+            }
+
+            if (resolve) {
+                resolveClass(loaded);
+            }
+            return loaded;
+
+        }
+
+    }
+
+}
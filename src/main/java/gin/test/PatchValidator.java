@@ -0,0 +1,446 @@
+package gin.test;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import com.github.javaparser.JavaParser;
+import com.github.javaparser.ParseProblemException;
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.Node;
+import com.github.javaparser.ast.body.FieldDeclaration;
+import com.github.javaparser.ast.body.MethodDeclaration;
+import com.github.javaparser.ast.body.Parameter;
+import com.github.javaparser.ast.body.TypeDeclaration;
+import com.github.javaparser.ast.body.VariableDeclarator;
+import com.github.javaparser.ast.expr.BooleanLiteralExpr;
+import com.github.javaparser.ast.expr.EnclosedExpr;
+import com.github.javaparser.ast.expr.Expression;
+import com.github.javaparser.ast.expr.LambdaExpr;
+import com.github.javaparser.ast.expr.NameExpr;
+import com.github.javaparser.ast.expr.ObjectCreationExpr;
+import com.github.javaparser.ast.expr.VariableDeclarationExpr;
+import com.github.javaparser.ast.nodeTypes.NodeWithStatements;
+import com.github.javaparser.ast.stmt.BlockStmt;
+import com.github.javaparser.ast.stmt.BreakStmt;
+import com.github.javaparser.ast.stmt.CatchClause;
+import com.github.javaparser.ast.stmt.ContinueStmt;
+import com.github.javaparser.ast.stmt.DoStmt;
+import com.github.javaparser.ast.stmt.ExpressionStmt;
+import com.github.javaparser.ast.stmt.ForEachStmt;
+import com.github.javaparser.ast.stmt.ForStmt;
+import com.github.javaparser.ast.stmt.IfStmt;
+import com.github.javaparser.ast.stmt.LabeledStmt;
+import com.github.javaparser.ast.stmt.ReturnStmt;
+import com.github.javaparser.ast.stmt.Statement;
+import com.github.javaparser.ast.stmt.SwitchStmt;
+import com.github.javaparser.ast.stmt.SynchronizedStmt;
+import com.github.javaparser.ast.stmt.ThrowStmt;
+import com.github.javaparser.ast.stmt.TryStmt;
+import com.github.javaparser.ast.stmt.WhileStmt;
+import com.github.javaparser.ast.type.VoidType;
+
+import gin.SourceFile;
+
+/**
+ * Cheap checks of patched source, made before compiling it, for mistakes that edits often introduce
+ * and that javac would reject: source that doesn't parse (e.g. unbalanced braces after line edits),
+ * use of a local variable whose declaration was deleted or moved, a statement after one that can't
+ * complete normally (e.g. a copied return), and a non-void method whose body can complete normally.
+ *
+ * The checks are approximations of the compiler's, made so as not to reject source that compiles.
+ * They are calibrated on the original source: a name counts as a local variable only if every use of it
+ * in the original is within the scope of a declaration, and the control flow checks are dropped for a
+ * file whose original fails them.
+ *
+ * There is one validator per original source, see forSource, and it is looked up by source file instance with
+ * forSourceFile, so that the original isn't printed for every patch. Validators are immutable once created.
+ */
+public class PatchValidator {
+
+    /**
+     * Reason the patched source can't compile.
+     */
+    public enum Failure { PARSE_ERROR, UNDECLARED_VARIABLE, UNREACHABLE_STATEMENT, MISSING_RETURN }
+
+    // Validators of the most recently used original sources
+    private static final int CACHE_SIZE = 16;
+    private static final Map<String, PatchValidator> VALIDATORS = new LinkedHashMap<String, PatchValidator>(CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PatchValidator> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    // Validators of the source files patches were made from; dropped along with the source file
+    private static final Map<SourceFile, PatchValidator> SOURCE_FILE_VALIDATORS = new WeakHashMap<>();
+
+    // If the original doesn't parse, there is nothing to compare patches to, and nothing is rejected
+    private final boolean originalParsed;
+
+    // Names only ever used as local variables or parameters in the original
+    private final Set<String> localNames;
+
+    // Whether the original passes the control flow checks
+    private final boolean checkControlFlow;
+
+    /**
+     * @return the validator for patches of the given original source
+     */
+    public static PatchValidator forSource(String originalSource) {
+        synchronized (VALIDATORS) {
+            return VALIDATORS.computeIfAbsent(originalSource, PatchValidator::new);
+        }
+    }
+
+    /**
+     * @return the validator for patches of the given unpatched source file; the same as forSource for its source,
+     * which is only printed the first time the instance is seen
+     */
+    public static PatchValidator forSourceFile(SourceFile sourceFile) {
+        synchronized (SOURCE_FILE_VALIDATORS) {
+            PatchValidator validator = SOURCE_FILE_VALIDATORS.get(sourceFile);
+            if (validator == null) {
+                validator = forSource(sourceFile.toString());
+                SOURCE_FILE_VALIDATORS.put(sourceFile, validator);
+            }
+            return validator;
+        }
+    }
+
+    public PatchValidator(String originalSource) {
+
+        CompilationUnit cu = parse(originalSource);
+        this.originalParsed = (cu != null);
+        this.localNames = originalParsed ? localNames(cu) : new HashSet<>();
+        this.checkControlFlow = originalParsed && controlFlowFailure(cu) == null;
+
+    }
+
+    /**
+     * @return why the patched source can't compile, or null if it may
+     */
+    public Failure validate(String patchedSource) {
+        return originalParsed ? check(parse(patchedSource)) : null;
+    }
+
+    /**
+     * Check a patched source file using its parsed form, which for a SourceFileTree is the tree the edits
+     * changed, so that it isn't printed and parsed again.
+     * @return why the patched source can't compile, or null if it may
+     */
+    public Failure validate(SourceFile patchedSourceFile) {
+        return originalParsed ? patchedSourceFile.readCompilationUnit(this::check) : null;
+    }
+
+    private Failure check(CompilationUnit cu) {
+
+        if (cu == null) {
+            return Failure.PARSE_ERROR;
+        }
+
+        for (NameExpr name : cu.getChildNodesByType(NameExpr.class)) {
+            if (localNames.contains(name.getNameAsString()) && !isDeclared(name)) {
+                return Failure.UNDECLARED_VARIABLE;
+            }
+        }
+
+        return checkControlFlow ? controlFlowFailure(cu) : null;
+
+    }
+
+    private static CompilationUnit parse(String source) {
+        try {
+            return JavaParser.parse(source);
+        } catch (ParseProblemException e) {
+            return null;
+        }
+    }
+
+    /*============== local variables ==============*/
+
+    private static Set<String> localNames(CompilationUnit cu) {
+
+        Set<String> names = new HashSet<>();
+        for (VariableDeclarationExpr declaration : cu.getChildNodesByType(VariableDeclarationExpr.class)) {
+            for (VariableDeclarator variable : declaration.getVariables()) {
+                names.add(variable.getNameAsString());
+            }
+        }
+        for (Parameter parameter : cu.getChildNodesByType(Parameter.class)) {
+            names.add(parameter.getNameAsString());
+        }
+
+        for (FieldDeclaration field : cu.getChildNodesByType(FieldDeclaration.class)) {
+            for (VariableDeclarator variable : field.getVariables()) {
+                names.remove(variable.getNameAsString());
+            }
+        }
+        for (NameExpr name : cu.getChildNodesByType(NameExpr.class)) {
+            if (!isDeclared(name)) {
+                names.remove(name.getNameAsString());
+            }
+        }
+
+        return names;
+
+    }
+
+    /**
+     * Is the name within the scope of a local variable or parameter declaration with the same name?
+     * Approximate: the scopes of for, try-with-resources and catch declarations are taken to be the whole statement.
+     */
+    private static boolean isDeclared(NameExpr nameExpr) {
+
+        String name = nameExpr.getNameAsString();
+        Node child = nameExpr;
+        Optional<Node> parent = nameExpr.getParentNode();
+
+        while (parent.isPresent()) {
+
+            Node node = parent.get();
+
+            if (node instanceof VariableDeclarationExpr) {
+                // earlier variables of the same declaration
+                for (VariableDeclarator variable : ((VariableDeclarationExpr) node).getVariables()) {
+                    if (variable == child) {
+                        break;
+                    }
+                    if (variable.getNameAsString().equals(name)) {
+                        return true;
+                    }
+                }
+            } else if (node instanceof NodeWithStatements) {
+                // earlier statements of the block, or of the whole switch block for a switch entry
+                if (declaresBefore(((NodeWithStatements<?>) node).getStatements(), child, name)) {
+                    return true;
+                }
+                if (node.getParentNode().isPresent() && node.getParentNode().get() instanceof SwitchStmt) {
+                    for (Node entry : ((SwitchStmt) node.getParentNode().get()).getEntries()) {
+                        if (entry == node) {
+                            break;
+                        }
+                        if (declaresBefore(((NodeWithStatements<?>) entry).getStatements(), null, name)) {
+                            return true;
+                        }
+                    }
+                }
+            } else {
+                // parameters of methods, lambdas and catch clauses; variables declared by for and try statements
+                for (Node sibling : node.getChildNodes()) {
+                    if (sibling != child && declares(sibling, name)) {
+                        return true;
+                    }
+                }
+            }
+
+            child = node;
+            parent = node.getParentNode();
+
+        }
+
+        return false;
+
+    }
+
+    // Do any of the statements before the given one (all statements if it is null) declare the name?
+    private static boolean declaresBefore(List<Statement> statements, Node before, String name) {
+        for (Statement statement : statements) {
+            if (statement == before) {
+                break;
+            }
+            if (statement instanceof ExpressionStmt && declares(((ExpressionStmt) statement).getExpression(), name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean declares(Node node, String name) {
+        if (node instanceof Parameter) {
+            return ((Parameter) node).getNameAsString().equals(name);
+        }
+        if (node instanceof VariableDeclarationExpr) {
+            for (VariableDeclarator variable : ((VariableDeclarationExpr) node).getVariables()) {
+                if (variable.getNameAsString().equals(name)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /*============== control flow ==============*/
+
+    private static Failure controlFlowFailure(CompilationUnit cu) {
+
+        // blocks and switch entries
+        for (Node node : cu.getChildNodesByType(Node.class)) {
+            if (node instanceof NodeWithStatements) {
+                List<Statement> statements = ((NodeWithStatements<?>) node).getStatements();
+                for (int i = 0; i < statements.size() - 1; i++) {
+                    if (!canCompleteNormally(statements.get(i))) {
+                        return Failure.UNREACHABLE_STATEMENT;
+                    }
+                }
+            }
+        }
+
+        for (MethodDeclaration method : cu.getChildNodesByType(MethodDeclaration.class)) {
+            Optional<BlockStmt> body = method.getBody();
+            if (body.isPresent() && !(method.getType() instanceof VoidType) && canCompleteNormally(body.get())) {
+                return Failure.MISSING_RETURN;
+            }
+        }
+
+        return null;
+
+    }
+
+    /**
+     * Can the statement complete normally, as defined by JLS 14.21? Only literal true counts as a constant condition.
+     */
+    static boolean canCompleteNormally(Statement statement) {
+
+        if (statement instanceof ReturnStmt || statement instanceof ThrowStmt
+                || statement instanceof BreakStmt || statement instanceof ContinueStmt) {
+            return false;
+        }
+
+        if (statement instanceof BlockStmt) {
+            for (Statement inner : ((BlockStmt) statement).getStatements()) {
+                if (!canCompleteNormally(inner)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        if (statement instanceof IfStmt) {
+            IfStmt ifStmt = (IfStmt) statement;
+            return !ifStmt.getElseStmt().isPresent()
+                    || canCompleteNormally(ifStmt.getThenStmt()) || canCompleteNormally(ifStmt.getElseStmt().get());
+        }
+
+        if (statement instanceof WhileStmt) {
+            return !isTrue(((WhileStmt) statement).getCondition()) || hasJump(statement, BreakStmt.class);
+        }
+
+        if (statement instanceof ForStmt) {
+            Optional<Expression> compare = ((ForStmt) statement).getCompare();
+            return (compare.isPresent() && !isTrue(compare.get())) || hasJump(statement, BreakStmt.class);
+        }
+
+        if (statement instanceof DoStmt) {
+            DoStmt doStmt = (DoStmt) statement;
+            boolean reachesCondition = canCompleteNormally(doStmt.getBody()) || hasJump(statement, ContinueStmt.class);
+            return (reachesCondition && !isTrue(doStmt.getCondition())) || hasJump(statement, BreakStmt.class);
+        }
+
+        if (statement instanceof LabeledStmt) {
+            return canCompleteNormally(((LabeledStmt) statement).getStatement()) || hasJump(statement, BreakStmt.class);
+        }
+
+        if (statement instanceof SynchronizedStmt) {
+            return canCompleteNormally(((SynchronizedStmt) statement).getBody());
+        }
+
+        if (statement instanceof TryStmt) {
+            TryStmt tryStmt = (TryStmt) statement;
+            Optional<BlockStmt> finallyBlock = tryStmt.getFinallyBlock();
+            if (finallyBlock.isPresent() && !canCompleteNormally(finallyBlock.get())) {
+                return false;
+            }
+            if (canCompleteNormally(tryStmt.getTryBlock())) {
+                return true;
+            }
+            for (CatchClause catchClause : tryStmt.getCatchClauses()) {
+                if (canCompleteNormally(catchClause.getBody())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        if (statement instanceof SwitchStmt) {
+            List<? extends Node> entries = ((SwitchStmt) statement).getEntries();
+            if (entries.isEmpty() || hasJump(statement, BreakStmt.class)) {
+                return true;
+            }
+            boolean hasDefault = false;
+            for (Node entry : entries) {
+                // the default entry is the one without a label
+                if (entry.getChildNodes().stream().noneMatch(child -> child instanceof Expression)) {
+                    hasDefault = true;
+                }
+            }
+            List<Statement> last = ((NodeWithStatements<?>) entries.get(entries.size() - 1)).getStatements();
+            return !hasDefault || last.isEmpty() || canCompleteNormally(last.get(last.size() - 1));
+        }
+
+        // expression statements, declarations, assertions, empty statements, for-each loops
+        return true;
+
+    }
+
+    private static boolean isTrue(Expression expression) {
+        while (expression instanceof EnclosedExpr) {
+            expression = ((EnclosedExpr) expression).getInner();
+        }
+        return (expression instanceof BooleanLiteralExpr) && ((BooleanLiteralExpr) expression).getValue();
+    }
+
+    /**
+     * Does the statement contain a break (or continue) that exits (or continues) it?
+     * That is, one with its label, or an unlabelled one whose innermost enclosing loop or switch is the statement.
+     */
+    private static <T extends Statement> boolean hasJump(Statement statement, Class<T> jumpType) {
+
+        Optional<String> label = Optional.empty();
+        Statement target = statement;
+        if (statement instanceof LabeledStmt) {
+            label = Optional.of(((LabeledStmt) statement).getLabel().asString());
+            target = ((LabeledStmt) statement).getStatement();
+        } else if (statement.getParentNode().isPresent() && statement.getParentNode().get() instanceof LabeledStmt) {
+            label = Optional.of(((LabeledStmt) statement.getParentNode().get()).getLabel().asString());
+        }
+
+        for (T jump : statement.getChildNodesByType(jumpType)) {
+            Optional<String> jumpLabel = (jump instanceof BreakStmt)
+                    ? ((BreakStmt) jump).getLabel().map(name -> name.asString())
+                    : ((ContinueStmt) jump).getLabel().map(name -> name.asString());
+            if (jumpLabel.isPresent()) {
+                if (jumpLabel.equals(label)) {
+                    return true;
+                }
+            } else if (innermostTarget(jump, jumpType == BreakStmt.class) == target) {
+                return true;
+            }
+        }
+
+        return false;
+
+    }
+
+    // The innermost loop (or switch, for a break) around the jump; null if there is none in the same method body
+    static Node innermostTarget(Statement jump, boolean isBreak) {
+        Optional<Node> parent = jump.getParentNode();
+        while (parent.isPresent()) {
+            Node node = parent.get();
+            if (node instanceof WhileStmt || node instanceof DoStmt || node instanceof ForStmt || node instanceof ForEachStmt
+                    || (isBreak && node instanceof SwitchStmt)) {
+                return node;
+            }
+            if (node instanceof LambdaExpr || node instanceof TypeDeclaration || node instanceof ObjectCreationExpr) {
+                return null;
+            }
+            parent = node.getParentNode();
+        }
+        return null;
+    }
+
+}
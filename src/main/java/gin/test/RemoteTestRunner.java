@@ -0,0 +1,79 @@
+package gin.test;
+
+import java.io.IOException;
+import java.util.List;
+
+import gin.Patch;
+
+/**
+ * Runs tests on EvaluationWorkers, through an EvaluationCoordinator, rather than in this JVM.
+ * The patch is applied here, so that the fitness cache and patch validation can spare the workers
+ * patched source whose outcome is already known; the workers compile and test the rest.
+ */
+public class RemoteTestRunner extends TestRunner {
+
+    private final EvaluationCoordinator coordinator;
+
+    /**
+     * @param fullyQualifiedClassName Class name including full package name.
+     * @param classPath Standard Java classpath format.
+     * @param unitTests List of unit tests to be run against each patch.
+     * @param coordinator dispatches the patches to the workers
+     */
+    public RemoteTestRunner(String fullyQualifiedClassName, String classPath, List<UnitTest> unitTests, EvaluationCoordinator coordinator) {
+        super(fullyQualifiedClassName, classPath, unitTests);
+        this.coordinator = coordinator;
+    }
+
+    @Override
+    public UnitTestResultSet runTests(Patch patch, int reps) throws IOException, InterruptedException {
+        return runTests(patch, reps, 0);
+    }
+
+    /**
+     * Apply the patch, and have a worker compile it and race its tests against the given time,
+     * as InternalTestRunner does.
+     * @param raceLimitNS time to beat, e.g. that of the best patch so far; 0 to run all tests
+     * @throws IOException if there are no workers left, or a worker couldn't evaluate the patch
+     */
+    public UnitTestResultSet runTests(Patch patch, int reps, long raceLimitNS) throws IOException, InterruptedException {
+
+        String patchedSource = patch.apply();
+        boolean patchValid = patch.lastApplyWasValid();
+        List<Boolean> editsValid = patch.getEditsInvalidOnLastApply();
+        boolean noOp = isPatchedSourceSame(patch.getSourceFile().toString(), patchedSource);
+
+        FitnessCache fitnessCache = this.getFitnessCache();
+        String cacheKey = null;
+        if (fitnessCache != null) {
+            cacheKey = FitnessCache.key(this.getClassName(), this.getTests(), reps, patchedSource);
+            FitnessCache.Entry cached = fitnessCache.get(cacheKey);
+            if (cached != null) {
+                List<UnitTestResult> results = cached.getResults();
+                if (!patchValid || !cached.getCleanCompile()) {
+                    results = emptyResults(reps);
+                }
+                return new UnitTestResultSet(patch, patchValid, editsValid, cached.getCleanCompile(), noOp, results);
+            }
+        }
+
+        PatchValidator.Failure validationFailure = validate(patch, patchedSource);
+        if (validationFailure != null) {
+            UnitTestResultSet resultSet = new UnitTestResultSet(patch, patchValid, editsValid, false, noOp, emptyResults(reps));
+            resultSet.setValidationFailure(validationFailure);
+            return resultSet;
+        }
+
+        UnitTestResultSet resultSet = coordinator.evaluate(this.getClassName(), this.getTests(), patch, reps, raceLimitNS);
+
+        // as in InternalTestRunner, partial results are not cached; nor are those replaced because the patch was invalid,
+        // nor the failures of a patch that lost its workers, so that it is evaluated again
+        if (fitnessCache != null && patchValid && !resultSet.getDominated() && !EvaluationCoordinator.lostWorkers(resultSet)) {
+            fitnessCache.put(cacheKey, resultSet.getCleanCompile(), resultSet.getCleanCompile() ? resultSet.getResults() : null);
+        }
+
+        return resultSet;
+
+    }
+
+}
@@ -0,0 +1,240 @@
+package gin.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.commons.io.IOUtils;
+import org.pmw.tinylog.Logger;
+
+/**
+ * Long-lived loader for the unchanged project and test classes, shared by the PatchClassLoaders of many patches.
+ * Classes only need to be loaded and linked once, rather than once per patch.
+ *
+ * Also indexes which project classes refer to which, so that a patch's loader knows which classes have to be
+ * redefined alongside the patched ones: any class referring to a patched class, directly or indirectly.
+ *
+ * Note that unlike a CacheClassLoader per patch, static state of shared classes survives from one patch to the next.
+ */
+public class SharedClassLoader extends CacheClassLoader {
+
+    static {
+        registerAsParallelCapable();
+    }
+
+    private static final Map<String, SharedClassLoader> LOADERS = new HashMap<>();
+
+    // Class names in descriptors and signatures, e.g. Lorg/mypackage/StringHelper;
+    private static final Pattern DESCRIPTOR_CLASS = Pattern.compile("L([\\w/$]+)[;<]");
+
+    // Class file format, see the JVM specification, section 4.4
+    private static final int CLASS_MAGIC = 0xCAFEBABE;
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_LONG = 5;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_METHOD_HANDLE = 15;
+    private static final int CONSTANT_METHOD_TYPE = 16;
+    private static final int CONSTANT_MODULE = 19;
+    private static final int CONSTANT_PACKAGE = 20;
+
+    // binary class name -> project classes referring to it
+    private Map<String, Set<String>> referencedBy = null;
+
+    /**
+     * @return the shared loader for the given project classpath, created on first use
+     */
+    public static synchronized SharedClassLoader forClassPath(String classPath) {
+        String key = classPath == null ? "" : classPath;
+        return LOADERS.computeIfAbsent(key, k -> new SharedClassLoader(classPath));
+    }
+
+    public SharedClassLoader(String classPath) {
+        super(classPath);
+    }
+
+    /**
+     * Create a loader for one patch, defining the given classes and reusing all others.
+     * @param classes patched class bytes indexed by binary class name
+     */
+    public PatchClassLoader newPatchLoader(Map<String, byte[]> classes) {
+        return new PatchClassLoader(this, classes, getDependents(classes.keySet()));
+    }
+
+    /**
+     * @return the project classes that refer, directly or indirectly, to any of the given classes, excluding those classes
+     */
+    public Set<String> getDependents(Set<String> classNames) {
+
+        Map<String, Set<String>> index = getIndex();
+
+        Set<String> dependents = new HashSet<>();
+        Deque<String> toVisit = new ArrayDeque<>(classNames);
+        while (!toVisit.isEmpty()) {
+            for (String dependent : index.getOrDefault(toVisit.pop(), Collections.emptySet())) {
+                if (!classNames.contains(dependent) && dependents.add(dependent)) {
+                    toVisit.push(dependent);
+                }
+            }
+        }
+        return dependents;
+
+    }
+
+    /**
+     * Read the bytes of a class on the project classpath, for redefining it in a patch's loader.
+     */
+    byte[] getClassBytes(String className) throws ClassNotFoundException {
+        try (InputStream in = getResourceAsStream(className.replace('.', '/') + ".class")) {
+            if (in == null) {
+                throw new ClassNotFoundException(className);
+            }
+            return IOUtils.toByteArray(in);
+        } catch (IOException e) {
+            throw new ClassNotFoundException(className, e);
+        }
+    }
+
+    private synchronized Map<String, Set<String>> getIndex() {
+
+        if (referencedBy != null) {
+            return referencedBy;
+        }
+
+        referencedBy = new HashMap<>();
+        for (URL url : getProvidedClassPath()) {
+            File file;
+            try {
+                file = new File(url.toURI());
+            } catch (URISyntaxException e) {
+                continue;
+            }
+            try {
+                if (file.isDirectory()) {
+                    indexDirectory(file.toPath());
+                } else if (file.isFile() && file.getName().endsWith(".jar")) {
+                    indexJar(file);
+                }
+            } catch (IOException e) {
+                Logger.warn("Could not index classes in " + file + ": " + e.getMessage());
+            }
+        }
+        return referencedBy;
+
+    }
+
+    private void indexDirectory(Path directory) throws IOException {
+        List<Path> classFiles;
+        try (Stream<Path> paths = Files.walk(directory)) {
+            classFiles = paths.filter(p -> p.toString().endsWith(".class")).collect(Collectors.toList());
+        }
+        for (Path classFile : classFiles) {
+            indexClass(Files.readAllBytes(classFile));
+        }
+    }
+
+    private void indexJar(File jar) throws IOException {
+        try (JarFile jarFile = new JarFile(jar)) {
+            Enumeration<JarEntry> entries = jarFile.entries();
+            while (entries.hasMoreElements()) {
+                JarEntry entry = entries.nextElement();
+                if (entry.getName().endsWith(".class")) {
+                    try (InputStream in = jarFile.getInputStream(entry)) {
+                        indexClass(IOUtils.toByteArray(in));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Record every class named in the constant pool, whether as a class reference or in a descriptor.
+     */
+    private void indexClass(byte[] bytes) throws IOException {
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        if (in.readInt() != CLASS_MAGIC) {
+            return;
+        }
+        in.readUnsignedShort(); // minor version
+        in.readUnsignedShort(); // major version
+
+        int count = in.readUnsignedShort();
+        String[] utf8 = new String[count];
+        int[] classNameIndex = new int[count];
+
+        for (int i = 1; i < count; i++) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case CONSTANT_UTF8:
+                    utf8[i] = in.readUTF();
+                    break;
+                case CONSTANT_CLASS:
+                    classNameIndex[i] = in.readUnsignedShort();
+                    break;
+                case CONSTANT_LONG:
+                case CONSTANT_DOUBLE:
+                    in.skipBytes(8);
+                    i++; // takes two slots
+                    break;
+                case CONSTANT_METHOD_HANDLE:
+                    in.skipBytes(3);
+                    break;
+                case CONSTANT_STRING:
+                case CONSTANT_METHOD_TYPE:
+                case CONSTANT_MODULE:
+                case CONSTANT_PACKAGE:
+                    in.skipBytes(2);
+                    break;
+                default: // integer, float, member references, name and type, dynamic
+                    in.skipBytes(4);
+            }
+        }
+
+        in.readUnsignedShort(); // access flags
+        String className = utf8[classNameIndex[in.readUnsignedShort()]].replace('/', '.');
+
+        for (int i = 1; i < count; i++) {
+            if (classNameIndex[i] != 0 && !utf8[classNameIndex[i]].startsWith("[")) {
+                addReference(className, utf8[classNameIndex[i]]);
+            }
+            if (utf8[i] != null) {
+                Matcher matcher = DESCRIPTOR_CLASS.matcher(utf8[i]);
+                while (matcher.find()) {
+                    addReference(className, matcher.group(1));
+                }
+            }
+        }
+
+    }
+
+    private void addReference(String from, String internalName) {
+        String to = internalName.replace('/', '.');
+        if (!to.equals(from)) {
+            referencedBy.computeIfAbsent(to, k -> new HashSet<>()).add(from);
+        }
+    }
+
+}
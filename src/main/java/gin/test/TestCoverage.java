@@ -0,0 +1,193 @@
+package gin.test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.pmw.tinylog.Logger;
+
+import com.github.javaparser.Range;
+
+import gin.Patch;
+import gin.SourceFile;
+import gin.edit.Edit;
+
+/**
+ * Which statements of the target methods each test executes, measured once on the unpatched source by
+ * running every test against a copy instrumented with CoverageProbe. Used to run, for each patch,
+ * only the tests that execute the lines its edits change.
+ *
+ * A test executes a line of the file if it executes the innermost probed statement containing that line.
+ * Lines of the target methods outside any probed statement (signatures, braces) are executed by any test
+ * that executes a probed statement. If an edit changes lines outside the target methods, or it is not known
+ * which lines it changes, all tests are selected.
+ *
+ * Shared between test runners, so the counts are synchronized.
+ */
+public class TestCoverage {
+
+    private final int probes;
+
+    private final List<Range> targetMethodRanges;
+
+    // line of the file -> innermost probed statements containing it
+    private final Map<Integer, BitSet> probesOfLine = new HashMap<>();
+
+    // test -> probes hit
+    private final Map<UnitTest, BitSet> probesHit;
+
+    private long patches = 0;
+    private long testsSelected = 0;
+    private long testsAvailable = 0;
+
+    private TestCoverage(List<Range> probedStatements, List<Range> targetMethodRanges, Map<UnitTest, BitSet> probesHit) {
+
+        this.probes = probedStatements.size();
+        this.targetMethodRanges = targetMethodRanges;
+        this.probesHit = probesHit;
+
+        // statements nest, so the innermost containing a line are those spanning the fewest lines
+        Map<Integer, Integer> innermostSpan = new HashMap<>();
+        for (int probe = 0; probe < probes; probe++) {
+            Range range = probedStatements.get(probe);
+            int span = range.end.line - range.begin.line;
+            for (int line = range.begin.line; line <= range.end.line; line++) {
+                Integer innermost = innermostSpan.get(line);
+                if (innermost == null || span < innermost) {
+                    innermostSpan.put(line, span);
+                    probesOfLine.put(line, new BitSet());
+                }
+                if (innermost == null || span <= innermost) {
+                    probesOfLine.get(line).set(probe);
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Run each test once against the unpatched source, instrumented to record the statements it executes.
+     * Tests are run one at a time, and not in parallel with other measurements.
+     * @return the coverage, or null if the instrumented source doesn't compile
+     */
+    public static TestCoverage measure(String className, String classPath, List<UnitTest> tests, SourceFile sourceFile) {
+
+        List<Range> probedStatements = new ArrayList<>();
+        List<Range> targetMethodRanges = new ArrayList<>();
+        String instrumentedSource = sourceFile.instrumentTargetMethods(CoverageProbe.PROBE_METHOD, probedStatements, targetMethodRanges);
+
+        Map<String, byte[]> classes = CompilationService.forClassPath(classPath).compile(className, instrumentedSource);
+        if (classes == null) {
+            Logger.warn("Could not compile " + className + " instrumented for coverage; all tests will be run for every patch");
+            return null;
+        }
+
+        CacheClassLoader classLoader = new CacheClassLoader(classPath);
+        for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+            classLoader.setCustomCompiledCode(entry.getKey(), entry.getValue());
+        }
+
+        Map<UnitTest, BitSet> probesHit = new HashMap<>();
+        synchronized (CoverageProbe.class) {
+            for (UnitTest test : tests) {
+                CoverageProbe.reset(probedStatements.size());
+                InternalTestRunner.runSingleTest(test, classLoader, 1);
+                probesHit.put(test, CoverageProbe.getHits());
+            }
+            CoverageProbe.reset(0);
+        }
+
+        TestCoverage coverage = new TestCoverage(probedStatements, targetMethodRanges, probesHit);
+        Logger.info(coverage);
+        return coverage;
+
+    }
+
+    /**
+     * @return the tests that execute any line changed by the patch, in their original order;
+     * all tests for the empty patch. Tests that weren't measured are always selected.
+     */
+    public List<UnitTest> selectTests(Patch patch, List<UnitTest> tests) {
+
+        List<UnitTest> selected = select(patch, tests);
+        synchronized (this) {
+            patches++;
+            testsSelected += selected.size();
+            testsAvailable += tests.size();
+        }
+        return selected;
+
+    }
+
+    private List<UnitTest> select(Patch patch, List<UnitTest> tests) {
+
+        if (patch.getEdits().isEmpty() || probes == 0) {
+            return tests;
+        }
+
+        Set<Integer> lines = new TreeSet<>();
+        for (Edit edit : patch.getEdits()) {
+            Set<Integer> editedLines = edit.getEditedLines(patch.getSourceFile());
+            if (editedLines == null) {
+                return tests;
+            }
+            lines.addAll(editedLines);
+        }
+
+        BitSet editedProbes = new BitSet();
+        boolean outsideStatements = false;
+        for (int line : lines) {
+            if (!inTargetMethod(line)) {
+                return tests;
+            }
+            BitSet probesOnLine = probesOfLine.get(line);
+            if (probesOnLine == null) {
+                outsideStatements = true;
+            } else {
+                editedProbes.or(probesOnLine);
+            }
+        }
+
+        List<UnitTest> selected = new ArrayList<>();
+        for (UnitTest test : tests) {
+            BitSet hit = probesHit.get(test);
+            if (hit == null || hit.intersects(editedProbes) || (outsideStatements && !hit.isEmpty())) {
+                selected.add(test);
+            }
+        }
+        return selected;
+
+    }
+
+    private boolean inTargetMethod(int line) {
+        for (Range range : targetMethodRanges) {
+            if (line >= range.begin.line && line <= range.end.line) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the probes hit by the given test, null if it wasn't measured
+     */
+    public BitSet getProbesHit(UnitTest test) {
+        BitSet hit = probesHit.get(test);
+        return hit == null ? null : (BitSet) hit.clone();
+    }
+
+    public int getProbes() {
+        return probes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("TestCoverage. Probes: %d; Tests measured: %d; Patches: %d; Tests selected: %d of %d.",
+                probes, probesHit.size(), patches, testsSelected, testsAvailable);
+    }
+
+}
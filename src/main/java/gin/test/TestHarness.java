@@ -13,7 +13,10 @@ import java.net.ServerSocket;
 import java.net.Socket;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import com.opencsv.CSVWriter;
 import com.sampullara.cli.Args;
@@ -25,15 +28,36 @@ import org.pmw.tinylog.Logger;
 
 /** 
  * Runs a given test request. Uses sockets to communicate with ExternalTestRunner.
+ *
+ * If started with the project classpath, the harness can be reused for many patches:
+ * patched classes are sent over the socket, and tests are run in a fresh CacheClassLoader
+ * holding those classes, until the next reset.
+ * Otherwise tests are loaded from the harness's own classpath.
  */
 public class TestHarness {
 
+    public static final String CLASSPATH_ARGUMENT = "c";
+
+    @Argument(alias = CLASSPATH_ARGUMENT, description = "Project classpath; if given, patched classes are received over the socket")
+    protected String classPath = null;
+
     private ServerSocket serverSocket;
     private Socket clientSocket;
     private PrintWriter out;
     private BufferedReader in;
     public static final String PORT_PREFIX = "PORT";
 
+    // Protocol: the harness sends READY once connected, then answers one line per command
+    public static final String READY = "READY";
+    public static final String OK = "OK";
+    public static final String CLASS_COMMAND = "class"; // class,<binary name>,<base64 class bytes>
+    public static final String RESET_COMMAND = "reset"; // drop classes received so far
+    public static final String STOP_COMMAND = "stop";
+
+    // Classes received since the last reset, and the loader holding them (created on the first test)
+    private Map<String, byte[]> patchedClasses = new HashMap<>();
+    private CacheClassLoader patchLoader = null;
+
     public static void main(String[] args) {
         TestHarness testHarness= new TestHarness(args);
     }
@@ -53,10 +77,12 @@ public class TestHarness {
             out = new PrintWriter(clientSocket.getOutputStream(), true);
             in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
 
+            out.println(READY); // handshake: we're ready for commands
+
             String command;
             while ((command = in.readLine()) != null) {
                 try {
-                    String response = runTest(command);
+                    String response = runCommand(command);
                     out.println(response);
                 } catch (ParseException e) {
                     break; 
@@ -81,6 +107,36 @@ public class TestHarness {
         }
 
     }
+    private String runCommand(String command) throws ParseException {
+
+        if (classPath != null) {
+
+            if (command.equals(RESET_COMMAND)) {
+                patchedClasses.clear();
+                patchLoader = null;
+                return OK;
+            }
+
+            if (command.startsWith(CLASS_COMMAND + ",")) {
+                String[] params = command.split(",");
+                if (params.length != 3) {
+                    throw new ParseException("Not a class format: " + command, 0);
+                }
+                try {
+                    patchedClasses.put(params[1], Base64.getDecoder().decode(params[2]));
+                } catch (IllegalArgumentException e) {
+                    throw new ParseException("Invalid class bytes for: " + params[1], 0);
+                }
+                patchLoader = null;
+                return OK;
+            }
+
+        }
+
+        return runTest(command);
+
+    }
+
     private String runTest(String command) throws ParseException {
 
        String testName;
@@ -102,12 +158,28 @@ public class TestHarness {
 
        UnitTest test = UnitTest.fromString(testName);
        test.setTimeoutMS(timeoutMS);
-       UnitTestResult result = runTest(test, rep);
+       UnitTestResult result;
+       if (classPath != null) {
+           result = InternalTestRunner.runSingleTest(test, getPatchLoader(), rep);
+       } else {
+           result = runTest(test, rep);
+       }
 
        return result.toString();
 
     }
 
+    // A fresh loader per patch, so that the project's classes (and their static state) are reloaded
+    private CacheClassLoader getPatchLoader() {
+        if (patchLoader == null) {
+            patchLoader = new CacheClassLoader(classPath);
+            for (Map.Entry<String, byte[]> entry : patchedClasses.entrySet()) {
+                patchLoader.setCustomCompiledCode(entry.getKey(), entry.getValue());
+            }
+        }
+        return patchLoader;
+    }
+
     private UnitTestResult runTest(UnitTest test, int rep) {
 
         UnitTestResult result = new UnitTestResult(test, rep);
@@ -162,11 +234,12 @@ public class TestHarness {
             return result;
         }
 
-        Request request = Request.method(clazz, methodName);
+        TestRunListener listener = new TestRunListener(result);
+        Request request = listener.request(clazz, methodName);
 
         JUnitCore jUnitCore = new JUnitCore();
 
-        jUnitCore.addListener(new TestRunListener(result));
+        jUnitCore.addListener(listener);
 
         try {
             jUnitCore.run(request);
@@ -0,0 +1,170 @@
+package gin.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.pmw.tinylog.Logger;
+
+/**
+ * A pool of long-lived TestHarness JVMs for a single project classpath.
+ * The harnesses are started with gin's own classpath, and given the project classpath as an argument.
+ * For every patch they receive the compiled classes over the socket and load them, along with the rest
+ * of the project, into a fresh class loader, so static state doesn't leak between patches.
+ * A harness is only replaced once a test times out or the harness crashes.
+ * Thread-safe: concurrent evaluations each acquire their own harness.
+ */
+public class TestHarnessPool {
+
+    private final String classPath;
+
+    private final Deque<TestHarnessProcess> idle = new ArrayDeque<>();
+    private final Set<TestHarnessProcess> all = new LinkedHashSet<>();
+
+    private int harnessesStarted = 0;
+    private boolean closed = false;
+
+    /**
+     * @param classPath the project classpath, without gin's own
+     */
+    public TestHarnessPool(String classPath) {
+        this.classPath = classPath;
+    }
+
+    public String getClassPath() {
+        return classPath;
+    }
+
+    /**
+     * Take an idle harness from the pool, or start a new one if there isn't one.
+     * @return a harness with no patched classes loaded
+     * @throws IOException if a new harness failed to start
+     */
+    public TestHarnessProcess acquire() throws IOException {
+
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("Test harness pool is closed");
+            }
+            while (!idle.isEmpty()) {
+                TestHarnessProcess harness = idle.pop();
+                if (harness.isAlive()) {
+                    return harness;
+                }
+                all.remove(harness);
+            }
+        }
+
+        // start outside the lock, so harnesses for concurrent evaluations start in parallel
+        TestHarnessProcess harness = TestHarnessProcess.start(harnessCommand());
+
+        synchronized (this) {
+            harnessesStarted++;
+            all.add(harness);
+            if (closed) {
+                all.remove(harness);
+                harness.stop();
+                throw new IOException("Test harness pool is closed");
+            }
+        }
+        Logger.debug("Started test harness number " + harnessesStarted);
+
+        return harness;
+
+    }
+
+    /**
+     * Send classes to a harness, killing it if it failed to load them.
+     * @throws IOException if the harness failed to load the classes
+     */
+    public void loadClasses(TestHarnessProcess harness, Map<String, byte[]> classes) throws IOException {
+        try {
+            harness.loadClasses(classes, TestHarnessProcess.COMMAND_TIMEOUT_MS);
+        } catch (IOException e) {
+            Logger.warn("Test harness failed to load patched classes, recycling it: " + e.getMessage());
+            discard(harness);
+            throw e;
+        }
+    }
+
+    /**
+     * Return a harness once all tests for a patch have been run on it.
+     * The harness is reset; if that fails it is discarded instead.
+     */
+    public void release(TestHarnessProcess harness) {
+
+        if (!harness.reset(TestHarnessProcess.COMMAND_TIMEOUT_MS)) {
+            discard(harness);
+            return;
+        }
+
+        synchronized (this) {
+            if (!closed) {
+                idle.push(harness);
+                return;
+            }
+            all.remove(harness);
+        }
+        harness.stop();
+
+    }
+
+    /**
+     * Kill a harness that timed out or crashed. It is not returned to the pool.
+     */
+    public void discard(TestHarnessProcess harness) {
+        synchronized (this) {
+            all.remove(harness);
+            idle.remove(harness);
+        }
+        harness.kill();
+    }
+
+    public synchronized int getHarnessesStarted() {
+        return harnessesStarted;
+    }
+
+    /**
+     * Stop all harnesses. Harnesses still in use are stopped as well.
+     */
+    public void close() {
+
+        List<TestHarnessProcess> toStop;
+        synchronized (this) {
+            closed = true;
+            toStop = new ArrayList<>(all);
+            all.clear();
+            idle.clear();
+        }
+
+        for (TestHarnessProcess harness : toStop) {
+            harness.stop();
+        }
+
+    }
+
+    private List<String> harnessCommand() {
+
+        File javaHome = new File(System.getProperty("java.home"));
+        File javaBin = new File(javaHome, "bin");
+        File jvm = new File(javaBin, "java");
+
+        List<String> command = new ArrayList<>();
+        command.add(jvm.getAbsolutePath());
+        command.add("-Dtinylog.level=" + Logger.getLevel());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(ExternalTestRunner.HARNESS_CLASS);
+        command.add("-" + TestHarness.CLASSPATH_ARGUMENT);
+        command.add(classPath);
+        return command;
+
+    }
+
+}
@@ -0,0 +1,279 @@
+package gin.test;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.lang.ProcessBuilder.Redirect;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+import org.pmw.tinylog.Logger;
+
+/**
+ * A TestHarness running in a separate JVM, together with the socket connection to it.
+ * The harness is known to be ready once it has sent the READY line over the socket,
+ * so no fixed start-up delay is needed.
+ * Also used for EvaluationWorkers, which follow the same handshake; those started elsewhere are only connected to.
+ */
+public class TestHarnessProcess {
+
+    // Generous, as the JVM and JUnit are loaded before the harness is ready
+    private static final int HANDSHAKE_TIMEOUT_MS = 60000;
+
+    // Time allowed for the harness to acknowledge classes and resets
+    static final long COMMAND_TIMEOUT_MS = 10000;
+
+    // Time allowed for a harness to exit after being asked to stop
+    private static final long STOP_TIMEOUT_MS = 1000;
+
+    private final Process process; // null if the harness was started elsewhere
+    private final Socket clientSocket;
+    private final PrintWriter out;
+    private final BufferedReader in;
+
+    private TestHarnessProcess(Process process, Socket clientSocket) throws IOException {
+        this.process = process;
+        this.clientSocket = clientSocket;
+        this.out = new PrintWriter(clientSocket.getOutputStream(), true);
+        this.in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
+    }
+
+    /**
+     * Start a harness process with the given command, connect to it and wait for it to be ready.
+     * @param command full command line, including the java executable and gin.test.TestHarness
+     * @return the connected harness
+     * @throws IOException if the harness didn't start or didn't complete the handshake
+     */
+    public static TestHarnessProcess start(List<String> command) throws IOException {
+
+        // in the following we use sockets to communicate with the
+        // TestHarness in a sub process.
+        // we don't just capture stdout from the process, because if
+        // you're running multiple tests in subprocess you have to
+        // communicate somehow to know that a test finished (or not)
+        // this doesn't work if the hanging test blocks stdout
+        // so: we fire up a subprocess, get it to tell us what port
+        // number it wants to use via stdout, then communicate via
+        // that port. stdout is redirected to the real System.out
+        // so that we can debug the running tests if needed.
+
+        ProcessBuilder builder = new ProcessBuilder(command);
+
+        // redirect everything except STDOUT for now as we need it to get the port
+        final Process process = builder.redirectError(Redirect.INHERIT).redirectInput(Redirect.INHERIT).start();
+
+        // we're spawning a separate process, and if our JVM
+        // dies we'll want to kill the other process too,
+        // otherwise it'll be left open keeping file and port
+        // handles open and causing all kinds of bother.
+        // (note - e.g. pressing eclipse red button forcibly
+        // kills the JVM so this doesn't fire in that situation;
+        // apparently nothing can be done about that)
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            public void run() {
+                if (process.isAlive()) {
+                    process.destroyForcibly();
+                }
+            }
+        });
+
+        int port = 0;
+        final Scanner scanner = new Scanner(process.getInputStream());
+        while (scanner.hasNextLine()) {
+            String line = scanner.nextLine();
+            if (line.startsWith(TestHarness.PORT_PREFIX)) {
+                port = Integer.parseInt(line.substring(line.indexOf("=") + 1));
+                break;
+            }
+        }
+
+        if (port == 0) {
+            process.destroyForcibly();
+            throw new IOException("Test harness exited without reporting a port number");
+        }
+
+        // having set off the process and grabbed the port number from its stdout, we now
+        // redirect its output to the real stdout
+        // (no need to kill this thread, it'll exit when the process dies)
+        Thread forwarder = new Thread(new Runnable() {
+            public void run() {
+                while (scanner.hasNextLine()) {
+                    System.out.println(scanner.nextLine());
+                }
+                scanner.close();
+            }
+        });
+        forwarder.setDaemon(true);
+        forwarder.start();
+
+        // the server socket is already listening when the port is reported, so we can connect straight away
+        TestHarnessProcess harness = null;
+        try {
+            harness = new TestHarnessProcess(process, new Socket("localhost", port));
+            String greeting = harness.sendMessage(null, HANDSHAKE_TIMEOUT_MS);
+            if (!TestHarness.READY.equals(greeting)) {
+                throw new IOException("Unexpected handshake from test harness: " + greeting);
+            }
+        } catch (IOException e) {
+            if (harness != null) {
+                harness.kill();
+            } else {
+                process.destroyForcibly();
+            }
+            throw e;
+        }
+
+        return harness;
+
+    }
+
+    /**
+     * Connect to a harness that is already running, possibly on another machine, and wait for it to be ready.
+     * It isn't stopped along with the connection, so can be connected to again.
+     * @throws IOException if the connection or the handshake failed
+     */
+    public static TestHarnessProcess connect(String host, int port) throws IOException {
+
+        TestHarnessProcess harness = new TestHarnessProcess(null, new Socket(host, port));
+        try {
+            String greeting = harness.sendMessage(null, HANDSHAKE_TIMEOUT_MS);
+            if (!TestHarness.READY.equals(greeting)) {
+                throw new IOException("Unexpected handshake from " + host + ":" + port + ": " + greeting);
+            }
+        } catch (IOException e) {
+            harness.kill();
+            throw e;
+        }
+        return harness;
+
+    }
+
+    /**
+     * Send a single line and wait for the single line response.
+     * @param msg the line to send, or null to only wait for a response
+     * @param timeoutMS how long to wait for the response
+     * @return the response, or null if none arrived in time
+     * @throws IOException if the connection failed, including the harness closing it
+     */
+    public String sendMessage(String msg, long timeoutMS) throws IOException {
+
+        int timeout = Integer.MAX_VALUE;
+        if (timeoutMS < (long) timeout) {
+            timeout = (int) timeoutMS;
+        }
+        clientSocket.setSoTimeout(timeout);
+
+        if (msg != null) {
+            out.println(msg);
+        }
+
+        String response;
+        try {
+            response = in.readLine();
+        } catch (SocketTimeoutException e) {
+            return null;
+        }
+
+        if (response == null) {
+            throw new EOFException("Test harness closed the connection");
+        }
+        return response;
+
+    }
+
+    /**
+     * Send the given classes to a harness started with a project classpath.
+     * They replace the project's versions until the next reset.
+     */
+    public void loadClasses(Map<String, byte[]> classes, long timeoutMS) throws IOException {
+
+        for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+            String message = TestHarness.CLASS_COMMAND + "," + entry.getKey() + "," + Base64.getEncoder().encodeToString(entry.getValue());
+            String response = sendMessage(message, timeoutMS);
+            if (!TestHarness.OK.equals(response)) {
+                throw new IOException("Test harness failed to load class " + entry.getKey() + ": " + response);
+            }
+        }
+
+    }
+
+    /**
+     * Drop the classes sent since the last reset, so that the harness can be used for another patch.
+     * @return true if the harness acknowledged the reset
+     */
+    public boolean reset(long timeoutMS) {
+
+        try {
+            return TestHarness.OK.equals(sendMessage(TestHarness.RESET_COMMAND, timeoutMS));
+        } catch (IOException e) {
+            Logger.trace(e);
+            return false;
+        }
+
+    }
+
+    public boolean isAlive() {
+        return (process == null || process.isAlive()) && !clientSocket.isClosed();
+    }
+
+    /**
+     * Ask the harness to stop, and wait for it to exit; forcibly kill it if it doesn't.
+     * A harness started elsewhere is only disconnected from.
+     */
+    public void stop() {
+
+        if (process == null) {
+            closeConnection();
+            return;
+        }
+
+        out.println(TestHarness.STOP_COMMAND);
+        closeConnection();
+
+        try {
+            if (!process.waitFor(STOP_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                kill();
+            }
+        } catch (InterruptedException e) {
+            kill();
+            Thread.currentThread().interrupt();
+        }
+
+    }
+
+    /**
+     * Forcibly kill the harness, e.g. because a test hung. A harness started elsewhere is only disconnected from.
+     */
+    public void kill() {
+
+        closeConnection();
+        if (process == null) {
+            return;
+        }
+        process.destroyForcibly();
+        try {
+            process.waitFor(STOP_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+    }
+
+    private void closeConnection() {
+        try {
+            in.close();
+            out.close();
+            clientSocket.close();
+        } catch (IOException e) {
+            Logger.trace(e);
+        }
+    }
+
+}
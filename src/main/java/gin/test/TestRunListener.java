@@ -1,34 +1,92 @@
 package gin.test;
 
+import java.lang.management.GarbageCollectorMXBean;
 import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
 import java.lang.management.ThreadMXBean;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.junit.runner.Description;
+import org.junit.runner.Request;
 import org.junit.runner.Result;
+import org.junit.runner.RunWith;
 import org.junit.runner.notification.Failure;
 import org.junit.runner.notification.RunListener;
+import org.junit.runners.BlockJUnit4ClassRunner;
+import org.junit.runners.model.FrameworkMethod;
+import org.junit.runners.model.InitializationError;
+import org.junit.runners.model.Statement;
 import org.pmw.tinylog.Logger;
 
 /**
  * Saves result of a UnitTest run into UnitTestResult.
  * assumes one test case is run through JUnitCore at a time
  * ignored tests and tests with assumption violations are considered successful (following JUnit standard)
+ *
+ * CPU time is that of the threads running the test. Memory use is recorded as the bytes they allocate, the peak heap
+ * use, summed over the heap's memory pools, and the number of garbage collections during the test. The last two are
+ * of the whole JVM, including any other tests running at once and javac, so are only recorded while the caller
+ * runs one test at a time, see setWholeJVMMeasured; otherwise they are left at 0.
  */
 public class TestRunListener extends RunListener {
 
     private static ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
 
+    // Whether tests record the peak heap and GC count, see setWholeJVMMeasured
+    private static volatile boolean wholeJVMMeasured = true;
+
     private UnitTestResult unitTestResult;
 
     private long startTime = 0;
 
     private long startCPUTime = 0;
 
+    private long startAllocatedBytes = 0;
+
+    private long startGCCount = 0;
+
+    private boolean measuringWholeJVM = false;
+
+    // Thread notifying this listener; with a timeout, JUnit runs the test method on another thread
+    private Thread listenerThread = null;
+
+    // CPU time and bytes allocated by the test method on threads other than the listener's, see request()
+    private final AtomicLong testThreadCPUTime = new AtomicLong();
+    private final AtomicLong testThreadAllocatedBytes = new AtomicLong();
+
     public TestRunListener(UnitTestResult unitTestResult) {
         this.unitTestResult = unitTestResult;
     }
 
+    /**
+     * Set whether tests record the peak heap use and GC count, which are of the whole JVM. If not, the peak isn't
+     * reset as a test starts either, as that would clear the peak of any test running alongside it.
+     * @param measured true only while a single test runs at a time, as by default
+     */
+    public static void setWholeJVMMeasured(boolean measured) {
+        wholeJVMMeasured = measured;
+    }
+
+    /**
+     * A request to run the given test method, to be run with this listener. For plain JUnit 4 test classes,
+     * the test method is run by a runner that records its CPU time and the bytes it allocates on whichever thread
+     * runs it; for others, e.g. those with their own runner, only those on the listener's thread are recorded.
+     */
+    public Request request(Class<?> clazz, String methodName) {
+
+        if (clazz.getAnnotation(RunWith.class) == null && !junit.framework.Test.class.isAssignableFrom(clazz)) {
+            try {
+                return Request.runner(new MeasuringRunner(clazz)).filterWith(Description.createTestDescription(clazz, methodName));
+            } catch (InitializationError e) {
+                // the default runner reports it as a test failure
+            }
+        }
+        return Request.method(clazz, methodName);
+
+    }
+
     public void testAssumptionFailure(Failure failure) {
         Logger.debug("Test " + failure.getTestHeader() + " violated an assumption. Skipped.");
         unitTestResult.addFailure(failure);
@@ -44,7 +102,12 @@ public class TestRunListener extends RunListener {
         long endTime = System.nanoTime();
         long endCPUTime = threadMXBean.getCurrentThreadCpuTime();
         unitTestResult.setExecutionTime(endTime - startTime);
-        unitTestResult.setCPUTime(endCPUTime - startCPUTime);
+        unitTestResult.setCPUTime(endCPUTime - startCPUTime + testThreadCPUTime.get());
+        unitTestResult.setAllocatedBytes(currentThreadAllocatedBytes() - startAllocatedBytes + testThreadAllocatedBytes.get());
+        if (measuringWholeJVM) {
+            unitTestResult.setPeakHeapBytes(peakHeapBytes());
+            unitTestResult.setGCCount(gcCount() - startGCCount);
+        }
     }
 
     public void testIgnored(Description description) throws Exception {
@@ -63,8 +126,91 @@ public class TestRunListener extends RunListener {
 
     public void testStarted(Description description) throws Exception {
         Logger.debug("Test " + description + " started.");
+        this.listenerThread = Thread.currentThread();
+        this.testThreadCPUTime.set(0);
+        this.testThreadAllocatedBytes.set(0);
+        this.measuringWholeJVM = wholeJVMMeasured;
+        if (measuringWholeJVM) {
+            this.startGCCount = gcCount();
+            resetPeakHeap();
+        }
+        this.startAllocatedBytes = currentThreadAllocatedBytes();
         this.startTime = System.nanoTime();
         this.startCPUTime = threadMXBean.getCurrentThreadCpuTime();
     }
 
+    /*============== CPU and memory measurement  ==============*/
+
+    /**
+     * Runs the test method as BlockJUnit4ClassRunner does, adding the CPU time and bytes it uses on a thread other than
+     * the listener's, i.e. the one JUnit starts to time it out, to those the listener records.
+     */
+    private class MeasuringRunner extends BlockJUnit4ClassRunner {
+
+        private MeasuringRunner(Class<?> clazz) throws InitializationError {
+            super(clazz);
+        }
+
+        @Override
+        protected Statement methodInvoker(FrameworkMethod method, Object test) {
+            Statement invoker = super.methodInvoker(method, test);
+            return new Statement() {
+                @Override
+                public void evaluate() throws Throwable {
+                    if (Thread.currentThread() == listenerThread) {
+                        invoker.evaluate(); // already recorded by the listener
+                        return;
+                    }
+                    long startCPU = threadMXBean.getCurrentThreadCpuTime();
+                    long start = currentThreadAllocatedBytes();
+                    try {
+                        invoker.evaluate();
+                    } finally {
+                        testThreadAllocatedBytes.addAndGet(currentThreadAllocatedBytes() - start);
+                        testThreadCPUTime.addAndGet(threadMXBean.getCurrentThreadCpuTime() - startCPU);
+                    }
+                }
+            };
+        }
+
+    }
+
+    // 0 if the JVM doesn't measure allocation by thread
+    private static long currentThreadAllocatedBytes() {
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean allocationMXBean = (com.sun.management.ThreadMXBean) threadMXBean;
+            if (allocationMXBean.isThreadAllocatedMemorySupported() && allocationMXBean.isThreadAllocatedMemoryEnabled()) {
+                return allocationMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return 0;
+    }
+
+    private static void resetPeakHeap() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    private static long peakHeapBytes() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+        for (GarbageCollectorMXBean collector : collectors) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+
 }
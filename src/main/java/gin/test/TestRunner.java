@@ -3,6 +3,7 @@ package gin.test;
 import java.io.IOException;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.lang3.StringUtils;
 import org.junit.Test;
@@ -11,6 +12,7 @@ import org.junit.runners.model.TestClass;
 import org.pmw.tinylog.Logger;
 
 import gin.Patch;
+import gin.SourceFile;
 
 /**
  * A TestRunner is defined by a class name, a class path, and a set of tests to run.
@@ -22,6 +24,12 @@ public abstract class TestRunner {
     private final String className;
     private final String classPath;
     private List<UnitTest> tests;
+    private FitnessCache fitnessCache = null;
+    private boolean incrementalCompilation = false;
+    private boolean patchValidation = false;
+    private Map<String, Map<String, byte[]>> precompiledClasses = null;
+    private long precompiledTimeNS = 0;
+    private long lastCompileTimeNS = 0;
 
     public abstract UnitTestResultSet runTests(Patch patch, int reps) throws IOException, InterruptedException;
 
@@ -64,6 +72,94 @@ public abstract class TestRunner {
         this.tests = tests;
     }
 
+    public FitnessCache getFitnessCache() {
+        return fitnessCache;
+    }
+
+    /**
+     * Share a cache of previous outcomes, so that patches producing already evaluated source
+     * are neither compiled nor tested again. Null disables caching.
+     */
+    public void setFitnessCache(FitnessCache fitnessCache) {
+        this.fitnessCache = fitnessCache;
+    }
+
+    public boolean getIncrementalCompilation() {
+        return incrementalCompilation;
+    }
+
+    /**
+     * Recompile only the methods changed by a patch where possible, rather than the whole class.
+     */
+    public void setIncrementalCompilation(boolean incrementalCompilation) {
+        this.incrementalCompilation = incrementalCompilation;
+    }
+
+    public boolean getPatchValidation() {
+        return patchValidation;
+    }
+
+    /**
+     * Check patched source with a PatchValidator before compiling it, so that source that obviously
+     * can't compile is rejected without calling the compiler.
+     */
+    public void setPatchValidation(boolean patchValidation) {
+        this.patchValidation = patchValidation;
+    }
+
+    /**
+     * With patch validation on, check the source from the patch's last apply with the PatchValidator
+     * for the original, reading the patched tree directly where there is one.
+     * @return why the patched source can't compile; null if it may, or validation is off
+     */
+    protected PatchValidator.Failure validate(Patch patch, String patchedSource) {
+        if (!patchValidation) {
+            return null;
+        }
+        PatchValidator validator = PatchValidator.forSourceFile(patch.getSourceFile());
+        SourceFile patchedSourceFile = patch.getLastPatchedSourceFile();
+        return patchedSourceFile != null ? validator.validate(patchedSourceFile) : validator.validate(patchedSource);
+    }
+
+    /**
+     * Use classes already compiled, e.g. together in a batch by CompilationService.compileBatch,
+     * rather than compiling these patched sources again. Null disables.
+     * @param precompiledClasses class bytes indexed by patched source; a null value records a failed compile
+     * @param compileTimeNS the compile time to report for each of them
+     */
+    public void setPrecompiledClasses(Map<String, Map<String, byte[]>> precompiledClasses, long compileTimeNS) {
+        this.precompiledClasses = precompiledClasses;
+        this.precompiledTimeNS = compileTimeNS;
+    }
+
+    /**
+     * Compile patched source with this thread's CompilationService for the classpath,
+     * unless it was precompiled.
+     * @return class bytes indexed by binary class name; null if compilation failed
+     */
+    protected Map<String, byte[]> compile(String originalSource, String patchedSource) {
+        if (precompiledClasses != null && precompiledClasses.containsKey(patchedSource)) {
+            lastCompileTimeNS = precompiledTimeNS;
+            return precompiledClasses.get(patchedSource);
+        }
+        CompilationService compilationService = CompilationService.forClassPath(classPath);
+        Map<String, byte[]> classes;
+        if (incrementalCompilation) {
+            classes = compilationService.compileIncrementally(className, originalSource, patchedSource);
+        } else {
+            classes = compilationService.compile(className, patchedSource);
+        }
+        lastCompileTimeNS = compilationService.getLastCompileTimeNS();
+        return classes;
+    }
+
+    /**
+     * @return wall-clock time taken by the last call to compile; for precompiled source, the time given with it
+     */
+    protected long getLastCompileTimeNS() {
+        return lastCompileTimeNS;
+    }
+
     public List<UnitTest> testsForClass(String testClassName) {
 
         CacheClassLoader classLoader = new CacheClassLoader(this.getClassPath());
@@ -23,6 +23,9 @@ public class UnitTestResult {
 
     private long executionTime = 0;
     private long cpuTime = 0;
+    private long allocatedBytes = 0;
+    private long peakHeapBytes = 0;
+    private long gcCount = 0;
 
     
     public UnitTestResult(UnitTest test, int rep) {
@@ -72,6 +75,18 @@ public class UnitTestResult {
         return cpuTime;
     }
 
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    public long getPeakHeapBytes() {
+        return peakHeapBytes;
+    }
+
+    public long getGCCount() {
+        return gcCount;
+    }
+
     /*============== setters  ==============*/
 
     public void setPassed(boolean passed) {
@@ -106,6 +121,18 @@ public class UnitTestResult {
         this.cpuTime = testCPUTime;
     }
 
+    public void setAllocatedBytes(long allocatedBytes)  {
+        this.allocatedBytes = allocatedBytes;
+    }
+
+    public void setPeakHeapBytes(long peakHeapBytes)  {
+        this.peakHeapBytes = peakHeapBytes;
+    }
+
+    public void setGCCount(long gcCount)  {
+        this.gcCount = gcCount;
+    }
+
     /*============== process failure  ==============*/
 
     public void addFailure(Failure f)  {
@@ -216,6 +243,12 @@ public class UnitTestResult {
                 result.setExecutionTime(Long.parseLong(value));
                 value = StringUtils.substringBetween(testResult, "CPU Time: ",";");
                 result.setCPUTime(Long.parseLong(value));
+                value = StringUtils.substringBetween(testResult, "Allocated Bytes: ",";");
+                result.setAllocatedBytes(Long.parseLong(value));
+                value = StringUtils.substringBetween(testResult, "Peak Heap Bytes: ",";");
+                result.setPeakHeapBytes(Long.parseLong(value));
+                value = StringUtils.substringBetween(testResult, "GC Count: ",";");
+                result.setGCCount(Long.parseLong(value));
 
             } catch (NumberFormatException e) {
                 throw new ParseException(e.getMessage(), 0);
@@ -229,7 +262,8 @@ public class UnitTestResult {
         return String.format(
                 "UnitTestResult %s. " + "Rep number: %d; " +
                         "Passed: %b; Timed out: %b; Exception Type: %s; Exception Message: %s; " +
-                        "Assertion Expected: %s; Assertion Actual: %s; Execution Time: %d; CPU Time: %d;",
+                        "Assertion Expected: %s; Assertion Actual: %s; Execution Time: %d; CPU Time: %d; " +
+                        "Allocated Bytes: %d; Peak Heap Bytes: %d; GC Count: %d;",
                 test.toString(),
                 repNumber,
                 passed,
@@ -239,7 +273,10 @@ public class UnitTestResult {
                 expectedValue,
                 actualValue,
                 executionTime,
-        cpuTime);
+                cpuTime,
+                allocatedBytes,
+                peakHeapBytes,
+                gcCount);
     }
 
 }
@@ -1,11 +1,12 @@
 package gin.test;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-
-//import java.util.HashMap;
-//import java.util.Map;
-//import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 
 import gin.Patch;
 
@@ -27,6 +28,16 @@ public class UnitTestResultSet {
      * input and output source?*/
     private boolean noOp;
 
+    /**wall-clock time taken to compile the patched source; 0 if it wasn't compiled, e.g. cached*/
+    private long compileTimeNS = 0;
+
+    /**why the patched source was rejected without compiling it; null if it wasn't*/
+    private PatchValidator.Failure validationFailure = null;
+
+    /**did the tests lose a race against a faster patch? if so, evaluation may have stopped early,
+     * and the results are only those of the tests run before it did*/
+    private boolean dominated = false;
+
     public UnitTestResultSet(Patch patch, boolean patchValid, List<Boolean> editsValid, boolean compiledOK, boolean noOp, List<UnitTestResult> results) {
         this.patch = patch;
         this.patchValid = patchValid;
@@ -56,10 +67,46 @@ public class UnitTestResultSet {
         return noOp;
     }
 
+    public long getCompileTimeNS() {
+        return compileTimeNS;
+    }
+
+    public void setCompileTimeNS(long compileTimeNS) {
+        this.compileTimeNS = compileTimeNS;
+    }
+
+    public PatchValidator.Failure getValidationFailure() {
+        return validationFailure;
+    }
+
+    public void setValidationFailure(PatchValidator.Failure validationFailure) {
+        this.validationFailure = validationFailure;
+    }
+
+    public boolean getDominated() {
+        return dominated;
+    }
+
+    public void setDominated(boolean dominated) {
+        this.dominated = dominated;
+    }
+
     public List<UnitTestResult> getResults() {
         return results;
     }
 
+    /**
+     * Total execution time of each repetition of the tests, in order of repetition number.
+     * These are the samples used by Benchmark.
+     */
+    public List<Long> getSamples() {
+        Map<Integer, Long> totals = new TreeMap<>();
+        for (UnitTestResult testResult : results) {
+            totals.merge(testResult.getRepNumber(), testResult.getExecutionTime(), Long::sum);
+        }
+        return new ArrayList<>(totals.values());
+    }
+
     public boolean allTestsSuccessful() {
         for (UnitTestResult testResult : results) {
             if (!testResult.getPassed()) {
@@ -77,6 +124,41 @@ public class UnitTestResultSet {
         return totalTime;
     }
 
+    public long totalCPUTime() {
+        long totalTime = 0;
+        for (UnitTestResult testResult : results) {
+            totalTime += testResult.getCPUTime();
+        }
+        return totalTime;
+    }
+
+    public long totalAllocatedBytes() {
+        long totalBytes = 0;
+        for (UnitTestResult testResult : results) {
+            totalBytes += testResult.getAllocatedBytes();
+        }
+        return totalBytes;
+    }
+
+    /**
+     * Highest peak heap use during any of the tests.
+     */
+    public long maxPeakHeapBytes() {
+        long maxBytes = 0;
+        for (UnitTestResult testResult : results) {
+            maxBytes = Math.max(maxBytes, testResult.getPeakHeapBytes());
+        }
+        return maxBytes;
+    }
+
+    public long totalGCCount() {
+        long totalCount = 0;
+        for (UnitTestResult testResult : results) {
+            totalCount += testResult.getGCCount();
+        }
+        return totalCount;
+    }
+
     public long getTestsFailed() {
     
         long testsFailed = 0;
@@ -109,18 +191,22 @@ public class UnitTestResultSet {
         return false;
     }   
 
-    ////  Could be used to set timeout for individual tests. Unused at the moment.
-    //
-    //public Map<UnitTest, long[]> getUnitTestTimes() {
-    //    List<UnitTestResult> testResults = this.results.stream().filter(result -> result.getRepNumber() == 0).collect(Collectors.toList());
-    //    Map<UnitTest, long[]> testRunTimes = new HashMap<UnitTest, long[]>();
-    //    for (UnitTestResult testResult : testResults) {
-    //        List<Long> runtimes = new LinkedList<>();
-    //        this.results.stream().filter(result -> testResult.getTest() == result.getTest()).forEach(result -> runtimes.add(result.getExecutionTime()));
-    //        testRunTimes.put(testResult.getTest(), runtimes.stream().mapToLong(l -> l).toArray());
-    //    }
-    //    return testRunTimes;
-    //}
+    /**
+     * Slowest execution time of each test over all repetitions, for tests that passed every time.
+     * Used to set timeouts for individual tests.
+     */
+    public Map<UnitTest, Long> getMaxExecutionTimes() {
+        Map<UnitTest, Long> maxTimes = new HashMap<>();
+        Set<UnitTest> failed = new HashSet<>();
+        for (UnitTestResult testResult : results) {
+            if (!testResult.getPassed()) {
+                failed.add(testResult.getTest());
+            }
+            maxTimes.merge(testResult.getTest(), testResult.getExecutionTime(), Math::max);
+        }
+        maxTimes.keySet().removeAll(failed);
+        return maxTimes;
+    }
 
     @Override
     public String toString() {
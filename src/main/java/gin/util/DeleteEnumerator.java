@@ -1,8 +1,10 @@
 package gin.util;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 
 import org.apache.commons.math3.util.CombinatoricsUtils;
@@ -18,6 +20,7 @@ import gin.SourceFileLine;
 import gin.SourceFileTree;
 import gin.edit.line.DeleteLine;
 import gin.edit.statement.DeleteStatement;
+import gin.test.DeletionSchema;
 import gin.test.UnitTest;
 import gin.test.UnitTestResultSet;
 
@@ -28,6 +31,8 @@ import gin.test.UnitTestResultSet;
  * For each sampled method and each line/statement in that method:
  * applies mutation and runs tests associated with that method.
  * Samplling is done without replacement. All methods sampled at random.
+ * With schemata, the statement deletions of each method that can be expressed as guards are compiled once,
+ * as a DeletionSchema, and the rest one patch at a time.
  */
 public class DeleteEnumerator extends Sampler {
     
@@ -37,6 +42,9 @@ public class DeleteEnumerator extends Sampler {
     @Argument(alias = "rs", description = "Random seed for method selection")
     protected Integer randomSeed = 123;
 
+    @Argument(alias = "sc", description = "Test statement deletions against one compiled mutant schema of each method, rather than compiling every patch. Not used with -j or evaluation workers. Each guarded statement still checks its guard, a static call and a volatile read, every time it runs, so timed runs are slower than those of the compiled patches: use it to screen deletions for passing tests rather than to compare runtimes")
+    protected Boolean schemata = false;
+
     public static void main(String[] args) {
         DeleteEnumerator enumerator = new DeleteEnumerator(args);
         enumerator.sampleMethods();
@@ -56,6 +64,7 @@ public class DeleteEnumerator extends Sampler {
     private void printAdditionalArguments() {
         Logger.info("Patch size: "+ patchSize);
         Logger.info("Random seed for method selection: "+ randomSeed);
+        Logger.info("Mutant schemata: "+ schemata);
     }
 
     protected void sampleMethodsHook() {
@@ -108,16 +117,31 @@ public class DeleteEnumerator extends Sampler {
 
             List<Integer> stmts = sourceFileTree.getStatementIDsInTargetMethod();
 
+            // Compile the deletions that can be guarded once, as a mutant schema
+            DeletionSchema schema = null;
+            if (schemata && !inSubprocess && !inNewSubprocess && !evaluatesRemotely()) {
+                schema = DeletionSchema.build(className, classPath, sourceFileTree, stmts);
+            }
+
             // For each combination of patchSize statements, create and test patch
             iterator = CombinatoricsUtils.combinationsIterator(stmts.size(), patchSize);
             while (iterator.hasNext()) {
             
                 int[] combination = iterator.next();
                 patch = new Patch(sourceFileTree);
+                List<Integer> deleted = new ArrayList<>();
                 for (int stmt : combination) {
                     patch.add(new DeleteStatement(fileName, stmts.get(stmt) ));
+                    deleted.add(stmts.get(stmt));
+                }
+                UnitTestResultSet results;
+                if (schema != null && schema.covers(deleted)) {
+                    Patch schemaPatch = patch;
+                    Map<String, byte[]> classes = schema.getClasses();
+                    results = schema.withDeletions(deleted, () -> testPatch(className, tests, schemaPatch, classes));
+                } else {
+                    results = testPatch(className, tests, patch);
                 }
-                UnitTestResultSet results = testPatch(className, tests, patch);
                 writeResults(results, methodID);
 
             }
@@ -3,7 +3,10 @@ package gin.util;
 import java.io.IOException;
 import java.io.File;
 import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 
 import com.opencsv.CSVWriter;
@@ -41,8 +44,29 @@ public abstract class GP extends Sampler {
     @Argument(alias = "is", description = "Random seed for individual selection")
     protected Integer individualSeed = 123;
 
+    @Argument(alias = "il", description = "Island model: number of islands, each a separate JVM, see gin.util.GPIslands")
+    protected Integer islands = 1;
+
+    @Argument(alias = "ii", description = "Island model: index of this island, from 0; its seeds are derived from -ms and -is, and its output file from -o")
+    protected Integer islandIndex = 0;
+
+    @Argument(alias = "md", description = "Island model: directory through which the islands exchange patches")
+    protected File migrationDirectory = null;
+
+    @Argument(alias = "mi", description = "Island model: number of generations between migrations")
+    protected Integer migrationInterval = 5;
+
+    @Argument(alias = "mn", description = "Island model: number of best patches each island sends per migration")
+    protected Integer migrants = 2;
+
+    // Seeds of island i are those given plus i times this
+    private static final long ISLAND_SEED_STRIDE = 1000003L;
+
     protected Random mutationRng;
     protected Random individualRng;
+
+    // Exchanges patches with the other islands; null unless running as one of several islands
+    protected IslandMigration migration = null;
     
     public GP(String[] args) {
         super(args);
@@ -62,11 +86,25 @@ public abstract class GP extends Sampler {
         Logger.info("Number of individuals: "+ indNumber);
         Logger.info("Random seed for mutation selection: "+ mutationSeed);
         Logger.info("Random seed for individual selection: "+ individualSeed);
+        if (islands > 1) {
+            Logger.info("Island " + islandIndex + " of " + islands + ", migrating " + migrants + " patches every "
+                    + migrationInterval + " generations through: " + migrationDirectory);
+        }
     }
 
     private void setup() {
-        mutationRng = new Random(mutationSeed);
-        individualRng = new Random(individualSeed);
+        long seedOffset = ISLAND_SEED_STRIDE * islandIndex;
+        mutationRng = new Random(mutationSeed + seedOffset);
+        individualRng = new Random(individualSeed + seedOffset);
+        if (islands > 1) {
+            if (migrationDirectory == null) {
+                Logger.error("A migration directory is required for the island model");
+                System.exit(-1);
+            }
+            migrationDirectory.mkdirs();
+            migration = new IslandMigration(migrationDirectory, islandIndex, islands);
+            outputFile = IslandMigration.islandOutputFile(outputFile, islandIndex);
+        }
     }
 
     // Implementation of the abstract method
@@ -113,14 +151,51 @@ public abstract class GP extends Sampler {
 
     /*============== Helper methods  ==============*/
 
+    /**
+     * Island model: every migrationInterval generations, send the best patches of the population to the other
+     * islands, and add those they sent to it. Does nothing unless running as one of several islands.
+     * @param generation the generation just completed, from 1
+     * @return the population, with any immigrants
+     */
+    protected Map<Patch, Long> migrate(String className, SourceFile sourceFile, int generation, Map<Patch, Long> population) {
+
+        if (migration == null || generation % migrationInterval != 0) {
+            return population;
+        }
+
+        List<Map.Entry<Patch, Long>> entries = new ArrayList<>(population.entrySet());
+        entries.removeIf(entry -> entry.getKey().size() == 0);
+        entries.sort((a, b) -> -Long.signum(compareFitness(a.getValue(), b.getValue())));
+        Map<Patch, Long> emigrants = new LinkedHashMap<>();
+        for (Map.Entry<Patch, Long> entry : entries.subList(0, Math.min(migrants, entries.size()))) {
+            emigrants.put(entry.getKey(), entry.getValue());
+        }
+
+        String key = IslandMigration.key(className, sourceFile);
+        Map<Patch, Long> migrated = new LinkedHashMap<>(population);
+        try {
+            migration.emigrate(key, generation, emigrants);
+            Map<Patch, Long> immigrants = migration.immigrate(key, sourceFile);
+            Logger.info("Migration after generation " + generation + ": sent " + emigrants.size() + " patches, received " + immigrants.size());
+            migrated.putAll(immigrants);
+        } catch (IOException e) {
+            Logger.warn("Migration failed, continuing without it: " + e.getMessage());
+        }
+        return migrated;
+
+    }
+
     protected void writeNewHeader() {
         String[] entry = {"ClassName"
                         , "Patch"
                         , "Compiled"
+                        , "ValidationFailure"
                         , "AllTestsPassed"
+                        , "Dominated"
                         , "TotalExecutionTime(ms)"
                         , "Fitness"
                         , "FitnessImprovement"
+                        , "TotalAllocatedBytes"
                         };
         try {
             outputFileWriter = new CSVWriter(new FileWriter(outputFile));
@@ -136,10 +211,13 @@ public abstract class GP extends Sampler {
         String[] entry = {className
                         , results.getPatch().toString()
                         , Boolean.toString(results.getCleanCompile())
+                        , (results.getValidationFailure() == null) ? "" : results.getValidationFailure().toString()
                         , Boolean.toString(results.allTestsSuccessful())
+                        , Boolean.toString(results.getDominated())
                         , Float.toString(results.totalExecutionTime() / 1000000.0f)
                         , Long.toString(fitness)
                         , Long.toString(improvement)
+                        , Long.toString(results.totalAllocatedBytes())
                         };
         outputFileWriter.writeNext(entry);
     }
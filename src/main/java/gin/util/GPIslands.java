@@ -0,0 +1,142 @@
+package gin.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.sampullara.cli.Args;
+import com.sampullara.cli.Argument;
+import org.pmw.tinylog.Logger;
+
+/**
+ * Island-model GP: runs a GP subclass, e.g. GPRuntime, as several islands, each a separate JVM with its own
+ * population. The islands periodically exchange their best patches through a migration directory, see
+ * IslandMigration, so all cores are used without shared state between searches.
+ *
+ * Every island is given the arguments of this launcher, along with its index; it derives its seeds from
+ * -ms and -is, and its output file from -o. All other GP and Sampler arguments apply to every island.
+ */
+public class GPIslands {
+
+    @Argument(alias = "gp", description = "GP class run on each island")
+    protected String gpClass = GPRuntime.class.getName();
+
+    @Argument(alias = "il", description = "Number of islands")
+    protected Integer islands = 2;
+
+    @Argument(alias = "md", description = "Directory through which the islands exchange patches; a new temporary directory by default")
+    protected File migrationDirectory = null;
+
+    // Arguments other than the launcher's, passed on to every island
+    private final List<String> islandArgs;
+
+    public static void main(String[] args) {
+        GPIslands launcher = new GPIslands(args);
+        System.exit(launcher.run());
+    }
+
+    public GPIslands(String[] args) {
+        // the GP's own arguments are unknown here, so are left for the islands rather than rejected
+        List<String> remaining = new ArrayList<>();
+        try {
+            remaining = Args.parse(this, args, false);
+        } catch (IllegalArgumentException e) {
+            Logger.error(e.getMessage());
+            Args.usage(this);
+            System.exit(-1);
+        }
+        this.islandArgs = withoutIslandIndex(remaining);
+    }
+
+    /**
+     * Start the islands and wait for them all to finish.
+     * @return 0 if every island finished successfully
+     */
+    public int run() {
+
+        try {
+            if (migrationDirectory == null) {
+                migrationDirectory = Files.createTempDirectory("gin-migration").toFile();
+            }
+        } catch (IOException e) {
+            Logger.error(e, "Could not create a migration directory");
+            return -1;
+        }
+        Logger.info("Starting " + islands + " islands of " + gpClass + ", migrating through: " + migrationDirectory);
+
+        List<Process> processes = new ArrayList<>();
+        try {
+            for (int island = 0; island < islands; island++) {
+                ProcessBuilder builder = new ProcessBuilder(islandCommand(island));
+                processes.add(builder.inheritIO().start());
+            }
+        } catch (IOException e) {
+            Logger.error(e, "Could not start island " + processes.size());
+            for (Process process : processes) {
+                process.destroyForcibly();
+            }
+            return -1;
+        }
+
+        int failed = 0;
+        try {
+            for (int island = 0; island < islands; island++) {
+                int exitCode = processes.get(island).waitFor();
+                if (exitCode != 0) {
+                    Logger.error("Island " + island + " exited with code " + exitCode);
+                    failed++;
+                }
+            }
+        } catch (InterruptedException e) {
+            for (Process process : processes) {
+                process.destroyForcibly();
+            }
+            Thread.currentThread().interrupt();
+            return -1;
+        }
+
+        Logger.info("All islands finished" + (failed > 0 ? ", " + failed + " with errors" : ""));
+        return (failed > 0) ? -1 : 0;
+
+    }
+
+    List<String> islandCommand(int island) {
+
+        File javaHome = new File(System.getProperty("java.home"));
+        File javaBin = new File(javaHome, "bin");
+        File jvm = new File(javaBin, "java");
+
+        List<String> command = new ArrayList<>();
+        command.add(jvm.getAbsolutePath());
+        command.add("-Dtinylog.level=" + Logger.getLevel());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(gpClass);
+        command.addAll(islandArgs);
+        command.addAll(Arrays.asList("-il", Integer.toString(islands), "-ii", Integer.toString(island),
+                "-md", migrationDirectory.getAbsolutePath()));
+        return command;
+
+    }
+
+    /**
+     * The arguments without any island index, which is set per island.
+     */
+    private static List<String> withoutIslandIndex(List<String> args) {
+
+        List<String> remaining = new ArrayList<>();
+        for (int i = 0; i < args.size(); i++) {
+            if (args.get(i).equals("-ii") || args.get(i).equals("-islandIndex")) {
+                i++; // skip its value too
+            } else {
+                remaining.add(args.get(i));
+            }
+        }
+        return remaining;
+
+    }
+
+}
@@ -0,0 +1,58 @@
+package gin.util;
+
+import java.io.File;
+import java.util.List;
+
+import gin.SourceFile;
+import gin.test.UnitTest;
+import gin.test.UnitTestResultSet;
+
+
+/**
+ * Method-based GPMemory search: minimises the bytes allocated by the tests.
+ *
+ */
+
+public class GPMemory extends GPSimple {
+
+    public static void main(String[] args) {
+        GPMemory sampler = new GPMemory(args);
+        sampler.sampleMethods();
+    }
+
+    public GPMemory(String[] args) {
+        super(args);
+    }
+
+    // Constructor used for testing
+    public GPMemory(File projectDir, File methodFile) {
+        super(projectDir, methodFile);
+    }
+
+    // Use parent's search strategy
+    @Override
+    protected void search(String className, List<UnitTest> tests, SourceFile sourceFile) {
+        super.search(className, tests, sourceFile);
+    }
+
+    /*============== Implementation of abstract methods  ==============*/
+
+    // Calculate fitness: bytes allocated by all tests, over all repetitions
+    protected long fitness(UnitTestResultSet results) {
+
+        return results.totalAllocatedBytes();
+    }
+
+    // Calculate fitness threshold, for selection to the next generation
+    protected boolean fitnessThreshold(UnitTestResultSet results, long orig) {
+
+        return results.allTestsSuccessful() && !results.getDominated();
+    }
+
+    // Compare two fitness values, result of comparison printed on commandline if > 0
+    protected long compareFitness(long newFitness, long best) {
+
+        return best - newFitness;
+    }
+
+}
@@ -0,0 +1,341 @@
+package gin.util;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import com.opencsv.CSVWriter;
+import org.pmw.tinylog.Logger;
+
+import gin.Patch;
+import gin.SourceFile;
+import gin.test.UnitTest;
+import gin.test.UnitTestResultSet;
+
+
+/**
+ * Method-based multi-objective GP search, after NSGA-II: minimises the wall time, CPU time and bytes allocated by
+ * the tests. The initial population is taken from the original and indNumber mutants of it. Each generation, the
+ * offspring of parents chosen by crowded tournament are tested, and the next population is taken from the previous
+ * one and the offspring that pass all tests, by non-dominated rank and then crowding distance.
+ *
+ * All patches that no other patch found dominates are kept in a Pareto archive. Rather than every patch tested,
+ * the output file holds the archive after each generation, so that one may pick a trade-off between objectives
+ * from the last generation written, even if the search is stopped early. Runtime is the scalar fitness reported in
+ * the log; the steady-state and island options of GPSimple and GP don't apply.
+ */
+
+public class GPMultiObjective extends GPSimple {
+
+    private static final String[] OBJECTIVE_NAMES = {"WallTime(ms)", "CPUTime(ms)", "AllocatedBytes"};
+
+    /**
+     * A member of the population, with its objectives and its place among the others.
+     */
+    private static class Individual {
+
+        private final Patch patch;
+        private final long[] objectives;
+        private int rank = 0;
+        private double crowding = 0;
+
+        private Individual(Patch patch, long[] objectives) {
+            this.patch = patch;
+            this.objectives = objectives;
+        }
+
+    }
+
+    public static void main(String[] args) {
+        GPMultiObjective sampler = new GPMultiObjective(args);
+        sampler.sampleMethods();
+    }
+
+    public GPMultiObjective(String[] args) {
+        super(args);
+    }
+
+    // Constructor used for testing
+    public GPMultiObjective(File projectDir, File methodFile) {
+        super(projectDir, methodFile);
+    }
+
+    // NSGA-II search
+    @Override
+    protected void search(String className, List<UnitTest> tests, SourceFile sourceFile) {
+
+        Patch origPatch = new Patch(sourceFile);
+
+        // Run original code
+        raceLimitNS = 0;
+        UnitTestResultSet results = testPatch(className, tests, origPatch);
+        if (!fitnessThreshold(results, 0)) {
+            Logger.error("Original code failed its tests, skipping: " + sourceFile.getTargetMethodNames());
+            return;
+        }
+
+        ParetoArchive archive = new ParetoArchive();
+        List<Individual> population = new ArrayList<>();
+        population.add(new Individual(origPatch, objectives(results)));
+        archive.add(origPatch, objectives(results));
+
+        // Generation 0: the original and indNumber mutants of it
+        List<Patch> mutants = new ArrayList<>();
+        while (mutants.size() < indNumber) {
+            mutants.add(mutate(origPatch));
+        }
+        population = selectSurvivors(testOffspring(className, tests, mutants, population, archive), indNumber);
+        writeArchive(className, 0, archive);
+
+        for (int g = 0; g < genNumber; g++) {
+
+            Logger.info("Creating generation: " + (g + 1));
+
+            // All offspring are bred before testing, so that a seed determines the search
+            List<Patch> offspring = new ArrayList<>();
+            while (offspring.size() < indNumber) {
+                Patch patch = tournament(population);
+                if (super.individualRng.nextBoolean()) {
+                    patch = crossover(patch, tournament(population), sourceFile);
+                }
+                offspring.add(mutate(patch));
+            }
+
+            population = selectSurvivors(testOffspring(className, tests, offspring, population, archive), indNumber);
+            writeArchive(className, g + 1, archive);
+            Logger.info("Pareto archive: " + archive.size() + " patches");
+
+        }
+
+    }
+
+    /**
+     * Test the offspring, adding those that pass all tests to the archive.
+     * @return the population and the offspring that passed
+     */
+    private List<Individual> testOffspring(String className, List<UnitTest> tests, List<Patch> offspring,
+                                           List<Individual> population, ParetoArchive archive) {
+
+        List<UnitTestResultSet> generationResults = testPatches(className, tests, offspring);
+
+        List<Individual> combined = new ArrayList<>(population);
+        for (int i = 0; i < offspring.size(); i++) {
+
+            Patch patch = offspring.get(i);
+            Logger.info("Tested patch: " + patch);
+
+            UnitTestResultSet results = generationResults.get(i);
+            if (fitnessThreshold(results, 0)) {
+                // with test selection, only the tests covering the patch were run
+                results = confirmPatch(className, tests, patch, results);
+            }
+            if (!fitnessThreshold(results, 0)) {
+                continue;
+            }
+
+            long[] patchObjectives = objectives(results);
+            combined.add(new Individual(patch, patchObjectives));
+            if (archive.add(patch, patchObjectives)) {
+                Logger.info("Non-dominated patch found: " + patch);
+            }
+
+        }
+        return combined;
+
+    }
+
+    // Wall time, CPU time and bytes allocated by all tests
+    private static long[] objectives(UnitTestResultSet results) {
+        return new long[] {results.totalExecutionTime(), results.totalCPUTime(), results.totalAllocatedBytes()};
+    }
+
+    // Binary tournament on rank, then crowding distance; returns a clone of the selected patch
+    private Patch tournament(List<Individual> population) {
+        Individual a = population.get(super.individualRng.nextInt(population.size()));
+        Individual b = population.get(super.individualRng.nextInt(population.size()));
+        Individual winner = (b.rank < a.rank || (b.rank == a.rank && b.crowding > a.crowding)) ? b : a;
+        return winner.patch.clone();
+    }
+
+    // The best size individuals by rank, then crowding distance, with their rank and crowding distance set
+    private static List<Individual> selectSurvivors(List<Individual> individuals, int size) {
+
+        List<long[]> points = new ArrayList<>();
+        for (Individual individual : individuals) {
+            points.add(individual.objectives);
+        }
+
+        List<Individual> survivors = new ArrayList<>();
+        List<List<Integer>> fronts = nonDominatedSort(points);
+        for (int rank = 0; rank < fronts.size() && survivors.size() < size; rank++) {
+
+            List<Integer> front = fronts.get(rank);
+            double[] crowding = crowdingDistance(points, front);
+            List<Individual> frontIndividuals = new ArrayList<>();
+            for (int i = 0; i < front.size(); i++) {
+                Individual individual = individuals.get(front.get(i));
+                individual.rank = rank;
+                individual.crowding = crowding[i];
+                frontIndividuals.add(individual);
+            }
+
+            // the last front admitted is cut to the most isolated individuals
+            if (survivors.size() + frontIndividuals.size() > size) {
+                frontIndividuals.sort(Comparator.comparingDouble((Individual individual) -> individual.crowding).reversed());
+                frontIndividuals = frontIndividuals.subList(0, size - survivors.size());
+            }
+            survivors.addAll(frontIndividuals);
+
+        }
+        return survivors;
+
+    }
+
+    /**
+     * Fast non-dominated sort.
+     * @return the indices of the points in each front, from the non-dominated one
+     */
+    static List<List<Integer>> nonDominatedSort(List<long[]> points) {
+
+        List<List<Integer>> dominated = new ArrayList<>();
+        int[] dominationCount = new int[points.size()];
+        List<Integer> front = new ArrayList<>();
+
+        for (int p = 0; p < points.size(); p++) {
+            dominated.add(new ArrayList<>());
+            for (int q = 0; q < points.size(); q++) {
+                if (ParetoArchive.dominates(points.get(p), points.get(q))) {
+                    dominated.get(p).add(q);
+                } else if (ParetoArchive.dominates(points.get(q), points.get(p))) {
+                    dominationCount[p]++;
+                }
+            }
+            if (dominationCount[p] == 0) {
+                front.add(p);
+            }
+        }
+
+        List<List<Integer>> fronts = new ArrayList<>();
+        while (!front.isEmpty()) {
+            fronts.add(front);
+            List<Integer> next = new ArrayList<>();
+            for (int p : front) {
+                for (int q : dominated.get(p)) {
+                    if (--dominationCount[q] == 0) {
+                        next.add(q);
+                    }
+                }
+            }
+            front = next;
+        }
+        return fronts;
+
+    }
+
+    /**
+     * Crowding distance of each point of a front: the sum over objectives of the normalised distance between its
+     * neighbours in that objective; infinite for the extremes.
+     * @param front indices of the points in the front
+     * @return the distance of each point, in the same order as front
+     */
+    static double[] crowdingDistance(List<long[]> points, List<Integer> front) {
+
+        double[] distance = new double[front.size()];
+        if (front.isEmpty()) {
+            return distance;
+        }
+
+        int objectiveCount = points.get(front.get(0)).length;
+        for (int m = 0; m < objectiveCount; m++) {
+
+            final int objective = m;
+            List<Integer> order = new ArrayList<>();
+            for (int i = 0; i < front.size(); i++) {
+                order.add(i);
+            }
+            order.sort(Comparator.comparingLong(i -> points.get(front.get(i))[objective]));
+
+            long min = points.get(front.get(order.get(0)))[objective];
+            long max = points.get(front.get(order.get(order.size() - 1)))[objective];
+            distance[order.get(0)] = Double.POSITIVE_INFINITY;
+            distance[order.get(order.size() - 1)] = Double.POSITIVE_INFINITY;
+            if (max == min) {
+                continue;
+            }
+            for (int i = 1; i < order.size() - 1; i++) {
+                long previous = points.get(front.get(order.get(i - 1)))[objective];
+                long next = points.get(front.get(order.get(i + 1)))[objective];
+                distance[order.get(i)] += (double) (next - previous) / (max - min);
+            }
+
+        }
+        return distance;
+
+    }
+
+    /*============== Implementation of abstract methods  ==============*/
+
+    // Calculate fitness: runtime in ms, for the log
+    protected long fitness(UnitTestResultSet results) {
+
+        return results.totalExecutionTime() / 1000000;
+    }
+
+    // Calculate fitness threshold, for selection to the next generation
+    protected boolean fitnessThreshold(UnitTestResultSet results, long orig) {
+
+        return results.allTestsSuccessful() && !results.getDominated();
+    }
+
+    // Compare two fitness values, result of comparison printed on commandline if > 0
+    protected long compareFitness(long newFitness, long best) {
+
+        return best - newFitness;
+    }
+
+    /*============== Output  ==============*/
+
+    @Override
+    protected void writeNewHeader() {
+        List<String> entry = new ArrayList<>();
+        entry.add("Generation");
+        entry.add("ClassName");
+        entry.add("Patch");
+        for (String name : OBJECTIVE_NAMES) {
+            entry.add(name);
+        }
+        try {
+            outputFileWriter = new CSVWriter(new FileWriter(outputFile));
+            outputFileWriter.writeNext(entry.toArray(new String[0]));
+            outputFileWriter.flush();
+        } catch (IOException e) {
+            Logger.error(e, "Exception writing results to the output file: " + outputFile.getAbsolutePath());
+            Logger.trace(e);
+            System.exit(-1);
+        }
+    }
+
+    // Appends the archive after a generation, flushed so that it may be read while the search continues
+    private void writeArchive(String className, int generation, ParetoArchive archive) {
+        for (int i = 0; i < archive.size(); i++) {
+            long[] patchObjectives = archive.getObjectives().get(i);
+            String[] entry = {Integer.toString(generation)
+                            , className
+                            , archive.getPatches().get(i).toString()
+                            , Float.toString(patchObjectives[0] / 1000000.0f)
+                            , Float.toString(patchObjectives[1] / 1000000.0f)
+                            , Long.toString(patchObjectives[2])
+                            };
+            outputFileWriter.writeNext(entry);
+        }
+        try {
+            outputFileWriter.flush();
+        } catch (IOException e) {
+            Logger.error(e, "Exception writing results to the output file: " + outputFile.getAbsolutePath());
+        }
+    }
+
+}
@@ -3,6 +3,10 @@ package gin.util;
 import java.io.File;
 import java.util.List;
 
+import com.sampullara.cli.Args;
+import com.sampullara.cli.Argument;
+import org.pmw.tinylog.Logger;
+
 import gin.SourceFile;
 import gin.test.UnitTest;
 import gin.test.UnitTestResult;
@@ -16,6 +20,12 @@ import gin.test.UnitTestResultSet;
 
 public class GPRuntime extends GPSimple {
     
+    @Argument(alias = "rc", description = "Racing: stop testing a patch as soon as it is slower than the best so far times the race margin; it then does not join the next generation")
+    protected Boolean racing = false;
+
+    @Argument(alias = "rm", description = "Racing: margin over the best runtime so far after which a patch is dominated")
+    protected Double raceMargin = 1.0;
+
     public static void main(String[] args) {
         GPRuntime sampler = new GPRuntime(args);
         sampler.sampleMethods();
@@ -23,6 +33,10 @@ public class GPRuntime extends GPSimple {
 
     public GPRuntime(String[] args) {
         super(args);
+        Args.parseOrExit(this, args);
+        if (racing) {
+            Logger.info("Racing with margin: " + raceMargin);
+        }
     }   
 
     // Constructor used for testing
@@ -47,7 +61,7 @@ public class GPRuntime extends GPSimple {
     // Calculate fitness threshold, for selection to the next generation
     protected boolean fitnessThreshold(UnitTestResultSet results, long orig) {
     
-        return results.allTestsSuccessful();
+        return results.allTestsSuccessful() && !results.getDominated();
     }   
 
 
@@ -57,5 +71,12 @@ public class GPRuntime extends GPSimple {
         return best - newFitness;
     }
 
+    // Against the total runtime of the best patch in ns, rather than its fitness, which is truncated to ms
+    @Override
+    protected long raceLimit(UnitTestResultSet bestResults) {
+
+        return racing ? Math.round(bestResults.totalExecutionTime() * raceMargin) : 0;
+    }
+
 
 }
@@ -3,9 +3,14 @@ package gin.util;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 
+import com.sampullara.cli.Args;
+import com.sampullara.cli.Argument;
 import org.pmw.tinylog.Logger;
 
 import gin.Patch;
@@ -21,9 +26,16 @@ import gin.test.UnitTestResultSet;
  */
 
 public abstract class GPSimple extends GP {
+
+    @Argument(alias = "ss", description = "Steady state: rather than in generations, breed a new patch as soon as one has been tested, keeping every evaluation thread busy")
+    protected Boolean steadyState = false;
     
     public GPSimple(String[] args) {
         super(args);
+        Args.parseOrExit(this, args);
+        if (steadyState) {
+            Logger.info("Steady-state search");
+        }
     }   
 
     // Constructor used for testing
@@ -45,12 +57,21 @@ public abstract class GPSimple extends GP {
 
     /*============== Implementation of abstract methods  ==============*/
 
-    // Simple GP search (based on GenProg)
+    // Simple GP search (based on GenProg), generational or steady state
     protected void search(String className, List<UnitTest> tests, SourceFile sourceFile) {
+        if (steadyState) {
+            searchSteadyState(className, tests, sourceFile);
+        } else {
+            searchGenerational(className, tests, sourceFile);
+        }
+    }
+
+    protected void searchGenerational(String className, List<UnitTest> tests, SourceFile sourceFile) {
 
         Patch origPatch = new Patch(sourceFile);
 
         // Run original code
+        raceLimitNS = 0;
         UnitTestResultSet results = testPatch(className, tests, origPatch);
 
         // Calculate fitness and record result
@@ -59,9 +80,11 @@ public abstract class GPSimple extends GP {
 
         // Keep best 
         long best = orig;
+        UnitTestResultSet bestResults = results;
 
         // Generation 0
-        Map<Patch, Long> population = new HashMap<>();
+        // Insertion-ordered, so that selection by index is reproducible for a given seed
+        Map<Patch, Long> population = new LinkedHashMap<>();
         population.put(origPatch, orig);
 
         for (int g = 0; g < genNumber; g++) {
@@ -72,7 +95,7 @@ public abstract class GPSimple extends GP {
             Logger.info("Creating generation: " + (g + 1));
 
             // Current generation
-            Map<Patch, Long> newPopulation = new HashMap<>();
+            Map<Patch, Long> newPopulation = new LinkedHashMap<>();
 
             // Keep a list of patches after crossover
             List<Patch> crossoverPatches = createCrossoverPatches(patches, sourceFile);
@@ -82,16 +105,29 @@ public abstract class GPSimple extends GP {
                 crossoverPatches.add(select(patches));
             }
             
-            // Mutate the newly created population and check runtime
+            // Mutate the newly created population; all mutations happen before testing so the
+            // order in which the random number generators are used does not depend on evaluation
+            List<Patch> mutatedPatches = new ArrayList<>();
             for (Patch patch : crossoverPatches) {
+                mutatedPatches.add(mutate(patch));
+            }
+
+            // Test the patched source files, possibly in parallel, racing them against the best so far
+            raceLimitNS = raceLimit(bestResults);
+            List<UnitTestResultSet> generationResults = testPatches(className, tests, mutatedPatches);
 
-                // Add a mutation
-                patch = mutate(patch);
+            // Check runtime, in the order in which the patches were created
+            for (int i = 0; i < mutatedPatches.size(); i++) {
 
-                Logger.info("Testing patch: " + patch);
+                Patch patch = mutatedPatches.get(i);
 
-                // Test the patched source file
-                results = testPatch(className, tests, patch);
+                Logger.info("Tested patch: " + patch);
+
+                results = generationResults.get(i);
+                if (fitnessThreshold(results, orig)) {
+                    // with test selection, only the tests covering the patch were run
+                    results = confirmPatch(className, tests, patch, results);
+                }
                 long newFitness = fitness(results);
 
                 // If all tests pass, add patch to the mating population, check for new bestTime 
@@ -103,19 +139,161 @@ public abstract class GPSimple extends GP {
                         Logger.info("Better patch found: " + patch);
                         Logger.info("Fitness improvement over best found so far: " + better);
                         best = newFitness;
+                        bestResults = results;
                     }
                 } else {
                     super.writePatch(results, className, newFitness, 0);
                 }
             }
 
-            population = new HashMap<Patch, Long>(newPopulation);
+            population = new LinkedHashMap<Patch, Long>(newPopulation);
             if (population.isEmpty()) {
                 population.put(origPatch, orig);
             }
+
+            // Island model: exchange the best patches with the other islands
+            population = migrate(className, sourceFile, g + 1, population);
             
               }
 
+        raceLimitNS = 0;
+
+    }
+
+    /**
+     * Asynchronous steady-state search, with the same budget of genNumber * indNumber patches as the generational one.
+     * Up to getEvaluationThreads() patches are tested at once, on the evaluation pool shared with testPatches. As soon as one has been tested, it replaces the worst
+     * of a population of up to indNumber patches if it passes the fitness threshold, and a new patch is bred from the
+     * population and tested in its place, so that no thread waits for the slowest patch of a generation.
+     * The original stays in the population, see worst().
+     * Every indNumber patches counts as a generation for migration between islands.
+     * Patches are bred in the order in which tests finish, so with several threads a seed does not determine the search.
+     */
+    protected void searchSteadyState(String className, List<UnitTest> tests, SourceFile sourceFile) {
+
+        Patch origPatch = new Patch(sourceFile);
+
+        // Run original code, which also sets the test timeouts
+        raceLimitNS = 0;
+        UnitTestResultSet results = testPatch(className, tests, origPatch);
+
+        long orig = fitness(results);
+        super.writePatch(results, className, orig, 0);
+
+        long best = orig;
+        UnitTestResultSet bestResults = results;
+
+        Map<Patch, Long> population = new LinkedHashMap<>();
+        population.put(origPatch, orig);
+
+        int budget = genNumber * indNumber;
+        int submitted = 0;
+        int tested = 0;
+
+        raceLimitNS = raceLimit(bestResults);
+        CompletionService<UnitTestResultSet> completion = new ExecutorCompletionService<>(getEvaluationPool());
+
+        try {
+
+            for (; submitted < Math.min(getEvaluationThreads(), budget); submitted++) {
+                submitSteadyState(completion, className, tests, breed(population, sourceFile), orig);
+            }
+
+            while (tested < budget) {
+
+                results = completion.take().get();
+                tested++;
+
+                Patch patch = results.getPatch();
+                Logger.info("Tested patch: " + patch);
+
+                long newFitness = fitness(results);
+                if (fitnessThreshold(results, orig)) {
+                    super.writePatch(results, className, newFitness, compareFitness(newFitness, orig));
+                    population.put(patch, newFitness);
+                    if (population.size() > indNumber) {
+                        population.remove(worst(population, origPatch));
+                    }
+                    long better = compareFitness(newFitness, best);
+                    if (better > 0) {
+                        Logger.info("Better patch found: " + patch);
+                        Logger.info("Fitness improvement over best found so far: " + better);
+                        best = newFitness;
+                        bestResults = results;
+                        raceLimitNS = raceLimit(bestResults);
+                    }
+                } else {
+                    super.writePatch(results, className, newFitness, 0);
+                }
+
+                // Island model: exchange the best patches with the other islands once per generation's worth of patches
+                if (tested % indNumber == 0) {
+                    population = migrate(className, sourceFile, tested / indNumber, population);
+                    while (population.size() > indNumber) {
+                        population.remove(worst(population, origPatch));
+                    }
+                }
+
+                if (submitted < budget) {
+                    submitSteadyState(completion, className, tests, breed(population, sourceFile), orig);
+                    submitted++;
+                }
+
+            }
+
+        } catch (InterruptedException e) {
+            Logger.error(e);
+            System.exit(-1);
+        } catch (ExecutionException e) {
+            Logger.error(e.getCause(), "Exception evaluating patch");
+            System.exit(-1);
+        }
+
+        raceLimitNS = 0;
+
+    }
+
+    // Tests a patch on one of the evaluation threads, confirming it against all tests if it passed its selected tests
+    private void submitSteadyState(CompletionService<UnitTestResultSet> completion, String className, List<UnitTest> tests,
+                                   Patch patch, long orig) {
+        completion.submit(() -> {
+            UnitTestResultSet results = testPatchConcurrently(className, tests, patch);
+            if (fitnessThreshold(results, orig)) {
+                results = confirmPatch(className, tests, patch, results);
+            }
+            return results;
+        });
+    }
+
+    // Breeds a new patch from the population: as in a generation, half are a selected patch and half crossovers, all then mutated
+    protected Patch breed(Map<Patch, Long> population, SourceFile sourceFile) {
+        List<Patch> patches = new ArrayList<>(population.keySet());
+        Patch patch = select(patches);
+        if (super.individualRng.nextBoolean()) {
+            patch = crossover(patch, select(patches), sourceFile);
+        }
+        return mutate(patch);
+    }
+
+    // The patch with the worst fitness, the oldest of those with equal fitness. The original is kept, so that the
+    // search can always go back to it, unless the population holds a single patch
+    private Patch worst(Map<Patch, Long> population, Patch origPatch) {
+        Map.Entry<Patch, Long> worst = null;
+        for (Map.Entry<Patch, Long> entry : population.entrySet()) {
+            if (entry.getKey() == origPatch && indNumber > 1) {
+                continue;
+            }
+            if (worst == null || compareFitness(entry.getValue(), worst.getValue()) < 0) {
+                worst = entry;
+            }
+        }
+        return worst.getKey();
+    }
+
+    // Time in ns after which testing a patch stops and it is marked dominated, given the results of the best patch so far;
+    // 0 to test all patches to completion
+    protected long raceLimit(UnitTestResultSet bestResults) {
+        return 0;
     }
 
     // Simple patch selection, returns a clone of the selected patch
@@ -158,7 +336,7 @@ public abstract class GPSimple extends GP {
     /*============== Helper methods  ==============*/
 
     // Returns a patch which contains the first half of edits in patch1 and second half of edits in patch2 
-    private Patch crossover(Patch patch1, Patch patch2, SourceFile sourceFile) {
+    protected Patch crossover(Patch patch1, Patch patch2, SourceFile sourceFile) {
         List<Edit> list1 = patch1.getEdits();
         List<Edit> list2 = patch2.getEdits();
         Patch patch = new Patch(sourceFile);
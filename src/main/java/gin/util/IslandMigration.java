@@ -0,0 +1,151 @@
+package gin.util;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.opencsv.CSVReader;
+import com.opencsv.CSVWriter;
+import org.pmw.tinylog.Logger;
+
+import gin.Patch;
+import gin.SourceFile;
+import gin.edit.Edit;
+
+/**
+ * Migration channel between the islands of an island-model GP, each a separate JVM on the same machine.
+ * Every island writes its latest emigrants to its own CSV file in a shared directory, replacing the file
+ * atomically, and reads those of the others. Islands never wait for each other: an island takes whatever
+ * the others sent most recently, and each emigrant only once.
+ *
+ * File format: one row per patch: key of the target method, generation, fitness, then the patch's edits.
+ */
+public class IslandMigration {
+
+    private final File directory;
+    private final int island;
+    private final int islands;
+
+    // Emigrants of this island for each target method, as rows of its file
+    private final Map<String, List<String[]>> emigrants = new LinkedHashMap<>();
+
+    // Latest generation taken from each other island, per target method
+    private final Map<String, Integer> received = new HashMap<>();
+
+    public IslandMigration(File directory, int island, int islands) {
+        this.directory = directory;
+        this.island = island;
+        this.islands = islands;
+    }
+
+    /**
+     * Key of the target methods of a search, the same on every island.
+     */
+    public static String key(String className, SourceFile sourceFile) {
+        return className + "." + sourceFile.getTargetMethodNames();
+    }
+
+    /**
+     * Send the given patches to the other islands, in place of those this island sent before for the same key.
+     */
+    public void emigrate(String key, int generation, Map<Patch, Long> patches) throws IOException {
+
+        List<String[]> rows = new ArrayList<>();
+        for (Map.Entry<Patch, Long> entry : patches.entrySet()) {
+            List<String> row = new ArrayList<>();
+            row.add(key);
+            row.add(Integer.toString(generation));
+            row.add(Long.toString(entry.getValue()));
+            for (Edit edit : entry.getKey().getEdits()) {
+                row.add(edit.toString());
+            }
+            rows.add(row.toArray(new String[0]));
+        }
+        emigrants.put(key, rows);
+
+        // written aside and moved into place, so that other islands never read a partial file
+        File temporary = new File(directory, islandFile(island).getName() + ".tmp");
+        try (CSVWriter writer = new CSVWriter(new FileWriter(temporary))) {
+            for (List<String[]> keyRows : emigrants.values()) {
+                writer.writeAll(keyRows);
+            }
+        }
+        Files.move(temporary.toPath(), islandFile(island).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+    }
+
+    /**
+     * Receive the patches the other islands have sent for the given key since last asked, rebuilt for the given source file.
+     * Patches that can't be rebuilt are skipped.
+     * @return the patches with the fitness their islands measured
+     */
+    public Map<Patch, Long> immigrate(String key, SourceFile sourceFile) throws IOException {
+
+        Map<Patch, Long> immigrants = new LinkedHashMap<>();
+
+        for (int other = 0; other < islands; other++) {
+
+            File file = islandFile(other);
+            if (other == island || !file.exists()) {
+                continue;
+            }
+
+            List<String[]> rows;
+            try (CSVReader reader = new CSVReader(new FileReader(file))) {
+                rows = reader.readAll();
+            }
+
+            String receivedKey = other + ":" + key;
+            int latest = received.getOrDefault(receivedKey, -1);
+            for (String[] row : rows) {
+                if (row.length < 3 || !row[0].equals(key)) {
+                    continue;
+                }
+                try {
+                    int generation = Integer.parseInt(row[1]);
+                    if (generation <= received.getOrDefault(receivedKey, -1)) {
+                        continue;
+                    }
+                    latest = Math.max(latest, generation);
+                    Patch patch = new Patch(sourceFile);
+                    for (int i = 3; i < row.length; i++) {
+                        patch.add(Patch.parseEdit(row[i]));
+                    }
+                    immigrants.put(patch, Long.parseLong(row[2]));
+                } catch (ParseException | IllegalArgumentException e) {
+                    Logger.warn("Skipping patch from island " + other + " that can't be rebuilt: " + e.getMessage());
+                }
+            }
+            received.put(receivedKey, latest);
+
+        }
+
+        return immigrants;
+
+    }
+
+    private File islandFile(int index) {
+        return new File(directory, "island" + index + ".csv");
+    }
+
+    /**
+     * The output file of an island: the given file with the island's index before its extension.
+     */
+    public static File islandOutputFile(File outputFile, int island) {
+        String name = outputFile.getName();
+        int dot = name.lastIndexOf('.');
+        String islandName = (dot > 0) ? name.substring(0, dot) + "_island" + island + name.substring(dot)
+                                      : name + "_island" + island;
+        return new File(outputFile.getAbsoluteFile().getParentFile(), islandName);
+    }
+
+}
@@ -0,0 +1,72 @@
+package gin.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import gin.Patch;
+
+/**
+ * The patches found so far that no other patch dominates, for objectives that are all minimised.
+ * A patch dominates another if it is no worse in any objective, and better in at least one.
+ */
+public class ParetoArchive {
+
+    private final List<Patch> patches = new ArrayList<>();
+    private final List<long[]> objectives = new ArrayList<>();
+
+    /**
+     * Add a patch, unless a patch in the archive dominates it or has the same objectives.
+     * Patches it dominates are removed.
+     * @return whether the patch was added
+     */
+    public boolean add(Patch patch, long[] patchObjectives) {
+
+        for (long[] other : objectives) {
+            if (dominates(other, patchObjectives) || Arrays.equals(other, patchObjectives)) {
+                return false;
+            }
+        }
+
+        for (int i = objectives.size() - 1; i >= 0; i--) {
+            if (dominates(patchObjectives, objectives.get(i))) {
+                objectives.remove(i);
+                patches.remove(i);
+            }
+        }
+        patches.add(patch);
+        objectives.add(patchObjectives.clone());
+        return true;
+
+    }
+
+    public List<Patch> getPatches() {
+        return Collections.unmodifiableList(patches);
+    }
+
+    /**
+     * The objectives of each patch, in the same order as getPatches().
+     */
+    public List<long[]> getObjectives() {
+        return Collections.unmodifiableList(objectives);
+    }
+
+    public int size() {
+        return patches.size();
+    }
+
+    public static boolean dominates(long[] a, long[] b) {
+        boolean better = false;
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] > b[i]) {
+                return false;
+            }
+            if (a[i] < b[i]) {
+                better = true;
+            }
+        }
+        return better;
+    }
+
+}
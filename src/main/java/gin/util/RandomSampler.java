@@ -1,6 +1,10 @@
 package gin.util;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
 
 import com.sampullara.cli.Args;
@@ -76,12 +80,14 @@ public class RandomSampler extends Sampler {
 
             Logger.info("Start applying and testing random patches..");
 
+            List<TargetMethod> methods = new ArrayList<>();
+            List<Patch> patches = new ArrayList<>();
+
             for (int i = 0; i < patchNumber; i++) {
                 Random prng = new JDKRandomBridge(RandomSource.MT, Long.valueOf(patchSeed + (100000 * i)));
                 
                 // Pick a random method
                 TargetMethod method = methodData.get(mrng.nextInt(size));
-                Integer methodID = method.getMethodID(); 
                 File source = method.getFileSource();
 
                 // Setup SourceFile for patching
@@ -92,11 +98,21 @@ public class RandomSampler extends Sampler {
                     patch.addRandomEdit(prng, editType);
                 }
 
-                Logger.info("Testing random patch " + patch + " for method: " + method + " with ID " + methodID);
+                methods.add(method);
+                patches.add(patch);
+            }
+
+            if (batchCompilation || pipelineDepth > 0) {
+                testPatchesByMethod(methods, patches);
+            } else {
+                for (int i = 0; i < patches.size(); i++) {
+                    TargetMethod method = methods.get(i);
+                    Logger.info("Testing random patch " + patches.get(i) + " for method: " + method + " with ID " + method.getMethodID());
 
-                // Test the patched source file
-                UnitTestResultSet results = testPatch(method.getClassName(), method.getGinTests(), patch);
-                writeResults(results, methodID);
+                    // Test the patched source file
+                    UnitTestResultSet results = testPatch(method.getClassName(), method.getGinTests(), patches.get(i));
+                    writeResults(results, method.getMethodID());
+                }
             }
 
         Logger.info("Results saved to: " + outputFile);
@@ -107,5 +123,35 @@ public class RandomSampler extends Sampler {
 
    }
 
+    /**
+     * Test the patches of each method together, so that their patched sources are compiled in one batch,
+     * or evaluated in a pipeline; the results are written in the order of the patches.
+     */
+    private void testPatchesByMethod(List<TargetMethod> methods, List<Patch> patches) {
+
+        Map<TargetMethod, List<Integer>> patchesOfMethod = new LinkedHashMap<>();
+        for (int i = 0; i < patches.size(); i++) {
+            patchesOfMethod.computeIfAbsent(methods.get(i), m -> new ArrayList<>()).add(i);
+        }
+
+        UnitTestResultSet[] results = new UnitTestResultSet[patches.size()];
+        for (Map.Entry<TargetMethod, List<Integer>> entry : patchesOfMethod.entrySet()) {
+            TargetMethod method = entry.getKey();
+            List<Patch> methodPatches = new ArrayList<>();
+            for (int i : entry.getValue()) {
+                Logger.info("Testing random patch " + patches.get(i) + " for method: " + method + " with ID " + method.getMethodID());
+                methodPatches.add(patches.get(i));
+            }
+            List<UnitTestResultSet> methodResults = testPatches(method.getClassName(), method.getGinTests(), methodPatches);
+            for (int k = 0; k < methodResults.size(); k++) {
+                results[entry.getValue().get(k)] = methodResults.get(k);
+            }
+        }
+
+        for (int i = 0; i < patches.size(); i++) {
+            writeResults(results[i], methods.get(i).getMethodID());
+        }
+
+    }
 
 }
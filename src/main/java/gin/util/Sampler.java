@@ -8,12 +8,21 @@ import java.io.IOException;
 import java.lang.reflect.Field;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 import com.sampullara.cli.Args;
 import com.sampullara.cli.Argument;
+import com.opencsv.CSVReader;
 import com.opencsv.CSVReaderHeaderAware;
 import com.opencsv.CSVWriter;
 import org.apache.commons.lang3.StringUtils;
@@ -21,8 +30,18 @@ import org.pmw.tinylog.Logger;
 
 import gin.Patch;
 import gin.SourceFile;
+import gin.test.CompilationService;
+import gin.test.EvaluationCoordinator;
+import gin.test.EvaluationPipeline;
 import gin.test.ExternalTestRunner;
+import gin.test.FitnessCache;
 import gin.test.InternalTestRunner;
+import gin.test.KillMatrix;
+import gin.test.PatchValidator;
+import gin.test.RemoteTestRunner;
+import gin.test.TestCoverage;
+import gin.test.TestHarnessPool;
+import gin.test.TestRunListener;
 import gin.test.UnitTest;
 import gin.test.UnitTestResult;
 import gin.test.UnitTestResultSet;
@@ -70,6 +89,18 @@ public abstract class Sampler {
     @Argument(alias = "x", description = "Timeout in milliseconds")
     protected Long timeoutMS = 10000L;
 
+    @Argument(alias = "at", description = "Adaptive timeouts: set each test's timeout from its time on the unmodified code, at most -x")
+    protected Boolean adaptiveTimeouts = false;
+
+    @Argument(alias = "tf", description = "Adaptive timeouts: multiple of the slowest time of a test on the unmodified code")
+    protected Double timeoutFactor = 3.0;
+
+    @Argument(alias = "b", description = "Adaptive timeouts: buffer time in milliseconds added to each test's timeout")
+    protected Long bufferTimeMS = 1000L;
+
+    @Argument(alias = "tm", description = "Output method file: the method file with each test's timeout in a TestTimeouts column; pass it as -m to reuse the timeouts")
+    protected File timeoutMethodFile = null;
+
     @Argument(alias = "r", description = "Repeat each test r times")
     protected Integer reps = 1;
 
@@ -78,10 +109,48 @@ public abstract class Sampler {
     
     @Argument(alias = "J", description = "Run every test in a new jvm")
     protected Boolean inNewSubprocess = false;  
-    
-    // Unused at the moment, thus commented out
-    //@Argument(alias = "b", description = "Buffer time for test cases to be run on modified code, set only if > -1 and when -inSubprocess is false")
-    //private Integer bufferTimeMS = -1;  // test case timeout: timeout on unmodified code + bufferTime
+
+    @Argument(alias = "th", description = "Number of patches evaluated concurrently by testPatches, each with its own test runner. Concurrent tests compete for cores, caches and memory, which skews wall-clock times, so runtime fitness is best measured with 1. The peak heap and GC count of a test are of the whole JVM, so are left empty with more than 1, as with -pl")
+    protected Integer evaluationThreads = 1;
+
+    @Argument(alias = "fc", description = "Maximum number of entries in the fitness cache, which skips re-testing identical patched source and reuses its first timings, so is best left off for runtime fitness; 0, the default, to disable")
+    protected Integer fitnessCacheSize = 0;
+
+    @Argument(alias = "ic", description = "Recompile only the edited methods where possible, rather than the whole class")
+    protected Boolean incrementalCompilation = false;
+
+    @Argument(alias = "sl", description = "Load unchanged classes once and share them between patches; static state is then kept between patches. Not used with -j")
+    protected Boolean sharedClassLoader = false;
+
+    @Argument(alias = "hp", description = "Reuse warm test harness jvms across patches, rather than starting one per patch; used with -j")
+    protected Boolean harnessPool = false;
+
+    @Argument(alias = "w", description = "Number of evaluation workers to start on this machine, which compile and test patches sent over sockets, see gin.test.EvaluationWorker. Not used with -j")
+    protected Integer localWorkers = 0;
+
+    @Argument(alias = "wa", description = "Comma separated host:port addresses of running evaluation workers to send patches to, as well as any started with -w. Not used with -j")
+    protected String workerAddresses = null;
+
+    @Argument(alias = "to", description = "Run tests in order of their kill probability per unit time, learnt over the run, so failing patches are rejected sooner. Not used with -j")
+    protected Boolean testOrdering = false;
+
+    @Argument(alias = "km", description = "Output CSV file for the per-target-method kill matrix learnt with -to")
+    protected File killMatrixFile = null;
+
+    @Argument(alias = "pv", description = "Check patched source for mistakes that can't compile, e.g. use of a deleted declaration, and reject it without compiling")
+    protected Boolean patchValidation = false;
+
+    @Argument(alias = "pl", description = "Evaluate the patches tested together in a pipeline of apply, compile and test stages, connected by queues of this many patches, so later patches compile while one is tested; 0 to disable. Not used with -j or evaluation workers")
+    protected Integer pipelineDepth = 0;
+
+    @Argument(alias = "bc", description = "Compile all the patches tested together, e.g. a generation, in one javac task rather than one each")
+    protected Boolean batchCompilation = false;
+
+    @Argument(alias = "ts", description = "Run only the tests that execute the lines changed by a patch, measured by instrumenting the target method on the empty patch. Not used with -j")
+    protected Boolean testSelection = false;
+
+    @Argument(alias = "tsc", description = "With -ts, test patches that pass the selected tests against all tests, before they are accepted")
+    protected Boolean confirmSelection = true;
 
     /*============== Other  ==============*/
 
@@ -91,16 +160,49 @@ public abstract class Sampler {
     // Arguments used in the method file
     private static final String TEST_SEPARATOR = ",";
     private static final String METHOD_SEPARATOR = ".";
+    private static final String TIMEOUTS_COLUMN = "TestTimeouts"; // optional, one timeout in ms per test in the Tests column
         
     // Used for writing data to outputFile
+    // TestPeakHeapBytes and TestGCCount are of the whole JVM during the test, so are empty unless a single patch
+    // is evaluated at a time, see measuresWholeJVM; TestAllocatedBytes is the test's own
     private static final String[] OUT_HEADER = {"PatchIndex", "PatchSize", "Patch", "MethodIndex", "TestIndex", "UnitTest", "RepNumber",
             "PatchValid", "PatchCompiled", "TestPassed", "TestExecutionTime(ns)", "TestCPUTime(ns)",
             "TestTimedOut", "TestExceptionType", "TestExceptionMessage", "AssertionExpectedValue", 
-            "AssertionActualValue", "NoOp", "EditsValid"};
+            "AssertionActualValue", "NoOp", "EditsValid", "ValidationFailure",
+            "TestAllocatedBytes", "TestPeakHeapBytes", "TestGCCount"};
     private static final Integer DEFAULT_ID = 0; // default id for MethodIndex
 
     private int patchCount = 0;
 
+    // Worker pool used by testPatches and steady-state searches, see getEvaluationPool
+    private ExecutorService evaluationPool = null;
+
+    // Shared by all test runners, created on first use
+    private FitnessCache fitnessCache = null;
+
+    // Shared by all internal test runners if testOrdering is set, created on first use
+    private KillMatrix killMatrix = null;
+
+    // Coverage of each source file's target methods if testSelection is set, measured on first use;
+    // null values record that the instrumented source couldn't be compiled
+    private Map<SourceFile, TestCoverage> testCoverage = new HashMap<>();
+
+    // Harness jvms shared by all external test runners, created on first use
+    private TestHarnessPool testHarnessPool = null;
+
+    // Apply, compile and test stages of testPatches, with -pl
+    private EvaluationPipeline evaluationPipeline = null;
+
+    // Dispatches patches to evaluation workers, created on first use
+    private EvaluationCoordinator evaluationCoordinator = null;
+
+    // Timeout of each test read from the method file, or set from its time on the unmodified code if adaptiveTimeouts is set
+    private final Map<UnitTest, Long> testTimeouts = new HashMap<>();
+
+    // If positive, internal test runs stop once the tests take longer than this, and the patch is marked dominated;
+    // set by searches racing candidates against the best so far; read by the threads evaluating patches
+    protected volatile long raceLimitNS = 0;
+
     /*============== Structures holding all project data  ==============*/
 
     protected List<TargetMethod> methodData = new ArrayList<>();
@@ -198,6 +300,22 @@ public abstract class Sampler {
             return methodID.hashCode();
         }
     }
+
+    /**
+     * Classes compiled for patches before they are tested, e.g. by compileBatch, indexed by patched source.
+     * Passed down to the test runners of those patches, so that concurrent batches don't share them.
+     */
+    private static class PrecompiledClasses {
+
+        private final Map<String, Map<String, byte[]>> classes;
+        private final long compileTimeNS;
+
+        private PrecompiledClasses(Map<String, Map<String, byte[]>> classes, long compileTimeNS) {
+            this.classes = classes;
+            this.compileTimeNS = compileTimeNS;
+        }
+
+    }
     
     /*============== sampleMethods calls the hook abstract method  ==============*/
     protected final void sampleMethods(){
@@ -220,13 +338,7 @@ public abstract class Sampler {
 
         patchCount ++;
 
-        UnitTestResultSet resultSet = null;
-
-        if (!inSubprocess && !inNewSubprocess) {
-            resultSet = testPatchInternally(targetClass, tests, new Patch(sourceFile));
-        } else {
-            resultSet = testPatchInSubprocess(targetClass, tests, new Patch(sourceFile));
-        }
+        UnitTestResultSet resultSet = evaluatePatch(targetClass, tests, new Patch(sourceFile), null);
 
         if (!resultSet.allTestsSuccessful()) {
             if (!resultSet.getCleanCompile()) {
@@ -247,61 +359,319 @@ public abstract class Sampler {
             Logger.debug("Successfully passed all tests on the unmodified code.");
         }
 
-        //// Set timeout for test cases to: max time on original code + bufferTime, if bufferTime > -1
-        //if ((!inSubprocess) && (bufferTimeMS > -1)) {
-        //    Map<UnitTest, long[]> runtimes = resultSet.getUnitTestTimes();
-        //    if (runtimes.size() > 0) {
-        //        for (UnitTest test: runtimes.keySet()){
-        //            long[] values = runtimes.get(test);
-        //            long maxvalue = 0;
-        //            for(long newmax : values) {
-        //                if (newmax > maxvalue) {
-        //                    maxvalue = newmax;
-        //                }
-        //            }
-        //            test.setTimeoutMS(maxvalue / 1000000 + bufferTimeMS);
-        //        } 
-        //    } else {
-        //        Logger.error("Error extracting unit test case runtimes.");
-        //        System.exit(-1);
-        //    }
-        //}
+        // Set timeouts of tests that don't have one yet to: timeoutFactor * max time on original code + bufferTime
+        if (adaptiveTimeouts) {
+            setTimeouts(untimedTests(tests), resultSet);
+        }
 
         return resultSet;
     }
 
     protected UnitTestResultSet testPatch(String targetClass, List<UnitTest> tests, Patch patch) {
-        
+
+        return testPatchPrecompiled(targetClass, tests, patch, null);
+    }
+
+    /**
+     * Tests a patch against classes already compiled for it, e.g. those of a DeletionSchema,
+     * rather than compiling its patched source.
+     */
+    protected UnitTestResultSet testPatch(String targetClass, List<UnitTest> tests, Patch patch, Map<String, byte[]> classes) {
+
+        Map<String, Map<String, byte[]>> precompiled = new HashMap<>();
+        precompiled.put(patch.apply(), classes);
+
+        return testPatchPrecompiled(targetClass, tests, patch, new PrecompiledClasses(precompiled, 0));
+
+    }
+
+    private UnitTestResultSet testPatchPrecompiled(String targetClass, List<UnitTest> tests, Patch patch, PrecompiledClasses precompiled) {
+
         Logger.debug("Testing patch: " + patch);
 
+        applyTimeouts(targetClass, tests, patch.getSourceFile());
+        TestRunListener.setWholeJVMMeasured(measuresWholeJVM());
+
         patchCount ++;
 
-        UnitTestResultSet resultSet = null;
+        return evaluatePatch(targetClass, tests, patch, precompiled);
+
+    }
+
+    /**
+     * Tests a batch of patches, returning the result sets in the same order as the patches.
+     * If evaluationThreads is greater than one the patches are evaluated concurrently, each by
+     * its own test runner (and hence its own class loader and compiler instance).
+     * The patches should be distinct instances, as applying a patch records state on it.
+     * With batchCompilation their patched sources are first compiled together, see compileBatch.
+     * With evaluation workers, there are at least as many threads as workers, so that all are kept busy.
+     * With a pipeline, evaluationThreads is the number of threads running tests, while one compiles.
+     */
+    protected List<UnitTestResultSet> testPatches(String targetClass, List<UnitTest> tests, List<Patch> patches) {
+
+        if (!patches.isEmpty()) {
+            applyTimeouts(targetClass, tests, patches.get(0).getSourceFile());
+        }
+        TestRunListener.setWholeJVMMeasured(measuresWholeJVM());
+
+        PrecompiledClasses precompiled = null;
+        if (batchCompilation && !evaluatesRemotely()) {
+            precompiled = compileBatch(targetClass, tests, patches);
+        }
+
+        return testPatchesCompiled(targetClass, tests, patches, precompiled);
+
+    }
+
+    private List<UnitTestResultSet> testPatchesCompiled(String targetClass, List<UnitTest> tests, List<Patch> patches,
+                                                        PrecompiledClasses precompiled) {
+
+        List<UnitTestResultSet> results = new ArrayList<>();
+
+        int threads = getEvaluationThreads();
+
+        if (pipelineDepth > 0 && patches.size() > 1 && !inSubprocess && !inNewSubprocess && !evaluatesRemotely()) {
+            return testPatchesInPipeline(targetClass, tests, patches, precompiled);
+        }
+
+        if (threads <= 1 || patches.size() <= 1) {
+            for (Patch patch : patches) {
+                results.add(testPatchPrecompiled(targetClass, tests, patch, precompiled));
+            }
+            return results;
+        }
+
+        ExecutorService evaluationPool = getEvaluationPool();
+        List<Future<UnitTestResultSet>> futures = new ArrayList<>();
+        for (Patch patch : patches) {
+            Logger.debug("Testing patch: " + patch);
+            patchCount ++;
+            futures.add(evaluationPool.submit(() -> evaluatePatch(targetClass, tests, patch, precompiled)));
+        }
+
+        try {
+            for (Future<UnitTestResultSet> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Logger.error(e);
+            System.exit(-1);
+        } catch (ExecutionException e) {
+            Logger.error(e.getCause(), "Exception evaluating patch in parallel");
+            System.exit(-1);
+        }
+
+        return results;
+
+    }
+
+    /**
+     * Tests a patch in the same way as testPatch, but may be called by several threads at once, e.g. by a search
+     * that keeps getEvaluationThreads() patches under test. Test timeouts must already be set, e.g. by testing
+     * the empty patch with testPatch; patches aren't compiled in batches or in a pipeline.
+     */
+    protected UnitTestResultSet testPatchConcurrently(String targetClass, List<UnitTest> tests, Patch patch) {
+
+        Logger.debug("Testing patch: " + patch);
+
+        synchronized (this) {
+            patchCount ++;
+        }
+
+        return evaluatePatch(targetClass, tests, patch, null);
+
+    }
+
+    /**
+     * Whether tests are run one at a time, with nothing compiling alongside, so that their peak heap use and
+     * GC count, which are of the whole JVM, are their own.
+     */
+    private boolean measuresWholeJVM() {
+        return evaluationThreads <= 1 && pipelineDepth <= 0;
+    }
+
+    /**
+     * The pool of getEvaluationThreads() threads on which patches are evaluated, created on first use
+     * and shut down by close.
+     */
+    protected synchronized ExecutorService getEvaluationPool() {
+        if (evaluationPool == null) {
+            evaluationPool = Executors.newFixedThreadPool(getEvaluationThreads(), CompilationService.threadFactory());
+        }
+        return evaluationPool;
+    }
+
+    /**
+     * The number of patches to evaluate at once: evaluationThreads, or with evaluation workers at least their number,
+     * so that all are kept busy.
+     */
+    protected int getEvaluationThreads() {
+        int threads = evaluationThreads;
+        if (evaluatesRemotely()) {
+            threads = Math.max(threads, getEvaluationCoordinator().getWorkers());
+        }
+        return threads;
+    }
+
+    private List<UnitTestResultSet> testPatchesInPipeline(String targetClass, List<UnitTest> tests, List<Patch> patches,
+                                                          PrecompiledClasses precompiled) {
+
+        List<InternalTestRunner> runners = new ArrayList<>();
+        for (Patch patch : patches) {
+            Logger.debug("Testing patch: " + patch);
+            patchCount ++;
+            runners.add(newInternalTestRunner(targetClass, selectTests(targetClass, tests, patch), precompiled));
+        }
+
+        synchronized (this) {
+            if (evaluationPipeline == null) {
+                evaluationPipeline = new EvaluationPipeline(pipelineDepth, evaluationThreads);
+            }
+        }
+
+        List<UnitTestResultSet> results = null;
+        try {
+            results = evaluationPipeline.evaluate(runners, patches, reps, raceLimitNS);
+        } catch (InterruptedException e) {
+            Logger.error(e);
+            System.exit(-1);
+        }
+        return results;
+
+    }
+
+    /**
+     * With batchCompilation, compile the distinct patched sources of the patches together, for the test runners
+     * to use. Sources whose outcome is already cached, or that patch validation rejects, are left out.
+     * @return the classes of each source, or null if fewer than two sources were left to compile
+     */
+    private PrecompiledClasses compileBatch(String targetClass, List<UnitTest> tests, List<Patch> patches) {
+
+        FitnessCache cache = getFitnessCache();
+        Set<String> sources = new LinkedHashSet<>();
+        for (Patch patch : patches) {
+            String patchedSource = patch.apply();
+            if (cache != null && cache.contains(FitnessCache.key(targetClass, tests, reps, patchedSource))) {
+                continue;
+            }
+            if (patchValidation && PatchValidator.forSourceFile(patch.getSourceFile())
+                    .validate(patch.getLastPatchedSourceFile()) != null) {
+                continue;
+            }
+            sources.add(patchedSource);
+        }
+
+        if (sources.size() < 2) {
+            return null;
+        }
+
+        CompilationService compilationService = CompilationService.forClassPath(classPath);
+        List<String> batch = new ArrayList<>(sources);
+        List<Map<String, byte[]>> classes = compilationService.compileBatch(targetClass, batch);
+
+        Map<String, Map<String, byte[]>> batchClasses = new HashMap<>();
+        for (int i = 0; i < batch.size(); i++) {
+            batchClasses.put(batch.get(i), classes.get(i));
+        }
+        return new PrecompiledClasses(batchClasses, compilationService.getLastCompileTimeNS());
+
+    }
+
+    /**
+     * @param precompiled classes already compiled for the patch, or null to compile it
+     */
+    private UnitTestResultSet evaluatePatch(String targetClass, List<UnitTest> tests, Patch patch, PrecompiledClasses precompiled) {
 
         if (!inSubprocess && !inNewSubprocess) {
-            resultSet = testPatchInternally(targetClass, tests, patch);
+            return testPatchInternally(targetClass, tests, patch, precompiled);
         } else {
-            resultSet = testPatchInSubprocess(targetClass, tests, patch);
+            return testPatchInSubprocess(targetClass, tests, patch, precompiled);
         }
-        
-        return resultSet;
 
     }
 
-    private UnitTestResultSet testPatchInternally(String targetClass, List<UnitTest> tests, Patch patch) {
+    private UnitTestResultSet testPatchInternally(String targetClass, List<UnitTest> tests, Patch patch, PrecompiledClasses precompiled) {
+        return testPatchWithTests(targetClass, selectTests(targetClass, tests, patch), patch, precompiled);
+    }
+
+    /**
+     * With test selection, the tests that execute the lines the patch changes; otherwise all of them.
+     */
+    private List<UnitTest> selectTests(String targetClass, List<UnitTest> tests, Patch patch) {
+
+        if (testSelection) {
+            TestCoverage coverage = getTestCoverage(targetClass, tests, patch.getSourceFile());
+            if (coverage != null) {
+                return coverage.selectTests(patch, tests);
+            }
+        }
+        return tests;
+
+    }
+
+    private UnitTestResultSet testPatchWithTests(String targetClass, List<UnitTest> tests, Patch patch, PrecompiledClasses precompiled) {
+        if (evaluatesRemotely()) {
+            return testPatchRemotely(targetClass, tests, patch);
+        }
+        return testPatchInternallyWithTests(targetClass, tests, patch, precompiled);
+    }
+
+    private UnitTestResultSet testPatchInternallyWithTests(String targetClass, List<UnitTest> tests, Patch patch, PrecompiledClasses precompiled) {
+        return newInternalTestRunner(targetClass, tests, precompiled).runTests(patch, reps, raceLimitNS);
+    }
+
+    private InternalTestRunner newInternalTestRunner(String targetClass, List<UnitTest> tests, PrecompiledClasses precompiled) {
 
         InternalTestRunner testRunner = new InternalTestRunner(targetClass, classPath, tests);
-        return testRunner.runTests(patch, reps);
+        testRunner.setFitnessCache(getFitnessCache());
+        testRunner.setIncrementalCompilation(incrementalCompilation);
+        testRunner.setSharedClassLoader(sharedClassLoader);
+        testRunner.setPatchValidation(patchValidation);
+        if (precompiled != null) {
+            testRunner.setPrecompiledClasses(precompiled.classes, precompiled.compileTimeNS);
+        }
+        testRunner.setKillMatrix(getKillMatrix());
+        return testRunner;
+
     }
 
-    private UnitTestResultSet testPatchInSubprocess(String targetClass, List<UnitTest> tests, Patch patch) {
+    private UnitTestResultSet testPatchRemotely(String targetClass, List<UnitTest> tests, Patch patch) {
+
+        RemoteTestRunner testRunner = new RemoteTestRunner(targetClass, classPath, tests, getEvaluationCoordinator());
+        testRunner.setFitnessCache(getFitnessCache());
+        testRunner.setPatchValidation(patchValidation);
+
+        UnitTestResultSet results = null;
+
+        try {
+            results = testRunner.runTests(patch, reps, raceLimitNS);
+        } catch (IOException e) {
+            Logger.error(e);
+            System.exit(-1);
+        } catch (InterruptedException e) {
+            Logger.error(e);
+            System.exit(-1);
+        }
+
+        return results;
+
+    }
+
+    private UnitTestResultSet testPatchInSubprocess(String targetClass, List<UnitTest> tests, Patch patch, PrecompiledClasses precompiled) {
 
         ExternalTestRunner testRunner = new ExternalTestRunner(targetClass, classPath, tests, inNewSubprocess);
+        testRunner.setFitnessCache(getFitnessCache());
+        testRunner.setIncrementalCompilation(incrementalCompilation);
+        testRunner.setPatchValidation(patchValidation);
+        if (precompiled != null) {
+            testRunner.setPrecompiledClasses(precompiled.classes, precompiled.compileTimeNS);
+        }
+        testRunner.setHarnessPool(getTestHarnessPool());
 
         UnitTestResultSet results = null;
 
         try {
-            results = testRunner.runTests(patch, reps);
+            results = testRunner.runTests(patch, reps, raceLimitNS);
         } catch (IOException e) {
             Logger.error(e);
             System.exit(-1);
@@ -314,6 +684,187 @@ public abstract class Sampler {
 
     }
 
+    /*============== adaptive timeouts  ==============*/
+
+    private synchronized List<UnitTest> untimedTests(List<UnitTest> tests) {
+        return tests.stream().filter(test -> !testTimeouts.containsKey(test)).collect(Collectors.toList());
+    }
+
+    /**
+     * With adaptiveTimeouts, give each test its own timeout, first running the unmodified code
+     * to time the tests that don't have one yet. A test keeps its timeout across target methods.
+     */
+    private void applyTimeouts(String targetClass, List<UnitTest> tests, SourceFile sourceFile) {
+
+        if (!adaptiveTimeouts) {
+            return;
+        }
+
+        List<UnitTest> untimed = untimedTests(tests);
+        if (!untimed.isEmpty()) {
+            Logger.info("Timing " + untimed.size() + " tests on the unmodified code to set their timeouts..");
+            UnitTestResultSet resultSet = evaluatePatch(targetClass, untimed, new Patch(sourceFile), null);
+            setTimeouts(untimed, resultSet);
+        }
+
+        synchronized (this) {
+            for (UnitTest test : tests) {
+                test.setTimeoutMS(testTimeouts.get(test));
+            }
+        }
+
+    }
+
+    /**
+     * Timeout of each test: timeoutFactor times its slowest time on the unmodified code, plus bufferTimeMS,
+     * but no more than timeoutMS. Tests that failed or didn't run on the unmodified code get timeoutMS.
+     */
+    private synchronized void setTimeouts(List<UnitTest> tests, UnitTestResultSet resultSet) {
+
+        Map<UnitTest, Long> slowest = resultSet.getMaxExecutionTimes();
+        for (UnitTest test : tests) {
+            long timeout = timeoutMS;
+            if (slowest.containsKey(test)) {
+                timeout = Math.min(timeoutMS, (long) Math.ceil(timeoutFactor * slowest.get(test) / 1000000.0) + bufferTimeMS);
+            } else {
+                Logger.warn("No time on the unmodified code for " + test + ", its timeout is " + timeoutMS + "ms");
+            }
+            testTimeouts.put(test, timeout);
+            test.setTimeoutMS(timeout);
+        }
+
+    }
+
+    /**
+     * Copy the method file to timeoutMethodFile, with the current timeout of each test in the TestTimeouts column.
+     */
+    private synchronized void writeTimeoutMethodFile() {
+
+        Map<Integer, TargetMethod> methods = new HashMap<>();
+        for (TargetMethod method : methodData) {
+            methods.put(method.getMethodID(), method);
+        }
+
+        try (CSVReader reader = new CSVReader(new FileReader(methodFile));
+             CSVWriter writer = new CSVWriter(new FileWriter(timeoutMethodFile))) {
+
+            List<String[]> rows = reader.readAll();
+            List<String> header = new ArrayList<>(Arrays.asList(rows.get(0)));
+            int indexColumn = header.indexOf("MethodIndex");
+            int timeoutsColumn = header.indexOf(TIMEOUTS_COLUMN);
+            if (timeoutsColumn < 0) {
+                header.add(TIMEOUTS_COLUMN);
+                timeoutsColumn = header.size() - 1;
+            }
+            writer.writeNext(header.toArray(new String[0]));
+
+            for (int row = 1; row < rows.size(); row++) {
+                String[] entry = Arrays.copyOf(rows.get(row), header.size());
+                Integer methodID = (indexColumn >= 0) ? Integer.valueOf(entry[indexColumn]) : row;
+                TargetMethod method = methods.get(methodID);
+                if (method != null) {
+                    List<String> timeouts = new ArrayList<>();
+                    for (UnitTest test : method.getGinTests()) {
+                        timeouts.add(Long.toString(testTimeouts.getOrDefault(test, test.getTimeoutMS())));
+                    }
+                    entry[timeoutsColumn] = String.join(TEST_SEPARATOR, timeouts);
+                }
+                writer.writeNext(entry);
+            }
+
+            Logger.info("Method file with test timeouts written to: " + timeoutMethodFile.getAbsolutePath());
+
+        } catch (IOException e) {
+            Logger.error(e, "Exception writing the method file with test timeouts: " + timeoutMethodFile.getAbsolutePath());
+        }
+
+    }
+
+    private synchronized FitnessCache getFitnessCache() {
+        if (fitnessCache == null && fitnessCacheSize > 0) {
+            fitnessCache = new FitnessCache(fitnessCacheSize);
+        }
+        return fitnessCache;
+    }
+
+    /**
+     * With test selection, a patch that passed the tests selected for it is tested again against all tests,
+     * unless confirmSelection is off. Subclasses should call this before accepting a patch; otherwise
+     * its results may be those of only a few tests.
+     * @param results the results of testPatch or testPatches for the patch
+     * @return the results of all tests, or the given results if they already are, or would not be used
+     */
+    protected UnitTestResultSet confirmPatch(String targetClass, List<UnitTest> tests, Patch patch, UnitTestResultSet results) {
+
+        if (!testSelection || !confirmSelection || inSubprocess || inNewSubprocess || !results.allTestsSuccessful()) {
+            return results;
+        }
+
+        Set<UnitTest> tested = results.getResults().stream().map(UnitTestResult::getTest).collect(Collectors.toSet());
+        if (tested.containsAll(tests)) {
+            return results;
+        }
+
+        Logger.debug("Confirming patch against all tests: " + patch);
+        return testPatchWithTests(targetClass, tests, patch, null);
+
+    }
+
+    private synchronized TestCoverage getTestCoverage(String targetClass, List<UnitTest> tests, SourceFile sourceFile) {
+        if (!testCoverage.containsKey(sourceFile)) {
+            Logger.info("Measuring coverage of " + sourceFile.getTargetMethodNames() + " by " + tests.size() + " tests..");
+            testCoverage.put(sourceFile, TestCoverage.measure(targetClass, classPath, tests, sourceFile));
+        }
+        return testCoverage.get(sourceFile);
+    }
+
+    private synchronized KillMatrix getKillMatrix() {
+        if (killMatrix == null && testOrdering) {
+            killMatrix = new KillMatrix();
+        }
+        return killMatrix;
+    }
+
+    /**
+     * Are patches compiled and tested by evaluation workers, rather than in this JVM?
+     * Test selection and patch validation still happen here; kill matrices and compiled schemata are not used.
+     */
+    protected boolean evaluatesRemotely() {
+        return (localWorkers > 0 || workerAddresses != null) && !inSubprocess && !inNewSubprocess;
+    }
+
+    private synchronized EvaluationCoordinator getEvaluationCoordinator() {
+        if (evaluationCoordinator == null) {
+            evaluationCoordinator = new EvaluationCoordinator(classPath);
+            evaluationCoordinator.setIncrementalCompilation(incrementalCompilation);
+            evaluationCoordinator.setSharedClassLoader(sharedClassLoader);
+            evaluationCoordinator.setFitnessCacheSize(fitnessCacheSize);
+            try {
+                if (localWorkers > 0) {
+                    Logger.info("Starting " + localWorkers + " evaluation workers..");
+                    evaluationCoordinator.startLocalWorkers(localWorkers);
+                }
+                if (workerAddresses != null) {
+                    for (String address : workerAddresses.split(",")) {
+                        evaluationCoordinator.connect(address.trim());
+                    }
+                }
+            } catch (IOException e) {
+                Logger.error(e, "Could not start or connect to the evaluation workers");
+                evaluationCoordinator.close();
+                System.exit(-1);
+            }
+        }
+        return evaluationCoordinator;
+    }
+
+    private synchronized TestHarnessPool getTestHarnessPool() {
+        if (testHarnessPool == null && harnessPool && !inNewSubprocess) {
+            testHarnessPool = new TestHarnessPool(classPath);
+        }
+        return testHarnessPool;
+    }
+
     /*============== the following process input arguments  ==============*/
 
     private void printCommandlineArguments() {
@@ -359,11 +910,22 @@ public abstract class Sampler {
             while (data != null) {
 
                 String[] tests = data.get("Tests").split(TEST_SEPARATOR);
+                String[] timeouts = StringUtils.isBlank(data.get(TIMEOUTS_COLUMN)) ? null : data.get(TIMEOUTS_COLUMN).split(TEST_SEPARATOR);
+                if ( (timeouts != null) && (timeouts.length != tests.length) ) {
+                    throw new ParseException("The \"" + TIMEOUTS_COLUMN + "\" field should have one timeout per test: " + data.get("Method"), 0);
+                }
                 List<UnitTest> ginTests = new ArrayList();        
-                for (String test : tests) {
+                for (int i = 0; i < tests.length; i++) {
                     UnitTest ginTest = null;        
-                    ginTest = UnitTest.fromString(test);
-                    ginTest.setTimeoutMS(timeoutMS);
+                    ginTest = UnitTest.fromString(tests[i]);
+                    if (timeouts != null) {
+                        try {
+                            testTimeouts.put(ginTest, Long.valueOf(StringUtils.strip(timeouts[i])));
+                        } catch (NumberFormatException e) {
+                            throw new ParseException("Invalid timeout for test " + ginTest + ": " + timeouts[i], 0);
+                        }
+                    }
+                    ginTest.setTimeoutMS(testTimeouts.getOrDefault(ginTest, timeoutMS));
                     ginTests.add(ginTest);
                     if (!testData.contains(ginTest)) {
                         testData.add(ginTest);
@@ -478,11 +1040,11 @@ public abstract class Sampler {
     protected void writeResults(UnitTestResultSet testResultSet, int patchCount, Integer methodID) {
         for (UnitTestResult result : testResultSet.getResults()) {
             int testNameIdx = testData.indexOf(result.getTest()) + 1;
-            writeResult(patchCount, testNameIdx, testResultSet.getPatch(), testResultSet.getValidPatch(), testResultSet.getCleanCompile(), result, methodID, testResultSet.getNoOp(), testResultSet.getEditsValid());
+            writeResult(patchCount, testNameIdx, testResultSet.getPatch(), testResultSet.getValidPatch(), testResultSet.getCleanCompile(), result, methodID, testResultSet.getNoOp(), testResultSet.getEditsValid(), testResultSet.getValidationFailure());
         }
     }
 
-    private void writeResult(int patchCount, int testNameIdx, Patch patch, boolean patchValid, boolean compiledOK, UnitTestResult testResult, Integer methodID, boolean patchNoOp, List<Boolean> editsValid) {
+    private void writeResult(int patchCount, int testNameIdx, Patch patch, boolean patchValid, boolean compiledOK, UnitTestResult testResult, Integer methodID, boolean patchNoOp, List<Boolean> editsValid, PatchValidator.Failure validationFailure) {
 
         String patchIndex = Integer.toString(patchCount);
         String methodIndex = Integer.toString(methodID);
@@ -496,6 +1058,9 @@ public abstract class Sampler {
         String testPassed = Boolean.toString(testResult.getPassed());
         String testExecutionTime = Long.toString(testResult.getExecutionTime());
         String testCPUTime = Long.toString(testResult.getCPUTime());
+        String testAllocatedBytes = Long.toString(testResult.getAllocatedBytes());
+        String testPeakHeapBytes = measuresWholeJVM() ? Long.toString(testResult.getPeakHeapBytes()) : "";
+        String testGCCount = measuresWholeJVM() ? Long.toString(testResult.getGCCount()) : "";
         String testTimedOut = Boolean.toString(testResult.getTimedOut());
         String testExceptionType = testResult.getExceptionType();
         String testExceptionMessage = testResult.getExceptionMessage();
@@ -506,6 +1071,7 @@ public abstract class Sampler {
         for (Boolean b : editsValid) {
             editsValidStr += (b ? 1 : 0);
         }
+        String validationFailureStr = (validationFailure == null) ? "" : validationFailure.toString();
 
         String[] entry = {
                 patchIndex,
@@ -526,13 +1092,61 @@ public abstract class Sampler {
                 testAssertionExpectedValue,
                 testAssertionActualValue,
                 noOp,
-                editsValidStr
+                editsValidStr,
+                validationFailureStr,
+                testAllocatedBytes,
+                testPeakHeapBytes,
+                testGCCount
         };
 
         outputFileWriter.writeNext(entry);
     }
 
     protected void close() {
+        TestRunListener.setWholeJVMMeasured(true);
+        if (evaluationPool != null) {
+            evaluationPool.shutdownNow();
+            evaluationPool = null;
+        }
+        if (fitnessCache != null) {
+            Logger.info(fitnessCache);
+        }
+        if (evaluationPipeline != null) {
+            evaluationPipeline.close();
+            Logger.info(evaluationPipeline);
+            evaluationPipeline = null;
+        }
+        if (batchCompilation) {
+            Logger.info(CompilationService.totals(classPath));
+        }
+        for (TestCoverage coverage : testCoverage.values()) {
+            if (coverage != null) {
+                Logger.info(coverage);
+            }
+        }
+        if (killMatrix != null) {
+            Logger.info(killMatrix);
+            if (killMatrixFile != null) {
+                try {
+                    killMatrix.writeCSV(killMatrixFile);
+                } catch (IOException e) {
+                    Logger.error(e, "Exception writing the kill matrix: " + killMatrixFile.getAbsolutePath());
+                }
+            }
+        }
+        if (timeoutMethodFile != null) {
+            writeTimeoutMethodFile();
+        }
+        if (testHarnessPool != null) {
+            Logger.info("Test harnesses started: " + testHarnessPool.getHarnessesStarted());
+            testHarnessPool.close();
+            testHarnessPool = null;
+        }
+        if (evaluationCoordinator != null) {
+            Logger.info(evaluationCoordinator);
+            evaluationCoordinator.close();
+            evaluationCoordinator = null;
+        }
         try {
             if(this.outputFileWriter != null){
                 this.outputFileWriter.close();
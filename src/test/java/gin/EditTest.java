@@ -20,6 +20,7 @@ import gin.edit.matched.MatchedDeleteStatement;
 import gin.edit.matched.MatchedReplaceStatement;
 import gin.edit.matched.MatchedSwapStatement;
 import gin.edit.modifynode.BinaryOperatorReplacement;
+import gin.edit.modifynode.ReorderLogicalExpression;
 import gin.edit.modifynode.UnaryOperatorReplacement;
 import gin.edit.statement.CopyStatement;
 import gin.edit.statement.DeleteStatement;
@@ -174,5 +175,18 @@ public class EditTest {
         s2 = uor2.toString();
         
         assertEquals(s, s2);
+
+        Edit rle = new ReorderLogicalExpression(sourceFileSmallTree, r);
+        s = rle.toString();
+
+        Edit rle2 = ReorderLogicalExpression.fromString(s);
+        s2 = rle2.toString();
+
+        assertEquals(s, s2);
+
+        // as evaluation workers rebuild them
+        for (Edit edit : new Edit[] {bor, uor, rle}) {
+            assertEquals(edit.toString(), Patch.parseEdit(edit.toString()).toString());
+        }
     }
 }
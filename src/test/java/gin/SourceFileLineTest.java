@@ -86,6 +86,29 @@ public class SourceFileLineTest {
         assertEquals(expected, actual);
     }
     
+    @Test
+    public void insertAndRemoveLines() throws Exception {
+        SourceFileLine inserted = sourceFileSmall.insertLine(4, "int x = 0;").insertLine(4, "int y = 0;");
+
+        // inserted lines follow the line they were inserted after, in order, and share its number
+        assertEquals(Arrays.asList(1, 2, 3, 4, 4, 4, 5, 6, 7, 8, 9, 10, 11), inserted.getAllLineIDs());
+        assertEquals("        int a = 1;", inserted.getLine(4));
+
+        // removing the line removes the original, not the lines inserted after it
+        SourceFileLine removed = inserted.removeLine(4);
+        assertEquals(null, removed.getLine(4));
+        assertEquals(Arrays.asList(1, 2, 3, 4, 4, 5, 6, 7, 8, 9, 10, 11), removed.getAllLineIDs());
+        assertEqualsWithoutWhitespace("package gin; public class Small { public static void Dummy() { int x = 0; int y = 0; int b = 2;"
+                + " int c = a + b; if ((a < b) || (a > c)) { c++; } } }", removed.getSource());
+        assertEquals(removed, removed.removeLine(4));
+
+        // earlier copies are unchanged
+        assertEquals(sourceFileSmall.getSource().replace("        int a = 1;" + System.lineSeparator(), ""),
+                removed.getSource().replace("int x = 0;" + System.lineSeparator() + "int y = 0;" + System.lineSeparator(), ""));
+        assertEquals(11, sourceFileSmall.getAllLineIDs().size());
+        assertEquals("        int a = 1;", sourceFileSmall.getLine(4));
+    }
+
     public static void assertEqualsWithoutWhitespace(String s1, String s2) {
         String s1NoWhitespace = s1.replaceAll("\\s+", "");
         String s2NoWhitespace = s2.replaceAll("\\s+", "");
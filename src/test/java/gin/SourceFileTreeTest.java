@@ -1,9 +1,12 @@
 package gin;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 
 import java.io.File;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
@@ -15,6 +18,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import com.github.javaparser.ast.stmt.BlockStmt;
+import com.github.javaparser.ast.stmt.ExpressionStmt;
 import com.github.javaparser.ast.stmt.IfStmt;
 import com.github.javaparser.ast.stmt.TryStmt;
 
@@ -170,6 +174,50 @@ public class SourceFileTreeTest {
         assertEquals(expected, sourceFileWithMethod.getNodeIDsByClass(false, TryStmt.class));
     }
 
+    @Test
+    public void copyForPatch() throws Exception {
+        String originalSource = sourceFile.getSource();
+        int blockID = sourceFile.getAllBlockIDs().get(0);
+        int firstStatementID = sourceFile.getAllStatementIDs().get(1);
+        List<Integer> expressionStatementIDs = sourceFile.getNodeIDsByClass(false, ExpressionStmt.class);
+        int lastStatementID = expressionStatementIDs.get(expressionStatementIDs.size() - 1);
+
+        // the usual edits make a new copy each time
+        SourceFileTree copied = sourceFile.removeStatement(lastStatementID);
+        copied = copied.insertStatement(blockID, blockID, sourceFile.getStatement(firstStatementID));
+        assertEquals(0, copied.getChangesInPlace());
+
+        // edits to a copy for a patch change the copy itself
+        SourceFileTree inPlace = (SourceFileTree)sourceFile.copyForPatch();
+        assertSame(inPlace, inPlace.removeStatement(lastStatementID));
+        assertSame(inPlace, inPlace.insertStatement(blockID, blockID, sourceFile.getStatement(firstStatementID)));
+        assertEquals(2, inPlace.getChangesInPlace());
+
+        // removed statements can't be edited again
+        assertNull(inPlace.getStatement(lastStatementID));
+        assertSame(inPlace, inPlace.removeStatement(lastStatementID));
+        assertEquals(2, inPlace.getChangesInPlace());
+
+        assertEquals(copied.getSource(), inPlace.getSource());
+        assertEquals(originalSource, sourceFile.getSource());
+    }
+
+    @Test
+    public void nodeIDsByClassAfterEdit() throws Exception {
+        SourceFileTree inPlace = (SourceFileTree)sourceFile.copyForPatch();
+        List<Integer> expressionStatementIDs = inPlace.getNodeIDsByClass(false, ExpressionStmt.class);
+        int removedID = expressionStatementIDs.get(0);
+        assertEquals(ExpressionStmt.class, inPlace.getNodeClass(removedID));
+
+        inPlace.removeStatement(removedID);
+
+        List<Integer> expected = new ArrayList<>(expressionStatementIDs);
+        expected.remove(Integer.valueOf(removedID));
+        assertEquals(expected, inPlace.getNodeIDsByClass(false, ExpressionStmt.class));
+        assertNull(inPlace.getNodeClass(removedID));
+        assertEquals(expressionStatementIDs, sourceFile.getNodeIDsByClass(false, ExpressionStmt.class));
+    }
+
     public static void assertEqualsWithoutWhitespace(String s1, String s2) {
         String s1NoWhitespace = s1.replaceAll("\\s+", "");
         String s2NoWhitespace = s2.replaceAll("\\s+", "");
@@ -0,0 +1,93 @@
+package gin.test;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BenchmarkTest {
+
+    private final Benchmark benchmark = new Benchmark(2, 5, 20, 0.05, 0.95, 0.05);
+
+    @Test
+    public void testOutliersRejected() {
+
+        List<Long> samples = Arrays.asList(100L, 101L, 99L, 100L, 102L, 98L, 1000L);
+
+        double[] kept = Benchmark.withoutOutliers(samples);
+
+        assertEquals(6, kept.length);
+        assertEquals(100, Benchmark.median(samples));
+
+    }
+
+    @Test
+    public void testComplete() {
+
+        assertFalse(benchmark.isComplete(Arrays.asList(100L, 100L, 100L, 100L)));
+        assertTrue(benchmark.isComplete(Arrays.asList(100L, 101L, 99L, 100L, 100L)));
+
+        // too noisy, so carry on until the maximum
+        List<Long> noisy = new ArrayList<>(Arrays.asList(50L, 150L, 60L, 140L, 70L));
+        assertFalse(benchmark.isComplete(noisy));
+        while (noisy.size() < 20) {
+            noisy.add(100L + (noisy.size() % 2 == 0 ? 50 : -50));
+        }
+        assertTrue(benchmark.isComplete(noisy));
+
+    }
+
+    @Test
+    public void testFaster() {
+
+        List<Long> baseline = Arrays.asList(100L, 102L, 98L, 101L, 99L, 100L, 103L, 97L);
+        List<Long> faster = Arrays.asList(80L, 82L, 78L, 81L, 79L, 80L, 83L, 77L);
+        List<Long> noise = Arrays.asList(99L, 101L, 97L, 100L, 98L, 99L, 102L, 96L);
+
+        assertTrue(benchmark.isFaster(faster, baseline));
+        assertFalse(benchmark.isFaster(baseline, faster));
+        assertFalse(benchmark.isFaster(noise, baseline));
+
+    }
+
+    @Test
+    public void testSlower() {
+
+        List<Long> samples = Arrays.asList(100L, 102L, 98L, 101L, 99L);
+
+        assertTrue(benchmark.isSlower(samples, 90));
+        assertFalse(benchmark.isSlower(samples, 99));
+        assertFalse(benchmark.isSlower(samples, 110));
+
+        // a single round is not enough to tell
+        assertFalse(benchmark.isSlower(Arrays.asList(100L), 10));
+
+    }
+
+    @Test
+    public void testSamplesAreRoundTotals() {
+
+        UnitTest first = new UnitTest("mypackage.SimpleTest", "testReturnsTrue");
+        UnitTest second = new UnitTest("mypackage.SimpleTest", "otherTest");
+
+        List<UnitTestResult> results = new LinkedList<>();
+        for (int rep = 1; rep <= 3; rep++) {
+            UnitTestResult a = new UnitTestResult(first, rep);
+            a.setExecutionTime(10 * rep);
+            UnitTestResult b = new UnitTestResult(second, rep);
+            b.setExecutionTime(1);
+            results.add(a);
+            results.add(b);
+        }
+
+        UnitTestResultSet resultSet = new UnitTestResultSet(null, true, new LinkedList<>(), true, false, results);
+
+        assertEquals(Arrays.asList(11L, 21L, 31L), resultSet.getSamples());
+
+    }
+
+}
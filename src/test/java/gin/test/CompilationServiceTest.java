@@ -0,0 +1,132 @@
+package gin.test;
+
+import gin.TestConfiguration;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class CompilationServiceTest {
+
+    private final static String exampleDirName = TestConfiguration.EXAMPLE_DIR_NAME;
+
+    @Test
+    public void testServiceIsReusedPerThread() throws InterruptedException {
+
+        CompilationService service = CompilationService.forClassPath(exampleDirName);
+        assertSame(service, CompilationService.forClassPath(exampleDirName));
+
+        CompilationService[] other = new CompilationService[1];
+        Thread thread = new Thread(() -> other[0] = CompilationService.forClassPath(exampleDirName));
+        thread.start();
+        thread.join();
+
+        assertNotNull(other[0]);
+        assertNotSame(service, other[0]);
+
+    }
+
+    @Test
+    public void testCloseForThread() {
+
+        CompilationService service = CompilationService.forClassPath(exampleDirName);
+        CompilationService.closeForThread();
+
+        CompilationService reopened = CompilationService.forClassPath(exampleDirName);
+        assertNotSame(service, reopened);
+        assertNotNull(reopened.compile("mypackage.UsesSimple", "package mypackage; public class UsesSimple { Simple simple; }"));
+
+    }
+
+    @Test
+    public void testCompileAgainstProjectClassPath() {
+
+        CompilationService service = new CompilationService(exampleDirName);
+
+        // mypackage.Simple is only on the project classpath
+        Map<String, byte[]> classes = service.compile("mypackage.UsesSimple",
+                "package mypackage; public class UsesSimple { Simple simple; }");
+        assertNotNull(classes);
+        assertTrue(classes.containsKey("mypackage.UsesSimple"));
+        assertTrue(service.getLastCompileTimeNS() > 0);
+
+        assertNull(service.compile("mypackage.UsesSimple", "package mypackage; public class UsesSimple { Missing missing; }"));
+
+        assertEquals(2, service.getCompilations());
+        assertEquals(1, service.getFailures());
+        assertTrue(service.getTotalCompileTimeNS() >= service.getLastCompileTimeNS());
+
+    }
+
+    @Test
+    public void testTotalsCoverAllThreads() throws InterruptedException {
+
+        // a classpath no other test uses, so that only these services count
+        String classPath = new File(exampleDirName).getAbsolutePath();
+
+        // unchecked warnings, as with -Xlint:unchecked, don't fail compilation
+        assertNotNull(CompilationService.forClassPath(classPath).compile("mypackage.Unchecked",
+                "package mypackage; public class Unchecked { java.util.List<String> list = new java.util.ArrayList(); }"));
+
+        Thread thread = new Thread(() -> CompilationService.forClassPath(classPath).compile("mypackage.Broken",
+                "package mypackage; public class Broken { Missing missing; }"));
+        thread.start();
+        thread.join();
+
+        String totals = CompilationService.totals(classPath);
+        assertTrue(totals, totals.contains("Services: 2; Compilations: 2; Batches: 0; Failures: 1;"));
+
+    }
+
+    @Test
+    public void testCompileBatch() throws Exception {
+
+        CompilationService service = new CompilationService(exampleDirName);
+
+        String source = "package mypackage;\n"
+                + "import java.util.function.IntSupplier;\n"
+                + "public class Variant {\n"
+                + "    private static int base = 1;\n"
+                + "    private final int value;\n"
+                + "    public Variant(int value) { this.value = value; }\n"
+                + "    static class Inner { int get() { return Variant.base; } }\n"
+                + "    public static int value() {\n"
+                + "        Variant variant = new Variant(new Inner().get() + Helper.ONE);\n"
+                + "        IntSupplier supplier = () -> variant.value + mypackage.Variant.base;\n"
+                + "        return supplier.getAsInt();\n"
+                + "    }\n"
+                + "}\n"
+                + "class Helper { static final int ONE = 1; }\n";
+        List<String> sources = Arrays.asList(source,
+                source.replace("Helper.ONE", "Helper.TWO"), // doesn't compile
+                source.replace("variant.value +", "2 * variant.value +"),
+                "package mypackage; public class Variant {"); // doesn't parse
+
+        List<Map<String, byte[]>> classes = service.compileBatch("mypackage.Variant", sources);
+
+        assertEquals(4, classes.size());
+        assertNull(classes.get(1));
+        assertNull(classes.get(3));
+        assertEquals(service.compile("mypackage.Variant", source).keySet(), classes.get(0).keySet());
+        assertEquals(3, invokeValue(classes.get(0)));
+        assertEquals(5, invokeValue(classes.get(2)));
+
+        assertEquals(1, service.getBatches());
+        assertEquals(5, service.getCompilations());
+        assertEquals(2, service.getFailures());
+
+    }
+
+    private static int invokeValue(Map<String, byte[]> classes) throws Exception {
+        CacheClassLoader classLoader = new CacheClassLoader(exampleDirName);
+        for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+            classLoader.setCustomCompiledCode(entry.getKey(), entry.getValue());
+        }
+        return (Integer) classLoader.loadClass("mypackage.Variant").getMethod("value").invoke(null);
+    }
+
+}
@@ -6,6 +6,9 @@ import org.junit.Test;
 import org.mdkt.compiler.CompiledCode;
 
 import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
 
 import static org.junit.Assert.*;
 
@@ -39,4 +42,24 @@ public class CompilerTest {
         assertEquals("SimpleExample", compiledClass.getSimpleName());
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testCompileToBytesKeepsNestedClasses() throws ClassNotFoundException {
+
+        String source = "package mypackage; public class Outer { static class Inner {} Runnable r = new Runnable() { public void run() {} }; }";
+
+        Map<String, byte[]> classes = Compiler.compileToBytes("mypackage.Outer", source, exampleDirName);
+
+        assertNotNull(classes);
+        assertEquals(new HashSet<>(Arrays.asList("mypackage.Outer", "mypackage.Outer$Inner", "mypackage.Outer$1")), classes.keySet());
+
+        CacheClassLoader loader = new CacheClassLoader(exampleDirName);
+        for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+            loader.setCustomCompiledCode(entry.getKey(), entry.getValue());
+        }
+        assertEquals("Inner", loader.findClass("mypackage.Outer$Inner").getSimpleName());
+
+        assertNull(Compiler.compileToBytes("mypackage.Outer", "package mypackage; public class Outer { int x = ; }", exampleDirName));
+
+    }
+
+}
@@ -0,0 +1,123 @@
+package gin.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import gin.Patch;
+import gin.SourceFile;
+import gin.SourceFileLine;
+import gin.TestConfiguration;
+import gin.edit.line.DeleteLine;
+
+public class EvaluationCoordinatorTest {
+
+    private String packageName = "mypackage";
+    private String className = "Simple";
+    private String fullClassName = packageName + "." + className;
+    private String methodName = "returnsTrue()";
+    private String classPath = TestConfiguration.EXAMPLE_DIR_NAME;
+
+    private File packageDirectory = new File(TestConfiguration.EXAMPLE_DIR, packageName);
+    private File sourceFile = new File(packageDirectory, className + ".java");
+
+    private List<UnitTest> tests;
+    private SourceFile sf;
+
+    @Before
+    public void setUp() {
+
+        Compiler.compileFile(sourceFile, classPath);
+        Compiler.compileFile(new File(packageDirectory, "SimpleTest.java"), classPath);
+
+        tests = new LinkedList<>();
+        tests.add(new UnitTest(packageName + ".SimpleTest", "testReturnsTrue"));
+
+        sf = new SourceFileLine(sourceFile, methodName);
+
+    }
+
+    private Patch deletePatch() {
+        Patch patch = new Patch(sf);
+        patch.add(new DeleteLine(sourceFile.getPath(), 7)); // deletes result=10 hence introducing a bug
+        return patch;
+    }
+
+    @Test
+    public void testWorkersMatchInternalRunner() throws IOException, InterruptedException {
+
+        EvaluationCoordinator coordinator = new EvaluationCoordinator(classPath);
+        try {
+            coordinator.startLocalWorkers(2);
+            assertEquals(2, coordinator.getWorkers());
+
+            RemoteTestRunner remoteRunner = new RemoteTestRunner(fullClassName, classPath, tests, coordinator);
+            InternalTestRunner internalRunner = new InternalTestRunner(fullClassName, classPath, tests);
+
+            for (Patch patch : new Patch[]{new Patch(sf), deletePatch()}) {
+                UnitTestResultSet remote = remoteRunner.runTests(patch, 2);
+                UnitTestResultSet internal = internalRunner.runTests(patch, 2);
+                assertEquals(internal.getValidPatch(), remote.getValidPatch());
+                assertEquals(internal.getEditsValid(), remote.getEditsValid());
+                assertEquals(internal.getCleanCompile(), remote.getCleanCompile());
+                assertEquals(internal.getNoOp(), remote.getNoOp());
+                assertEquals(internal.allTestsSuccessful(), remote.allTestsSuccessful());
+                assertEquals(internal.getResults().size(), remote.getResults().size());
+                assertEquals(internal.getResults().get(0).getTest(), remote.getResults().get(0).getTest());
+                assertTrue(remote.getPatch() == patch);
+            }
+
+            assertEquals(0, coordinator.getWorkersLost());
+        } finally {
+            coordinator.close();
+        }
+
+    }
+
+    @Test
+    public void testWorkerCommandPassesFitnessCacheSize() {
+
+        EvaluationCoordinator coordinator = new EvaluationCoordinator(classPath);
+        List<String> command = coordinator.workerCommand();
+        assertEquals("0", command.get(command.indexOf("-fc") + 1));
+
+        coordinator.setFitnessCacheSize(100);
+        command = coordinator.workerCommand();
+        assertEquals("100", command.get(command.indexOf("-fc") + 1));
+
+    }
+
+    @Test
+    public void testWorkerDeathRequeues() throws IOException, InterruptedException {
+
+        EvaluationCoordinator coordinator = new EvaluationCoordinator(classPath);
+        try {
+            coordinator.startLocalWorkers(1);
+            coordinator.getWorkerProcesses().get(0).kill();
+
+            // the patch is re-queued, and evaluated by the worker started in place of the dead one
+            RemoteTestRunner runner = new RemoteTestRunner(fullClassName, classPath, tests, coordinator);
+            UnitTestResultSet resultSet = runner.runTests(deletePatch(), 1);
+            assertTrue(resultSet.getCleanCompile());
+            assertFalse(resultSet.allTestsSuccessful());
+            assertFalse(resultSet.containsTimeout());
+
+            assertEquals(1, coordinator.getWorkersLost());
+            assertEquals(1, coordinator.getRequeued());
+            assertEquals(2, coordinator.getWorkersStarted());
+            assertEquals(1, coordinator.getWorkers());
+        } finally {
+            coordinator.close();
+        }
+
+    }
+
+}
@@ -0,0 +1,103 @@
+package gin.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import gin.Patch;
+import gin.SourceFile;
+import gin.SourceFileLine;
+import gin.TestConfiguration;
+import gin.edit.line.DeleteLine;
+
+public class EvaluationPipelineTest {
+
+    private String packageName = "mypackage";
+    private String className = "Simple";
+    private String fullClassName = packageName + "." + className;
+    private String methodName = "returnsTrue()";
+    private String classPath = TestConfiguration.EXAMPLE_DIR_NAME;
+
+    private File packageDirectory = new File(TestConfiguration.EXAMPLE_DIR, packageName);
+    private File sourceFile = new File(packageDirectory, className + ".java");
+
+    private List<UnitTest> tests;
+    private SourceFile sf;
+
+    @Before
+    public void setUp() {
+
+        Compiler.compileFile(sourceFile, classPath);
+        Compiler.compileFile(new File(packageDirectory, "SimpleTest.java"), classPath);
+
+        tests = new LinkedList<>();
+        tests.add(new UnitTest(packageName + ".SimpleTest", "testReturnsTrue"));
+
+        sf = new SourceFileLine(sourceFile, methodName);
+
+    }
+
+    private List<Patch> patches() {
+        List<Patch> patches = new ArrayList<>();
+        for (int line = 3; line <= 9; line++) {
+            Patch patch = new Patch(sf);
+            patch.add(new DeleteLine(sourceFile.getPath(), line));
+            patches.add(patch);
+        }
+        patches.add(new Patch(sf));
+        return patches;
+    }
+
+    @Test
+    public void testMatchesRunTests() throws InterruptedException {
+
+        InternalTestRunner runner = new InternalTestRunner(fullClassName, classPath, tests);
+        List<UnitTestResultSet> expected = new ArrayList<>();
+        for (Patch patch : patches()) {
+            expected.add(runner.runTests(patch, 2));
+        }
+
+        // queues of a single patch, so that every stage blocks on the next
+        EvaluationPipeline pipeline = new EvaluationPipeline(1, 2);
+        List<Patch> patches = patches();
+        List<InternalTestRunner> runners = new ArrayList<>();
+        for (Patch patch : patches) {
+            runners.add(new InternalTestRunner(fullClassName, classPath, tests));
+        }
+        List<UnitTestResultSet> results = pipeline.evaluate(runners, patches, 2, 0);
+
+        assertEquals(expected.size(), results.size());
+        for (int i = 0; i < results.size(); i++) {
+            UnitTestResultSet result = results.get(i);
+            assertTrue(result.getPatch() == patches.get(i));
+            assertEquals(expected.get(i).getValidPatch(), result.getValidPatch());
+            assertEquals(expected.get(i).getCleanCompile(), result.getCleanCompile());
+            assertEquals(expected.get(i).getNoOp(), result.getNoOp());
+            assertEquals(expected.get(i).allTestsSuccessful(), result.allTestsSuccessful());
+            assertEquals(expected.get(i).getResults().size(), result.getResults().size());
+        }
+        assertEquals(patches.size(), pipeline.getPatches());
+
+        // the stages' threads, and so the compiling thread's CompilationService, are kept for the next batch
+        String services = services();
+        List<UnitTestResultSet> again = pipeline.evaluate(runners, patches(), 2, 0);
+        assertEquals(results.size(), again.size());
+        assertEquals(services, services());
+        assertEquals(2 * patches.size(), pipeline.getPatches());
+
+        pipeline.close();
+
+    }
+
+    private String services() {
+        return CompilationService.totals(classPath).replaceAll(".*Services: (\\d+);.*", "$1");
+    }
+
+}
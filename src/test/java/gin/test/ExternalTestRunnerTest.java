@@ -4,14 +4,15 @@ import gin.Patch;
 import gin.SourceFile;
 import gin.SourceFileLine;
 import gin.TestConfiguration;
+import gin.edit.line.DeleteLine;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Path;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.Assert.*;
 
@@ -42,33 +43,112 @@ public class ExternalTestRunnerTest {
     }
 
     @Test
-    public void testCreateTempDirectory() throws IOException {
+    public void runTestsWithHarnessPool() throws IOException, InterruptedException {
 
-        runnerReuse.createTempDirectory();
+        Compiler.compileFile(sourceFile, classPath);
+        Compiler.compileFile(new File(packageDirectory, "SimpleTest.java"), classPath);
 
-        Path tmpDir = runnerReuse.getTemporaryDirectory();
-        assertTrue(tmpDir.toFile().exists());
+        List<UnitTest> tests = new LinkedList<>();
+        tests.add(new UnitTest(packageName + ".SimpleTest", testMethodName));
+
+        TestHarnessPool pool = new TestHarnessPool(new File(classPath).getAbsolutePath());
+        ExternalTestRunner runner = new ExternalTestRunner(fullClassName, classPath, tests, false);
+        runner.setHarnessPool(pool);
+
+        try {
+            SourceFile sf = new SourceFileLine(sourceFile, methodName);
+
+            UnitTestResultSet resultSet = runner.runTests(new Patch(sf), 2);
+            assertTrue(resultSet.getCleanCompile());
+            assertEquals(2, resultSet.getResults().size());
+            assertTrue(resultSet.allTestsSuccessful());
+
+            // a second patch is run on the same, warm, harness
+            Patch deletePatch = new Patch(sf);
+            deletePatch.add(new DeleteLine(sourceFile.getAbsolutePath(), 7)); // deletes result=10 hence introducing a bug
+            resultSet = runner.runTests(deletePatch, 1);
+            assertTrue(resultSet.getCleanCompile());
+            assertFalse(resultSet.allTestsSuccessful());
+
+            // and the patched class doesn't leak into the next one
+            resultSet = runner.runTests(new Patch(sf), 1);
+            assertTrue(resultSet.allTestsSuccessful());
 
-        Path packageDir = tmpDir.resolve("mypackage");
-        assertTrue(packageDir.toFile().exists());
+            assertEquals(1, pool.getHarnessesStarted());
+        } finally {
+            pool.close();
+        }
 
     }
 
     @Test
-    public void testCompileClassToTempDir() throws IOException {
+    public void runTestsFailingToLoadClasses() throws IOException, InterruptedException {
 
-        runnerReuse.createTempDirectory();
+        Compiler.compileFile(sourceFile, classPath);
+        Compiler.compileFile(new File(packageDirectory, "SimpleTest.java"), classPath);
 
-        SourceFile sf = new SourceFileLine(sourceFile, methodName);
-        Patch emptyPatch = new Patch(sf);
-        String patchedSource = emptyPatch.apply();
+        List<UnitTest> tests = new LinkedList<>();
+        tests.add(new UnitTest(packageName + ".SimpleTest", testMethodName));
+
+        // every harness fails to load the patched classes
+        int[] loadAttempts = new int[1];
+        TestHarnessPool pool = new TestHarnessPool(new File(classPath).getAbsolutePath()) {
+            @Override
+            public void loadClasses(TestHarnessProcess harness, Map<String, byte[]> classes) throws IOException {
+                loadAttempts[0]++;
+                discard(harness);
+                throw new IOException("failed to load");
+            }
+        };
+        ExternalTestRunner runner = new ExternalTestRunner(fullClassName, classPath, tests, false);
+        runner.setHarnessPool(pool);
+
+        try {
+            SourceFile sf = new SourceFileLine(sourceFile, methodName);
+
+            // the runner gives up rather than starting harnesses forever, and all tests fail
+            UnitTestResultSet resultSet = runner.runTests(new Patch(sf), 2);
+            assertEquals(ExternalTestRunner.MAX_LOAD_ATTEMPTS, loadAttempts[0]);
+            assertEquals(2, resultSet.getResults().size());
+            for (UnitTestResult result : resultSet.getResults()) {
+                assertFalse(result.getPassed());
+                assertEquals(IOException.class.getName(), result.getExceptionType());
+            }
+        } finally {
+            pool.close();
+        }
 
-        Path expectedClassPath = runnerReuse.getTemporaryPackageDirectory().resolve(className + ".class");
+    }
 
-        boolean success = runnerReuse.compileClassToTempDir(patchedSource);
+    @Test
+    public void runTestsRacing() throws IOException, InterruptedException {
 
-        assertTrue(success);
-        assertTrue(expectedClassPath.toFile().exists());
+        Compiler.compileFile(sourceFile, classPath);
+        Compiler.compileFile(new File(packageDirectory, "SimpleTest.java"), classPath);
+
+        List<UnitTest> tests = new LinkedList<>();
+        tests.add(new UnitTest(packageName + ".SimpleTest", testMethodName));
+
+        TestHarnessPool pool = new TestHarnessPool(new File(classPath).getAbsolutePath());
+        ExternalTestRunner runner = new ExternalTestRunner(fullClassName, classPath, tests, false);
+        runner.setHarnessPool(pool);
+        runner.setFitnessCache(new FitnessCache(10));
+
+        try {
+            SourceFile sf = new SourceFileLine(sourceFile, methodName);
+
+            // loses the race as soon as the first test has run
+            UnitTestResultSet resultSet = runner.runTests(new Patch(sf), 3, 1);
+            assertTrue(resultSet.getDominated());
+            assertEquals(1, resultSet.getResults().size());
+
+            // the partial results weren't cached
+            resultSet = runner.runTests(new Patch(sf), 3, Long.MAX_VALUE);
+            assertFalse(resultSet.getDominated());
+            assertEquals(3, resultSet.getResults().size());
+        } finally {
+            pool.close();
+        }
 
     }
 
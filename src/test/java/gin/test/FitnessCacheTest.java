@@ -0,0 +1,70 @@
+package gin.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.LinkedList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class FitnessCacheTest {
+
+    private FitnessCache cache;
+    private List<UnitTest> tests;
+
+    @Before
+    public void setUp() {
+        cache = new FitnessCache(2);
+        tests = new LinkedList<>();
+        tests.add(new UnitTest("mypackage.SimpleTest", "testReturnsTrue"));
+    }
+
+    @Test
+    public void keyDependsOnSourceTestsAndReps() {
+
+        String key = FitnessCache.key("mypackage.Simple", tests, 1, "class Simple {}");
+
+        assertEquals(key, FitnessCache.key("mypackage.Simple", tests, 1, "class Simple {}"));
+        assertNotEquals(key, FitnessCache.key("mypackage.Simple", tests, 1, "class Simple { }"));
+        assertNotEquals(key, FitnessCache.key("mypackage.Simple", tests, 2, "class Simple {}"));
+        assertNotEquals(key, FitnessCache.key("mypackage.Simple", new LinkedList<>(), 1, "class Simple {}"));
+
+    }
+
+    @Test
+    public void hitsAndMisses() {
+
+        assertNull(cache.get("a"));
+        cache.put("a", false, null);
+
+        FitnessCache.Entry entry = cache.get("a");
+        assertNotNull(entry);
+        assertFalse(entry.getCleanCompile());
+
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+    }
+
+    @Test
+    public void leastRecentlyUsedIsEvicted() {
+
+        cache.put("a", true, new LinkedList<>());
+        cache.put("b", true, new LinkedList<>());
+        cache.get("a");
+        cache.put("c", true, new LinkedList<>());
+
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertTrue(cache.get("c").getCleanCompile());
+
+    }
+
+}
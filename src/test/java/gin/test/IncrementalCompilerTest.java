@@ -0,0 +1,92 @@
+package gin.test;
+
+import gin.TestConfiguration;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class IncrementalCompilerTest {
+
+    private final static String exampleDirName = TestConfiguration.EXAMPLE_DIR_NAME;
+
+    private final static String className = "mypackage.Incremental";
+
+    private final static String original =
+            "package mypackage;\n" +
+            "public class Incremental {\n" +
+            "    private int base = 10;\n" +
+            "    public int add(int x) { return base + x; }\n" +
+            "    public int twice(int x) { return add(x) * 2; }\n" +
+            "    static class Helper { int one() { return 1; } }\n" +
+            "}\n";
+
+    private IncrementalCompiler compiler;
+
+    @Before
+    public void setUp() {
+        compiler = new IncrementalCompiler(new CompilationService(exampleDirName), className, original);
+    }
+
+    @Test
+    public void testChangedMethodIsSpliced() throws Exception {
+
+        Map<String, byte[]> classes = compiler.compile(original.replace("return base + x;", "return base - x;"));
+
+        assertNotNull(classes);
+        assertTrue(classes.containsKey(className + "$Helper"));
+        assertEquals(1, compiler.getIncrementalCompilations());
+        assertEquals(0, compiler.getFullCompilations());
+
+        // unchanged methods keep their original code
+        assertEquals(-10, invoke(classes, "twice", 15));
+        assertEquals(5, invoke(classes, "add", 5));
+
+    }
+
+    @Test
+    public void testStructuralChangeFallsBack() throws Exception {
+
+        Map<String, byte[]> classes = compiler.compile(original.replace("private int base = 10;", "private int base = 20;"));
+
+        assertNotNull(classes);
+        assertEquals(1, compiler.getFullCompilations());
+        assertEquals(25, invoke(classes, "add", 5));
+
+    }
+
+    @Test
+    public void testLambdaFallsBack() throws Exception {
+
+        Map<String, byte[]> classes = compiler.compile(original.replace("return base + x;",
+                "java.util.function.IntSupplier s = () -> base; return s.getAsInt() + x + 1;"));
+
+        assertNotNull(classes);
+        assertEquals(1, compiler.getFullCompilations());
+        assertEquals(16, invoke(classes, "add", 5));
+
+    }
+
+    @Test
+    public void testCompileErrorInChangedMethod() {
+
+        assertNull(compiler.compile(original.replace("return base + x;", "return base + y;")));
+        assertEquals(0, compiler.getFullCompilations());
+
+    }
+
+    private static int invoke(Map<String, byte[]> classes, String methodName, int arg) throws Exception {
+        CacheClassLoader loader = new CacheClassLoader(exampleDirName);
+        for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+            loader.setCustomCompiledCode(entry.getKey(), entry.getValue());
+        }
+        Class<?> clazz = loader.loadClass(className);
+        Object instance = clazz.newInstance();
+        Method method = clazz.getMethod(methodName, int.class);
+        return (Integer) method.invoke(instance, arg);
+    }
+
+}
@@ -145,6 +145,49 @@ public class JUnitBridgeTest {
         assertEquals(result.getAssertionExpectedValue(), "15");
     }
 
+    @Test
+    public void memoryRecorded() {
+        // run with a timeout, so on a thread other than the listener's
+        UnitTest test = new UnitTest("ErrorTest", "testException");
+
+        Object resultObj = null;
+        try {
+            resultObj = runnerMethod.invoke(junitBridge, test, 0);
+        } catch (IllegalAccessException e) {
+            Logger.trace(e);
+        } catch (InvocationTargetException e) {
+            Logger.trace(e);
+        }
+
+        UnitTestResult result = (UnitTestResult) resultObj;
+        assertTrue(result.getAllocatedBytes() > 0);
+        assertTrue(result.getPeakHeapBytes() > 0);
+        assertTrue(result.getGCCount() >= 0);
+    }
+
+    @Test
+    public void wholeJVMMemoryNotRecordedConcurrently() {
+        UnitTest test = new UnitTest("ErrorTest", "testException");
+
+        Object resultObj = null;
+        TestRunListener.setWholeJVMMeasured(false);
+        try {
+            resultObj = runnerMethod.invoke(junitBridge, test, 0);
+        } catch (IllegalAccessException e) {
+            Logger.trace(e);
+        } catch (InvocationTargetException e) {
+            Logger.trace(e);
+        } finally {
+            TestRunListener.setWholeJVMMeasured(true);
+        }
+
+        // the bytes allocated are the test's own, so are still recorded
+        UnitTestResult result = (UnitTestResult) resultObj;
+        assertTrue(result.getAllocatedBytes() > 0);
+        assertEquals(0, result.getPeakHeapBytes());
+        assertEquals(0, result.getGCCount());
+    }
+
     @Test
     public void ignoredTest() {
         UnitTest test = new UnitTest("ErrorTest", "testIgnoredTest");
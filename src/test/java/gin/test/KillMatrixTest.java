@@ -0,0 +1,92 @@
+package gin.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class KillMatrixTest {
+
+    private static final String TARGET = "mypackage.Simple.returnsTrue()";
+
+    private KillMatrix killMatrix;
+    private UnitTest fast;
+    private UnitTest slow;
+    private UnitTest killer;
+
+    @Before
+    public void setUp() {
+        killMatrix = new KillMatrix();
+        fast = new UnitTest("mypackage.SimpleTest", "fast");
+        slow = new UnitTest("mypackage.SimpleTest", "slow");
+        killer = new UnitTest("mypackage.SimpleTest", "killer");
+    }
+
+    private void record(String target, UnitTest test, boolean passed, long timeNS) {
+        UnitTestResult result = new UnitTestResult(test, 1);
+        result.setPassed(passed);
+        result.setExecutionTime(timeNS);
+        killMatrix.record(target, result);
+    }
+
+    @Test
+    public void keepsOrderWithoutStatistics() {
+        List<UnitTest> tests = Arrays.asList(slow, fast, killer);
+        assertEquals(tests, killMatrix.prioritise(TARGET, tests));
+    }
+
+    @Test
+    public void killProbabilityPerUnitTime() {
+
+        for (int i = 0; i < 10; i++) {
+            record(TARGET, slow, true, 1000000);
+            record(TARGET, fast, true, 1000);
+            record(TARGET, killer, i % 2 == 0, 100000);
+        }
+
+        assertEquals(0.5, killMatrix.getKillRate(TARGET, killer), 0);
+        assertEquals(Arrays.asList(fast, killer, slow), killMatrix.prioritise(TARGET, Arrays.asList(slow, fast, killer)));
+
+        // other targets are learnt separately
+        assertEquals(Arrays.asList(slow, fast), killMatrix.prioritise("mypackage.Simple", Arrays.asList(slow, fast)));
+
+    }
+
+    @Test
+    public void untriedTestsFirst() {
+        record(TARGET, killer, false, 10);
+        assertEquals(Arrays.asList(fast, killer), killMatrix.prioritise(TARGET, Arrays.asList(killer, fast)));
+    }
+
+    @Test
+    public void key() {
+        assertEquals("mypackage.Simple", KillMatrix.key("mypackage.Simple", Collections.emptyList()));
+        assertEquals(TARGET, KillMatrix.key("mypackage.Simple", Collections.singletonList("returnsTrue()")));
+    }
+
+    @Test
+    public void writeCSV() throws Exception {
+
+        record(TARGET, killer, false, 10);
+        record(TARGET, fast, true, 10);
+
+        File file = File.createTempFile("killmatrix", ".csv");
+        file.deleteOnExit();
+        killMatrix.writeCSV(file);
+
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertEquals(3, lines.size());
+        assertTrue(lines.get(0).startsWith("\"Target\",\"UnitTest\",\"Runs\",\"Kills\""));
+        assertTrue(lines.get(1).startsWith("\"" + TARGET + "\",\"" + killer + "\",\"1\",\"1\""));
+
+    }
+
+}
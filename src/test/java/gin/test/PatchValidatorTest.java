@@ -0,0 +1,148 @@
+package gin.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+import gin.Patch;
+import gin.SourceFileTree;
+import gin.TestConfiguration;
+import gin.edit.statement.DeleteStatement;
+
+public class PatchValidatorTest {
+
+    private static final String ORIGINAL = "public class A {\n"
+            + "    int f;\n"
+            + "    int sum(int[] xs) {\n"
+            + "        int total = 0;\n"
+            + "        for (int x : xs) {\n"
+            + "            total += x;\n"
+            + "        }\n"
+            + "        return total;\n"
+            + "    }\n"
+            + "    void loop() {\n"
+            + "        outer:\n"
+            + "        while (true) {\n"
+            + "            for (;;) { if (f > 0) break outer; }\n"
+            + "        }\n"
+            + "        f = 1;\n"
+            + "    }\n"
+            + "    int choose(int k) {\n"
+            + "        switch (k) {\n"
+            + "            case 1: int one = 1; return one;\n"
+            + "            default: one = 0; return one;\n"
+            + "        }\n"
+            + "    }\n"
+            + "    int guard(int k) {\n"
+            + "        try { if (k > 0) { return k; } else { throw new IllegalArgumentException(); } } finally { f = 0; }\n"
+            + "    }\n"
+            + "}\n";
+
+    private final PatchValidator validator = new PatchValidator(ORIGINAL);
+
+    @Test
+    public void testOriginalAndHarmlessEdits() {
+        assertNull(validator.validate(ORIGINAL));
+        assertNull(validator.validate(ORIGINAL.replace("f = 1;", "f = 2; f = 3;")));
+        assertNull(validator.validate(ORIGINAL.replace("int total = 0;", "int total = 0; int f = total;")));
+    }
+
+    @Test
+    public void testParseError() {
+        // deleted closing brace
+        assertEquals(PatchValidator.Failure.PARSE_ERROR, validator.validate(ORIGINAL.replace("        f = 1;\n    }\n", "        f = 1;\n")));
+    }
+
+    @Test
+    public void testUndeclaredVariable() {
+        // deleted declaration
+        assertEquals(PatchValidator.Failure.UNDECLARED_VARIABLE, validator.validate(ORIGINAL.replace("int total = 0;", "")));
+        // statement moved out of the scope of the loop variable
+        assertEquals(PatchValidator.Failure.UNDECLARED_VARIABLE,
+                validator.validate(ORIGINAL.replace("total += x;", "").replace("return total;", "total += x; return total;")));
+        // statement moved before the declaration
+        assertEquals(PatchValidator.Failure.UNDECLARED_VARIABLE,
+                validator.validate(ORIGINAL.replace("int total = 0;", "total++; int total = 0;")));
+    }
+
+    @Test
+    public void testUnreachableStatement() {
+        // copied return
+        assertEquals(PatchValidator.Failure.UNREACHABLE_STATEMENT,
+                validator.validate(ORIGINAL.replace("int total = 0;", "int total = 0; return total;")));
+        // deleted break, so the loop never ends
+        assertEquals(PatchValidator.Failure.UNREACHABLE_STATEMENT, validator.validate(ORIGINAL.replace("break outer;", "f++;")));
+        // a break from the inner loop only
+        assertEquals(PatchValidator.Failure.UNREACHABLE_STATEMENT, validator.validate(ORIGINAL.replace("break outer;", "break;")));
+    }
+
+    @Test
+    public void testMissingReturn() {
+        assertEquals(PatchValidator.Failure.MISSING_RETURN, validator.validate(ORIGINAL.replace("return total;", "")));
+        assertEquals(PatchValidator.Failure.MISSING_RETURN, validator.validate(ORIGINAL.replace("default:", "case 2:")));
+        assertEquals(PatchValidator.Failure.MISSING_RETURN,
+                validator.validate(ORIGINAL.replace("throw new IllegalArgumentException();", "f = k;")));
+    }
+
+    @Test
+    public void testPatchedTree() {
+
+        String filename = TestConfiguration.EXAMPLE_DIR_NAME + "Small.java";
+        SourceFileTree sourceFile = new SourceFileTree(filename, Collections.emptyList());
+        PatchValidator treeValidator = new PatchValidator(sourceFile.getSource());
+
+        Patch patch = new Patch(sourceFile);
+        patch.add(new DeleteStatement(filename, sourceFile.getIDForStatementNumber(1))); // deletes int a = 1
+        String patchedSource = patch.apply();
+
+        // the tree the edits changed is read directly, and agrees with the printed source
+        assertEquals(PatchValidator.Failure.UNDECLARED_VARIABLE, treeValidator.validate(patch.getLastPatchedSourceFile()));
+        assertEquals(PatchValidator.Failure.UNDECLARED_VARIABLE, treeValidator.validate(patchedSource));
+
+        Patch emptyPatch = new Patch(sourceFile);
+        emptyPatch.apply();
+        assertNull(treeValidator.validate(emptyPatch.getLastPatchedSourceFile()));
+
+    }
+
+    @Test
+    public void testForSourceFile() {
+
+        String filename = TestConfiguration.EXAMPLE_DIR_NAME + "Small.java";
+        SourceFileTree sourceFile = new SourceFileTree(filename, Collections.emptyList());
+
+        // looked up by instance, and shared with other instances of the same source
+        PatchValidator sourceFileValidator = PatchValidator.forSourceFile(sourceFile);
+        assertSame(sourceFileValidator, PatchValidator.forSourceFile(sourceFile));
+        assertSame(sourceFileValidator, PatchValidator.forSourceFile(new SourceFileTree(filename, Collections.emptyList())));
+        assertSame(sourceFileValidator, PatchValidator.forSource(sourceFile.getSource()));
+
+    }
+
+    @Test
+    public void testCalibratedOnOriginal() {
+
+        // y is an inherited field in method h, so deleting the local declaration may compile
+        String inherited = "public class B extends C {\n"
+                + "    int g() { int y = 1; return y; }\n"
+                + "    int h() { return y; }\n"
+                + "}\n";
+        assertNull(new PatchValidator(inherited).validate(inherited.replace("int y = 1;", "")));
+
+        // a constant condition that isn't literal true isn't understood, so control flow isn't checked
+        String constant = "public class D {\n"
+                + "    int g() { while (1 < 2) { } }\n"
+                + "    int h() { return 1; }\n"
+                + "}\n";
+        assertNull(new PatchValidator(constant).validate(constant.replace("return 1;", "return 1; return 2;")));
+
+        // nothing is rejected if the original doesn't parse
+        assertNull(new PatchValidator("public class E {").validate("public class"));
+
+    }
+
+}
@@ -0,0 +1,55 @@
+package gin.test;
+
+import gin.TestConfiguration;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class SharedClassLoaderTest {
+
+    private SharedClassLoader shared;
+
+    @Before
+    public void setUp() {
+        File packageDir = new File(TestConfiguration.EXAMPLE_DIR, "mypackage");
+        Compiler.compileFile(new File(packageDir, "Simple.java"), TestConfiguration.EXAMPLE_DIR_NAME);
+        Compiler.compileFile(new File(packageDir, "SimpleTest.java"), TestConfiguration.EXAMPLE_DIR_NAME);
+        shared = new SharedClassLoader(TestConfiguration.EXAMPLE_DIR_NAME);
+    }
+
+    @Test
+    public void testDependents() {
+
+        Set<String> dependents = shared.getDependents(Collections.singleton("mypackage.Simple"));
+
+        assertTrue(dependents.contains("mypackage.SimpleTest"));
+        assertFalse(dependents.contains("mypackage.Simple"));
+
+    }
+
+    @Test
+    public void testPatchLoaderRedefinesOnlyAffectedClasses() throws Exception {
+
+        Map<String, byte[]> classes = new HashMap<>();
+        classes.put("mypackage.Simple", shared.getClassBytes("mypackage.Simple"));
+
+        PatchClassLoader first = shared.newPatchLoader(classes);
+        PatchClassLoader second = shared.newPatchLoader(classes);
+
+        assertSame(first, first.loadClass("mypackage.Simple").getClassLoader());
+        assertSame(first, first.loadClass("mypackage.SimpleTest").getClassLoader());
+        assertNotSame(first.loadClass("mypackage.SimpleTest"), second.loadClass("mypackage.SimpleTest"));
+
+        // JUnit itself is shared
+        assertSame(first.loadClass("org.junit.Assert"), second.loadClass("org.junit.Assert"));
+
+    }
+
+}
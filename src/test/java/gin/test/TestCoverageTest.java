@@ -0,0 +1,106 @@
+package gin.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import gin.Patch;
+import gin.SourceFileLine;
+import gin.SourceFileTree;
+import gin.TestConfiguration;
+import gin.edit.line.DeleteLine;
+import gin.edit.statement.DeleteStatement;
+
+public class TestCoverageTest {
+
+    private static final String CLASS_NAME = "Triangle";
+    private static final String TEST_CLASS_NAME = "TriangleTest";
+    private static final String METHOD_NAME = "classifyTriangle(int,int,int)";
+
+    private static final int DELAY_LINE = 10;          // delay();
+    private static final int EQUALATERAL_LINE = 34;    // return EQUALATERAL;
+    private static final int SLEEP_LINE = 45;          // Thread.sleep(100); in delay(), not a target method
+
+    private File sourceFile = new File(TestConfiguration.EXAMPLE_DIR, CLASS_NAME + ".java");
+
+    private UnitTest invalid = new UnitTest(TEST_CLASS_NAME, "testInvalidTriangles");
+    private UnitTest equalateral = new UnitTest(TEST_CLASS_NAME, "testEqualateralTriangles");
+    private UnitTest isoceles = new UnitTest(TEST_CLASS_NAME, "testIsocelesTriangles");
+    private UnitTest scalene = new UnitTest(TEST_CLASS_NAME, "testScaleneTriangles");
+    private List<UnitTest> tests = Arrays.asList(invalid, equalateral, isoceles, scalene);
+
+    private SourceFileLine sourceFileLine;
+    private TestCoverage coverage;
+
+    @Before
+    public void setUp() throws Exception {
+        Compiler.compileFile(sourceFile, TestConfiguration.EXAMPLE_DIR_NAME);
+        Compiler.compileFile(new File(TestConfiguration.EXAMPLE_DIR, TEST_CLASS_NAME + ".java"), TestConfiguration.EXAMPLE_DIR_NAME);
+        sourceFileLine = new SourceFileLine(sourceFile.getPath(), Collections.singletonList(METHOD_NAME));
+        coverage = TestCoverage.measure(CLASS_NAME, TestConfiguration.EXAMPLE_DIR_NAME, tests, sourceFileLine);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(new File(TestConfiguration.EXAMPLE_DIR, CLASS_NAME + ".class").toPath());
+        Files.deleteIfExists(new File(TestConfiguration.EXAMPLE_DIR, TEST_CLASS_NAME + ".class").toPath());
+    }
+
+    @Test
+    public void measure() {
+        assertNotNull(coverage);
+        assertTrue(coverage.getProbes() > 0);
+        for (UnitTest test : tests) {
+            assertFalse(coverage.getProbesHit(test).isEmpty());
+        }
+    }
+
+    @Test
+    public void selectsCoveringTests() {
+
+        Patch patch = new Patch(sourceFileLine);
+        patch.add(new DeleteLine(sourceFileLine.getFilename(), EQUALATERAL_LINE));
+        assertEquals(Collections.singletonList(equalateral), coverage.selectTests(patch, tests));
+
+        patch.add(new DeleteLine(sourceFileLine.getFilename(), DELAY_LINE));
+        assertEquals(tests, coverage.selectTests(patch, tests));
+
+    }
+
+    @Test
+    public void selectsAllTestsOutsideTargetMethod() {
+        Patch patch = new Patch(sourceFileLine);
+        assertEquals(tests, coverage.selectTests(patch, tests));
+        patch.add(new DeleteLine(sourceFileLine.getFilename(), SLEEP_LINE));
+        assertEquals(tests, coverage.selectTests(patch, tests));
+    }
+
+    @Test
+    public void selectsCoveringTestsForStatementEdit() {
+
+        SourceFileTree sourceFileTree = new SourceFileTree(sourceFile.getPath(), Collections.singletonList(METHOD_NAME));
+        int statement = -1;
+        for (int ID : sourceFileTree.getStatementIDsInTargetMethod()) {
+            if (sourceFileTree.getNodeRange(ID).begin.line == EQUALATERAL_LINE) {
+                statement = ID;
+            }
+        }
+
+        Patch patch = new Patch(sourceFileTree);
+        patch.add(new DeleteStatement(sourceFileTree.getFilename(), statement));
+        assertEquals(Collections.singletonList(equalateral), coverage.selectTests(patch, tests));
+
+    }
+
+}
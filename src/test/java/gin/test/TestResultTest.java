@@ -14,7 +14,7 @@ public class TestResultTest {
     private static final String patchedProgram = "public class SimpleExample() { }";
     private static final String expectedToString = "UnitTestResult ExampleClass.exampleMethod []. " + "Rep number: 0; " +
             "Passed: true; Timed out: false; Exception Type: N/A; Exception Message: N/A; Assertion Expected: N/A" +
-            "; Assertion Actual: N/A; Execution Time: 0; CPU Time: 0;";
+            "; Assertion Actual: N/A; Execution Time: 0; CPU Time: 0; Allocated Bytes: 0; Peak Heap Bytes: 0; GC Count: 0;";
 
     @Before
     public void setUp() throws Exception {
@@ -36,4 +36,17 @@ public class TestResultTest {
         assertEquals(expectedToString, actual);
     }
 
+    @Test
+    public void testFromString() throws Exception {
+        testResult.setCPUTime(17);
+        testResult.setAllocatedBytes(4096);
+        testResult.setPeakHeapBytes(1 << 20);
+        testResult.setGCCount(2);
+        UnitTestResult parsed = UnitTestResult.fromString(testResult.toString(), UnitTest.defaultTimeoutMS);
+        assertEquals(testResult.toString(), parsed.toString());
+        assertEquals(4096, parsed.getAllocatedBytes());
+        assertEquals(1 << 20, parsed.getPeakHeapBytes());
+        assertEquals(2, parsed.getGCCount());
+    }
+
 }
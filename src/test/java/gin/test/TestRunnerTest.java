@@ -107,6 +107,118 @@ public class TestRunnerTest {
 
     }
 
+    @Test
+    public void testSharedClassLoader() {
+
+        internalTestRunner.setSharedClassLoader(true);
+
+        Patch deletePatch = new Patch(sourceFileLine);
+        deletePatch.add(new DeleteLine(sourceFile.getAbsolutePath(), 7)); // deletes result=10 hence introducing a bug
+
+        assertFalse(internalTestRunner.runTests(deletePatch, 1).allTestsSuccessful());
+
+        // the unpatched class isn't left behind in the shared loader
+        assertTrue(internalTestRunner.runTests(new Patch(sourceFileLine), 1).allTestsSuccessful());
+
+    }
+
+    @Test
+    public void testBenchmark() {
+
+        internalTestRunner.setBenchmark(new Benchmark(2, 3, 6, 0.05, 0.95, 0.05));
+
+        UnitTestResultSet resultSet = internalTestRunner.runTests(new Patch(sourceFileLine), 1);
+
+        assertTrue(resultSet.allTestsSuccessful());
+        int rounds = resultSet.getSamples().size();
+        assertTrue(rounds >= 3 && rounds <= 6);
+        assertEquals(rounds, resultSet.getResults().size()); // warmup rounds aren't kept
+
+    }
+
+    @Test
+    public void testKillMatrix() {
+
+        UnitTest first = new UnitTest(fullTestClassName, otherTestMethodName);
+        UnitTest second = new UnitTest(fullTestClassName, testMethodName);
+        LinkedList<UnitTest> tests = new LinkedList<>();
+        tests.add(first);
+        tests.add(second);
+
+        internalTestRunner = new InternalTestRunner(fullClassName, TestConfiguration.EXAMPLE_DIR_NAME, tests);
+        KillMatrix killMatrix = new KillMatrix();
+        internalTestRunner.setKillMatrix(killMatrix);
+        String target = KillMatrix.key(fullClassName, sourceFileLine.getTargetMethodNames());
+
+        Patch deletePatch = new Patch(sourceFileLine);
+        deletePatch.add(new DeleteLine(sourceFile.getAbsolutePath(), 7)); // deletes result=10 hence introducing a bug
+
+        // stops at the first test, which kills the patch
+        List<UnitTestResult> results = internalTestRunner.runTests(deletePatch, 1).getResults();
+        assertEquals(1, results.size());
+        assertEquals(first, results.get(0).getTest());
+        assertEquals(1, killMatrix.getRuns(target, first));
+        assertEquals(1.0, killMatrix.getKillRate(target, first), 0);
+        assertEquals(0, killMatrix.getRuns(target, second));
+
+        // the untried test goes first next time
+        results = internalTestRunner.runTests(new Patch(sourceFileLine), 1).getResults();
+        assertEquals(2, results.size());
+        assertEquals(second, results.get(0).getTest());
+        assertEquals(0.5, killMatrix.getKillRate(target, first), 0);
+
+        // in benchmark mode, only the first of the rounds is recorded
+        internalTestRunner.setBenchmark(new Benchmark(2, 3, 6, 0.05, 0.95, 0.05));
+        assertTrue(internalTestRunner.runTests(new Patch(sourceFileLine), 1).allTestsSuccessful());
+        assertEquals(3, killMatrix.getRuns(target, first));
+        assertEquals(2, killMatrix.getRuns(target, second));
+
+    }
+
+    @Test
+    public void testRacing() {
+
+        LinkedList<UnitTest> tests = new LinkedList<>();
+        tests.add(new UnitTest(fullTestClassName, testMethodName));
+        tests.add(new UnitTest(fullTestClassName, otherTestMethodName));
+        internalTestRunner = new InternalTestRunner(fullClassName, TestConfiguration.EXAMPLE_DIR_NAME, tests);
+        internalTestRunner.setFitnessCache(new FitnessCache(10));
+
+        // loses the race as soon as the first test has run
+        UnitTestResultSet resultSet = internalTestRunner.runTests(new Patch(sourceFileLine), 2, 1);
+        assertTrue(resultSet.getDominated());
+        assertEquals(1, resultSet.getResults().size());
+
+        // the partial results weren't cached
+        resultSet = internalTestRunner.runTests(new Patch(sourceFileLine), 2, 0);
+        assertFalse(resultSet.getDominated());
+        assertEquals(4, resultSet.getResults().size());
+
+        resultSet = internalTestRunner.runTests(new Patch(sourceFileLine), 2, Long.MAX_VALUE);
+        assertFalse(resultSet.getDominated());
+        assertEquals(4, resultSet.getResults().size());
+
+    }
+
+    @Test
+    public void testPatchValidation() {
+
+        internalTestRunner.setPatchValidation(true);
+
+        Patch deletePatch = new Patch(sourceFileLine);
+        deletePatch.add(new DeleteLine(sourceFile.getAbsolutePath(), 6)); // deletes the declaration of flag
+
+        UnitTestResultSet resultSet = internalTestRunner.runTests(deletePatch, 1);
+        assertFalse(resultSet.getCleanCompile());
+        assertEquals(PatchValidator.Failure.UNDECLARED_VARIABLE, resultSet.getValidationFailure());
+        assertEquals(0, resultSet.getCompileTimeNS());
+
+        resultSet = internalTestRunner.runTests(new Patch(sourceFileLine), 1);
+        assertTrue(resultSet.getCleanCompile());
+        assertEquals(null, resultSet.getValidationFailure());
+
+    }
+
     @Test
     public void testPatchWorks() {
 
@@ -164,6 +164,38 @@ public class DeleteEnumeratorTest {
         Files.deleteIfExists(outputFile.toPath());  // tidy up
     }
 
+    @Test
+    public void testSchemata() throws Exception {
+
+        enumerator.sampleMethods();
+        List<String> expected = outcomes();
+
+        DeleteEnumerator schemaEnumerator = new DeleteEnumerator(resourcesDir, methodFile);
+        schemaEnumerator.outputFile = outputFile;
+        schemaEnumerator.classPath = resourcesDir.getPath();
+        schemaEnumerator.schemata = true;
+        schemaEnumerator.setUp();
+        schemaEnumerator.sampleMethods();
+
+        // result = 20 and result = 10 are guarded in the schema, and their deletions give the same outcomes
+        assertEquals(expected, outcomes());
+        Files.deleteIfExists(outputFile.toPath());  // tidy up
+
+    }
+
+    private List<String> outcomes() throws IOException {
+        List<String> outcomes = new ArrayList<>();
+        try (FileReader fileReader = new FileReader(outputFile)) {
+            List<String[]> lines = new CSVReader(fileReader).readAll();
+            List<String> header = Arrays.asList(lines.get(0));
+            for (String[] line : lines.subList(1, lines.size())) {
+                outcomes.add(line[header.indexOf("Patch")] + " " + line[header.indexOf("PatchValid")] + " "
+                        + line[header.indexOf("PatchCompiled")] + " " + line[header.indexOf("TestPassed")]);
+            }
+        }
+        return outcomes;
+    }
+
     @After
     public void tearDown() throws Exception {
         File resourcesDir = new File(TestConfiguration.EXAMPLE_DIR_NAME);
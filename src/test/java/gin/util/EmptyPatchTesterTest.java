@@ -8,8 +8,10 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Map;
 
 import javax.tools.JavaCompiler;
 import javax.tools.JavaFileObject;
@@ -24,6 +26,7 @@ import org.junit.Test;
 import com.opencsv.CSVReader;
 
 import gin.TestConfiguration;
+import gin.test.UnitTest;
 
 public class EmptyPatchTesterTest {
 
@@ -198,6 +201,45 @@ public class EmptyPatchTesterTest {
 
     }
 
+    @Test
+    public void testAdaptiveTimeouts() throws Exception {
+
+        File outputFile = new File(packageDir, "empty_patch_results.csv");
+        File timeoutMethodFile = new File(packageDir, "profiler_timeouts.csv");
+
+        EmptyPatchTester sampler = new EmptyPatchTester(resourcesDir, methodFile);
+        sampler.classPath = resourcesDir.getPath();
+        sampler.outputFile = outputFile;
+        sampler.adaptiveTimeouts = true;
+        sampler.timeoutMethodFile = timeoutMethodFile;
+        sampler.setUp();
+        sampler.sampleMethods();
+
+        Map<UnitTest, Long> timeouts = new HashMap<>();
+        for (UnitTest test : sampler.testData) {
+            assertTrue(test.getTimeoutMS() >= sampler.bufferTimeMS);
+            assertTrue(test.getTimeoutMS() <= sampler.timeoutMS);
+            timeouts.put(test, test.getTimeoutMS());
+        }
+        assertEquals(3, timeouts.size());
+
+        // the timeouts are read back from the method file written
+        EmptyPatchTester reloaded = new EmptyPatchTester(resourcesDir, timeoutMethodFile);
+        reloaded.classPath = resourcesDir.getPath();
+        reloaded.setUp();
+
+        assertEquals(2, reloaded.methodData.size());
+        for (Sampler.TargetMethod method : reloaded.methodData) {
+            for (UnitTest test : method.getGinTests()) {
+                assertEquals(timeouts.get(test).longValue(), test.getTimeoutMS());
+            }
+        }
+
+        Files.deleteIfExists(outputFile.toPath());  // tidy up
+        Files.deleteIfExists(timeoutMethodFile.toPath());
+
+    }
+
     @Test
     public void testCreateOutputDirectory() throws Exception {
 
@@ -0,0 +1,41 @@
+package gin.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import gin.TestConfiguration;
+
+public class GPIslandsTest {
+
+    @Test
+    public void testIslandCommand() {
+
+        File resourcesDir = new File(TestConfiguration.EXAMPLE_DIR_NAME);
+        File methodFile = new File(resourcesDir, "mypackage/profiler_results.csv");
+        String[] args = {"-d", resourcesDir.getPath(), "-m", methodFile.getPath(), "-cp", resourcesDir.getPath(),
+                "-gn", "5", "-in", "8", "-o", "results.csv", "-rc",
+                "-gp", GPFix.class.getName(), "-il", "3", "-ii", "7", "-md", "migration"};
+
+        GPIslands launcher = new GPIslands(args);
+        assertEquals(3, (int) launcher.islands);
+        assertEquals(GPFix.class.getName(), launcher.gpClass);
+
+        List<String> command = launcher.islandCommand(1);
+        List<String> gpArgs = command.subList(command.indexOf(GPFix.class.getName()) + 1, command.size());
+
+        // the GP's own arguments are passed on unchanged, then those of the island
+        List<String> expected = Arrays.asList("-d", resourcesDir.getPath(), "-m", methodFile.getPath(), "-cp", resourcesDir.getPath(),
+                "-gn", "5", "-in", "8", "-o", "results.csv", "-rc",
+                "-il", "3", "-ii", "1", "-md", new File("migration").getAbsolutePath());
+        assertEquals(expected, gpArgs);
+        assertTrue(command.get(0).endsWith("java"));
+
+    }
+
+}
@@ -0,0 +1,103 @@
+package gin.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.opencsv.CSVReader;
+
+import gin.TestConfiguration;
+import gin.test.Compiler;
+
+public class GPMultiObjectiveTest {
+
+    File outputFile;
+
+    @After
+    public void tearDown() {
+        if (outputFile != null) {
+            outputFile.delete();
+        }
+    }
+
+    @Test
+    public void testNonDominatedSort() {
+
+        List<long[]> points = Arrays.asList(
+                new long[] {1, 5, 0},
+                new long[] {2, 2, 0},
+                new long[] {5, 1, 0},
+                new long[] {3, 3, 0},
+                new long[] {6, 6, 0});
+
+        List<List<Integer>> fronts = GPMultiObjective.nonDominatedSort(points);
+
+        assertEquals(3, fronts.size());
+        assertEquals(Arrays.asList(0, 1, 2), fronts.get(0));
+        assertEquals(Arrays.asList(3), fronts.get(1));
+        assertEquals(Arrays.asList(4), fronts.get(2));
+
+    }
+
+    @Test
+    public void testCrowdingDistance() {
+
+        List<long[]> points = Arrays.asList(
+                new long[] {0, 10},
+                new long[] {1, 9},
+                new long[] {5, 5},
+                new long[] {10, 0});
+
+        double[] distance = GPMultiObjective.crowdingDistance(points, Arrays.asList(0, 1, 2, 3));
+
+        assertTrue(Double.isInfinite(distance[0]));
+        assertTrue(Double.isInfinite(distance[3]));
+        assertEquals(0.5 + 0.5, distance[1], 1e-9);
+        assertEquals(0.9 + 0.9, distance[2], 1e-9);
+
+    }
+
+    @Test
+    public void testArchiveWrittenEachGeneration() throws IOException {
+
+        File resourcesDir = new File(TestConfiguration.EXAMPLE_DIR_NAME);
+        File packageDir = new File(resourcesDir, "mypackage");
+        Compiler.compileFile(new File(packageDir, "ExampleBase.java"), resourcesDir.getPath());
+        Compiler.compileFile(new File(packageDir, "Example.java"), resourcesDir.getPath());
+        Compiler.compileFile(new File(packageDir, "ExampleTest.java"), resourcesDir.getPath());
+
+        outputFile = File.createTempFile("gp_mo_results", ".csv");
+
+        GPMultiObjective gp = new GPMultiObjective(resourcesDir, new File(packageDir, "profiler_results.csv"));
+        gp.outputFile = outputFile;
+        gp.classPath = resourcesDir.getPath();
+        gp.genNumber = 2;
+        gp.indNumber = 4;
+        gp.mutationRng = new Random(123);
+        gp.individualRng = new Random(123);
+        gp.setUp();
+        gp.sampleMethods();
+
+        try (CSVReader reader = new CSVReader(new FileReader(outputFile))) {
+            List<String[]> lines = reader.readAll();
+
+            assertEquals("Generation", lines.get(0)[0]);
+            assertEquals(6, lines.get(0).length);
+
+            // the archive is written for every generation, from the initial population of the original and its mutants
+            assertEquals("0", lines.get(1)[0]);
+            assertEquals("2", lines.get(lines.size() - 1)[0]);
+        }
+
+    }
+
+}
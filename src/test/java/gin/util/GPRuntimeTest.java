@@ -0,0 +1,113 @@
+package gin.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.opencsv.CSVReader;
+
+import gin.Patch;
+import gin.SourceFile;
+import gin.TestConfiguration;
+import gin.test.Compiler;
+
+public class GPRuntimeTest {
+
+    File resourcesDir = new File(TestConfiguration.EXAMPLE_DIR_NAME);
+    File packageDir = new File(resourcesDir, "mypackage");
+    File methodFile = new File(packageDir, "profiler_results.csv");
+    File outputFile;
+
+    GPRuntime gp;
+
+    @Before
+    public void setUp() throws IOException {
+
+        Compiler.compileFile(new File(packageDir, "ExampleBase.java"), resourcesDir.getPath());
+        Compiler.compileFile(new File(packageDir, "Example.java"), resourcesDir.getPath());
+        Compiler.compileFile(new File(packageDir, "ExampleTest.java"), resourcesDir.getPath());
+
+        outputFile = File.createTempFile("gp_results", ".csv");
+
+        gp = new GPRuntime(resourcesDir, methodFile);
+        configure(gp);
+
+    }
+
+    private void configure(GPRuntime gp) {
+        gp.outputFile = outputFile;
+        gp.classPath = resourcesDir.getPath();
+        gp.genNumber = 2;
+        gp.indNumber = 4;
+        gp.mutationRng = new Random(123);
+        gp.individualRng = new Random(123);
+        gp.setUp();
+    }
+
+    @After
+    public void tearDown() {
+        outputFile.delete();
+    }
+
+    @Test
+    public void testSteadyStateTestsBudget() throws Exception {
+
+        gp.steadyState = true;
+        gp.evaluationThreads = 3;
+        gp.sampleMethods();
+
+        try (CSVReader reader = new CSVReader(new FileReader(outputFile))) {
+            List<String[]> lines = reader.readAll();
+
+            // header, the original code, then genNumber * indNumber patches
+            assertEquals(1 + 1 + 8, lines.size());
+
+            int patchIndex = Arrays.asList(lines.get(0)).indexOf("Patch");
+            int passedIndex = Arrays.asList(lines.get(0)).indexOf("AllTestsPassed");
+            assertEquals("|", lines.get(1)[patchIndex].trim());
+            assertEquals("true", lines.get(1)[passedIndex]);
+        }
+
+    }
+
+    @Test
+    public void testSteadyStatePopulation() throws Exception {
+
+        List<Map<Patch, Long>> populations = new ArrayList<>();
+        gp = new GPRuntime(resourcesDir, methodFile) {
+            @Override
+            protected Patch breed(Map<Patch, Long> population, SourceFile sourceFile) {
+                populations.add(new LinkedHashMap<>(population));
+                return super.breed(population, sourceFile);
+            }
+        };
+        configure(gp);
+        gp.steadyState = true;
+        gp.genNumber = 4;
+        gp.indNumber = 2;
+        gp.sampleMethods();
+
+        // one patch bred for each of the budget of genNumber * indNumber
+        assertEquals(8, populations.size());
+        Patch origPatch = populations.get(0).keySet().iterator().next();
+        for (Map<Patch, Long> population : populations) {
+            assertTrue(population.size() <= 2);
+            assertTrue(population.containsKey(origPatch));
+        }
+
+    }
+
+}
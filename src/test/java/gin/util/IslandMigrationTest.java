@@ -0,0 +1,86 @@
+package gin.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import gin.Patch;
+import gin.SourceFile;
+import gin.SourceFileLine;
+import gin.TestConfiguration;
+import gin.edit.line.DeleteLine;
+
+public class IslandMigrationTest {
+
+    private File sourceFile = new File(TestConfiguration.EXAMPLE_DIR, "mypackage/Simple.java");
+    private SourceFile sf;
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        sf = new SourceFileLine(sourceFile, "returnsTrue()");
+        directory = Files.createTempDirectory("gin-migration-test").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testMigration() throws IOException {
+
+        IslandMigration island0 = new IslandMigration(directory, 0, 2);
+        IslandMigration island1 = new IslandMigration(directory, 1, 2);
+        String key = IslandMigration.key("mypackage.Simple", sf);
+
+        assertTrue(island1.immigrate(key, sf).isEmpty());
+
+        Patch patch = new Patch(sf);
+        patch.add(new DeleteLine(sourceFile.getPath(), 5));
+        Map<Patch, Long> emigrants = new LinkedHashMap<>();
+        emigrants.put(patch, 42L);
+        island0.emigrate(key, 5, emigrants);
+
+        // an island doesn't receive its own patches
+        assertTrue(island0.immigrate(key, sf).isEmpty());
+
+        Map<Patch, Long> immigrants = island1.immigrate(key, sf);
+        assertEquals(1, immigrants.size());
+        Map.Entry<Patch, Long> immigrant = immigrants.entrySet().iterator().next();
+        assertEquals(patch.toString(), immigrant.getKey().toString());
+        assertTrue(immigrant.getKey().getSourceFile() == sf);
+        assertEquals(Long.valueOf(42), immigrant.getValue());
+
+        // each emigrant is received once, until the next generation is sent
+        assertTrue(island1.immigrate(key, sf).isEmpty());
+        island0.emigrate(key, 10, emigrants);
+        assertEquals(1, island1.immigrate(key, sf).size());
+
+        // and only by searches of the same target methods
+        assertTrue(island1.immigrate("mypackage.Simple.[other()]", sf).isEmpty());
+
+    }
+
+    @Test
+    public void testIslandOutputFile() {
+        assertEquals("results_island3.csv", IslandMigration.islandOutputFile(new File("results.csv"), 3).getName());
+        assertEquals("results_island0", IslandMigration.islandOutputFile(new File("results"), 0).getName());
+    }
+
+}
@@ -0,0 +1,59 @@
+package gin.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import gin.Patch;
+import gin.SourceFile;
+import gin.SourceFileLine;
+import gin.TestConfiguration;
+
+public class ParetoArchiveTest {
+
+    private SourceFile sf;
+
+    @Before
+    public void setUp() {
+        sf = new SourceFileLine(new File(TestConfiguration.EXAMPLE_DIR, "mypackage/Simple.java"), "returnsTrue()");
+    }
+
+    @Test
+    public void testDominates() {
+        assertTrue(ParetoArchive.dominates(new long[] {1, 2, 3}, new long[] {1, 2, 4}));
+        assertFalse(ParetoArchive.dominates(new long[] {1, 2, 3}, new long[] {1, 2, 3}));
+        assertFalse(ParetoArchive.dominates(new long[] {1, 2, 5}, new long[] {2, 2, 3}));
+        assertFalse(ParetoArchive.dominates(new long[] {2, 2, 3}, new long[] {1, 2, 5}));
+    }
+
+    @Test
+    public void testAdd() {
+
+        ParetoArchive archive = new ParetoArchive();
+        Patch a = new Patch(sf);
+        Patch b = new Patch(sf);
+        Patch c = new Patch(sf);
+        Patch d = new Patch(sf);
+
+        assertTrue(archive.add(a, new long[] {10, 10, 10}));
+        assertTrue(archive.add(b, new long[] {5, 20, 10}));
+        assertEquals(2, archive.size());
+
+        // dominated, or the same as one kept
+        assertFalse(archive.add(c, new long[] {10, 20, 10}));
+        assertFalse(archive.add(c, new long[] {5, 20, 10}));
+        assertEquals(2, archive.size());
+
+        // dominates both
+        assertTrue(archive.add(d, new long[] {5, 10, 10}));
+        assertEquals(1, archive.size());
+        assertTrue(archive.getPatches().get(0) == d);
+
+    }
+
+}
@@ -10,6 +10,7 @@ import java.nio.file.Files;
 import java.util.Arrays;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Random;
 
 import javax.tools.JavaCompiler;
 import javax.tools.JavaFileObject;
@@ -22,7 +23,11 @@ import org.junit.Test;
 
 import com.opencsv.CSVReader;
 
+import gin.Patch;
+import gin.SourceFile;
 import gin.TestConfiguration;
+import gin.edit.Edit.EditType;
+import gin.test.UnitTestResultSet;
 
 public class RandomSamplerTest {
 
@@ -162,6 +167,48 @@ public class RandomSamplerTest {
 
     }
 
+    @Test
+    public void testPatchesInParallel() throws Exception {
+
+        Sampler.TargetMethod method = sampler.methodData.get(0);
+
+        List<UnitTestResultSet> sequential = sampler.testPatches(method.getClassName(), method.getGinTests(), randomPatches(method));
+
+        sampler.evaluationThreads = 4;
+        List<Patch> patches = randomPatches(method);
+        List<UnitTestResultSet> parallel = sampler.testPatches(method.getClassName(), method.getGinTests(), patches);
+        sampler.close();
+
+        // the same outcomes, in the order the patches were submitted
+        assertEquals(sequential.size(), parallel.size());
+        for (int i = 0; i < parallel.size(); i++) {
+            assertTrue(parallel.get(i).getPatch() == patches.get(i));
+            assertEquals(sequential.get(i).getPatch().toString(), parallel.get(i).getPatch().toString());
+            assertEquals(sequential.get(i).getCleanCompile(), parallel.get(i).getCleanCompile());
+            assertEquals(sequential.get(i).getResults().size(), parallel.get(i).getResults().size());
+            for (int t = 0; t < parallel.get(i).getResults().size(); t++) {
+                assertEquals(sequential.get(i).getResults().get(t).getTest(), parallel.get(i).getResults().get(t).getTest());
+                assertEquals(sequential.get(i).getResults().get(t).getPassed(), parallel.get(i).getResults().get(t).getPassed());
+            }
+        }
+        assertTrue(parallel.get(0).allTestsSuccessful()); // the empty patch
+
+    }
+
+    // The empty patch, then single random line edits; new instances every call, as applying a patch records state on it
+    private static List<Patch> randomPatches(Sampler.TargetMethod method) {
+        List<Patch> patches = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            SourceFile sourceFile = SourceFile.makeSourceFileForEditType(EditType.LINE, method.getFileSource().getPath(), method.getMethodName());
+            Patch patch = new Patch(sourceFile);
+            if (i > 0) {
+                patch.addRandomEdit(new Random(i), EditType.LINE);
+            }
+            patches.add(patch);
+        }
+        return patches;
+    }
+
     @After
     public void tearDown() throws Exception {
         File resourcesDir = new File(TestConfiguration.EXAMPLE_DIR_NAME);